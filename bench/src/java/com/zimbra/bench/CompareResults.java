@@ -0,0 +1,121 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.bench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Compares two JMH JSON result files and fails if any benchmark got slower than the
+ * baseline by more than the given percentage, after allowing for both runs' error margins.
+ * <pre>
+ *   CompareResults baseline.json current.json [threshold-percent]
+ * </pre>
+ */
+public final class CompareResults {
+    private static final double DEFAULT_THRESHOLD = 10.0;
+
+    private static final class Score {
+        final double value;
+        final double error;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(JSONObject result) throws JSONException {
+            JSONObject primary = result.getJSONObject("primaryMetric");
+            value = primary.getDouble("score");
+            double err = primary.optDouble("scoreError");
+            error = Double.isNaN(err) ? 0 : err;
+            unit = primary.getString("scoreUnit");
+            higherIsBetter = "thrpt".equals(result.getString("mode"));
+        }
+    }
+
+    private CompareResults() {
+    }
+
+    private static Map<String, Score> load(File file) throws Exception {
+        JSONArray results = new JSONArray(new String(ByteUtil.getContent(file), StandardCharsets.UTF_8));
+        Map<String, Score> scores = new LinkedHashMap<String, Score>();
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            StringBuilder key = new StringBuilder(result.getString("benchmark"));
+            JSONObject params = result.optJSONObject("params");
+            if (params != null) {
+                for (Iterator<?> it = params.sortedKeys(); it.hasNext(); ) {
+                    String name = (String) it.next();
+                    key.append(' ').append(name).append('=').append(params.getString(name));
+                }
+            }
+            scores.put(key.toString(), new Score(result));
+        }
+        return scores;
+    }
+
+    /** Returns the change relative to the baseline in percent, positive meaning slower. */
+    private static double regression(Score base, Score cur) {
+        // only count the part of the difference that both runs' error margins can't explain
+        double delta = cur.value - base.value;
+        double noise = base.error + cur.error;
+        if (Math.abs(delta) <= noise) {
+            return 0;
+        }
+        delta -= Math.signum(delta) * noise;
+        double pct = delta * 100 / base.value;
+        return cur.higherIsBetter ? -pct : pct;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: CompareResults <baseline.json> <current.json> [threshold-percent]");
+            System.exit(2);
+        }
+        Map<String, Score> baseline = load(new File(args[0]));
+        Map<String, Score> current = load(new File(args[1]));
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        int failures = 0;
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score base = baseline.get(entry.getKey());
+            Score cur = entry.getValue();
+            if (base == null || !base.unit.equals(cur.unit)) {
+                System.out.printf("%-80s %12.3f %-8s (no baseline)%n", entry.getKey(), cur.value, cur.unit);
+                continue;
+            }
+            double pct = regression(base, cur);
+            boolean failed = pct > threshold;
+            if (failed) {
+                failures++;
+            }
+            System.out.printf("%-80s %12.3f -> %12.3f %-8s %+6.1f%%%s%n", entry.getKey(), base.value, cur.value,
+                    cur.unit, pct, failed ? "  REGRESSION" : "");
+        }
+        if (failures > 0) {
+            System.out.printf("%d benchmark(s) regressed by more than %.1f%%%n", failures, threshold);
+            System.exit(1);
+        }
+    }
+}
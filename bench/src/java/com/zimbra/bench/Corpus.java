@@ -0,0 +1,108 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Locates the checked-in benchmark corpora.
+ * <p>
+ * Everything under {@code bench/data} is read from the directory named by the
+ * {@value #DIR_PROPERTY} system property.  MIME benchmarks use the real messages in
+ * {@code store/data/TestMailRaw}, or the directory named by {@value #MIME_DIR_PROPERTY}.
+ * Files are always returned in the same order so that runs are comparable.
+ */
+public final class Corpus {
+    public static final String DIR_PROPERTY = "zimbra.bench.corpus";
+    public static final String MIME_DIR_PROPERTY = "zimbra.bench.mime";
+
+    private Corpus() {
+    }
+
+    public static File getDirectory() {
+        return new File(System.getProperty(DIR_PROPERTY, "data"));
+    }
+
+    public static File getMimeDirectory() {
+        String dir = System.getProperty(MIME_DIR_PROPERTY);
+        if (dir == null) {
+            dir = System.getProperty("server.dir", "../store") + "/data/TestMailRaw";
+        }
+        return new File(dir);
+    }
+
+    public static File getFile(String path) throws IOException {
+        File file = new File(getDirectory(), path);
+        if (!file.isFile()) {
+            throw new IOException("benchmark corpus file not found: " + file.getAbsolutePath());
+        }
+        return file;
+    }
+
+    public static String readString(String path) throws IOException {
+        return new String(ByteUtil.getContent(getFile(path)), StandardCharsets.UTF_8);
+    }
+
+    /** Returns the non-blank lines of a corpus file, skipping {@code #} comments. */
+    public static List<String> readLines(String path) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (String line : readString(path).split("\r?\n")) {
+            if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /** Returns the raw content of every message in the MIME corpus, ordered by file name. */
+    public static List<byte[]> readMessages() throws IOException {
+        File dir = getMimeDirectory();
+        File[] files = dir.listFiles();
+        if (files == null || files.length == 0) {
+            throw new IOException("no messages found in " + dir.getAbsolutePath());
+        }
+        Arrays.sort(files, BY_NAME);
+        List<byte[]> messages = new ArrayList<byte[]>(files.length);
+        for (File file : files) {
+            if (file.isFile()) {
+                messages.add(ByteUtil.getContent(file));
+            }
+        }
+        return Collections.unmodifiableList(messages);
+    }
+
+    /** TestMailRaw uses numeric file names; sort those numerically and everything else by name. */
+    private static final Comparator<File> BY_NAME = new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+            String n1 = f1.getName(), n2 = f2.getName();
+            if (n1.matches("\\d+") && n2.matches("\\d+")) {
+                return Long.compare(Long.parseLong(n1), Long.parseLong(n2));
+            }
+            return n1.compareTo(n2);
+        }
+    };
+}
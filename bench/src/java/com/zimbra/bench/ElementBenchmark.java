@@ -0,0 +1,117 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.W3cDomUtil;
+import com.zimbra.common.util.Utf8Appendable;
+
+/**
+ * Serializes captured SOAP responses from {@code data/soap} as XML and as JSON, which is
+ * what the SOAP servlet does for every response it sends.
+ * <p>
+ * The {@code stream} benchmarks write through the bounded buffer the servlet uses, the
+ * {@code toUTF8} ones build the whole response first.  Run with {@code -prof gc} and compare
+ * {@code gc.alloc.rate.norm} to see the garbage each approach leaves per response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementBenchmark {
+    @Param({"SearchResponse", "GetMsgResponse", "GetFolderResponse"})
+    public String response;
+
+    private Element xml;
+    private Element json;
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        String doc = Corpus.readString("soap/" + response + ".xml");
+        xml = W3cDomUtil.parseXML(doc, Element.XMLElement.mFactory);
+        json = W3cDomUtil.parseXML(doc, Element.JSONElement.mFactory);
+    }
+
+    @Benchmark
+    public String toXML() {
+        return xml.toString();
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return json.toString();
+    }
+
+    @Benchmark
+    public org.dom4j.Element toDom4j() {
+        return xml.toXML();
+    }
+
+    @Benchmark
+    public byte[] toUTF8XML() {
+        return xml.toUTF8();
+    }
+
+    @Benchmark
+    public byte[] toUTF8JSON() {
+        return json.toUTF8();
+    }
+
+    @Benchmark
+    public long streamXML() throws IOException {
+        return stream(xml);
+    }
+
+    @Benchmark
+    public long streamJSON() throws IOException {
+        return stream(json);
+    }
+
+    private long stream(Element elt) throws IOException {
+        Utf8Appendable out = new Utf8Appendable(sink, 5120);
+        elt.output(out);
+        out.flush();
+        return out.getBytesWritten();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.mailbox.Metadata;
+
+/**
+ * Encodes and decodes the item metadata in {@code data/metadata/items.txt}: messages,
+ * conversations, folders with ACLs and contacts.  Each invocation processes the whole corpus.
+ * <p>
+ * {@code format} selects the row format: {@code legacy} is BEncoding, {@code compact} is the
+ * encoding written when {@code zimbra_metadata_compact_format} is on.  {@code decode} reads the
+ * handful of fields a typical cache load touches; {@code decodeAll} materializes every field.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+    @Param({"legacy", "compact"})
+    public String format;
+
+    private List<String> encoded;
+    private List<Metadata> decoded;
+    private boolean compact;
+
+    @Setup
+    public void setUp() throws Exception {
+        compact = "compact".equals(format);
+        List<String> rows = Corpus.readLines("metadata/items.txt");
+        encoded = new ArrayList<String>(rows.size());
+        decoded = new ArrayList<Metadata>(rows.size());
+        long chars = 0;
+        for (String row : rows) {
+            String md = compact ? Metadata.toCompact(row) : row;
+            encoded.add(md);
+            decoded.add(new Metadata(md));
+            chars += md.length();
+        }
+        System.out.printf("%n%s: %d rows, %d chars/row%n", format, rows.size(), chars / Math.max(1, rows.size()));
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) throws ServiceException {
+        for (String row : encoded) {
+            Metadata md = new Metadata(row);
+            bh.consume(md.getLong(Metadata.FN_MODSEQ, 0));
+            bh.consume(md.getLong(Metadata.FN_TOTAL_SIZE, 0));
+            bh.consume(md.get(Metadata.FN_FRAGMENT, null));
+        }
+    }
+
+    @Benchmark
+    public void decodeAll(Blackhole bh) throws ServiceException {
+        for (String row : encoded) {
+            bh.consume(new Metadata(row).asMap());
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole bh) {
+        for (Metadata md : decoded) {
+            bh.consume(compact ? md.toCompactString() : md.toString());
+        }
+    }
+}
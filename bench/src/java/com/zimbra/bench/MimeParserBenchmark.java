@@ -0,0 +1,78 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.zimbra.common.zmime.ZMimeMessage;
+import com.zimbra.cs.mime.Mime;
+
+/**
+ * Parses every message of the MIME corpus with {@code ZMimeParser}, by way of the
+ * {@link ZMimeMessage} stream constructor.  {@code parseAndWalk} also walks the part tree
+ * the way message delivery does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MimeParserBenchmark {
+    private List<byte[]> messages;
+    private Session session;
+
+    @Setup
+    public void setUp() throws Exception {
+        messages = Corpus.readMessages();
+        session = Session.getInstance(new Properties());
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws MessagingException {
+        for (byte[] raw : messages) {
+            bh.consume(new ZMimeMessage(session, new SharedByteArrayInputStream(raw)));
+        }
+    }
+
+    @Benchmark
+    public void parseAndWalk(Blackhole bh) throws IOException, MessagingException {
+        for (byte[] raw : messages) {
+            ZMimeMessage mm = new ZMimeMessage(session, new SharedByteArrayInputStream(raw));
+            bh.consume(Mime.getParts(mm));
+        }
+    }
+}
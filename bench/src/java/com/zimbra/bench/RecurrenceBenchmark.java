@@ -0,0 +1,129 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.bench;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.zimbra.common.calendar.ICalTimeZone;
+import com.zimbra.common.calendar.ParsedDateTime;
+import com.zimbra.common.calendar.ParsedDuration;
+import com.zimbra.common.calendar.TimeZoneMap;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.calendar.Recurrence;
+import com.zimbra.cs.mailbox.calendar.ZRecur;
+
+/**
+ * Expands the recurrence rules in {@code data/calendar/rrules.txt} over a calendar view
+ * window, both through {@link ZRecur} alone and through {@link Recurrence.SimpleRepeatingRule},
+ * which also builds the instance list the calendar code works with.  The {@code firstInstance}
+ * benchmarks compare finding the first instance in the window by full expansion and by the lazy
+ * instance iterator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecurrenceBenchmark {
+    /** Monday 2023-01-02 00:00 UTC, so that every rule in the corpus is active. */
+    private static final long WINDOW_START = 1672617600000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Param({"7", "31", "366"})
+    public int days;
+
+    private final List<ParsedDateTime> starts = new ArrayList<ParsedDateTime>();
+    private final List<ParsedDuration> durations = new ArrayList<ParsedDuration>();
+    private final List<ZRecur> rules = new ArrayList<ZRecur>();
+    private long windowEnd;
+
+    @Setup
+    public void setUp() throws Exception {
+        TimeZoneMap tzmap = new TimeZoneMap(ICalTimeZone.getUTC());
+        for (String line : Corpus.readLines("calendar/rrules.txt")) {
+            String[] fields = line.split("\\|");
+            starts.add(ParsedDateTime.parse(fields[0], tzmap));
+            rules.add(new ZRecur(fields[1], tzmap));
+            durations.add(ParsedDuration.parse(fields[2]));
+        }
+        windowEnd = WINDOW_START + days * DAY;
+    }
+
+    @Benchmark
+    public void expandRule(Blackhole bh) throws ServiceException {
+        for (int i = 0; i < rules.size(); i++) {
+            bh.consume(rules.get(i).expandRecurrenceOverRange(starts.get(i), WINDOW_START, windowEnd));
+        }
+    }
+
+    @Benchmark
+    public void expandInstances(Blackhole bh) throws ServiceException {
+        for (int i = 0; i < rules.size(); i++) {
+            bh.consume(newRule(i).expandInstances(i, WINDOW_START, windowEnd));
+        }
+    }
+
+    @Benchmark
+    public void iterateRule(Blackhole bh) throws ServiceException {
+        for (int i = 0; i < rules.size(); i++) {
+            for (Iterator<Date> iter = rules.get(i).iterateRecurrenceOverRange(starts.get(i), WINDOW_START, windowEnd);
+                    iter.hasNext(); ) {
+                bh.consume(iter.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void firstInstanceExpanded(Blackhole bh) throws ServiceException {
+        for (int i = 0; i < rules.size(); i++) {
+            List<Instance> instances = newRule(i).expandInstances(i, WINDOW_START, windowEnd);
+            bh.consume(instances.isEmpty() ? null : instances.get(0));
+        }
+    }
+
+    @Benchmark
+    public void firstInstanceIterated(Blackhole bh) throws ServiceException {
+        for (int i = 0; i < rules.size(); i++) {
+            Iterator<Instance> iter = newRule(i).instanceIterator(i, WINDOW_START, windowEnd);
+            bh.consume(iter.hasNext() ? iter.next() : null);
+        }
+    }
+
+    /** A fresh rule each time, since SimpleRepeatingRule caches its last expansions. */
+    private Recurrence.SimpleRepeatingRule newRule(int i) {
+        return new Recurrence.SimpleRepeatingRule(starts.get(i), durations.get(i), (ZRecur) rules.get(i).clone(), null);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Sequence set handling on a selected {@link ImapFolder}: UID lookups (binary search over
+ * the folder's sequence), sequence set normalization and expansion.  The folder is filled
+ * with messages whose UIDs have gaps, as they do after expunges.  Lives in the IMAP
+ * package because these methods are not public.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImapFolderBenchmark {
+    private static final int PROBES = 1024;
+
+    @Param({"1000", "50000"})
+    public int size;
+
+    private ImapFolder folder;
+    private final int[] probes = new int[PROBES];
+    private int lastUid;
+    private String scatteredSet;
+
+    @Setup
+    public void setUp() throws Exception {
+        MailboxTestUtil.initServer();
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, "5b3a1c2e-6f0d-4e3b-9a7c-8d1e2f3a4b5c");
+        Account acct = Provisioning.getInstance().createAccount("imapbench@zimbra.com", "secret", attrs);
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        folder = new ImapFolder(new ImapPath("INBOX", creds), (byte) 0, null);
+
+        Random random = new Random(size);
+        int uid = 100;
+        for (int i = 0; i < size; i++) {
+            uid += 1 + (random.nextInt(8) == 0 ? random.nextInt(20) : 0);
+            folder.cache(new ImapMessage(uid, MailItem.Type.MESSAGE, uid, 0, null), false);
+        }
+        lastUid = uid;
+        for (int i = 0; i < PROBES; i++) {
+            probes[i] = 100 + random.nextInt(lastUid - 100);
+        }
+
+        // the kind of set a client sends after a partial resync: singles and short ranges
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            int start = probes[i];
+            sb.append(sb.length() == 0 ? "" : ",").append(start);
+            if (i % 3 == 0) {
+                sb.append(':').append(start + random.nextInt(30));
+            }
+        }
+        scatteredSet = sb.toString();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PROBES)
+    public void uidLookup(Blackhole bh) {
+        for (int uid : probes) {
+            bh.consume(folder.getByImapId(uid));
+        }
+    }
+
+    @Benchmark
+    public String normalizeScatteredSet() {
+        return folder.cropSubsequence(scatteredSet, true, 1, lastUid);
+    }
+
+    @Benchmark
+    public Set<ImapMessage> scatteredUidSet() throws ImapParseException {
+        return folder.getSubsequence(null, scatteredSet, true);
+    }
+
+    @Benchmark
+    public Set<ImapMessage> allByUid() throws ImapParseException {
+        return folder.getSubsequence(null, "1:*", true);
+    }
+
+    @Benchmark
+    public Set<ImapMessage> allBySequence() throws ImapParseException {
+        return folder.getSubsequence(null, "1:*", false);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zimbra.common.util.Constants;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.imap.ImapMessage.ImapMessageSet;
+import com.zimbra.cs.index.query.Query;
+import com.zimbra.cs.index.query.parser.QueryParser;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * The SEARCH keys clients issue all the time, on a large selected folder.  {@code local}
+ * evaluates them against the folder's in-memory messages, as {@code ImapHandler} now does;
+ * {@code query} is what it used to do before the search even reached the database or
+ * Lucene: build the Zimbra query string (inlining the matching item ids for flag searches)
+ * and parse it.  Lives in the IMAP package because the search nodes are not public.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImapSearchBenchmark {
+    @Param({"100000"})
+    public int size;
+
+    @Param({"UNSEEN", "DELETED", "MODSEQ", "SINCE", "LARGER"})
+    public String key;
+
+    private Mailbox mbox;
+    private ImapFolder folder;
+    private ImapSearch search;
+
+    @Setup
+    public void setUp() throws Exception {
+        MailboxTestUtil.initServer();
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, "7c2e4a10-9b3d-4f6e-8a51-2d0c3b4e5f61");
+        Account acct = Provisioning.getInstance().createAccount("imapsearchbench@zimbra.com", "secret", attrs);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        folder = new ImapFolder(new ImapPath("INBOX", creds), (byte) 0, null);
+
+        // a mailbox that has been in use for years: mostly read, a few deleted, recent changes at the end
+        Random random = new Random(size);
+        long date = System.currentTimeMillis() - 5 * 365 * Constants.MILLIS_PER_DAY;
+        long step = 5 * 365 * Constants.MILLIS_PER_DAY / size;
+        int uid = 100;
+        for (int i = 0; i < size; i++) {
+            uid += 1 + (random.nextInt(8) == 0 ? random.nextInt(20) : 0);
+            int flags = random.nextInt(10) == 0 ? Flag.BITMASK_UNREAD : 0;
+            if (random.nextInt(50) == 0) {
+                flags |= Flag.BITMASK_DELETED;
+            }
+            ImapMessage i4msg = new ImapMessage(uid, MailItem.Type.MESSAGE, uid, flags, null);
+            date += step;
+            folder.cache(i4msg.setSearchAttributes(date, 2000 + random.nextInt(200000), 1000 + i), false);
+        }
+
+        if (key.equals("UNSEEN")) {
+            search = new ImapSearch.NotOperation(new ImapSearch.FlagSearch("\\Seen"));
+        } else if (key.equals("DELETED")) {
+            search = new ImapSearch.FlagSearch("\\Deleted");
+        } else if (key.equals("MODSEQ")) {
+            search = new ImapSearch.ModifiedSearch(1000 + size - 50);
+        } else if (key.equals("SINCE")) {
+            search = new ImapSearch.DateSearch(ImapSearch.DateSearch.Relation.after,
+                    new Date(System.currentTimeMillis() - 30 * Constants.MILLIS_PER_DAY));
+        } else {
+            search = new ImapSearch.SizeSearch(ImapSearch.SizeSearch.Relation.larger, 150000);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Benchmark
+    public ImapMessageSet local() throws Exception {
+        ImapMessageSet hits = search.evaluate(folder);
+        hits.remove(null);
+        return hits;
+    }
+
+    @Benchmark
+    public List<Query> query() throws Exception {
+        String query = "in:" + folder.getQuotedPath() + ' ' + search.toZimbraSearch(folder);
+        return new QueryParser(mbox, mbox.index.getAnalyzer()).parse(query);
+    }
+}
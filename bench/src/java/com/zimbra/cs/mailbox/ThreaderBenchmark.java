@@ -0,0 +1,101 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.zimbra.bench.Corpus;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Threads the MIME corpus against a mailbox that already holds it.  {@code hash} measures
+ * the subject normalization and reference hashing done for every delivered message;
+ * {@code lookup} adds the OPEN_CONVERSATION lookups and conversation loads.  Lives in the
+ * mailbox package because {@link Threader#lookupConversation()} and mailbox transactions
+ * are not public.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreaderBenchmark {
+    private Mailbox mbox;
+    private final List<ParsedMessage> messages = new ArrayList<ParsedMessage>();
+
+    @Setup
+    public void setUp() throws Exception {
+        MailboxTestUtil.initServer();
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, "0f6b9a1e-3c2d-4e5f-8a7b-6c5d4e3f2a1b");
+        Account acct = Provisioning.getInstance().createAccount("threadbench@zimbra.com", "secret", attrs);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        for (byte[] raw : Corpus.readMessages()) {
+            mbox.addMessage(null, new ParsedMessage(raw, false), dopt, null);
+            messages.add(new ParsedMessage(raw, false));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Benchmark
+    public void hash(Blackhole bh) throws ServiceException {
+        for (ParsedMessage pm : messages) {
+            bh.consume(new Threader(mbox, pm));
+        }
+    }
+
+    @Benchmark
+    public void lookup(Blackhole bh) throws ServiceException {
+        boolean success = false;
+        mbox.beginReadTransaction("ThreaderBenchmark", null);
+        try {
+            for (ParsedMessage pm : messages) {
+                bh.consume(new Threader(mbox, pm).lookupConversation());
+            }
+            success = true;
+        } finally {
+            mbox.endTransaction(success);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.session.PendingModifications.Change;
+
+/**
+ * Serialization of the {@link PendingLocalModifications} sent to other servers for every
+ * committed mailbox transaction.  {@code delivery} is what a single message delivery records
+ * (the new message, its folder and the mailbox); {@code bulk} is a flag change on 200 messages.
+ * <p>
+ * {@code format} is {@code java} for Java serialization, the format used before
+ * {@link PendingModificationsEncoding}, or {@code binary}.  Only the binary form can be read
+ * back, so {@code java} has no decode numbers.  Payload sizes are printed during setup.
+ * Lives in the session package because {@code serializeJava} is not public.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PendingModificationsBenchmark {
+    private static final int BULK = 200;
+
+    @Param({"delivery", "bulk"})
+    public String scenario;
+
+    @Param({"java", "binary"})
+    public String format;
+
+    private Mailbox mbox;
+    private PendingLocalModifications pms;
+    private byte[] encoded;
+    private boolean binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        MailboxTestUtil.initServer();
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, "0b9e1c7a-2f4d-4c8e-b1a3-6d5f7e9a0c2b");
+        Account acct = Provisioning.getInstance().createAccount("pmsbench@zimbra.com", "secret", attrs);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        binary = "binary".equals(format);
+
+        Folder inbox = mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX);
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(inbox.getId()).setFlags(Flag.BITMASK_UNREAD);
+        pms = new PendingLocalModifications();
+        if ("delivery".equals(scenario)) {
+            Message msg = mbox.addMessage(null, MailboxTestUtil.generateMessage("delivery"), dopt, null);
+            pms.recordCreated(msg);
+            pms.recordModified(mbox.getFolderById(null, inbox.getId()), Change.SIZE);
+            pms.recordModified(mbox, Change.SIZE);
+        } else {
+            for (int i = 0; i < BULK; i++) {
+                Message msg = mbox.addMessage(null, MailboxTestUtil.generateMessage("bulk " + i), dopt, null);
+                pms.recordModified(msg, Change.FLAGS | Change.UNREAD);
+            }
+        }
+        encoded = encode();
+        System.out.printf("%n%s/%s: %d bytes%n", scenario, format, encoded.length);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private byte[] encode() throws Exception {
+        return binary ? pms.serialize() : pms.serializeJava();
+    }
+
+    @Benchmark
+    public byte[] encodeChanges() throws Exception {
+        return encode();
+    }
+
+    @Benchmark
+    public PendingLocalModifications decodeChanges() throws Exception {
+        return binary ? PendingLocalModifications.deserialize(mbox, encoded) : null;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets() {
+        long previous = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            long highest = LatencyHistogram.highestValueAt(i);
+            Assert.assertTrue(highest > previous);
+            Assert.assertEquals(i, LatencyHistogram.indexOf(highest));
+            Assert.assertEquals(i, LatencyHistogram.indexOf(previous + 1));
+            // relative error of the bucket is bounded
+            Assert.assertTrue(highest - (previous + 1) <= (previous + 1) / 16);
+            previous = highest;
+        }
+        Assert.assertTrue(previous >= Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.increment(i);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500.5, histogram.getAverage(), 0.001);
+        Assert.assertEquals(1000, histogram.getMax());
+        assertClose(500, histogram.getValueAtPercentile(50));
+        assertClose(990, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+
+        histogram.increment(-5);
+        histogram.increment(Long.MAX_VALUE);
+        Assert.assertEquals(Integer.MAX_VALUE, histogram.getMax());
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void calculator() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        PercentileCalculator calc = new PercentileCalculator(histogram)
+                .setPercentileName(50, "p50").setPercentileName(99, "p99").setMaxName("max");
+        Assert.assertEquals(3, calc.getNames().size());
+
+        for (int i = 0; i < 100; i++) {
+            histogram.increment(1000);
+        }
+        Assert.assertEquals(1000, ((Long) calc.getData().get(0)).longValue(), 1000 / 16);
+        calc.reset();
+
+        // only what was recorded since the reset counts
+        for (int i = 0; i < 100; i++) {
+            histogram.increment(10);
+        }
+        Assert.assertEquals(10L, calc.getData().get(0));
+        Assert.assertEquals(10L, calc.getData().get(1));
+        Assert.assertEquals(10L, calc.getData().get(2));
+        assertClose(1000, calc.getRealtimeValueAtPercentile(99));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertTrue("expected ~" + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void increment() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        Assert.assertEquals(0, sketch.frequency("a"));
+        sketch.increment("a");
+        sketch.increment("a");
+        sketch.increment("b");
+        Assert.assertEquals(2, sketch.frequency("a"));
+        Assert.assertEquals(1, sketch.frequency("b"));
+        Assert.assertEquals(0, sketch.frequency("c"));
+    }
+
+    @Test
+    public void saturates() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("a");
+        }
+        Assert.assertEquals(15, sketch.frequency("a"));
+    }
+
+    @Test
+    public void reset() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("a");
+        }
+        sketch.reset();
+        Assert.assertEquals(4, sketch.frequency("a"));
+    }
+
+    @Test
+    public void ages() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("hot");
+        }
+        // a long scan of one-hit keys ages the hot key instead of overflowing the table
+        for (int i = 0; i < 10000; i++) {
+            sketch.increment("scan" + i);
+        }
+        Assert.assertTrue(sketch.frequency("hot") < 10);
+    }
+}
@@ -19,12 +19,17 @@ package com.zimbra.common.util;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
 import com.google.common.base.Function;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 public class ListUtilTest {
@@ -61,4 +66,59 @@ public class ListUtilTest {
         List<Integer> l = Lists.newArrayList(1, 2, 3);
         assertEquals(l, ListUtil.nullToEmpty(l));
     }
+
+    @Test
+    public void mergeSortedIterators() {
+        Random rnd = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int numSrc = 1 + rnd.nextInt(4);
+            @SuppressWarnings("unchecked")
+            List<Integer>[] src = new List[numSrc];
+            List<Iterator<Integer>> iters = new ArrayList<Iterator<Integer>>();
+            for (int i = 0; i < numSrc; i++) {
+                src[i] = sortedRandomList(rnd);
+                iters.add(src[i].iterator());
+            }
+            boolean removeDuplicates = rnd.nextBoolean();
+            List<Integer> expected = new ArrayList<Integer>();
+            ListUtil.mergeSortedLists(expected, src, removeDuplicates);
+            assertEquals(expected, Lists.newArrayList(ListUtil.mergeSortedIterators(iters, removeDuplicates)));
+        }
+    }
+
+    @Test
+    public void mergeSortedIteratorsIsLazy() {
+        // Neither source ends; the merge must still produce the head of the result.
+        Iterator<Integer> zeros = Iterators.cycle(0);
+        Iterator<Integer> ones = Iterators.cycle(1);
+        List<Iterator<Integer>> iters = Lists.newArrayList(zeros, ones);
+        assertEquals(Integer.valueOf(0), ListUtil.mergeSortedIterators(iters, true).next());
+    }
+
+    @Test
+    public void subtractSortedIterators() {
+        Comparator<Integer> cmp = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return a.compareTo(b);
+            }
+        };
+        Random rnd = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            List<Integer> a = sortedRandomList(rnd);
+            List<Integer> b = sortedRandomList(rnd);
+            assertEquals(ListUtil.subtractSortedLists(a, b, cmp),
+                    Lists.newArrayList(ListUtil.subtractSortedIterators(a.iterator(), b.iterator(), cmp)));
+        }
+    }
+
+    private static List<Integer> sortedRandomList(Random rnd) {
+        List<Integer> list = new ArrayList<Integer>();
+        int value = rnd.nextInt(5);
+        for (int i = rnd.nextInt(12); i > 0; i--) {
+            list.add(value);
+            value += rnd.nextInt(3);
+        }
+        return list;
+    }
 }
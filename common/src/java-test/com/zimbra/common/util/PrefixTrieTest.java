@@ -0,0 +1,70 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrefixTrieTest {
+
+    private static List<String> search(PrefixTrie<String> trie, String prefix) {
+        return trie.search(prefix, new ArrayList<String>());
+    }
+
+    @Test
+    public void search() {
+        PrefixTrie<String> trie = PrefixTrie.<String>empty()
+            .put("john", "1").put("johnson", "2").put("joan", "3").put("bob", "4").put("john", "5");
+        Assert.assertEquals(5, trie.size());
+        Assert.assertEquals(Arrays.asList("3", "1", "5", "2"), search(trie, "jo"));
+        Assert.assertEquals(Arrays.asList("1", "5", "2"), search(trie, "john"));
+        Assert.assertEquals(Arrays.asList("2"), search(trie, "johns"));
+        Assert.assertTrue(search(trie, "x").isEmpty());
+        Assert.assertTrue(search(trie, "johnsonville").isEmpty());
+        Assert.assertEquals(5, search(trie, "").size());
+        Assert.assertTrue(trie.containsPrefix("bo"));
+        Assert.assertFalse(trie.containsPrefix("bx"));
+    }
+
+    @Test
+    public void duplicates() {
+        PrefixTrie<String> trie = PrefixTrie.<String>empty().put("a", "1");
+        Assert.assertSame(trie, trie.put("a", "1"));
+        Assert.assertEquals(1, trie.size());
+    }
+
+    @Test
+    public void remove() {
+        PrefixTrie<String> before = PrefixTrie.<String>empty().put("john", "1").put("johnson", "2");
+        PrefixTrie<String> after = before.remove("johnson", "2");
+        Assert.assertEquals(1, after.size());
+        Assert.assertEquals(Arrays.asList("1"), search(after, "j"));
+        Assert.assertFalse(after.containsPrefix("johns"));
+        // the old version is unchanged
+        Assert.assertEquals(Arrays.asList("1", "2"), search(before, "j"));
+
+        Assert.assertSame(after, after.remove("john", "2"));
+        Assert.assertSame(after, after.remove("x", "1"));
+        after = after.remove("john", "1");
+        Assert.assertTrue(after.isEmpty());
+        Assert.assertFalse(after.containsPrefix(""));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Utf8AppendableTest {
+
+    private static byte[] encode(int bufferSize, String... parts) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Utf8Appendable out = new Utf8Appendable(bytes, bufferSize);
+        for (String part : parts) {
+            if (part.length() == 1) {
+                out.append(part.charAt(0));
+            } else {
+                out.append(part);
+            }
+        }
+        out.flush();
+        Assert.assertEquals(bytes.size(), out.getBytesWritten());
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void encode() throws Exception {
+        String str = "plain ascii, caf\u00e9, \u65e5\u672c\u8a9e, \ud83d\ude00 and more";
+        byte[] expected = str.getBytes(StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(expected, encode(16, str));
+        Assert.assertArrayEquals(expected, encode(4096, str));
+
+        // surrogate pair split across appends
+        Assert.assertArrayEquals("a\ud83d\ude00b".getBytes(StandardCharsets.UTF_8),
+                encode(16, "a", "\ud83d", "\ude00", "b"));
+    }
+
+    @Test
+    public void unpairedSurrogates() throws Exception {
+        Assert.assertArrayEquals("a?b?".getBytes(StandardCharsets.UTF_8), encode(16, "a\ude00b\ud83d"));
+        Assert.assertArrayEquals("??x".getBytes(StandardCharsets.UTF_8), encode(16, "\ud83d\ud83dx"));
+    }
+
+    @Test
+    public void jsEncode() throws Exception {
+        String str = "<a href=\"x\">\\\t </a>";
+        String expected = "\\u003Ca href=\\\"x\\\"\\u003E\\\\\\t\\u2028\\u003C/a\\u003E";
+        StringBuilder sb = new StringBuilder("x");
+        StringUtil.jsEncode(sb, str);
+        Assert.assertEquals("x" + expected, sb.toString());
+        Assert.assertEquals(expected, StringUtil.jsEncode(str));
+        String plain = "plain text";
+        Assert.assertSame("nothing to escape, not copied", plain, StringUtil.jsEncode(plain));
+        Assert.assertEquals("x\\u003C", StringUtil.jsEncode("x<"));
+        Assert.assertEquals("", StringUtil.jsEncode(null));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ZimbraLogTest {
+
+    @After
+    public void tearDown() {
+        ZimbraLog.clearContext();
+    }
+
+    private static final Callable<String> GET_CONTEXT = new Callable<String>() {
+        @Override
+        public String call() {
+            return ZimbraLog.getContextString();
+        }
+    };
+
+    @Test
+    public void wrapWithContext() throws Exception {
+        ZimbraLog.addAccountNameToContext("user1@example.com");
+        ZimbraLog.addMboxToContext(5);
+        String context = ZimbraLog.getContextString();
+        Callable<String> task = ZimbraLog.wrapWithContext(GET_CONTEXT);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Assert.assertNull(executor.submit(GET_CONTEXT).get());
+            Assert.assertEquals(context, executor.submit(task).get());
+            // the pool thread doesn't keep the context afterwards
+            Assert.assertNull(executor.submit(GET_CONTEXT).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void wrapWithContextOnCallingThread() throws Exception {
+        ZimbraLog.addAccountNameToContext("user1@example.com");
+        Callable<String> task = ZimbraLog.wrapWithContext(GET_CONTEXT);
+        ZimbraLog.clearContext();
+        ZimbraLog.addAccountNameToContext("user2@example.com");
+        String context = ZimbraLog.getContextString();
+
+        Assert.assertTrue(task.call().contains("user1@example.com"));
+        // e.g. CallerRunsPolicy: the caller's own context is restored
+        Assert.assertEquals(context, ZimbraLog.getContextString());
+    }
+}
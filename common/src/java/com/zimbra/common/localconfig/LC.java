@@ -168,6 +168,7 @@ public final class LC {
     public static final KnownKey zimbra_store_copy_buffer_size_kb = KnownKey.newKey(16); // KB
     public static final KnownKey zimbra_nio_file_copy_chunk_size_kb = KnownKey.newKey(512); // KB
     public static final KnownKey zimbra_blob_input_stream_buffer_size_kb = KnownKey.newKey(1); // KB
+    public static final KnownKey zimbra_file_descriptor_cache_volume_max = KnownKey.newKey(0); // 0 = no per-volume limit
 
     @Supported
     public static final KnownKey zimbra_mailbox_manager_hardref_cache = KnownKey.newKey(2500);
@@ -181,6 +182,20 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_mailbox_galsync_cache = KnownKey.newKey(10000);
 
+    public static final KnownKey zimbra_message_cache_max_bytes = KnownKey.newKey(64 * 1024 * 1024); // 0 = no byte limit
+    public static final KnownKey zimbra_mailbox_item_cache_max_bytes = KnownKey.newKey(0); // 0 = 10% of the heap
+    @Reloadable
+    public static final KnownKey zimbra_metadata_compact_format = KnownKey.newKey(false);
+    @Reloadable
+    public static final KnownKey zimbra_db_batch_updates = KnownKey.newKey(true);
+    public static final KnownKey zimbra_db_pool_type = KnownKey.newKey("dbcp"); // dbcp or bag
+    public static final KnownKey zimbra_db_pool_max_wait = KnownKey.newKey(0); // msecs, 0 = wait indefinitely
+    public static final KnownKey zimbra_db_pool_leak_detection_threshold = KnownKey.newKey(0); // msecs, 0 = off
+    public static final KnownKey zimbra_db_server_prepared_statements = KnownKey.newKey(false);
+    public static final KnownKey zimbra_autocomplete_index_enabled = KnownKey.newKey(true);
+    public static final KnownKey zimbra_autocomplete_index_max_contacts = KnownKey.newKey(100000);
+    public static final KnownKey zimbra_autocomplete_latency_budget = KnownKey.newKey(2000); // msecs, 0 = query GAL after contacts
+
     @Supported
     public static final KnownKey zimbra_mailbox_change_checkpoint_frequency = KnownKey.newKey(100);
 
@@ -192,6 +207,10 @@ public final class LC {
 
     public static final KnownKey zimbra_mailbox_lock_readwrite = KnownKey.newKey(true);
 
+    public static final KnownKey zimbra_redolog_group_commit = KnownKey.newKey(false);
+    public static final KnownKey zimbra_redolog_group_commit_buffers = KnownKey.newKey(16);
+    public static final KnownKey zimbra_redolog_group_commit_buffer_size = KnownKey.newKey(65536);
+
     @Supported
     public static final KnownKey zimbra_index_threads = KnownKey.newKey(10);
 
@@ -222,6 +241,12 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_index_max_transaction_items = KnownKey.newKey(100);
 
+    // re-index: threads extracting text for all mailboxes being re-indexed (0 = number of CPUs, -1 = extract inline),
+    // items each re-index may have queued for extraction, and the index writer's RAM buffer while re-indexing
+    public static final KnownKey zimbra_reindex_extract_threads = KnownKey.newKey(0);
+    public static final KnownKey zimbra_reindex_queue_size = KnownKey.newKey(64);
+    public static final KnownKey zimbra_reindex_lucene_ram_buffer_size_kb = KnownKey.newKey(65536);
+
     public static final KnownKey zimbra_index_lucene_io_impl = KnownKey.newKey("nio");
 
     @Supported
@@ -498,6 +523,10 @@ public final class LC {
     public static final KnownKey ldap_cache_reverseproxylookup_domain_maxage = KnownKey.newKey(15);
     public static final KnownKey ldap_cache_reverseproxylookup_server_maxsize = KnownKey.newKey(100);
     public static final KnownKey ldap_cache_reverseproxylookup_server_maxage = KnownKey.newKey(15);
+    // percentage of the maxage after which a cached account, COS, domain, server or zimlet that is still being looked
+    // up is reloaded in the background; 0 disables refresh-ahead
+    public static final KnownKey ldap_cache_refresh_ahead_percent = KnownKey.newKey(80);
+    public static final KnownKey ldap_cache_refresh_threads = KnownKey.newKey(2);
 
     // This combination will consume 128M (128K per target) of memory if the cache is full
     public static final KnownKey acl_cache_target_maxsize = KnownKey.newKey(1024);
@@ -680,6 +709,8 @@ public final class LC {
     @Supported
     public static final KnownKey calendar_cache_range_months = KnownKey.newKey(3);
     public static final KnownKey calendar_cache_max_stale_items = KnownKey.newKey(10);
+    // total instances held by the expanded recurrence cache; 0 disables it
+    public static final KnownKey calendar_cache_expansion_max_instances = KnownKey.newKey(100000);
     public static final KnownKey calendar_exchange_form_auth_url = KnownKey.newKey("/exchweb/bin/auth/owaauth.dll");
     public static final KnownKey calendar_item_get_max_retries = KnownKey.newKey(100);
 
@@ -694,6 +725,7 @@ public final class LC {
     public static final KnownKey nio_pop3_enabled = KnownKey.newKey(true);
 
     public static final KnownKey nio_max_write_queue_size = KnownKey.newKey(10000);
+    public static final KnownKey nio_zero_copy_enabled = KnownKey.newKey(true);
 
     public static final KnownKey imap_max_request_size = KnownKey.newKey(10 * 1024);
     public static final KnownKey imap_max_nesting_in_search_request = KnownKey.newKey(100);
@@ -874,6 +906,10 @@ public final class LC {
 
     public static final KnownKey zimbra_waitset_initial_sleep_time = KnownKey.newKey(1000);
     public static final KnownKey zimbra_waitset_nodata_sleep_time = KnownKey.newKey(3000);
+    // WaitSet signals raised within this many msecs are delivered together, off the committing thread.
+    // 0 delivers each signal on the committing thread as it happens.
+    public static final KnownKey zimbra_waitset_coalesce_window_ms = KnownKey.newKey(100);
+    public static final KnownKey zimbra_waitset_delivery_threads = KnownKey.newKey(4);
 
     public static final KnownKey zimbra_csv_mapping_file = KnownKey.newKey("${zimbra_home}/conf/zimbra-contact-fields.xml");
 
@@ -1085,11 +1121,14 @@ public final class LC {
     public static final KnownKey freebusy_exchange_cn2 = KnownKey.newKey(null);
     public static final KnownKey freebusy_exchange_cn3 = KnownKey.newKey(null);
     public static final KnownKey freebusy_disable_nodata_status = KnownKey.newKey(false);
+    // threads looking up free/busy of local accounts in parallel for one query; 1 looks them up one by one
+    public static final KnownKey freebusy_local_lookup_threads = KnownKey.newKey(8);
 
     public static final KnownKey notes_enabled = KnownKey.newKey(false);
 
     public static final KnownKey zimbra_lmtp_validate_messages = KnownKey.newKey(true);
     public static final KnownKey zimbra_lmtp_max_line_length = KnownKey.newKey(10240);
+    public static final KnownKey zimbra_lmtp_delivery_threads = KnownKey.newKey(0);
 
     public static final KnownKey data_source_scheduling_enabled = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_email = KnownKey.newKey(true);
@@ -1120,6 +1159,7 @@ public final class LC {
 
     public static final KnownKey zimbra_slow_logging_enabled = KnownKey.newKey(false);
     public static final KnownKey zimbra_slow_logging_threshold = KnownKey.newKey(5000);
+    public static final KnownKey zimbra_command_profile_sample_rate = KnownKey.newKey(10);
 
     public static final KnownKey smtp_host_retry_millis = KnownKey.newKey(60000);
     public static final KnownKey smtp_to_lmtp_enabled = KnownKey.newKey(false);
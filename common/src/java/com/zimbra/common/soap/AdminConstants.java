@@ -455,6 +455,8 @@ public final class AdminConstants {
     // Monitoring
     public static final String E_GET_SERVER_STATS_REQUEST = "GetServerStatsRequest";
     public static final String E_GET_SERVER_STATS_RESPONSE = "GetServerStatsResponse";
+    public static final String E_GET_COMMAND_PROFILE_REQUEST = "GetCommandProfileRequest";
+    public static final String E_GET_COMMAND_PROFILE_RESPONSE = "GetCommandProfileResponse";
 
     public static final String E_GET_LOGGER_STATS_REQUEST = "GetLoggerStatsRequest";
     public static final String E_GET_LOGGER_STATS_RESPONSE = "GetLoggerStatsResponse";
@@ -969,6 +971,8 @@ public final class AdminConstants {
     // Monitoring
     public static final QName GET_SERVER_STATS_REQUEST = QName.get(E_GET_SERVER_STATS_REQUEST, NAMESPACE);
     public static final QName GET_SERVER_STATS_RESPONSE = QName.get(E_GET_SERVER_STATS_RESPONSE, NAMESPACE);
+    public static final QName GET_COMMAND_PROFILE_REQUEST = QName.get(E_GET_COMMAND_PROFILE_REQUEST, NAMESPACE);
+    public static final QName GET_COMMAND_PROFILE_RESPONSE = QName.get(E_GET_COMMAND_PROFILE_RESPONSE, NAMESPACE);
 
     public static final QName GET_LOGGER_STATS_REQUEST = QName.get(E_GET_LOGGER_STATS_REQUEST, NAMESPACE);
     public static final QName GET_LOGGER_STATS_RESPONSE = QName.get(E_GET_LOGGER_STATS_RESPONSE, NAMESPACE);
@@ -1439,6 +1443,18 @@ public final class AdminConstants {
     public static final String E_STAT = "stat";
     public static final String A_DESCRIPTION = "description";
 
+    // Command profiling
+    public static final String E_COMMAND = "command";
+    public static final String A_PROTOCOL = "protocol";
+    public static final String A_COUNT = "count";
+    public static final String A_SAMPLED = "sampled";
+    public static final String A_WALL_MS = "wallMs";
+    public static final String A_MAX_WALL_MS = "maxWallMs";
+    public static final String A_CPU_MS = "cpuMs";
+    public static final String A_DB_STATEMENTS = "dbStatements";
+    public static final String A_LOCK_WAIT_MS = "lockWaitMs";
+    public static final String A_BYTES_WRITTEN = "bytesWritten";
+
     public static final String A_FULLSYNC = "fullSync";
     public static final String A_RESET    = "reset";
     public static final String A_HAS_KEYWORD = "hasKeyword";
@@ -1473,11 +1473,15 @@ public abstract class Element implements Cloneable {
                 int index = 0;
                 for (Map.Entry<String, Object> attr : mAttributes.entrySet()) {
                     indent(out, indent, true);
-                    out.append('"').append(StringUtil.jsEncode(attr.getKey())).append(indent >= 0 ? "\": " : "\":");
+                    out.append('"');
+                    StringUtil.jsEncode(out, attr.getKey());
+                    out.append(indent >= 0 ? "\": " : "\":");
 
                     Object value = attr.getValue();
                     if (value instanceof String) {
-                        out.append('"').append(StringUtil.jsEncode(getAttrStringValue(attr, safe))).append('"');
+                        out.append('"');
+                        StringUtil.jsEncode(out, getAttrStringValue(attr, safe));
+                        out.append('"');
                     } else if (value instanceof JSONKeyValuePair) {
                         out.append(value.toString());
                     } else if (value instanceof JSONElement) {
@@ -1485,7 +1489,9 @@ public abstract class Element implements Cloneable {
                     } else if (value instanceof FileBackedElement) {
                         ((FileBackedElement) value).marshal(out);
                     } else if (value instanceof Element) {
-                        out.append('"').append(StringUtil.jsEncode(value)).append('"');
+                        out.append('"');
+                        StringUtil.jsEncode(out, value);
+                        out.append('"');
                     } else if (!(value instanceof List<?>)) {
                         out.append(String.valueOf(value));
                     } else {
@@ -1502,7 +1508,9 @@ public abstract class Element implements Cloneable {
                                 } else if (child instanceof JSONKeyValuePair) {
                                     out.append(child.toString());
                                 } else {
-                                    out.append('"').append(StringUtil.jsEncode(child)).append('"');
+                                    out.append('"');
+                                    StringUtil.jsEncode(out, child);
+                                    out.append('"');
                                 }
                                 if (lit.nextIndex() != lsize) {
                                     out.append(',');
@@ -1518,7 +1526,8 @@ public abstract class Element implements Cloneable {
                 if (needNamespace) {
                     indent(out, indent, true);
                     out.append('"').append(A_NAMESPACE).append(indent >= 0 ? "\": \"" : "\":\"");
-                    out.append(StringUtil.jsEncode(mNamespaces.get(""))).append('"');
+                    StringUtil.jsEncode(out, mNamespaces.get(""));
+                    out.append('"');
                 }
                 indent(out, indent - 2, true);
             }
@@ -1847,13 +1856,12 @@ public abstract class Element implements Cloneable {
             return defaultValue;
         }
 
-        private String xmlEncode(String str, boolean escapeQuotes) {
+        private static void xmlEncode(Appendable out, String str, boolean escapeQuotes) throws IOException {
             if (str == null)
-                return "";
-            StringBuilder sb = null;
+                return;
             String replacement;
-            int i, last;
-            for (i = 0, last = -1; i < str.length(); i++) {
+            int i, last, length = str.length();
+            for (i = 0, last = 0; i < length; i++) {
                 char c = str.charAt(i);
                 switch (c) {
                     case '&':  replacement = "&amp;";   break;
@@ -1863,21 +1871,17 @@ public abstract class Element implements Cloneable {
                     case '"':  if (!escapeQuotes)       continue;
                                replacement = "&quot;";  break;
                     default :  //Unicode supplementary characters (UTF-16) - Japnese/Chinese characters
-                               if (i+1 < str.length() && isSupplementaryCharacter(c, str.charAt(i+1))) {
+                               if (i+1 < length && isSupplementaryCharacter(c, str.charAt(i+1))) {
                                    i++;
                                    continue;
                                }
                                if (isValidXmlCharacter(c))  continue;
                                replacement = "?";      break;
                 }
-                if (sb == null)
-                    sb = new StringBuilder(str.substring(0, i));
-                else
-                    sb.append(str.substring(last, i));
-                sb.append(replacement);
+                out.append(str, last, i).append(replacement);
                 last = i + 1;
             }
-            return (sb == null ? str : sb.append(str.substring(last, i)).toString());
+            out.append(str, last, length);
         }
 
         /**
@@ -1973,7 +1977,8 @@ public abstract class Element implements Cloneable {
             if (mAttributes != null) {
                 for (Map.Entry<String, Object> attr : mAttributes.entrySet()) {
                     out.append(' ').append(attr.getKey()).append("=\"");
-                    out.append(xmlEncode(getAttrValue(attr, safe), true)).append('"');
+                    xmlEncode(out, getAttrValue(attr, safe), true);
+                    out.append('"');
                 }
             }
             // new namespaces defined on this element
@@ -1983,7 +1988,9 @@ public abstract class Element implements Cloneable {
                     String uri = ns.getValue();
                     if (namespaceDeclarationNeeded(prefix, uri)) {
                         out.append(' ').append(A_NAMESPACE).append(prefix.equals("") ? "" : ":").append(prefix);
-                        out.append("=\"").append(xmlEncode(uri, true)).append('"');
+                        out.append("=\"");
+                        xmlEncode(out, uri, true);
+                        out.append('"');
                     }
                 }
             }
@@ -1997,12 +2004,12 @@ public abstract class Element implements Cloneable {
                         } else if (child instanceof FileBackedElement) {
                             child.marshal(out);
                         } else {
-                            out.append(xmlEncode(child.toString(), false));
+                            xmlEncode(out, child.toString(), false);
                         }
                     }
                     indent(out, indent, true);
                 } else {
-                    out.append(xmlEncode(getText(safe), false));
+                    xmlEncode(out, getText(safe), false);
                 }
                 out.append("</").append(qn).append('>');
             } else {
@@ -0,0 +1,142 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A <code>StopWatch</code> that also keeps a histogram of the recorded values, so that
+ * percentiles can be reported next to the average.
+ * <p>
+ * Values are counted in log-linear buckets: exact below 32, and 16 buckets per power of
+ * two above that, so a reported percentile overstates the real value by at most 1/16.
+ * Recording never allocates or locks.  Values are clamped to <tt>[0, Integer.MAX_VALUE]</tt>.
+ */
+public class LatencyHistogram
+extends StopWatch {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = Integer.MAX_VALUE;
+
+    /** Number of buckets in the arrays returned by {@link #getCounts()}. */
+    public static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mMax = new AtomicLong();
+
+    @Override
+    public void increment(long value) {
+        super.increment(value);
+        long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        mCounts.incrementAndGet(indexOf(v));
+        long max = mMax.get();
+        while (v > max && !mMax.compareAndSet(max, v)) {
+            max = mMax.get();
+        }
+    }
+
+    static int indexOf(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_HALF_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that is counted in the given bucket.
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_HALF_BITS) - 1;
+        long sub = index - (shift << SUB_BUCKET_HALF_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns a copy of the bucket counts.
+     */
+    public long[] getCounts() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the largest value recorded since the last call to {@link #reset}.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the value at the given percentile (0-100) of everything recorded since the last
+     * call to {@link #reset}.
+     */
+    public long getValueAtPercentile(double percentile) {
+        return Math.min(getValueAtPercentile(getCounts(), percentile), getMax());
+    }
+
+    /**
+     * Returns the value at the given percentile (0-100) of a set of bucket counts, as returned by
+     * {@link #getCounts()} or a difference of two of them, or <tt>0</tt> if all counts are zero.
+     */
+    public static long getValueAtPercentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total <= 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueAt(i);
+            }
+        }
+        return highestValueAt(counts.length - 1);
+    }
+
+    /**
+     * Returns the largest value counted in a set of bucket counts, or <tt>0</tt> if all counts
+     * are zero.
+     */
+    public static long getMax(long[] counts) {
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Calculates percentiles of the values recorded by the wrapped <tt>LatencyHistogram</tt>
+ * between subsequent calls to {@link #reset}.
+ */
+public class PercentileCalculator
+implements Accumulator {
+
+    private final LatencyHistogram mHistogram;
+    private long[] mLastCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    private long[] mSecondToLastCounts = new long[LatencyHistogram.BUCKET_COUNT];
+
+    private final List<Double> mPercentiles = new ArrayList<Double>();
+    private final List<String> mPercentileNames = new ArrayList<String>();
+    private String mMaxName;
+
+    private List<String> mNames = Collections.emptyList();
+
+    public PercentileCalculator(LatencyHistogram histogram) {
+        mHistogram = histogram;
+    }
+
+    /**
+     * The given name will be returned by {@link #getNames()} and the value at the given
+     * percentile (0-100) will be returned by {@link #getData()}.  May be called more than once.
+     */
+    public PercentileCalculator setPercentileName(double percentile, String name) {
+        mPercentiles.add(percentile);
+        mPercentileNames.add(name);
+        updateNames();
+        return this;
+    }
+
+    /**
+     * If non-null, the given name will be returned by {@link #getNames()}
+     * and the maximum value will be returned by {@link #getData()}.
+     */
+    public PercentileCalculator setMaxName(String name) {
+        mMaxName = name;
+        updateNames();
+        return this;
+    }
+
+    private void updateNames() {
+        ArrayList<String> names = new ArrayList<String>(mPercentileNames);
+        if (mMaxName != null) {
+            names.add(mMaxName);
+        }
+        mNames = Collections.unmodifiableList(names);
+    }
+
+    private static long[] subtract(long[] current, long[] previous) {
+        long[] delta = new long[current.length];
+        for (int i = 0; i < current.length; i++) {
+            // the histogram may have been reset by someone else
+            delta[i] = Math.max(current[i] - previous[i], 0);
+        }
+        return delta;
+    }
+
+    public synchronized void reset() {
+        mSecondToLastCounts = mLastCounts;
+        mLastCounts = mHistogram.getCounts();
+    }
+
+    /**
+     * Returns the value at the given percentile since the last call to {@link #reset}.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        return LatencyHistogram.getValueAtPercentile(subtract(mHistogram.getCounts(), mLastCounts), percentile);
+    }
+
+    /**
+     * Returns the value at the given percentile since the second-to-last call to
+     * {@link #reset}.  We use the second-to-last call in order to avoid spikes at
+     * the beginning of the interval.
+     */
+    public synchronized long getRealtimeValueAtPercentile(double percentile) {
+        return LatencyHistogram.getValueAtPercentile(subtract(mHistogram.getCounts(), mSecondToLastCounts),
+                percentile);
+    }
+
+    ////////////// Accumulator implementation ///////////////////
+
+    public synchronized List<Object> getData() {
+        if (mNames.isEmpty()) {
+            return Collections.emptyList();
+        }
+        long[] delta = subtract(mHistogram.getCounts(), mLastCounts);
+        List<Object> data = new ArrayList<Object>(mNames.size());
+        for (double percentile : mPercentiles) {
+            data.add(LatencyHistogram.getValueAtPercentile(delta, percentile));
+        }
+        if (mMaxName != null) {
+            data.add(LatencyHistogram.getMax(delta));
+        }
+        return data;
+    }
+
+    public List<String> getNames() {
+        return mNames;
+    }
+}
@@ -27,8 +27,11 @@ import java.util.List;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
 
 public class ListUtil {
 
@@ -231,6 +234,68 @@ public class ListUtil {
         return result;
     }
 
+    /**
+     * Lazy counterpart of {@link #mergeSortedLists}: merges sorted iterators, pulling from each source only as
+     * far as the caller reads.  Ties are taken from the source listed first.
+     */
+    public static <T extends Comparable<? super T>> Iterator<T> mergeSortedIterators(
+            List<Iterator<T>> src, final boolean removeDuplicates) {
+        if (src.isEmpty()) {
+            return Collections.emptyIterator();
+        } else if (src.size() == 1) {
+            return src.get(0);
+        }
+        final List<PeekingIterator<T>> iters = new ArrayList<PeekingIterator<T>>(src.size());
+        for (Iterator<T> iter : src) {
+            iters.add(Iterators.peekingIterator(iter));
+        }
+        return new AbstractIterator<T>() {
+            private T lastAdded = null;
+
+            @Override
+            protected T computeNext() {
+                while (true) {
+                    PeekingIterator<T> lowest = null;
+                    for (PeekingIterator<T> iter : iters) {
+                        if (iter.hasNext() && (lowest == null || lowest.peek().compareTo(iter.peek()) > 0)) {
+                            lowest = iter;
+                        }
+                    }
+                    if (lowest == null) {
+                        return endOfData();
+                    }
+                    T next = lowest.next();
+                    if (!removeDuplicates || lastAdded == null || !lastAdded.equals(next)) {
+                        lastAdded = next;
+                        return next;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Lazy counterpart of {@link #subtractSortedLists}: returns (a-b), reading b only as far as a has been read.
+     */
+    public static <T> Iterator<T> subtractSortedIterators(
+            Iterator<T> a, Iterator<T> b, final Comparator<T> comparator) {
+        final PeekingIterator<T> bIter = Iterators.peekingIterator(b);
+        return Iterators.filter(a, new Predicate<T>() {
+            @Override
+            public boolean apply(T aVal) {
+                while (bIter.hasNext()) {
+                    int comp = comparator.compare(aVal, bIter.peek());
+                    if (comp == 0) {
+                        return false;
+                    } else if (comp < 0) {
+                        break;
+                    }
+                    bIter.next();
+                }
+                return true;
+            }
+        });
+    }
     /**
      * Splits a <code>Collection</code> into <i>n</i> <code>List</code>s.
      * Lists <i>1</i> through <i>n-1</i> are of size <code>listSize</code>.  List <i>n</i>
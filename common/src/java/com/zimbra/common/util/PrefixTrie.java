@@ -0,0 +1,203 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable prefix trie mapping string keys to sets of values, for prefix lookups such as
+ * autocomplete.  Every node keeps its child labels in a sorted {@code char[]} with a parallel child
+ * array, so a lookup is one binary search per character of the prefix.
+ * <p>
+ * Updates copy the path from the root to the changed node and return a new trie, sharing every other
+ * node with the old one.  A trie published through a {@code volatile} field can therefore be read by
+ * any number of threads without locking while a writer prepares the next version.
+ *
+ * @param <V> value type; values under the same key are told apart with {@link Object#equals(Object)}
+ */
+public final class PrefixTrie<V> {
+
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final Node EMPTY_NODE = new Node(new char[0], new Node[0], NO_VALUES);
+    private static final PrefixTrie<Object> EMPTY = new PrefixTrie<Object>(EMPTY_NODE, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PrefixTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PrefixTrie<V> empty() {
+        return (PrefixTrie<V>) EMPTY;
+    }
+
+    /** Returns the number of key/value pairs. */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a trie that also maps {@code key} to {@code value}, or this trie if it already does.
+     */
+    public PrefixTrie<V> put(String key, V value) {
+        Node node = put(root, key, 0, value);
+        return node == root ? this : new PrefixTrie<V>(node, size + 1);
+    }
+
+    /**
+     * Returns a trie without the mapping from {@code key} to {@code value}, or this trie if there is none.
+     */
+    public PrefixTrie<V> remove(String key, V value) {
+        Node node = remove(root, key, 0, value);
+        return node == root ? this : new PrefixTrie<V>(node, size - 1);
+    }
+
+    /**
+     * Adds to {@code result} every value whose key starts with {@code prefix}, in key order.  A value
+     * stored under several matching keys is added once per key.
+     *
+     * @return {@code result}
+     */
+    @SuppressWarnings("unchecked")
+    public <C extends Collection<? super V>> C search(String prefix, C result) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        if (node != null) {
+            collect(node, (Collection<Object>) result);
+        }
+        return result;
+    }
+
+    /** Returns {@code true} if any key starts with {@code prefix}. */
+    public boolean containsPrefix(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.child(prefix.charAt(i));
+        }
+        return node != null && !node.isEmpty();
+    }
+
+    private static void collect(Node node, Collection<Object> result) {
+        for (Object value : node.values) {
+            result.add(value);
+        }
+        for (Node child : node.children) {
+            collect(child, result);
+        }
+    }
+
+    private static Node put(Node node, String key, int depth, Object value) {
+        if (depth == key.length()) {
+            for (Object existing : node.values) {
+                if (existing.equals(value)) {
+                    return node;
+                }
+            }
+            Object[] values = Arrays.copyOf(node.values, node.values.length + 1);
+            values[node.values.length] = value;
+            return new Node(node.labels, node.children, values);
+        }
+        char c = key.charAt(depth);
+        Node child = node.child(c);
+        Node updated = put(child != null ? child : EMPTY_NODE, key, depth + 1, value);
+        return updated == child ? node : node.withChild(c, updated);
+    }
+
+    private static Node remove(Node node, String key, int depth, Object value) {
+        if (depth == key.length()) {
+            for (int i = 0; i < node.values.length; i++) {
+                if (node.values[i].equals(value)) {
+                    Object[] values = NO_VALUES;
+                    if (node.values.length > 1) {
+                        values = new Object[node.values.length - 1];
+                        System.arraycopy(node.values, 0, values, 0, i);
+                        System.arraycopy(node.values, i + 1, values, i, values.length - i);
+                    }
+                    return new Node(node.labels, node.children, values);
+                }
+            }
+            return node;
+        }
+        char c = key.charAt(depth);
+        Node child = node.child(c);
+        if (child == null) {
+            return node;
+        }
+        Node updated = remove(child, key, depth + 1, value);
+        return updated == child ? node : node.withChild(c, updated);
+    }
+
+    private static final class Node {
+        final char[] labels;
+        final Node[] children;
+        final Object[] values;
+
+        Node(char[] labels, Node[] children, Object[] values) {
+            this.labels = labels;
+            this.children = children;
+            this.values = values;
+        }
+
+        boolean isEmpty() {
+            return values.length == 0 && children.length == 0;
+        }
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(labels, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        /** Returns a copy with the child for {@code c} replaced, added, or dropped if it became empty. */
+        Node withChild(char c, Node child) {
+            int i = Arrays.binarySearch(labels, c);
+            if (i >= 0) {
+                if (!child.isEmpty()) {
+                    Node[] nodes = children.clone();
+                    nodes[i] = child;
+                    return new Node(labels, nodes, values);
+                }
+                char[] chars = new char[labels.length - 1];
+                Node[] nodes = new Node[children.length - 1];
+                System.arraycopy(labels, 0, chars, 0, i);
+                System.arraycopy(labels, i + 1, chars, i, chars.length - i);
+                System.arraycopy(children, 0, nodes, 0, i);
+                System.arraycopy(children, i + 1, nodes, i, nodes.length - i);
+                return new Node(chars, nodes, values);
+            }
+            i = -i - 1;
+            char[] chars = new char[labels.length + 1];
+            Node[] nodes = new Node[children.length + 1];
+            System.arraycopy(labels, 0, chars, 0, i);
+            System.arraycopy(labels, i, chars, i + 1, labels.length - i);
+            System.arraycopy(children, 0, nodes, 0, i);
+            System.arraycopy(children, i, nodes, i + 1, children.length - i);
+            chars[i] = c;
+            nodes[i] = child;
+            return new Node(chars, nodes, values);
+        }
+    }
+}
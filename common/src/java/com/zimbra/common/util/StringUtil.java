@@ -732,30 +732,60 @@ public class StringUtil {
             return "";
         }
 
-        String replacement, str = obj.toString();
-        StringBuilder sb = null;
-        int i, last, length = str.length();
-        for (i = 0, last = -1; i < length; i++) {
-            char c = str.charAt(i);
-            switch (c) {
-                case '<':       replacement = "\\u003C";             break;
-                case '>':       replacement = "\\u003E";             break;
-                case '\\':      replacement = "\\\\";                break;
-                case '"':       replacement = "\\\"";                break;
-                case '\u2028':  replacement = "\\u2028";             break;
-                case '\u2029':  replacement = "\\u2029";             break;
-                default:        if (c >= ' ')                        continue;
-                                replacement = JS_CHAR_ENCODINGS[c];  break;
+        String str = obj.toString();
+        int length = str.length();
+        for (int i = 0; i < length; i++) {
+            if (jsReplacement(str.charAt(i)) != null) {
+                // only copy once there is something to escape
+                StringBuilder sb = new StringBuilder(length + 16);
+                try {
+                    jsEncode(sb, str, i);
+                } catch (IOException e) {
+                    // a StringBuilder doesn't throw
+                    throw new IllegalStateException(e);
+                }
+                return sb.toString();
             }
-            if (sb == null) {
-                sb = new StringBuilder(str.substring(0, i));
-            } else {
-                sb.append(str.substring(last, i));
+        }
+        return str;
+    }
+
+    /**
+     * Appends the JavaScript-encoded form of {@code obj} to {@code out}, as {@link #jsEncode(Object)}
+     * would return it, without building the encoded string.
+     */
+    public static void jsEncode(Appendable out, Object obj) throws IOException {
+        if (obj == null) {
+            return;
+        }
+        jsEncode(out, obj.toString(), 0);
+    }
+
+    /**
+     * Appends {@code str} to {@code out}, escaping from {@code start} on; the characters before it are copied as is.
+     */
+    private static void jsEncode(Appendable out, String str, int start) throws IOException {
+        int last = 0, length = str.length();
+        for (int i = start; i < length; i++) {
+            String replacement = jsReplacement(str.charAt(i));
+            if (replacement != null) {
+                out.append(str, last, i).append(replacement);
+                last = i + 1;
             }
-            sb.append(replacement);
-            last = i + 1;
         }
-        return (sb == null ? str : sb.append(str.substring(last, i)).toString());
+        out.append(str, last, length);
+    }
+
+    private static String jsReplacement(char c) {
+        switch (c) {
+            case '<':       return "\\u003C";
+            case '>':       return "\\u003E";
+            case '\\':      return "\\\\";
+            case '"':       return "\\\"";
+            case '\u2028':  return "\\u2028";
+            case '\u2029':  return "\\u2029";
+            default:        return c >= ' ' ? null : JS_CHAR_ENCODINGS[c];
+        }
     }
 
     public static String jsEncodeKey(String key) {
@@ -0,0 +1,137 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link Appendable} that encodes characters as UTF-8 straight into a fixed-size byte buffer and
+ * drains it to an {@link OutputStream} when full, so serializing an arbitrarily large {@code Element}
+ * allocates nothing beyond the buffer itself.
+ * <p>
+ * {@link #flush()} only drains the buffer; it does not flush the underlying stream.  Unpaired
+ * surrogates are written as {@code '?'}, as {@link String#getBytes(String)} does.
+ */
+public class Utf8Appendable implements Appendable {
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int count;
+    /** High surrogate of a pair split across two appends, {@code 0} if none. */
+    private char highSurrogate;
+    private long bytesWritten;
+
+    public Utf8Appendable(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buf = new byte[Math.max(bufferSize, 16)];
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) {
+            csq = "null";
+        }
+        byte[] b = buf;
+        for (int i = start; i < end; i++) {
+            char c = csq.charAt(i);
+            if (c < 0x80 && highSurrogate == 0 && count < b.length) {
+                b[count++] = (byte) c;
+            } else {
+                write(c);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        write(c);
+        return this;
+    }
+
+    private void write(char c) throws IOException {
+        if (count + 4 > buf.length) {
+            drain();
+        }
+        if (highSurrogate != 0) {
+            char hi = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(hi, c);
+                buf[count++] = (byte) (0xf0 | (cp >> 18));
+                buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[count++] = (byte) (0x80 | (cp & 0x3f));
+                return;
+            }
+            buf[count++] = '?';
+        }
+        if (c < 0x80) {
+            buf[count++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[count++] = (byte) (0xc0 | (c >> 6));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buf[count++] = '?';
+        } else {
+            buf[count++] = (byte) (0xe0 | (c >> 12));
+            buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            bytesWritten += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to the underlying stream so far.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes any buffered bytes to the underlying stream, without flushing it.  A trailing high
+     * surrogate is written as {@code '?'}.
+     */
+    public void flush() throws IOException {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            if (count + 1 > buf.length) {
+                drain();
+            }
+            buf[count++] = '?';
+        }
+        drain();
+    }
+}
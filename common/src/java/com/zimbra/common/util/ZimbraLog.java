@@ -26,6 +26,7 @@ import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -840,6 +841,40 @@ public final class ZimbraLog {
         sContextString.remove();
     }
 
+    /**
+     * Returns a task that runs <tt>task</tt> with the current thread's logging context, for handing work to a thread
+     * pool.  The logging context of the thread that runs it is restored afterwards.
+     */
+    public static <V> Callable<V> wrapWithContext(final Callable<V> task) {
+        final Map<String, String> context = copyContext();
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                Map<String, String> previous = copyContext();
+                setContext(context);
+                try {
+                    return task.call();
+                } finally {
+                    setContext(previous);
+                }
+            }
+        };
+    }
+
+    private static Map<String, String> copyContext() {
+        Map<String, String> contextMap = sContextMap.get();
+        return contextMap == null ? null : new LinkedHashMap<String, String>(contextMap);
+    }
+
+    private static void setContext(Map<String, String> context) {
+        if (context == null || context.isEmpty()) {
+            clearContext();
+        } else {
+            sContextMap.set(new LinkedHashMap<String, String>(context));
+            updateContextString();
+        }
+    }
+
     public static String getStackTrace(int maxDepth) {
         // Thread.currentThread().getStackTrace() would seem cleaner but bizarrely is slower.
         StackTraceElement[] stElems = new Throwable().getStackTrace();
@@ -472,6 +472,8 @@ public final class JaxbUtil {
             com.zimbra.soap.admin.message.GetClearTwoFactorAuthDataStatusResponse.class,
             com.zimbra.soap.admin.message.GetClusterStatusRequest.class,
             com.zimbra.soap.admin.message.GetClusterStatusResponse.class,
+            com.zimbra.soap.admin.message.GetCommandProfileRequest.class,
+            com.zimbra.soap.admin.message.GetCommandProfileResponse.class,
             com.zimbra.soap.admin.message.GetConfigRequest.class,
             com.zimbra.soap.admin.message.GetConfigResponse.class,
             com.zimbra.soap.admin.message.GetCosRequest.class,
@@ -0,0 +1,64 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap.admin.message;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.soap.type.ZmBoolean;
+
+/**
+ * @zm-api-command-auth-required true
+ * @zm-api-command-admin-auth-required true
+ * @zm-api-command-description Returns the per-command execution profile collected by the server for SOAP requests
+ * and IMAP commands: execution count, and for the sampled executions total wall time, CPU time, DB statements,
+ * mailbox lock wait time and bytes written.  Commands are returned busiest first.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlRootElement(name=AdminConstants.E_GET_COMMAND_PROFILE_REQUEST)
+public class GetCommandProfileRequest {
+
+    /**
+     * @zm-api-field-tag protocol
+     * @zm-api-field-description <b>soap</b> or <b>imap</b>.  If not specified, commands of both protocols are
+     * returned.
+     */
+    @XmlAttribute(name=AdminConstants.A_PROTOCOL /* protocol */, required=false)
+    private String protocol;
+
+    /**
+     * @zm-api-field-tag reset
+     * @zm-api-field-description If set, the returned counters are cleared
+     */
+    @XmlAttribute(name=AdminConstants.A_RESET /* reset */, required=false)
+    private ZmBoolean reset;
+
+    public GetCommandProfileRequest() {
+    }
+
+    public GetCommandProfileRequest(String protocol) {
+        this.protocol = protocol;
+    }
+
+    public void setProtocol(String protocol) { this.protocol = protocol; }
+    public void setReset(Boolean reset) { this.reset = ZmBoolean.fromBool(reset); }
+    public String getProtocol() { return protocol; }
+    public boolean getReset() { return ZmBoolean.toBool(reset, false); }
+}
@@ -0,0 +1,56 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap.admin.message;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.zimbra.common.soap.AdminConstants;
+import com.zimbra.soap.admin.type.CommandProfileInfo;
+
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlRootElement(name=AdminConstants.E_GET_COMMAND_PROFILE_RESPONSE)
+public class GetCommandProfileResponse {
+
+    /**
+     * @zm-api-field-description Per-command profile
+     */
+    @XmlElement(name=AdminConstants.E_COMMAND /* command */, required=false)
+    private List<CommandProfileInfo> commands = Lists.newArrayList();
+
+    public List<CommandProfileInfo> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    public void setCommands(Iterable<CommandProfileInfo> commands) {
+        this.commands.clear();
+        if (commands != null) {
+            Iterables.addAll(this.commands, commands);
+        }
+    }
+
+    public void addCommand(CommandProfileInfo command) {
+        this.commands.add(command);
+    }
+}
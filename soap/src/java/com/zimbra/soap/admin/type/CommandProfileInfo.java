@@ -0,0 +1,131 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap.admin.type;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlType;
+
+import com.zimbra.common.soap.AdminConstants;
+
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlType(propOrder = {})
+public class CommandProfileInfo {
+
+    /**
+     * @zm-api-field-tag protocol
+     * @zm-api-field-description <b>soap</b> or <b>imap</b>
+     */
+    @XmlAttribute(name=AdminConstants.A_PROTOCOL /* protocol */, required=true)
+    private String protocol;
+
+    /**
+     * @zm-api-field-tag command-name
+     * @zm-api-field-description SOAP request name (with the operation appended for action requests) or IMAP
+     * command.  Commands beyond the per-protocol limit are reported as <b>other</b>.
+     */
+    @XmlAttribute(name=AdminConstants.A_NAME /* name */, required=true)
+    private String name;
+
+    /**
+     * @zm-api-field-tag count
+     * @zm-api-field-description Number of executions
+     */
+    @XmlAttribute(name=AdminConstants.A_COUNT /* count */, required=true)
+    private long count;
+
+    /**
+     * @zm-api-field-tag sampled
+     * @zm-api-field-description Number of executions that were sampled.  The remaining totals cover the sampled
+     * executions only.
+     */
+    @XmlAttribute(name=AdminConstants.A_SAMPLED /* sampled */, required=true)
+    private long sampled;
+
+    /**
+     * @zm-api-field-tag wall-ms
+     * @zm-api-field-description Total wall clock time in milliseconds
+     */
+    @XmlAttribute(name=AdminConstants.A_WALL_MS /* wallMs */, required=true)
+    private long wallMs;
+
+    /**
+     * @zm-api-field-tag max-wall-ms
+     * @zm-api-field-description Longest single execution in milliseconds
+     */
+    @XmlAttribute(name=AdminConstants.A_MAX_WALL_MS /* maxWallMs */, required=true)
+    private long maxWallMs;
+
+    /**
+     * @zm-api-field-tag cpu-ms
+     * @zm-api-field-description Total thread CPU time in milliseconds
+     */
+    @XmlAttribute(name=AdminConstants.A_CPU_MS /* cpuMs */, required=true)
+    private long cpuMs;
+
+    /**
+     * @zm-api-field-tag db-statements
+     * @zm-api-field-description Total number of SQL statements executed
+     */
+    @XmlAttribute(name=AdminConstants.A_DB_STATEMENTS /* dbStatements */, required=true)
+    private long dbStatements;
+
+    /**
+     * @zm-api-field-tag lock-wait-ms
+     * @zm-api-field-description Total time spent waiting for mailbox locks in milliseconds
+     */
+    @XmlAttribute(name=AdminConstants.A_LOCK_WAIT_MS /* lockWaitMs */, required=true)
+    private long lockWaitMs;
+
+    /**
+     * @zm-api-field-tag bytes-written
+     * @zm-api-field-description Total number of response bytes written
+     */
+    @XmlAttribute(name=AdminConstants.A_BYTES_WRITTEN /* bytesWritten */, required=true)
+    private long bytesWritten;
+
+    public CommandProfileInfo() {
+    }
+
+    public CommandProfileInfo(String protocol, String name) {
+        this.protocol = protocol;
+        this.name = name;
+    }
+
+    public void setProtocol(String protocol) { this.protocol = protocol; }
+    public void setName(String name) { this.name = name; }
+    public void setCount(long count) { this.count = count; }
+    public void setSampled(long sampled) { this.sampled = sampled; }
+    public void setWallMs(long wallMs) { this.wallMs = wallMs; }
+    public void setMaxWallMs(long maxWallMs) { this.maxWallMs = maxWallMs; }
+    public void setCpuMs(long cpuMs) { this.cpuMs = cpuMs; }
+    public void setDbStatements(long dbStatements) { this.dbStatements = dbStatements; }
+    public void setLockWaitMs(long lockWaitMs) { this.lockWaitMs = lockWaitMs; }
+    public void setBytesWritten(long bytesWritten) { this.bytesWritten = bytesWritten; }
+
+    public String getProtocol() { return protocol; }
+    public String getName() { return name; }
+    public long getCount() { return count; }
+    public long getSampled() { return sampled; }
+    public long getWallMs() { return wallMs; }
+    public long getMaxWallMs() { return maxWallMs; }
+    public long getCpuMs() { return cpuMs; }
+    public long getDbStatements() { return dbStatements; }
+    public long getLockWaitMs() { return lockWaitMs; }
+    public long getBytesWritten() { return bytesWritten; }
+}
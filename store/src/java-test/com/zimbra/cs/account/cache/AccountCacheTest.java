@@ -0,0 +1,109 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.NamedEntry;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+public final class AccountCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+    }
+
+    private static Account account(String name, String id) {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, id);
+        attrs.put(Provisioning.A_zimbraMailAlias, "alias-" + name);
+        attrs.put(Provisioning.A_zimbraOldMailAddress, "old-" + name);
+        return new Account(name, id, attrs, null, Provisioning.getInstance());
+    }
+
+    @Test
+    public void lookups() {
+        AccountCache cache = new AccountCache(100, 60000);
+        Account acct = account("user@example.com", "id-1");
+        cache.put(acct);
+
+        Assert.assertSame(acct, cache.getById("id-1"));
+        Assert.assertSame(acct, cache.getByName("USER@example.com"));
+        Assert.assertSame(acct, cache.getByName("alias-user@example.com"));
+        Assert.assertSame(acct, cache.getByName("old-user@example.com"));
+        Assert.assertNull(cache.getById("id-2"));
+        Assert.assertEquals(1, cache.getSize());
+
+        Assert.assertEquals(50.0, cache.getHitRate(IAccountCache.Index.id), 0.01);
+        // the alias lookup went to the name index first, and the old name lookup to both
+        Assert.assertEquals(100.0 / 3, cache.getHitRate(IAccountCache.Index.name), 0.01);
+        Assert.assertEquals(50.0, cache.getHitRate(IAccountCache.Index.alias), 0.01);
+        Assert.assertEquals(100.0, cache.getHitRate(IAccountCache.Index.oldName), 0.01);
+        Assert.assertEquals(80.0, cache.getHitRate(), 0.01);
+
+        cache.remove(acct);
+        Assert.assertNull(cache.getByName("alias-user@example.com"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void staleEntryIsEvicted() throws Exception {
+        AccountCache cache = new AccountCache(100, 1);
+        cache.put(account("user@example.com", "id-1"));
+        Thread.sleep(5);
+        Assert.assertNull(cache.getById("id-1"));
+        Assert.assertNull(cache.getByName("alias-user@example.com"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void refreshAhead() throws Exception {
+        final CountDownLatch reloaded = new CountDownLatch(1);
+        EntryRefresher refresher = new EntryRefresher(new EntryRefresher.Loader() {
+            @Override
+            public void reload(NamedEntry entry) throws ServiceException {
+                reloaded.countDown();
+            }
+        });
+        long ttl = 1000;
+        AccountCache cache = new AccountCache(100, ttl, refresher);
+        Account acct = account("user@example.com", "id-1");
+        cache.put(acct);
+
+        Assert.assertSame(acct, cache.getById("id-1"));
+        Assert.assertEquals(1, reloaded.getCount());
+
+        Thread.sleep(ttl * 9 / 10);
+        Assert.assertSame(acct, cache.getById("id-1"));
+        Assert.assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+
+        // once re-indexed by the refresher the entry outlives its original TTL
+        Thread.sleep(ttl / 2);
+        Assert.assertSame(acct, cache.getById("id-1"));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.apache.commons.dbcp.DelegatingConnection;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Unit test for {@link ConcurrentBagPool}.
+ */
+public final class ConcurrentBagPoolTest {
+
+    private static final class MockConnectionFactory implements ConnectionFactory {
+        int created;
+
+        @Override
+        public Connection createConnection() {
+            created++;
+            return Mockito.mock(Connection.class);
+        }
+    }
+
+    private static Connection physical(Connection conn) {
+        return ((DelegatingConnection) conn).getDelegate();
+    }
+
+    @Test
+    public void reuse() throws Exception {
+        MockConnectionFactory factory = new MockConnectionFactory();
+        ConcurrentBagPool pool = new ConcurrentBagPool(factory, 2, GenericObjectPool.WHEN_EXHAUSTED_BLOCK, 0, 0);
+
+        Connection conn = pool.getConnection();
+        Connection first = physical(conn);
+        Assert.assertEquals(1, pool.getNumActive());
+        conn.close();
+        Assert.assertTrue(conn.isClosed());
+        Mockito.verify(first).rollback();
+        Assert.assertEquals(0, pool.getNumActive());
+        Assert.assertEquals(1, pool.getNumIdle());
+
+        conn = pool.getConnection();
+        Assert.assertSame(first, physical(conn));
+        conn.close();
+        conn.close(); // second close is a no-op
+        Assert.assertEquals(1, factory.created);
+        Assert.assertEquals(0, pool.getNumActive());
+    }
+
+    @Test
+    public void affinity() throws Exception {
+        ConcurrentBagPool pool = new ConcurrentBagPool(new MockConnectionFactory(), 2,
+                GenericObjectPool.WHEN_EXHAUSTED_BLOCK, 0, 0);
+        Connection conn1 = pool.getConnection(1);
+        Connection conn2 = pool.getConnection(2);
+        Connection group1 = physical(conn1);
+        Connection group2 = physical(conn2);
+        conn1.close();
+        conn2.close();
+
+        // the most recently returned connection is skipped in favour of the one that served group 1
+        Connection conn = pool.getConnection(1);
+        Assert.assertSame(group1, physical(conn));
+        conn.close();
+        conn = pool.getConnection(2);
+        Assert.assertSame(group2, physical(conn));
+        conn.close();
+
+        // no match: any idle connection will do
+        conn = pool.getConnection(3);
+        Assert.assertEquals(2, pool.getNumOpen());
+        conn.close();
+    }
+
+    @Test
+    public void exhausted() throws Exception {
+        ConcurrentBagPool pool = new ConcurrentBagPool(new MockConnectionFactory(), 2,
+                GenericObjectPool.WHEN_EXHAUSTED_BLOCK, 50, 0);
+        Connection conn1 = pool.getConnection();
+        Connection conn2 = pool.getConnection();
+        Assert.assertNotSame(physical(conn1), physical(conn2));
+        try {
+            pool.getConnection();
+            Assert.fail("pool should be exhausted");
+        } catch (SQLException expected) {
+        }
+        Assert.assertEquals(0, pool.getNumWaiting());
+        conn1.close();
+        conn2.close();
+
+        ConcurrentBagPool growing = new ConcurrentBagPool(new MockConnectionFactory(), 1,
+                GenericObjectPool.WHEN_EXHAUSTED_GROW, 50, 0);
+        growing.getConnection();
+        growing.getConnection();
+        Assert.assertEquals(2, growing.getNumOpen());
+    }
+
+    @Test
+    public void handoff() throws Exception {
+        final ConcurrentBagPool pool = new ConcurrentBagPool(new MockConnectionFactory(), 1,
+                GenericObjectPool.WHEN_EXHAUSTED_BLOCK, 0, 0);
+        Connection conn = pool.getConnection();
+        final Connection first = physical(conn);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Connection> waiter = executor.submit(new Callable<Connection>() {
+                @Override
+                public Connection call() throws Exception {
+                    Connection conn = pool.getConnection();
+                    conn.close();
+                    return physical(conn);
+                }
+            });
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getNumWaiting() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals(1, pool.getNumWaiting());
+            conn.close();
+            Assert.assertSame(first, waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(1, pool.getNumOpen());
+    }
+
+    @Test
+    public void broken() throws Exception {
+        MockConnectionFactory factory = new MockConnectionFactory();
+        ConcurrentBagPool pool = new ConcurrentBagPool(factory, 1, GenericObjectPool.WHEN_EXHAUSTED_BLOCK, 0, 0);
+        Connection conn = pool.getConnection();
+        Connection first = physical(conn);
+        Mockito.when(first.isClosed()).thenReturn(true);
+        conn.close();
+        Assert.assertEquals(0, pool.getNumOpen());
+
+        conn = pool.getConnection();
+        Assert.assertNotSame(first, physical(conn));
+        Assert.assertEquals(2, factory.created);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.db.DbPool.DbConnection;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link DbBatch}.
+ */
+public final class DbBatchTest {
+
+    private static final String UPDATE_SIZE = "UPDATE mboxgroup1.mail_item SET size = ? WHERE mailbox_id = ? AND id = ?";
+    private static final String UPDATE_UNREAD = "UPDATE mboxgroup1.mail_item SET unread = ? WHERE mailbox_id = ? AND id = ?";
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    private DbConnection conn = null;
+    private Mailbox mbox = null;
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        conn = DbPool.getConnection(mbox);
+        for (int id = 100; id < 103; id++) {
+            DbUtil.executeUpdate(conn, "INSERT INTO mboxgroup1.mail_item " +
+                    "(mailbox_id, id, type, index_id, date, size, unread, flags, tags, mod_metadata, mod_content) " +
+                    "VALUES(?, ?, ?, 0, 0, 0, 0, 0, 0, 0, 0)", mbox.getId(), id, MailItem.Type.MESSAGE.toByte());
+        }
+        conn.commit();
+    }
+
+    @After
+    public void tearDown() {
+        LC.zimbra_db_batch_updates.setDefault(true);
+        conn.closeQuietly();
+    }
+
+    private int select(String column, int id) throws Exception {
+        DbResults results = DbUtil.executeQuery(conn, "SELECT " + column + " FROM mboxgroup1.mail_item " +
+                "WHERE mailbox_id = ? AND id = ?", mbox.getId(), id);
+        return results.getInt(1);
+    }
+
+    @Test
+    public void laterStatementsSeeQueuedUpdates() throws Exception {
+        conn.queueUpdate(UPDATE_SIZE, new DbBatch.Row().setLong(10).setInt(mbox.getId()).setInt(100));
+        conn.queueUpdate(UPDATE_SIZE, new DbBatch.Row().setLong(11).setInt(mbox.getId()).setInt(101));
+        conn.queueUpdate(UPDATE_UNREAD, new DbBatch.Row().setInt(1).setInt(mbox.getId()).setInt(101));
+        // queued updates keep their order, so the last write to a row wins
+        conn.queueUpdate(UPDATE_SIZE, new DbBatch.Row().setLong(12).setInt(mbox.getId()).setInt(101));
+
+        Assert.assertEquals(10, select("size", 100));
+        Assert.assertEquals(12, select("size", 101));
+        Assert.assertEquals(1, select("unread", 101));
+        Assert.assertEquals(0, select("size", 102));
+        conn.commit();
+    }
+
+    @Test
+    public void rollbackDropsQueuedUpdates() throws Exception {
+        conn.queueUpdate(UPDATE_SIZE, new DbBatch.Row().setLong(10).setInt(mbox.getId()).setInt(100));
+        conn.rollback();
+        Assert.assertEquals(0, select("size", 100));
+    }
+
+    /** Reads through the JDBC connection, which does not send queued updates first. */
+    private int selectUnflushed(String column, int id) throws Exception {
+        PreparedStatement stmt = conn.getConnection().prepareStatement("SELECT " + column +
+                " FROM mboxgroup1.mail_item WHERE mailbox_id = ? AND id = ?");
+        try {
+            stmt.setInt(1, mbox.getId());
+            stmt.setInt(2, id);
+            ResultSet rs = stmt.executeQuery();
+            Assert.assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            conn.closeQuietly(stmt);
+        }
+    }
+
+    @Test
+    public void queuedUntilNextStatement() throws Exception {
+        conn.queueUpdate(UPDATE_SIZE, new DbBatch.Row().setLong(10).setInt(mbox.getId()).setInt(100));
+        Assert.assertEquals(0, selectUnflushed("size", 100));
+        conn.flush();
+        Assert.assertEquals(10, selectUnflushed("size", 100));
+        conn.commit();
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        LC.zimbra_db_batch_updates.setDefault(false);
+        conn.queueUpdate(UPDATE_SIZE, new DbBatch.Row().setLong(10).setInt(mbox.getId()).setInt(100));
+        Assert.assertEquals(10, selectUnflushed("size", 100));
+        conn.commit();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTest;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Counts the database statements sent per delivered message, with and without {@link DbBatch}.
+ */
+public final class DbRoundTripTest {
+
+    private static final int MESSAGES = 20;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @After
+    public void tearDown() {
+        LC.zimbra_db_batch_updates.setDefault(true);
+    }
+
+    /** Returns the average number of statements executed per message delivered. */
+    private double deliver(boolean batch) throws Exception {
+        LC.zimbra_db_batch_updates.setDefault(batch);
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        // warm up the folder and tag caches so they don't count against the first message
+        mbox.addMessage(null, new ParsedMessage("Subject: warmup".getBytes(), false),
+                MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+
+        int start = ZimbraPerf.getPrepareCount();
+        for (int i = 0; i < MESSAGES; i++) {
+            String raw = "From: sender" + i + "@zimbra.com\r\nSubject: message " + i + "\r\n\r\nbody " + i;
+            mbox.addMessage(null, new ParsedMessage(raw.getBytes(), false), MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        }
+        double perMessage = (double) (ZimbraPerf.getPrepareCount() - start) / MESSAGES;
+        ZimbraLog.test.info("%s: %.1f statements per delivered message", batch ? "batched" : "unbatched", perMessage);
+        return perMessage;
+    }
+
+    @Test
+    public void statementsPerMessage() throws Exception {
+        double unbatched = deliver(false);
+        MailboxTestUtil.clearData();
+        double batched = deliver(true);
+        Assert.assertTrue("batched=" + batched + " unbatched=" + unbatched, batched <= unbatched);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.fb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.fb.FreeBusy.Interval;
+import com.zimbra.cs.fb.FreeBusy.IntervalList;
+import com.zimbra.cs.mailbox.calendar.IcalXmlStrMap;
+
+public class IntervalListTest {
+
+    private static final String[] STATUS = {
+        IcalXmlStrMap.FBTYPE_BUSY, IcalXmlStrMap.FBTYPE_BUSY_TENTATIVE, IcalXmlStrMap.FBTYPE_BUSY_UNAVAILABLE
+    };
+
+    private static String dump(IntervalList list) {
+        StringBuilder sb = new StringBuilder();
+        for (Interval cur = list.getHead(); cur != null; cur = cur.getNext()) {
+            sb.append(cur.mStart).append('-').append(cur.mEnd).append(':').append(cur.mStatus).append(' ');
+            if (cur.getNext() != null) {
+                Assert.assertEquals(cur.mEnd, cur.getNext().mStart);
+                Assert.assertFalse("not coalesced: " + sb, cur.mStatus.equals(cur.getNext().mStatus));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static IntervalList fill(List<long[]> spans) {
+        IntervalList list = new IntervalList(0, 1000);
+        for (long[] span : spans) {
+            list.addInterval(new Interval(span[0], span[1], STATUS[(int) span[2]]));
+        }
+        return list;
+    }
+
+    @Test
+    public void coalesce() {
+        IntervalList list = new IntervalList(0, 100);
+        list.addInterval(new Interval(10, 20, IcalXmlStrMap.FBTYPE_BUSY));
+        list.addInterval(new Interval(20, 30, IcalXmlStrMap.FBTYPE_BUSY));
+        list.addInterval(new Interval(50, 60, IcalXmlStrMap.FBTYPE_BUSY_TENTATIVE));
+        list.addInterval(new Interval(55, 70, IcalXmlStrMap.FBTYPE_BUSY));
+        list.addInterval(new Interval(5, 15, IcalXmlStrMap.FBTYPE_BUSY));
+        Assert.assertEquals("0-5:F 5-30:B 30-50:F 50-55:T 55-70:B 70-100:F ", dump(list));
+    }
+
+    @Test
+    public void orderIndependent() {
+        Random rnd = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            List<long[]> spans = new ArrayList<long[]>();
+            for (int i = rnd.nextInt(30); i > 0; i--) {
+                long start = rnd.nextInt(1050) - 50;
+                spans.add(new long[] { start, start + 51 + rnd.nextInt(100), rnd.nextInt(STATUS.length) });
+            }
+            String shuffled = dump(fill(spans));
+            Collections.sort(spans, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] o1, long[] o2) {
+                    return Long.compare(o1[0], o2[0]);
+                }
+            });
+            Assert.assertEquals(shuffled, dump(fill(spans)));
+        }
+    }
+}
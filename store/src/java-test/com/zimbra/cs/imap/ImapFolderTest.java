@@ -1,5 +1,12 @@
 package com.zimbra.cs.imap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Set;
 
@@ -12,6 +19,7 @@ import org.junit.Test;
 
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Flag;
 import com.zimbra.cs.mailbox.MailItem.Type;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
@@ -61,4 +69,73 @@ public class ImapFolderTest {
         Assert.assertNotNull(i4set);
         Assert.assertEquals(3, i4set.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void serializeRoundTrip() throws Exception {
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        ImapPath path = new ImapPath("trash", creds);
+
+        ImapFolder i4folder = new ImapFolder(path, (byte) 0, null);
+        i4folder.cache(new ImapMessage(1, Type.MESSAGE, 11, Flag.BITMASK_UNREAD, null), true);
+        i4folder.cache(new ImapMessage(300, Type.MESSAGE, 12, Flag.BITMASK_FLAGGED, new String[] { "foo", "bar" }), false);
+        i4folder.cache(new ImapMessage(3, Type.CONTACT, 70000, 0, new String[] { "foo", "bar" }), false);
+        i4folder.getBySequence(3).setExpunged(true);
+        i4folder.getBySequence(2).setSearchAttributes(1500000000000L, 4096, 77);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(i4folder);
+        out.close();
+        ImapFolder restored = (ImapFolder) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        Assert.assertEquals(3, restored.getSize());
+        for (int seq = 1; seq <= 3; seq++) {
+            ImapMessage expected = i4folder.getBySequence(seq, true);
+            ImapMessage actual = restored.getBySequence(seq, true);
+            Assert.assertEquals(expected.msgId, actual.msgId);
+            Assert.assertEquals(expected.imapUid, actual.imapUid);
+            Assert.assertEquals(expected.flags, actual.flags);
+            Assert.assertEquals(expected.sflags, actual.sflags);
+            Assert.assertEquals(seq, actual.sequence);
+            Assert.assertEquals(expected.date, actual.date);
+            Assert.assertEquals(expected.size, actual.size);
+            Assert.assertEquals(expected.modseq, actual.modseq);
+        }
+        Assert.assertNull(restored.getBySequence(1).tags);
+        Assert.assertSame(restored.getBySequence(2).tags, restored.getBySequence(3, true).tags);
+        Assert.assertEquals(300, restored.getByImapId(12).msgId);
+        Assert.assertTrue(restored.getBySequence(3, true).isExpunged());
+        Assert.assertEquals(Type.CONTACT, restored.getBySequence(3, true).getType());
+    }
+
+    @Test
+    public void searchLocally() throws Exception {
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", creds), (byte) 0, null);
+        long day = 24 * 3600 * 1000L;
+        Calendar cal = new GregorianCalendar(2020, Calendar.MARCH, 10);
+        long base = cal.getTimeInMillis();
+        for (int i = 1; i <= 10; i++) {
+            ImapMessage i4msg = new ImapMessage(i, Type.MESSAGE, 100 + i, 0, null);
+            i4folder.cache(i4msg.setSearchAttributes(base + i * day, i * 1000, 500 + i), false);
+        }
+        ImapSearch larger = new ImapSearch.SizeSearch(ImapSearch.SizeSearch.Relation.larger, 7000);
+        Assert.assertTrue(larger.canBeRunLocally(i4folder));
+        Assert.assertEquals(3, larger.evaluate(i4folder).size());
+        Assert.assertEquals(6, new ImapSearch.SizeSearch(ImapSearch.SizeSearch.Relation.smaller, 7000)
+                .evaluate(i4folder).size());
+        Assert.assertEquals(2, new ImapSearch.ModifiedSearch(508).evaluate(i4folder).size());
+
+        cal.add(Calendar.DAY_OF_MONTH, 5);
+        Date date = cal.getTime();
+        Assert.assertEquals(4, new ImapSearch.DateSearch(ImapSearch.DateSearch.Relation.before, date)
+                .evaluate(i4folder).size());
+        Assert.assertEquals(6, new ImapSearch.DateSearch(ImapSearch.DateSearch.Relation.after, date)
+                .evaluate(i4folder).size());
+
+        // a message without a cached date, size and MODSEQ sends those keys to the index
+        i4folder.cache(new ImapMessage(11, Type.MESSAGE, 111, 0, null), false);
+        Assert.assertFalse(larger.canBeRunLocally(i4folder));
+        Assert.assertTrue(new ImapSearch.FlagSearch("\\Seen").canBeRunLocally(i4folder));
+    }
+}
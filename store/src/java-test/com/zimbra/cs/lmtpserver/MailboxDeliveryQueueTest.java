@@ -0,0 +1,101 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+
+/**
+ * Unit test for {@link MailboxDeliveryQueue}.
+ */
+public final class MailboxDeliveryQueueTest {
+
+    @BeforeClass
+    public static void init() {
+        LC.zimbra_lmtp_delivery_threads.setDefault(4);
+    }
+
+    @Test
+    public void sameMailboxInOrder() throws Exception {
+        MailboxDeliveryQueue queue = MailboxDeliveryQueue.getInstance();
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 50; i++) {
+            final int n = i;
+            futures.add(queue.submit(1, new Callable<Void>() {
+                @Override
+                public Void call() {
+                    order.add(n);
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(i, order.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void blockedMailboxDoesNotStallOthers() throws Exception {
+        MailboxDeliveryQueue queue = MailboxDeliveryQueue.getInstance();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Void> blocked = queue.submit(2, new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        });
+        Future<Void> behind = queue.submit(2, new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+        Future<String> other = queue.submit(3, new Callable<String>() {
+            @Override
+            public String call() {
+                return "delivered";
+            }
+        });
+        Assert.assertEquals("delivered", other.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(behind.isDone());
+        Assert.assertEquals(1, MailboxDeliveryQueue.getQueuedCount());
+
+        // a delivery that has not started yet can be withdrawn
+        Assert.assertTrue(behind.cancel(false));
+        release.countDown();
+        blocked.get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.zimbra.common.account.Key;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.filter.RuleManager;
+import com.zimbra.cs.mailbox.DeliveryContext;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.service.mail.SendMsgTest.DirectInsertionMailboxManager;
+import com.zimbra.cs.store.Blob;
+import com.zimbra.cs.store.StoreManager;
+
+/**
+ * Unit test for {@link ZimbraLmtpBackend}.
+ */
+public final class ZimbraLmtpBackendTest {
+
+    private static final String MESSAGE = "From: sender@zimbra.com\r\n"
+            + "To: test@zimbra.com, test2@zimbra.com\r\n"
+            + "Subject: example\r\n"
+            + "\r\n"
+            + "body\r\n";
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createDomain("zimbra.com", Maps.<String, Object>newHashMap());
+        for (String name : new String[] { "test@zimbra.com", "test2@zimbra.com" }) {
+            Map<String, Object> attrs = Maps.newHashMap();
+            attrs.put(Provisioning.A_zimbraId, UUID.randomUUID().toString());
+            prov.createAccount(name, "secret", attrs);
+        }
+        MailboxManager.setInstance(new DirectInsertionMailboxManager());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void queuedDeliveryWithHeaderFilter() throws Exception {
+        Account acct1 = Provisioning.getInstance().get(Key.AccountBy.name, "test@zimbra.com");
+        Account acct2 = Provisioning.getInstance().get(Key.AccountBy.name, "test2@zimbra.com");
+        Mailbox mbox1 = MailboxManager.getInstance().getMailboxByAccount(acct1);
+        Mailbox mbox2 = MailboxManager.getInstance().getMailboxByAccount(acct2);
+
+        RuleManager.clearCachedRules(acct1);
+        acct1.setSieveEditHeaderEnabled(true);
+        acct1.setAdminSieveScriptBefore("require [\"editheader\"];\n"
+                + "addheader \"X-Filtered\" \"yes\";\n");
+
+        Blob blob = StoreManager.getInstance().storeIncoming(new ByteArrayInputStream(MESSAGE.getBytes()));
+        try {
+            List<Integer> targetMailboxIds = Lists.newArrayList(mbox1.getId(), mbox2.getId());
+            DeliveryContext dctxt1 = ZimbraLmtpBackend.newQueuedDeliveryContext(true, targetMailboxIds, blob, true);
+            DeliveryContext dctxt2 = ZimbraLmtpBackend.newQueuedDeliveryContext(true, targetMailboxIds, blob, true);
+
+            // the filtered recipient is delivered first and must leave the incoming blob alone
+            RuleManager.applyRulesToIncomingMessage(new OperationContext(mbox1), mbox1,
+                    new ParsedMessage(blob, null, false), 0, acct1.getName(), dctxt1, Mailbox.ID_FOLDER_INBOX, true);
+            Assert.assertSame(blob, dctxt2.getIncomingBlob());
+            Assert.assertTrue(blob.getFile().exists());
+            Assert.assertEquals(MESSAGE, new String(ByteUtil.getContent(blob.getInputStream(), -1)));
+
+            RuleManager.applyRulesToIncomingMessage(new OperationContext(mbox2), mbox2,
+                    new ParsedMessage(blob, null, false), 0, acct2.getName(), dctxt2, Mailbox.ID_FOLDER_INBOX, true);
+
+            Message msg1 = mbox1.getMessageById(null,
+                    mbox1.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE).get(0));
+            Assert.assertEquals("yes", msg1.getMimeMessage().getHeader("X-Filtered", null));
+            Message msg2 = mbox2.getMessageById(null,
+                    mbox2.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE).get(0));
+            Assert.assertNull(msg2.getMimeMessage().getHeader("X-Filtered"));
+            Assert.assertEquals(MESSAGE, new String(msg2.getContent()));
+        } finally {
+            StoreManager.getInstance().quietDelete(blob);
+        }
+    }
+}
@@ -17,9 +17,12 @@
 
 package com.zimbra.cs.mailbox;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import javax.mail.internet.InternetAddress;
 
@@ -297,4 +300,64 @@ public final class ContactAutoCompleteTest {
         ContactAutoComplete autocomplete = new ContactAutoComplete(mbox.getAccount(), new OperationContext(mbox));
         Assert.assertEquals(0, autocomplete.query("noex", null, 10).entries.size());
      }
+
+    @Test
+    public void matchesTokenPrefixes() {
+        Assert.assertTrue(ContactAutoComplete.matchesTokenPrefixes(Arrays.asList("jo", "sm"), "John Smith"));
+        Assert.assertTrue(ContactAutoComplete.matchesTokenPrefixes(Arrays.asList("ann", "sm"), "Mary Ann  Smith"));
+        Assert.assertFalse(ContactAutoComplete.matchesTokenPrefixes(Arrays.asList("sm", "jo"), "John Smith"));
+        Assert.assertFalse(ContactAutoComplete.matchesTokenPrefixes(Arrays.asList("jo", "jo"), "John Smith"));
+        Assert.assertFalse(ContactAutoComplete.matchesTokenPrefixes(Arrays.asList("ohn", "sm"), "John Smith"));
+        Assert.assertFalse(ContactAutoComplete.matchesTokenPrefixes(Arrays.asList("jo", "sm"), null));
+    }
+
+    @Test
+    public void rankingSearch() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        ContactRankings.increment(mbox.getAccountId(), Arrays.asList(
+                new InternetAddress("mary@zimbra.com", "Mary Ann Smith"), new InternetAddress("bob@zimbra.com")));
+
+        ContactRankings rankings = new ContactRankings(mbox.getAccountId());
+        Assert.assertEquals(1, rankings.query("Mary@zimbra.com"));
+        Assert.assertEquals(1, rankings.search("ma").size());
+        Assert.assertEquals(1, rankings.search("ann").size());
+        Assert.assertEquals(1, rankings.search("Mary Sm").size());
+        Assert.assertEquals(0, rankings.search("smith mary").size());
+        Assert.assertEquals(1, rankings.search("bob@").size());
+        Assert.assertEquals(2, rankings.search("").size());
+
+        // updates replace the cached table
+        ContactRankings.increment(mbox.getAccountId(), Collections.singleton(new InternetAddress("bob@zimbra.com")));
+        Assert.assertEquals(2, new ContactRankings(mbox.getAccountId()).query("bob@zimbra.com"));
+        ContactRankings.remove(mbox.getAccountId(), "bob@zimbra.com");
+        Assert.assertEquals(0, new ContactRankings(mbox.getAccountId()).search("bob").size());
+    }
+
+    @Test
+    public void autoCompleteIndex() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put(ContactConstants.A_firstName, "Jane");
+        fields.put(ContactConstants.A_lastName, "Doe");
+        fields.put(ContactConstants.A_email, "jdoe@zimbra.com");
+        Contact contact = mbox.createContact(null, new ParsedContact(fields), Mailbox.ID_FOLDER_CONTACTS, null);
+
+        Assert.assertEquals("jdoe@zimbra", ContactAutoCompleteIndex.getLookupKey("Jane jdoe@zimbra"));
+        ContactAutoCompleteIndex index = ContactAutoCompleteIndex.get(mbox);
+        Set<Integer> folders = Collections.singleton(Mailbox.ID_FOLDER_CONTACTS);
+        Assert.assertEquals(Collections.singletonList(contact.getId()),
+                new ArrayList<Integer>(index.search("ja", folders)));
+        Assert.assertEquals(1, index.search("jdoe@", folders).size());
+        Assert.assertEquals(0, index.search("ja", Collections.singleton(Mailbox.ID_FOLDER_AUTO_CONTACTS)).size());
+
+        // changes are picked up by the listener without rebuilding the index
+        fields.put(ContactConstants.A_firstName, "Janet");
+        fields.put(ContactConstants.A_lastName, "Roe");
+        mbox.modifyContact(null, contact.getId(), new ParsedContact(fields));
+        Assert.assertSame(index, ContactAutoCompleteIndex.get(mbox));
+        Assert.assertEquals(0, index.search("doe", folders).size());
+        Assert.assertEquals(1, index.search("roe", folders).size());
+        mbox.delete(null, contact.getId(), MailItem.Type.CONTACT);
+        Assert.assertEquals(0, index.search("janet", folders).size());
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ItemCacheManager}.
+ */
+public final class ItemCacheManagerTest {
+
+    /** Segment holding fixed-size entries. */
+    private static final class TestSegment extends ItemCacheManager.Segment {
+        private final Deque<Integer> entries = new ArrayDeque<Integer>();
+        private final int entrySize;
+
+        TestSegment(ItemCacheManager manager, int mailboxId, int count, int entrySize) {
+            super(manager, mailboxId);
+            this.entrySize = entrySize;
+            for (int i = 0; i < count; i++) {
+                entries.addLast(i);
+                adjustWeight(entrySize);
+            }
+            manager.register(this);
+        }
+
+        @Override
+        int size() {
+            return entries.size();
+        }
+
+        @Override
+        int evictEldest(int count) {
+            int evicted = 0;
+            while (evicted < count && !entries.isEmpty()) {
+                entries.removeFirst();
+                adjustWeight(-entrySize);
+                evicted++;
+            }
+            return evicted;
+        }
+    }
+
+    @Test
+    public void underBudget() {
+        ItemCacheManager manager = new ItemCacheManager(10000);
+        TestSegment segment = new TestSegment(manager, 1, 50, 100);
+        manager.reclaim(null);
+        Assert.assertEquals(50, segment.size());
+        Assert.assertEquals(5000, manager.getDataSize());
+        Assert.assertEquals(0, manager.getEvictions());
+    }
+
+    @Test
+    public void largestSegmentIsTrimmedFirst() {
+        ItemCacheManager manager = new ItemCacheManager(10000);
+        TestSegment small = new TestSegment(manager, 1, 20, 100);
+        TestSegment big = new TestSegment(manager, 2, 100, 100);
+        manager.reclaim(null);
+
+        // only the big mailbox gives up items, down to 90% of the budget in total
+        Assert.assertEquals(20, small.size());
+        Assert.assertEquals(70, big.size());
+        Assert.assertEquals(9000, manager.getDataSize());
+        Assert.assertEquals(30, manager.getEvictions());
+        Assert.assertEquals(30, big.getEvictions());
+    }
+
+    @Test
+    public void busySegmentIsSkipped() {
+        ItemCacheManager manager = new ItemCacheManager(10000);
+        TestSegment other = new TestSegment(manager, 1, 60, 100);
+        TestSegment busy = new TestSegment(manager, 2, 100, 100);
+        busy.acquire();
+        manager.reclaim(null);
+
+        // the idle mailbox gives up everything it has to the busy one
+        Assert.assertEquals(100, busy.size());
+        Assert.assertTrue(other.size() < 60);
+
+        // but the thread running the transaction can trim its own segment
+        manager.reclaim(busy);
+        busy.release();
+        Assert.assertTrue(manager.getDataSize() <= 10000);
+    }
+
+    @Test
+    public void hitRate() {
+        ItemCacheManager manager = new ItemCacheManager(10000);
+        TestSegment segment = new TestSegment(manager, 1, 1, 100);
+        Assert.assertEquals(-1, segment.getHitRate());
+        segment.recordAccess(true);
+        segment.recordAccess(true);
+        segment.recordAccess(true);
+        segment.recordAccess(false);
+        Assert.assertEquals(75, segment.getHitRate());
+        Assert.assertEquals(1, manager.getMailboxStats(10).size());
+    }
+}
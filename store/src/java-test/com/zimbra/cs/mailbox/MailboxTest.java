@@ -26,6 +26,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -121,6 +122,28 @@ public final class MailboxTest {
         Assert.assertEquals(2, terms.get(3).getFreq());
     }
 
+    @Test
+    public void reIndex() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        for (int i = 0; i < 20; i++) {
+            mbox.addMessage(null, new ParsedMessage(("From: test" + i + "@sub" + (i % 4) + ".zimbra.com").getBytes(),
+                    false), dopt, null);
+        }
+        mbox.index.indexDeferredItems();
+
+        mbox.index.startReIndex();
+        Assert.assertTrue("re-index completed", mbox.index.awaitReIndex(30, TimeUnit.SECONDS));
+        Assert.assertFalse(mbox.index.isReIndexInProgress());
+
+        List<BrowseTerm> terms = mbox.browse(null, Mailbox.BrowseBy.domains, null, 100);
+        Assert.assertEquals("Number of expected terms", 4, terms.size());
+        for (BrowseTerm term : terms) {
+            Assert.assertEquals(term.getText(), 10, term.getFreq());
+        }
+    }
+
     @Test
     public void testRecentMessageCount() throws Exception {
         Account acct1 = Provisioning.getInstance().get(Key.AccountBy.id, MockProvisioning.DEFAULT_ACCOUNT_ID);
@@ -0,0 +1,123 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.HashMap;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+
+public final class MessageCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+        MessageCache.loadSettings();
+    }
+
+    private static void cache(String digest) {
+        MimeMessage mm = new MimeMessage((Session) null);
+        MessageCache.cacheMessage(digest, mm, mm);
+    }
+
+    @Test
+    public void cacheAndPurge() throws Exception {
+        cache("digest-1");
+        Assert.assertTrue(MessageCache.contains("digest-1"));
+        Assert.assertEquals(1, MessageCache.getSize());
+        MessageCache.purge("digest-1");
+        Assert.assertFalse(MessageCache.contains("digest-1"));
+        Assert.assertEquals(0, MessageCache.getSize());
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+
+    @Test
+    public void boundedByCount() throws Exception {
+        MessageCache.setLimits(64, LC.zimbra_message_cache_max_bytes.longValue());
+        for (int i = 0; i < 1000; i++) {
+            cache("digest-" + i);
+        }
+        Assert.assertTrue(MessageCache.getSize() <= 64);
+        Assert.assertTrue(MessageCache.getSize() > 0);
+    }
+
+    @Test
+    public void boundedByWeight() throws Exception {
+        // room for a single bare node per segment
+        MessageCache.setLimits(1000, 16 * 2048);
+        for (int i = 0; i < 1000; i++) {
+            cache("digest-" + i);
+        }
+        Assert.assertTrue(MessageCache.getSize() <= 16);
+    }
+
+    @Test
+    public void noByteLimit() throws Exception {
+        // 0 bytes means no byte limit, only the entry count applies
+        MessageCache.setLimits(64, 0);
+        for (int i = 0; i < 1000; i++) {
+            cache("digest-" + i);
+        }
+        Assert.assertTrue(MessageCache.getSize() <= 64);
+        Assert.assertTrue(MessageCache.getSize() > 16);
+
+        MessageCache.setLimits(0, 0);
+        Assert.assertEquals("0 entries disables the cache", 0, MessageCache.getSize());
+    }
+
+    @Test
+    public void scanDoesNotFlushHotMessage() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        Message hot = mbox.addMessage(null, MailboxTestUtil.generateMessage("hot"), dopt, null);
+        Message[] scan = new Message[200];
+        for (int i = 0; i < scan.length; i++) {
+            scan[i] = mbox.addMessage(null, MailboxTestUtil.generateMessage("scan " + i), dopt, null);
+        }
+
+        MessageCache.setLimits(32, LC.zimbra_message_cache_max_bytes.longValue());
+        for (int i = 0; i < 5; i++) {
+            hot.getMimeMessage();
+        }
+        for (Message msg : scan) {
+            msg.getMimeMessage();
+        }
+        Assert.assertTrue("hot message evicted by scan", MessageCache.contains(hot.getDigest()));
+        Assert.assertTrue(MessageCache.getSize() <= 32);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.BEncoding;
+
+/**
+ * Unit test for {@link MetadataEncoding}.
+ */
+public final class MetadataEncodingTest {
+
+    private static Metadata sample() {
+        Metadata fields = new Metadata();
+        fields.put("firstName", "Jürgen");
+        fields.put("x-custom", "😀 emoji");
+        Metadata md = new Metadata();
+        md.put(Metadata.FN_MODSEQ, 628);
+        md.put(Metadata.FN_TOTAL_SIZE, 7596456L);
+        md.put("neg", -1L);
+        md.put("min", Long.MIN_VALUE);
+        md.put("max", Long.MAX_VALUE);
+        md.put(Metadata.FN_FRAGMENT, "hello: {world} [list] #1 ~2");
+        md.put(Metadata.FN_DRAFT, true);
+        md.put(Metadata.FN_FIELDS, fields);
+        MetadataList list = new MetadataList();
+        list.add("one");
+        list.add(2);
+        list.add(new Metadata().put("k", "v"));
+        md.put(Metadata.FN_ENTRIES, list);
+        md.put("empty", new Metadata());
+        md.put("", "empty key");
+        return md;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Metadata md = sample();
+        String compact = md.toCompactString();
+        Assert.assertTrue(Metadata.isCompact(compact));
+        Map<?, ?> expected = BEncoding.decode(md.toString());
+        expected.remove(Metadata.FN_MD_VERSION);
+        Assert.assertEquals(expected, MetadataEncoding.decode(compact));
+
+        Metadata decoded = new Metadata(compact);
+        Assert.assertEquals(628, decoded.getInt(Metadata.FN_MODSEQ, 0));
+        Assert.assertEquals(Long.MIN_VALUE, decoded.getLong("min"));
+        Assert.assertEquals(Long.MAX_VALUE, decoded.getLong("max"));
+        Assert.assertEquals(-1, decoded.getLong("neg"));
+        Assert.assertTrue(decoded.getBool(Metadata.FN_DRAFT));
+        Assert.assertEquals("hello: {world} [list] #1 ~2", decoded.get(Metadata.FN_FRAGMENT));
+        Assert.assertEquals("😀 emoji", decoded.getMap(Metadata.FN_FIELDS).get("x-custom"));
+        Assert.assertEquals("Jürgen", decoded.getMap(Metadata.FN_FIELDS).get("firstName"));
+        MetadataList list = decoded.getList(Metadata.FN_ENTRIES);
+        Assert.assertEquals("one", list.get(0));
+        Assert.assertEquals(2, list.getLong(1));
+        Assert.assertEquals("v", list.getMap(2).get("k"));
+        Assert.assertTrue(decoded.getMap("empty").isEmpty());
+        Assert.assertEquals("empty key", decoded.get(""));
+    }
+
+    @Test
+    public void lazyFields() throws Exception {
+        Metadata decoded = new Metadata(sample().toCompactString());
+        // untouched fields are copied as-is when the row is written again
+        Assert.assertEquals(sample().toCompactString(), decoded.toCompactString());
+        Assert.assertTrue(decoded.map.get(Metadata.FN_FIELDS) instanceof MetadataEncoding.Lazy);
+        decoded.getMap(Metadata.FN_FIELDS);
+        Assert.assertFalse(decoded.map.get(Metadata.FN_FIELDS) instanceof MetadataEncoding.Lazy);
+        Assert.assertTrue(decoded.map.get(Metadata.FN_ENTRIES) instanceof MetadataEncoding.Lazy);
+
+        // maps handed to other metadata must not carry encoded values along
+        Metadata outer = new Metadata().put("inner", new Metadata(sample().toCompactString()));
+        Assert.assertEquals(outer.toString(), new Metadata(outer.toString()).toString());
+        Assert.assertEquals("628", new Metadata(outer.toCompactString()).getMap("inner").get(Metadata.FN_MODSEQ));
+    }
+
+    @Test
+    public void legacy() throws Exception {
+        String legacy = "d1:ai1e4:aclmd1:gld1:ei0e1:g36:474b7021-cef6-469d-b5fb-54c96117efd11:ri1e1:ti1eee2:gei0e2:iei0ee" +
+                "5:mdveri4e4:mseqi628e2:szi7596456e4:unxti744e1:vi10e2:vti5ee";
+        String compact = Metadata.toCompact(legacy);
+        Assert.assertTrue(Metadata.isCompact(compact));
+        Assert.assertTrue(compact.length() < legacy.length());
+        Assert.assertTrue(Metadata.sameContent(legacy, compact));
+        Assert.assertFalse(Metadata.sameContent(legacy, Metadata.toCompact(legacy.replace("i628e", "i629e"))));
+        Assert.assertEquals(new Metadata(legacy).prettyPrint(), new Metadata(compact).prettyPrint());
+        Assert.assertSame(compact, Metadata.toCompact(compact));
+
+        // old BlobMetaData rows and garbage are left alone
+        String blob = "s=43:Roland Schemers <roland.schemers@gmail.com>;";
+        Assert.assertSame(blob, Metadata.toCompact(blob));
+        Assert.assertEquals("dnot bencoded", Metadata.toCompact("dnot bencoded"));
+    }
+
+    @Test
+    public void invalid() {
+        String compact = sample().toCompactString();
+        for (String bad : Arrays.asList(compact.substring(0, compact.length() - 1), compact + "x", "~2" + compact.substring(2),
+                "~1" + "1" + "#z+0", "~11:~")) {
+            try {
+                new Metadata(bad);
+                Assert.fail(bad);
+            } catch (MailServiceException e) {
+                Assert.assertEquals(MailServiceException.INVALID_METADATA, e.getCode());
+            }
+        }
+    }
+
+    @Test
+    public void keysAreInterned() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(Metadata.FN_MODSEQ, 1L);
+        String compact = MetadataEncoding.encode(map);
+        Assert.assertFalse(compact.contains(Metadata.FN_MODSEQ));
+        List<?> keys = Arrays.asList(MetadataEncoding.decode(compact).keySet().toArray());
+        Assert.assertSame(Metadata.FN_MODSEQ, keys.get(0));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.zimbra.common.calendar.ZCalendar.ZCalendarBuilder;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.CalendarItem;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+
+/**
+ * Checks that the lazy {@link Recurrence#instanceIterator} and {@link CalendarItem#instanceIterator} return the same
+ * instances, in the same order, as the eager {@link Recurrence#expandInstances} and
+ * {@link CalendarItem#expandInstances}.
+ */
+public final class RecurrenceTest {
+    private static final long YEAR_START = utc(2030, 1, 1, 0, 0);
+    private static final long YEAR_END = utc(2031, 1, 1, 0, 0);
+
+    private Mailbox mbox;
+    private OperationContext octxt;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Account acct = Provisioning.getInstance().getAccountById(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        octxt = new OperationContext(acct);
+    }
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        java.util.Calendar cal = java.util.Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(year, month - 1, day, hour, minute);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Adds a series and its exceptions, each given as the properties of one VEVENT, and returns the calendar item.
+     */
+    private CalendarItem add(String... vevents) throws Exception {
+        StringBuilder ics = new StringBuilder("BEGIN:VCALENDAR\r\nVERSION:2.0\r\nPRODID:Zimbra-Calendar-Provider\r\n");
+        for (String vevent : vevents) {
+            ics.append("BEGIN:VEVENT\r\n")
+                .append("UID:recurrence-test\r\n")
+                .append("SUMMARY:recurrence test\r\n")
+                .append("ORGANIZER:mailto:test@zimbra.com\r\n")
+                .append(vevent)
+                .append("END:VEVENT\r\n");
+        }
+        ics.append("END:VCALENDAR\r\n");
+        List<Invite> invites = Invite.createFromCalendar(mbox.getAccount(), null,
+                ZCalendarBuilder.build(ics.toString()), true);
+        int calItemId = 0;
+        for (Invite invite : invites) {
+            calItemId = mbox.addInvite(octxt, invite, Mailbox.ID_FOLDER_CALENDAR).calItemId;
+        }
+        return mbox.getCalendarItemById(octxt, calItemId);
+    }
+
+    /**
+     * Asserts that both iterators agree with their eager counterparts over [start, end) and returns the instances.
+     */
+    private static List<Instance> assertSameInstances(CalendarItem calItem, long start, long end) throws Exception {
+        List<Instance> expanded = new ArrayList<Instance>(calItem.expandInstances(start, end, false));
+        List<Instance> iterated = Lists.newArrayList(calItem.instanceIterator(start, end));
+        Assert.assertEquals(expanded.toString(), iterated.toString());
+
+        Recurrence.IRecurrence recur = calItem.getRecurrence();
+        Assert.assertEquals(Recurrence.expandInstances(recur, calItem.getId(), start, end).toString(),
+                Lists.newArrayList(Recurrence.instanceIterator(recur, calItem.getId(), start, end)).toString());
+        return expanded;
+    }
+
+    private static void assertSameInstances(CalendarItem calItem) throws Exception {
+        assertSameInstances(calItem, YEAR_START, YEAR_END);
+        assertSameInstances(calItem, utc(2030, 1, 9, 10, 30), utc(2030, 1, 20, 0, 0));
+        assertSameInstances(calItem, utc(2030, 2, 1, 0, 0), utc(2030, 3, 1, 0, 0));
+        assertSameInstances(calItem, utc(2029, 1, 1, 0, 0), utc(2029, 2, 1, 0, 0));
+    }
+
+    @Test
+    public void count() throws Exception {
+        CalendarItem calItem = add("DTSTART:20300107T100000Z\r\nDTEND:20300107T110000Z\r\n"
+                + "RRULE:FREQ=DAILY;COUNT=10\r\n");
+        Assert.assertEquals(10, assertSameInstances(calItem, YEAR_START, YEAR_END).size());
+        assertSameInstances(calItem);
+    }
+
+    @Test
+    public void untilByDay() throws Exception {
+        CalendarItem calItem = add("DTSTART:20300107T100000Z\r\nDTEND:20300107T110000Z\r\n"
+                + "RRULE:FREQ=WEEKLY;UNTIL=20300201T000000Z;BYDAY=MO,WE,FR\r\n");
+        Assert.assertEquals(11, assertSameInstances(calItem, YEAR_START, YEAR_END).size());
+        assertSameInstances(calItem);
+    }
+
+    @Test
+    public void bySetPos() throws Exception {
+        // last weekday of the month
+        CalendarItem calItem = add("DTSTART:20300131T100000Z\r\nDTEND:20300131T110000Z\r\n"
+                + "RRULE:FREQ=MONTHLY;BYDAY=MO,TU,WE,TH,FR;BYSETPOS=-1;COUNT=6\r\n");
+        Assert.assertEquals(6, assertSameInstances(calItem, YEAR_START, YEAR_END).size());
+        assertSameInstances(calItem);
+    }
+
+    @Test
+    public void unbounded() throws Exception {
+        CalendarItem calItem = add("DTSTART:20300101T100000Z\r\nDTEND:20300101T110000Z\r\n"
+                + "RRULE:FREQ=MONTHLY;BYMONTHDAY=1,15\r\n");
+        Assert.assertEquals(24, assertSameInstances(calItem, YEAR_START, YEAR_END).size());
+        assertSameInstances(calItem);
+    }
+
+    @Test
+    public void rdateExdate() throws Exception {
+        // one RDATE repeats a rule date and must show up once
+        CalendarItem calItem = add("DTSTART:20300107T100000Z\r\nDTEND:20300107T110000Z\r\n"
+                + "RRULE:FREQ=DAILY;COUNT=10\r\n"
+                + "RDATE:20300108T100000Z,20300120T100000Z\r\n"
+                + "EXDATE:20300109T100000Z,20300110T100000Z\r\n");
+        List<Instance> instances = assertSameInstances(calItem, YEAR_START, YEAR_END);
+        Assert.assertEquals(9, instances.size());
+        Assert.assertEquals(utc(2030, 1, 20, 10, 0), instances.get(instances.size() - 1).getStart());
+        assertSameInstances(calItem);
+    }
+
+    @Test
+    public void exceptions() throws Exception {
+        // one instance moved within the series, one moved out of the year
+        CalendarItem calItem = add("DTSTART:20300107T100000Z\r\nDTEND:20300107T110000Z\r\n"
+                        + "RRULE:FREQ=WEEKLY;COUNT=8\r\n",
+                "RECURRENCE-ID:20300114T100000Z\r\nDTSTART:20300115T150000Z\r\nDTEND:20300115T160000Z\r\n",
+                "RECURRENCE-ID:20300128T100000Z\r\nDTSTART:20310301T100000Z\r\nDTEND:20310301T110000Z\r\n");
+        List<Instance> instances = assertSameInstances(calItem, YEAR_START, YEAR_END);
+        Assert.assertEquals(7, instances.size());
+        int numExceptions = 0;
+        for (Instance inst : instances) {
+            if (inst.isException()) {
+                numExceptions++;
+                Assert.assertEquals(utc(2030, 1, 15, 15, 0), inst.getStart());
+            }
+        }
+        Assert.assertEquals(1, numExceptions);
+        assertSameInstances(calItem);
+        assertSameInstances(calItem, YEAR_START, utc(2032, 1, 1, 0, 0));
+    }
+
+    @Test
+    public void stopsEarly() throws Exception {
+        CalendarItem calItem = add("DTSTART:20300107T100000Z\r\nDTEND:20300107T110000Z\r\n"
+                + "RRULE:FREQ=DAILY\r\n");
+        Iterator<Instance> iter = calItem.instanceIterator(utc(2030, 3, 1, 0, 0), Long.MAX_VALUE);
+        Assert.assertTrue(iter.hasNext());
+        Assert.assertEquals(utc(2030, 3, 1, 10, 0), iter.next().getStart());
+        Assert.assertEquals(utc(2030, 3, 2, 10, 0), iter.next().getStart());
+    }
+}
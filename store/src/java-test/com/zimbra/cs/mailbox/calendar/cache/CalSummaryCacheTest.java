@@ -0,0 +1,281 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.zimbra.common.calendar.ZCalendar.ZCalendarBuilder;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxListener;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mailbox.calendar.Invite;
+
+/**
+ * Unit test for {@link CalSummaryCache} keeping cached summaries current as the mailbox changes.
+ */
+public final class CalSummaryCacheTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final int CALENDAR = Mailbox.ID_FOLDER_CALENDAR;
+
+    private CalSummaryCache cache;
+    private MailboxListener listener;
+    private Mailbox mbox;
+    private OperationContext octxt;
+    private long rangeStart;
+    private long rangeEnd;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Account acct = Provisioning.getInstance().getAccountById(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        octxt = new OperationContext(acct);
+        // expand in the committing thread so the patched summary can be checked right after the change
+        cache = new CalSummaryCache(100, MoreExecutors.newDirectExecutorService());
+        // don't pick up summaries persisted by an earlier test for a mailbox with the same id
+        cache.purgeMailbox(mbox);
+        listener = new MailboxListener() {
+            @Override
+            public void notify(ChangeNotification notification) {
+                cache.notifyCommittedChanges(notification.mods, notification.lastChangeId);
+            }
+        };
+        MailboxListener.register(listener);
+        rangeStart = System.currentTimeMillis();
+        rangeEnd = rangeStart + 7 * 24 * HOUR;
+    }
+
+    @After
+    public void tearDown() {
+        MailboxListener.unregister(listener);
+    }
+
+    private int addAppointment(int folderId, String summary) throws Exception {
+        SimpleDateFormat utc = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        utc.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long start = rangeStart + 48 * HOUR;
+        String ics = "BEGIN:VCALENDAR\r\n"
+                + "VERSION:2.0\r\n"
+                + "PRODID:Zimbra-Calendar-Provider\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "UID:" + UUID.randomUUID() + "\r\n"
+                + "SUMMARY:" + summary + "\r\n"
+                + "DTSTART:" + utc.format(new Date(start)) + "\r\n"
+                + "DTEND:" + utc.format(new Date(start + HOUR)) + "\r\n"
+                + "ORGANIZER:mailto:test@zimbra.com\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n";
+        Invite invite = MailboxTestUtil.generateInvite(mbox.getAccount(), null, ZCalendarBuilder.build(ics));
+        return mbox.addInvite(octxt, invite, folderId).calItemId;
+    }
+
+    private CalendarData summary(int folderId) throws Exception {
+        return cache.getCalendarSummary(octxt, mbox.getAccountId(), folderId, MailItem.Type.APPOINTMENT,
+                rangeStart, rangeEnd, false).data;
+    }
+
+    private CalendarData cached(int folderId) {
+        return cache.getCachedSummary(new CalSummaryKey(mbox.getAccountId(), folderId));
+    }
+
+    private int modSeq(int folderId) throws Exception {
+        return mbox.getFolderById(octxt, folderId).getImapMODSEQ();
+    }
+
+    private static boolean isFlagged(CalendarItemData calItemData) {
+        String flags = calItemData.getFlags();
+        return flags != null && flags.indexOf(Flag.FlagInfo.FLAGGED.getChar()) >= 0;
+    }
+
+    /** Holds submitted tasks until {@link #runAll} is called. */
+    private static final class HeldExecutorService extends AbstractExecutorService {
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        void runAll() {
+            List<Runnable> toRun = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : toRun) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    @Test
+    public void patchModified() throws Exception {
+        int id = addAppointment(CALENDAR, "one");
+        CalendarData before = summary(CALENDAR);
+        Assert.assertSame(before, cached(CALENDAR));
+        Assert.assertFalse(isFlagged(before.getCalendarItemData(id)));
+
+        mbox.alterTag(octxt, id, MailItem.Type.APPOINTMENT, Flag.FlagInfo.FLAGGED, true, null);
+        CalendarData after = cached(CALENDAR);
+        Assert.assertNotSame("patched on a copy", before, after);
+        Assert.assertFalse("cached data is never modified", isFlagged(before.getCalendarItemData(id)));
+        Assert.assertTrue(isFlagged(after.getCalendarItemData(id)));
+        Assert.assertEquals(0, after.getNumStaleItems());
+        Assert.assertEquals(modSeq(CALENDAR), after.getModSeq());
+        Assert.assertSame("served without a reload", after, summary(CALENDAR));
+    }
+
+    @Test
+    public void patchCreated() throws Exception {
+        int first = addAppointment(CALENDAR, "one");
+        CalendarData before = summary(CALENDAR);
+        int modSeq = before.getModSeq();
+
+        int second = addAppointment(CALENDAR, "two");
+        CalendarData after = cached(CALENDAR);
+        Assert.assertNull(before.getCalendarItemData(second));
+        Assert.assertNotNull(after.getCalendarItemData(first));
+        Assert.assertNotNull(after.getCalendarItemData(second));
+        // the folder's MODSEQ moved on with the new item, and so did the cached summary
+        Assert.assertTrue(modSeq < modSeq(CALENDAR));
+        Assert.assertEquals(modSeq(CALENDAR), after.getModSeq());
+        Assert.assertEquals(0, after.getNumStaleItems());
+        Assert.assertSame("served without a reload", after, summary(CALENDAR));
+    }
+
+    @Test
+    public void patchMoved() throws Exception {
+        Folder other = mbox.createFolder(octxt, "Work", new Folder.FolderOptions()
+                .setDefaultView(MailItem.Type.APPOINTMENT));
+        int id = addAppointment(CALENDAR, "one");
+        Assert.assertNotNull(summary(CALENDAR).getCalendarItemData(id));
+        Assert.assertNull(summary(other.getId()).getCalendarItemData(id));
+
+        mbox.move(octxt, id, MailItem.Type.APPOINTMENT, other.getId());
+        Assert.assertNull(cached(CALENDAR).getCalendarItemData(id));
+        CalendarItemData moved = cached(other.getId()).getCalendarItemData(id);
+        Assert.assertNotNull(moved);
+        Assert.assertEquals(other.getId(), moved.getFolderId());
+        Assert.assertEquals(0, cached(other.getId()).getNumStaleItems());
+        Assert.assertEquals(modSeq(other.getId()), cached(other.getId()).getModSeq());
+    }
+
+    @Test
+    public void patchDeleted() throws Exception {
+        int first = addAppointment(CALENDAR, "one");
+        int second = addAppointment(CALENDAR, "two");
+        Assert.assertEquals(2, summary(CALENDAR).getNumItems());
+
+        mbox.delete(octxt, first, MailItem.Type.APPOINTMENT);
+        CalendarData after = cached(CALENDAR);
+        Assert.assertNotNull("still cached", after);
+        Assert.assertNull(after.getCalendarItemData(first));
+        Assert.assertNotNull(after.getCalendarItemData(second));
+        Assert.assertEquals(0, after.getNumStaleItems());
+    }
+
+    @Test
+    public void expandSkipsItemModifiedSincePatch() throws Exception {
+        HeldExecutorService executor = new HeldExecutorService();
+        cache = new CalSummaryCache(100, executor);
+        int id = addAppointment(CALENDAR, "one");
+        summary(CALENDAR);
+
+        mbox.alterTag(octxt, id, MailItem.Type.APPOINTMENT, Flag.FlagInfo.FLAGGED, true, null);
+        CalendarData patched = cached(CALENDAR);
+        Assert.assertTrue(patched.isItemStale(id));
+
+        // the item changes again before the expansion runs, and the cache hasn't heard of it yet
+        MailboxListener.unregister(listener);
+        mbox.alterTag(octxt, id, MailItem.Type.APPOINTMENT, Flag.FlagInfo.FLAGGED, false, null);
+        executor.runAll();
+        Assert.assertSame("expansion dropped", patched, cached(CALENDAR));
+        Assert.assertTrue(patched.isItemStale(id));
+        Assert.assertFalse("refetched by the reader", isFlagged(summary(CALENDAR).getCalendarItemData(id)));
+    }
+
+    @Test
+    public void publishRejectsConcurrentChange() throws Exception {
+        CalSummaryKey key = new CalSummaryKey(mbox.getAccountId(), CALENDAR);
+        // loaded as of the current MODSEQ, but a change commits before it is cached
+        CalendarData loaded = new CalendarData(CALENDAR, modSeq(CALENDAR), rangeStart, rangeEnd);
+        addAppointment(CALENDAR, "one");
+        Assert.assertFalse(cache.publish(mbox, octxt, key, null, loaded));
+        Assert.assertNull(cached(CALENDAR));
+
+        CalendarData current = new CalendarData(CALENDAR, modSeq(CALENDAR), rangeStart, rangeEnd);
+        Assert.assertTrue(cache.publish(mbox, octxt, key, null, current));
+        Assert.assertSame(current, cached(CALENDAR));
+
+        // a reader that started from an entry that has been replaced since doesn't overwrite the newer one
+        CalendarData reloaded = new CalendarData(CALENDAR, modSeq(CALENDAR), rangeStart, rangeEnd);
+        Assert.assertFalse(cache.publish(mbox, octxt, key, loaded, reloaded));
+        Assert.assertSame(current, cached(CALENDAR));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.zimbra.cs.mailbox.CalendarItem;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.Mailbox;
+
+public class ExpandedInstanceCacheTest {
+
+    private static CalendarItem calItem(int mboxId, int id, int modSeq) {
+        CalendarItem calItem = Mockito.mock(CalendarItem.class);
+        Mockito.when(calItem.getMailboxId()).thenReturn(mboxId);
+        Mockito.when(calItem.getId()).thenReturn(id);
+        Mockito.when(calItem.getModifiedSequence()).thenReturn(modSeq);
+        Mockito.when(calItem.getSavedSequence()).thenReturn(modSeq);
+        return calItem;
+    }
+
+    private static List<Instance> instances(int calItemId, int count) {
+        List<Instance> list = new ArrayList<Instance>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(new Instance(calItemId, null, true, true, i * 1000L, i * 1000L + 500, false, 0, 0, false, false));
+        }
+        return list;
+    }
+
+    @Test
+    public void keyedByWindowAndSequence() {
+        ExpandedInstanceCache cache = new ExpandedInstanceCache(1000);
+        CalendarItem item = calItem(1, 257, 10);
+        cache.put(item, 0, 10000, instances(257, 10));
+
+        Assert.assertEquals(10, cache.get(item, 0, 10000).size());
+        Assert.assertNull("different window", cache.get(item, 0, 20000));
+        Assert.assertNull("item modified", cache.get(calItem(1, 257, 11), 0, 10000));
+        Assert.assertNull("other mailbox", cache.get(calItem(2, 257, 10), 0, 10000));
+    }
+
+    @Test
+    public void returnsCopies() {
+        ExpandedInstanceCache cache = new ExpandedInstanceCache(1000);
+        CalendarItem item = calItem(1, 257, 10);
+        List<Instance> expanded = instances(257, 3);
+        cache.put(item, 0, 10000, expanded);
+        expanded.clear();
+
+        List<Instance> cached = cache.get(item, 0, 10000);
+        cached.remove(0);
+        Assert.assertEquals(3, cache.get(item, 0, 10000).size());
+    }
+
+    @Test
+    public void boundedByInstances() {
+        ExpandedInstanceCache cache = new ExpandedInstanceCache(500);
+        for (int id = 0; id < 20; id++) {
+            cache.put(calItem(1, id, 1), 0, 10000, instances(id, 49));
+        }
+        Assert.assertTrue(cache.size() > 0);
+        Assert.assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void purgeMailbox() {
+        ExpandedInstanceCache cache = new ExpandedInstanceCache(1000);
+        cache.put(calItem(1, 257, 10), 0, 10000, instances(257, 2));
+        cache.put(calItem(2, 257, 10), 0, 10000, instances(257, 2));
+
+        Mailbox mbox = Mockito.mock(Mailbox.class);
+        Mockito.when(mbox.getId()).thenReturn(1);
+        cache.purgeMailbox(mbox);
+        Assert.assertNull(cache.get(calItem(1, 257, 10), 0, 10000));
+        Assert.assertNotNull(cache.get(calItem(2, 257, 10), 0, 10000));
+    }
+
+    @Test
+    public void disabled() {
+        ExpandedInstanceCache cache = new ExpandedInstanceCache(0);
+        Assert.assertFalse(cache.isEnabled());
+        cache.put(calItem(1, 257, 10), 0, 10000, instances(257, 2));
+        Assert.assertNull(cache.get(calItem(1, 257, 10), 0, 10000));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.calendar.IcalXmlStrMap;
+
+public class FreeBusyIndexTest {
+
+    private static FullInstanceData defaultInstance(long duration, String freeBusy, String transparency) {
+        return new FullInstanceData(null, 0, duration, 0, 0, null, freeBusy, null, 0, 0, 0, 0, 0,
+                null, null, null, null, null, null, null, null, null, null, null, null, null,
+                null, null, null, null, null, transparency, null, null);
+    }
+
+    private static CalendarItemData item(int id, FullInstanceData defaultInstance, long... starts) {
+        CalendarItemData calItemData = new CalendarItemData(MailItem.Type.APPOINTMENT, 10, id, null, null, null, 1, 1,
+                0, 0, 0, "uid-" + id, starts.length > 1, false, true, null, defaultInstance);
+        for (long start : starts) {
+            calItemData.addInstance(new InstanceData(null, start, null, null, null, null, null, null));
+        }
+        return calItemData;
+    }
+
+    private static CalendarItemData busy(int id, long duration, long... starts) {
+        return item(id, defaultInstance(duration, IcalXmlStrMap.FBTYPE_BUSY, IcalXmlStrMap.TRANSP_OPAQUE), starts);
+    }
+
+    private static CalendarData calendar(CalendarItemData... items) {
+        CalendarData calData = new CalendarData(10, 1, 0, 100000);
+        for (CalendarItemData item : items) {
+            calData.addCalendarItem(item);
+        }
+        return calData;
+    }
+
+    private static void assertSameEntries(FreeBusyIndex expected, FreeBusyIndex actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals("start " + i, expected.getStart(i), actual.getStart(i));
+            Assert.assertEquals("end " + i, expected.getEnd(i), actual.getEnd(i));
+            Assert.assertEquals("fb " + i, expected.getFreeBusy(i), actual.getFreeBusy(i));
+            Assert.assertEquals("item " + i, expected.getCalItemId(i), actual.getCalItemId(i));
+            Assert.assertEquals("recurrence id " + i, expected.getRecurrenceId(i), actual.getRecurrenceId(i));
+        }
+    }
+
+    @Test
+    public void build() {
+        FreeBusyIndex index = FreeBusyIndex.build(calendar(
+                busy(1, 50, 300, 100),
+                item(2, defaultInstance(100, IcalXmlStrMap.FBTYPE_BUSY_TENTATIVE, null), 200),
+                item(3, defaultInstance(100, IcalXmlStrMap.FBTYPE_FREE, null), 150),
+                item(4, defaultInstance(100, IcalXmlStrMap.FBTYPE_BUSY, IcalXmlStrMap.TRANSP_TRANSPARENT), 160),
+                busy(5, 0, 170)));
+
+        // free, transparent and zero length instances are left out; the rest is sorted by start
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(100, index.getStart(0));
+        Assert.assertEquals(150, index.getEnd(0));
+        Assert.assertEquals(1, index.getCalItemId(0));
+        Assert.assertEquals(200, index.getStart(1));
+        Assert.assertEquals(300, index.getEnd(1));
+        Assert.assertEquals(IcalXmlStrMap.FBTYPE_BUSY_TENTATIVE, index.getFreeBusy(1));
+        Assert.assertEquals(2, index.getCalItemId(1));
+        Assert.assertEquals(300, index.getStart(2));
+        Assert.assertEquals(IcalXmlStrMap.FBTYPE_BUSY, index.getFreeBusy(2));
+    }
+
+    @Test
+    public void firstEndingAfter() {
+        // [0, 100), [50, 60), [200, 300): the short entry ends before the long one that starts earlier
+        FreeBusyIndex index = FreeBusyIndex.build(calendar(busy(1, 100, 0), busy(2, 10, 50), busy(3, 100, 200)));
+        Assert.assertEquals(0, index.firstEndingAfter(-1));
+        Assert.assertEquals(0, index.firstEndingAfter(55));
+        Assert.assertEquals(0, index.firstEndingAfter(99));
+        Assert.assertEquals(2, index.firstEndingAfter(100));
+        Assert.assertEquals(2, index.firstEndingAfter(299));
+        Assert.assertEquals(3, index.firstEndingAfter(300));
+    }
+
+    @Test
+    public void firstStartingAt() {
+        FreeBusyIndex index = FreeBusyIndex.build(calendar(busy(1, 100, 0), busy(2, 10, 50), busy(3, 100, 200)));
+        Assert.assertEquals(0, index.firstStartingAt(-1));
+        Assert.assertEquals(0, index.firstStartingAt(0));
+        Assert.assertEquals(1, index.firstStartingAt(1));
+        Assert.assertEquals(1, index.firstStartingAt(50));
+        Assert.assertEquals(2, index.firstStartingAt(51));
+        Assert.assertEquals(3, index.firstStartingAt(201));
+    }
+
+    @Test
+    public void empty() {
+        FreeBusyIndex index = FreeBusyIndex.build(calendar());
+        Assert.assertEquals(0, index.size());
+        Assert.assertEquals(0, index.firstEndingAfter(0));
+        Assert.assertEquals(0, index.firstStartingAt(0));
+    }
+
+    @Test
+    public void update() {
+        FreeBusyIndex index = FreeBusyIndex.build(calendar(busy(1, 10, 100, 300, 500), busy(2, 10, 200, 400)));
+        Assert.assertSame(index, index.update(calendar(), Collections.<Integer>emptySet()));
+
+        // item 2 moves around the unchanged entries of item 1, item 3 is new and item 4 was changed away
+        CalendarData changed = calendar(busy(1, 10, 100, 300, 500), busy(2, 10, 50, 350, 600), busy(3, 10, 250));
+        Set<Integer> ids = new HashSet<Integer>();
+        ids.add(2);
+        ids.add(3);
+        ids.add(4);
+        FreeBusyIndex updated = index.update(changed, ids);
+        assertSameEntries(FreeBusyIndex.build(changed), updated);
+        Assert.assertEquals(7, updated.size());
+        Assert.assertEquals(5, index.size());
+    }
+
+    @Test
+    public void updateRemoved() {
+        FreeBusyIndex index = FreeBusyIndex.build(calendar(busy(1, 10, 100, 300), busy(2, 10, 200)));
+        CalendarData changed = calendar(busy(1, 10, 100, 300));
+        FreeBusyIndex updated = index.update(changed, Collections.singleton(2));
+        assertSameEntries(FreeBusyIndex.build(changed), updated);
+        Assert.assertEquals(2, updated.size());
+    }
+
+    @Test
+    public void patchedCalendar() {
+        CalendarData calData = calendar(busy(1, 10, 100, 300), busy(2, 10, 200), busy(3, 10, 400));
+        FreeBusyIndex index = calData.getFreeBusyIndex();
+        Assert.assertSame(index, calData.getFreeBusyIndex());
+
+        // an item changes: the copy's index is derived from the original's
+        CalendarData copy = new CalendarData(calData);
+        copy.putCalendarItem(busy(2, 20, 250, 350));
+        copy.removeCalendarItem(3);
+        copy.putCalendarItem(busy(4, 10, 50));
+        FreeBusyIndex patched = copy.getFreeBusyIndex();
+        assertSameEntries(FreeBusyIndex.build(copy), patched);
+        Assert.assertEquals(5, patched.size());
+
+        // the original is left alone
+        Assert.assertSame(index, calData.getFreeBusyIndex());
+        assertSameEntries(FreeBusyIndex.build(calData), index);
+
+        // a copy of the patched copy derives its index from the patched one
+        CalendarData copy2 = new CalendarData(copy);
+        copy2.removeCalendarItem(1);
+        assertSameEntries(FreeBusyIndex.build(copy2), copy2.getFreeBusyIndex());
+    }
+}
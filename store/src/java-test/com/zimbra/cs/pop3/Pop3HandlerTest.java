@@ -3,6 +3,9 @@ package com.zimbra.cs.pop3;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -17,7 +20,11 @@ import org.junit.rules.TestName;
 
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mime.ParsedMessage;
 import com.zimbra.cs.server.ServerThrottle;
 import com.zimbra.cs.util.ZTestWatchman;
 import com.zimbra.qa.unittest.TestUtil;
@@ -92,5 +99,69 @@ public class Pop3HandlerTest {
         acct.setPrefPop3Enabled(false);
         handler.authenticate(LOCAL_USER, null, "secret", null);
     }
-}
 
+    @Test
+    public void wireReady() throws Exception {
+        Assert.assertTrue(Pop3Handler.isWireReady(ByteBuffer.wrap("Subject: hi\r\n\r\nbody\r\n".getBytes())));
+        Assert.assertTrue(Pop3Handler.isWireReady(ByteBuffer.wrap("a.b\r\n\r\n".getBytes())));
+        // would need dot-stuffing
+        Assert.assertFalse(Pop3Handler.isWireReady(ByteBuffer.wrap("Subject: hi\r\n\r\n.\r\n".getBytes())));
+        Assert.assertFalse(Pop3Handler.isWireReady(ByteBuffer.wrap(".hidden\r\n".getBytes())));
+        // bare LF, bare CR, missing trailing CRLF
+        Assert.assertFalse(Pop3Handler.isWireReady(ByteBuffer.wrap("Subject: hi\n\r\nbody\r\n".getBytes())));
+        Assert.assertFalse(Pop3Handler.isWireReady(ByteBuffer.wrap("Subject: hi\r\r\nbody\r\n".getBytes())));
+        Assert.assertFalse(Pop3Handler.isWireReady(ByteBuffer.wrap("Subject: hi\r\n\r\nbody".getBytes())));
+    }
+
+    @Test
+    public void retrWireReady() throws Exception {
+        String content = "Subject: hi\r\n\r\nbody\r\n";
+        TransferCountingHandler handler = login(content);
+        Assert.assertTrue(handler.processCommand("RETR 1"));
+        Assert.assertEquals(1, handler.transfers);
+        Assert.assertEquals(content + ".\r\n", output(handler));
+    }
+
+    @Test
+    public void retrNeedsRewrite() throws Exception {
+        TransferCountingHandler handler = login("Subject: hi\n\n.hidden\nbody");
+        Assert.assertTrue(handler.processCommand("RETR 1"));
+        Assert.assertEquals(0, handler.transfers);
+        Assert.assertEquals("Subject: hi\r\n\r\n..hidden\r\nbody\r\n.\r\n", output(handler));
+    }
+
+    @Test
+    public void top() throws Exception {
+        TransferCountingHandler handler = login("Subject: hi\r\n\r\nline 1\r\nline 2\r\n");
+        Assert.assertTrue(handler.processCommand("TOP 1 1"));
+        Assert.assertEquals(0, handler.transfers);
+        Assert.assertEquals("Subject: hi\r\n\r\nline 1\r\n.\r\n", output(handler));
+    }
+
+    private TransferCountingHandler login(String content) throws Exception {
+        Account acct = Provisioning.getInstance().getAccount("12aa345b-2b47-44e6-8cb8-7fdfa18c1a9f");
+        acct.setPop3Enabled(true);
+        acct.setPrefPop3Enabled(true);
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        mbox.addMessage(null, new ParsedMessage(content.getBytes(), false),
+                new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX), null);
+
+        TransferCountingHandler handler = new TransferCountingHandler();
+        handler.authenticate(LOCAL_USER, null, "secret", null);
+        return handler;
+    }
+
+    private static String output(Pop3Handler handler) {
+        return new String(((ByteArrayOutputStream) handler.output).toByteArray());
+    }
+
+    private static class TransferCountingHandler extends MockPop3Handler {
+        int transfers;
+
+        @Override
+        void transferFile(FileChannel channel, long position, long count) throws IOException {
+            transfers++;
+            super.transferFile(channel, position, count);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+public class GroupCommitLogWriterTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private RedoLogManager mockRedoLogManager;
+    private GroupCommitLogWriter logWriter;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mockRedoLogManager = EasyMock.createNiceMock(RedoLogManager.class);
+
+        // small buffers so that a batch spans several ring slots
+        logWriter = new GroupCommitLogWriter(mockRedoLogManager, folder.newFile("logfile"),
+                10 /* fsync interval in ms */, 4, 1024);
+    }
+
+    private RedoableOp newOp() {
+        return EasyMock.createMockBuilder(RedoableOp.class)
+                .withConstructor(MailboxOperation.Preview)
+                .createMock();
+    }
+
+    @Test
+    public void openLogClose() throws Exception {
+        Assert.assertTrue("file starts empty", logWriter.isEmpty());
+        logWriter.open();
+        Assert.assertTrue("file empty after open", logWriter.isEmpty());
+
+        logWriter.log(newOp(), new ByteArrayInputStream("some bytes".getBytes()), false /* asynchronous */);
+        // The file is the size of the header plus the op bytes (10)
+        Assert.assertEquals("file size incorrect.", FileHeader.HEADER_LEN + 10, logWriter.getSize());
+        logWriter.close();
+        final long createTime = logWriter.getCreateTime();
+        final long sequence = logWriter.getSequence();
+        File file = new File(logWriter.getAbsolutePath());
+        Assert.assertEquals("on-disk size incorrect.", FileHeader.HEADER_LEN + 10, file.length());
+
+        logWriter = new GroupCommitLogWriter(mockRedoLogManager, file, 10, 4, 1024);
+        Assert.assertEquals("file size incorrect.", FileHeader.HEADER_LEN + 10, logWriter.getSize());
+
+        logWriter.open();
+        Assert.assertEquals(createTime, logWriter.getCreateTime());
+        Assert.assertEquals(sequence, logWriter.getSequence());
+        logWriter.close();
+    }
+
+    @Test
+    public void concurrentSynchronousLog() throws Exception {
+        logWriter.open();
+        final int numThreads = 8;
+        final int opsPerThread = 50;
+        // larger than a ring buffer, to exercise the oversized-entry path as well
+        final byte[] big = new byte[3000];
+        final byte[] small = "0123456789".getBytes();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < numThreads; t++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < opsPerThread; i++) {
+                            byte[] data = i % 10 == 0 ? big : small;
+                            logWriter.log(newOp(), new ByteArrayInputStream(data), true /* synchronous */);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+
+        long perThread = (opsPerThread / 10) * big.length + (opsPerThread - opsPerThread / 10) * small.length;
+        long expected = FileHeader.HEADER_LEN + numThreads * perThread;
+        Assert.assertEquals("logical size incorrect.", expected, logWriter.getSize());
+        logWriter.flush();
+        logWriter.close();
+        Assert.assertEquals("on-disk size incorrect.", expected, new File(logWriter.getAbsolutePath()).length());
+    }
+
+    @Test
+    public void asynchronousLogIsSyncedOnInterval() throws Exception {
+        logWriter.open();
+        Assert.assertEquals(0, logWriter.getFsyncCount());
+        logWriter.log(newOp(), new ByteArrayInputStream("some bytes".getBytes()), false /* asynchronous */);
+        // nobody waits for the op, but it is fsynced once the 10ms interval has passed
+        for (int i = 0; i < 500 && logWriter.getFsyncCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, logWriter.getFsyncCount());
+
+        // nothing new was written, so there is nothing to fsync
+        Thread.sleep(100);
+        Assert.assertEquals(1, logWriter.getFsyncCount());
+        logWriter.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void logBeforeOpen() throws Exception {
+        logWriter.log(null, null, false);
+    }
+}
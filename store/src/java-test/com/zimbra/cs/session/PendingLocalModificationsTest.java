@@ -0,0 +1,151 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * Unit test for {@link PendingLocalModifications} serialization.
+ */
+public final class PendingLocalModificationsTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Folder folder = mbox.createFolder(null, "foo", new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(folder.getId()).setFlags(Flag.BITMASK_UNREAD);
+        Message msg1 = mbox.addMessage(null, MailboxTestUtil.generateMessage("one"), dopt, null);
+        Message msg2 = mbox.addMessage(null, MailboxTestUtil.generateMessage("two"), dopt, null);
+
+        PendingLocalModifications pms = new PendingLocalModifications();
+        pms.recordCreated(msg1);
+        pms.recordModified(msg2, Change.FLAGS | Change.UNREAD);
+        pms.recordModified(folder, Change.SIZE);
+        pms.recordModified(mbox, Change.SIZE);
+        pms.recordDeleted(msg2);
+        pms.recordDeleted(mbox.getAccountId(), 4711, folder.getId(), MailItem.Type.MESSAGE);
+
+        byte[] data = pms.serialize();
+        PendingLocalModifications copy = PendingLocalModifications.deserialize(mbox, data);
+        Assert.assertEquals(pms.changedTypes, copy.changedTypes);
+        Assert.assertEquals(pms.getChangedParentFolders(), copy.getChangedParentFolders());
+        Assert.assertEquals(pms.getChangedFolders(), copy.getChangedFolders());
+
+        Assert.assertEquals(pms.created.keySet(), copy.created.keySet());
+        Message created = (Message) copy.created.get(new ModificationKey(msg1));
+        Assert.assertEquals(msg1.getSubject(), created.getSubject());
+        Assert.assertEquals(folder.getId(), created.getFolderId());
+
+        Assert.assertEquals(pms.modified.keySet(), copy.modified.keySet());
+        Change folderChange = copy.modified.get(new ModificationKey(folder));
+        Assert.assertEquals(Change.SIZE, folderChange.why);
+        Assert.assertEquals("foo", ((Folder) folderChange.what).getName());
+        Assert.assertSame(mbox, copy.modified.get(new ModificationKey(mbox.getAccountId(), 0)).what);
+
+        Assert.assertEquals(pms.deleted.keySet(), copy.deleted.keySet());
+        Change deleted = copy.deleted.get(new ModificationKey(msg2));
+        Assert.assertEquals(MailItem.Type.MESSAGE, deleted.what);
+        Assert.assertEquals(msg2.getId(), ((Message) deleted.preModifyObj).getId());
+
+        // no class descriptors, one copy of the account id and deflated compact item metadata
+        byte[] legacy = pms.serializeJava();
+        Assert.assertTrue(data.length + " vs " + legacy.length, data.length * 2 <= legacy.length);
+    }
+
+    @Test
+    public void bulk() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        PendingLocalModifications pms = new PendingLocalModifications();
+        for (int i = 0; i < 50; i++) {
+            Message msg = mbox.addMessage(null, MailboxTestUtil.generateMessage("message " + i), dopt, null);
+            pms.recordModified(msg, Change.FLAGS);
+        }
+        pms.recordModified(mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX), Change.SIZE);
+
+        byte[] data = pms.serialize();
+        byte[] legacy = pms.serializeJava();
+        Assert.assertTrue(data.length + " vs " + legacy.length, data.length * 3 <= legacy.length);
+        Assert.assertEquals(pms.modified.keySet(), PendingLocalModifications.deserialize(mbox, data).modified.keySet());
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        byte[][] bad = {
+            // plain body announcing 2^31 - 1 types
+            { PendingModificationsEncoding.MAGIC, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 },
+            // varint that wraps to a negative number of accounts
+            { PendingModificationsEncoding.MAGIC, 1, 0, 0, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08 },
+            // account id longer than the payload
+            { PendingModificationsEncoding.MAGIC, 1, 0, 0, 0, 1, 100, 'a' },
+            // truncated deflated body
+            { PendingModificationsEncoding.MAGIC, 2, 0x78 },
+            { PendingModificationsEncoding.MAGIC, 9 },
+        };
+        for (byte[] data : bad) {
+            try {
+                PendingLocalModifications.deserialize(mbox, data);
+                Assert.fail("decoded " + Arrays.toString(data));
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        PendingLocalModifications copy = PendingLocalModifications.deserialize(mbox,
+                new PendingLocalModifications().serialize());
+        Assert.assertFalse(copy.hasNotifications());
+        Assert.assertNull(copy.created);
+        Assert.assertNull(copy.modified);
+        Assert.assertNull(copy.deleted);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.util.Pair;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * Unit test for {@link SomeAccountsWaitSet}.
+ */
+public final class SomeAccountsWaitSetTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void coalesce() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Set<MailItem.Type> interest = EnumSet.of(MailItem.Type.MESSAGE);
+        Pair<String, ?> created = WaitSetMgr.create(mbox.getAccountId(), true, interest, false, Collections.singletonList(
+                new WaitSetAccount(mbox.getAccountId(), null, interest, null)));
+        IWaitSet ws = WaitSetMgr.lookup(created.getFirst());
+        try {
+            DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+            int id1 = mbox.addMessage(null, MailboxTestUtil.generateMessage("one"), dopt, null).getId();
+            int id2 = mbox.addMessage(null, MailboxTestUtil.generateMessage("two"), dopt, null).getId();
+
+            // both changes were signalled before anyone waited, so the first wait returns them together
+            WaitSetCallback cb = new WaitSetCallback();
+            cb.completedLatch = new CountDownLatch(1);
+            synchronized (ws) {
+                ws.doWait(cb, "1", null, null);
+            }
+            Assert.assertTrue(cb.completedLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(Collections.singleton(mbox.getAccountId()), cb.signalledAccounts);
+            PendingModifications<?> pms = cb.pendingModifications.get(mbox.getAccountId());
+            Assert.assertTrue(pms.created.containsKey(new ModificationKey(mbox.getAccountId(), id1)));
+            Assert.assertTrue(pms.created.containsKey(new ModificationKey(mbox.getAccountId(), id2)));
+            ws.doneWaiting(cb);
+            String seqNo = cb.seqNo;
+
+            // a change made while a request waits completes it
+            cb = new WaitSetCallback();
+            cb.completedLatch = new CountDownLatch(1);
+            synchronized (ws) {
+                ws.doWait(cb, seqNo, null, null);
+            }
+            Assert.assertFalse(cb.completed);
+            mbox.addMessage(null, MailboxTestUtil.generateMessage("three"), dopt, null);
+            Assert.assertTrue(cb.completedLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse(cb.canceled);
+        } finally {
+            WaitSetMgr.destroy(null, mbox.getAccountId(), created.getFirst());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void merge() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        Message msg1 = mbox.addMessage(null, MailboxTestUtil.generateMessage("one"), dopt, null);
+        Message msg2 = mbox.addMessage(null, MailboxTestUtil.generateMessage("two"), dopt, null);
+        ModificationKey key1 = new ModificationKey(msg1);
+        ModificationKey key2 = new ModificationKey(msg2);
+        ModificationKey key3 = new ModificationKey(mbox.getAccountId(), 1000);
+        ModificationKey key4 = new ModificationKey(mbox.getAccountId(), 1001);
+
+        PendingLocalModifications local1 = new PendingLocalModifications();
+        local1.recordCreated(msg1);
+        PendingRemoteModifications remote1 = new PendingRemoteModifications();
+        remote1.delete(key3, MailItem.Type.MESSAGE, Mailbox.ID_FOLDER_INBOX);
+        PendingLocalModifications local2 = new PendingLocalModifications();
+        local2.recordCreated(msg2);
+
+        // local and remote changes are all kept, whatever the order
+        PendingModifications merged = SomeAccountsWaitSet.merge(Arrays.<PendingModifications>asList(
+                local1, remote1, local2));
+        Assert.assertTrue(merged instanceof PendingLocalModifications);
+        Assert.assertTrue(merged.created.containsKey(key1));
+        Assert.assertTrue(merged.created.containsKey(key2));
+        Assert.assertTrue(merged.deleted.containsKey(key3));
+        merged = SomeAccountsWaitSet.merge(Arrays.<PendingModifications>asList(remote1, local1));
+        Assert.assertTrue(merged.created.containsKey(key1));
+        Assert.assertTrue(merged.deleted.containsKey(key3));
+
+        // the signalled objects are shared and left alone
+        Assert.assertEquals(1, local1.created.size());
+        Assert.assertNull(local1.deleted);
+        Assert.assertNull(remote1.created);
+
+        PendingRemoteModifications remote2 = new PendingRemoteModifications();
+        remote2.delete(key4, MailItem.Type.MESSAGE, Mailbox.ID_FOLDER_INBOX);
+        merged = SomeAccountsWaitSet.merge(Arrays.<PendingModifications>asList(remote1, remote2));
+        Assert.assertTrue(merged instanceof PendingRemoteModifications);
+        Assert.assertTrue(merged.deleted.containsKey(key3));
+        Assert.assertTrue(merged.deleted.containsKey(key4));
+        Assert.assertEquals(1, remote1.deleted.size());
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.stats;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.stats.CommandProfiler.CommandStats;
+import com.zimbra.cs.stats.CommandProfiler.Protocol;
+
+public class CommandProfilerTest {
+
+    @After
+    public void tearDown() {
+        CommandProfiler.reset();
+    }
+
+    @Test
+    public void sampled() throws Exception {
+        Assert.assertTrue(CommandProfiler.begin(Protocol.SOAP, true));
+        CommandProfiler.setCommand("SearchRequest");
+        // nested dispatch is attributed to the outer command
+        Assert.assertFalse(CommandProfiler.begin(Protocol.SOAP, true));
+        CommandProfiler.setCommand("GetMsgRequest");
+        CommandProfiler.recordDbStatement();
+        CommandProfiler.recordDbStatement();
+        CommandProfiler.recordLockWait(3000000L);
+        CommandProfiler.recordBytesWritten(512);
+        Thread.sleep(5);
+        CommandProfiler.end();
+
+        List<CommandStats> stats = CommandProfiler.getStats(Protocol.SOAP);
+        Assert.assertEquals(1, stats.size());
+        CommandStats search = stats.get(0);
+        Assert.assertEquals("SearchRequest", search.getCommand());
+        Assert.assertEquals(1, search.getCount());
+        Assert.assertEquals(1, search.getSampled());
+        Assert.assertEquals(2, search.getDbStatements());
+        Assert.assertEquals(3, search.getLockWaitMs());
+        Assert.assertEquals(512, search.getBytesWritten());
+        Assert.assertTrue(search.getWallMs() >= 5);
+        Assert.assertEquals(search.getWallMs(), search.getMaxWallMs());
+        Assert.assertTrue(CommandProfiler.getStats(Protocol.IMAP).isEmpty());
+    }
+
+    @Test
+    public void unsampled() {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(CommandProfiler.begin(Protocol.IMAP, false));
+            CommandProfiler.recordDbStatement();
+            CommandProfiler.recordBytesWritten(100);
+            CommandProfiler.end("FETCH");
+        }
+        Assert.assertTrue(CommandProfiler.begin(Protocol.IMAP, true));
+        CommandProfiler.recordDbStatement();
+        CommandProfiler.end("FETCH");
+        // recording outside of a command is ignored
+        CommandProfiler.recordDbStatement();
+        CommandProfiler.end();
+
+        CommandStats fetch = CommandProfiler.getStats(Protocol.IMAP).get(0);
+        Assert.assertEquals("FETCH", fetch.getCommand());
+        Assert.assertEquals(4, fetch.getCount());
+        Assert.assertEquals(1, fetch.getSampled());
+        Assert.assertEquals(1, fetch.getDbStatements());
+        Assert.assertEquals(0, fetch.getBytesWritten());
+    }
+
+    @Test
+    public void overflow() {
+        for (int i = 0; i < 600; i++) {
+            CommandProfiler.begin(Protocol.IMAP, false);
+            CommandProfiler.end("CMD" + i);
+        }
+        List<CommandStats> stats = CommandProfiler.getStats(Protocol.IMAP);
+        Assert.assertEquals(513, stats.size());
+        long overflow = 0;
+        for (CommandStats cmd : stats) {
+            if (CommandProfiler.OVERFLOW.equals(cmd.getCommand())) {
+                overflow = cmd.getCount();
+            }
+        }
+        Assert.assertEquals(88, overflow);
+    }
+}
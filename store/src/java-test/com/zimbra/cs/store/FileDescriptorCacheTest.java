@@ -20,12 +20,16 @@ package com.zimbra.cs.store;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPOutputStream;
 
 import org.junit.After;
@@ -122,6 +126,196 @@ public class FileDescriptorCacheTest {
         assertEquals(2, fdc.getSize());
     }
 
+    @Test
+    public void concurrentReads()
+    throws Exception {
+        final FileDescriptorCache fdc = new FileDescriptorCache(null);
+        final File file = File.createTempFile(NAME_PREFIX, ".tmp");
+        tempFiles.add(file);
+        final byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(content, file);
+
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = Lists.newArrayList();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    byte[] buf = new byte[100];
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            int offset = ((seed * 7919) + (i * 131)) % (content.length - buf.length);
+                            int numRead = fdc.read(file.getPath(), content.length, offset, buf, 0, buf.length);
+                            if (numRead <= 0) {
+                                failures.incrementAndGet();
+                                continue;
+                            }
+                            for (int j = 0; j < numRead; j++) {
+                                if (buf[j] != content[offset + j]) {
+                                    failures.incrementAndGet();
+                                    break;
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, fdc.getSize());
+
+        fdc.remove(file.getPath());
+        assertEquals(0, fdc.getSize());
+    }
+
+    @Test
+    public void volumeLimit()
+    throws Exception {
+        File volumeDir = Files.createTempDir();
+        try {
+            FileDescriptorCache fdc = new FileDescriptorCache(null).setVolumeMaxSize(2);
+            fdc.setVolumeRoots(Collections.singletonList(volumeDir.getPath()));
+
+            byte[] buf = new byte[10];
+            for (int i = 0; i < 4; i++) {
+                File file = new File(volumeDir, "blob" + i);
+                Files.write("content".getBytes(), file);
+                assertEquals(7, fdc.read(file.getPath(), file.length(), 0, buf, 0, buf.length));
+            }
+            // Only the first two are cached, the others were read with a transient descriptor.
+            assertEquals(2, fdc.getSize());
+            assertTrue(fdc.contains(new File(volumeDir, "blob0").getPath()));
+            assertFalse(fdc.contains(new File(volumeDir, "blob3").getPath()));
+            assertEquals(Integer.valueOf(2), fdc.getVolumeOpenCounts().values().iterator().next());
+
+            fdc.shutdown();
+            assertEquals(0, fdc.getSize());
+            assertEquals(Integer.valueOf(0), fdc.getVolumeOpenCounts().values().iterator().next());
+        } finally {
+            FileUtil.deleteDir(volumeDir);
+        }
+    }
+
+    @Test
+    public void evictedWhileReading()
+    throws Exception {
+        File file = File.createTempFile(NAME_PREFIX, ".tmp");
+        tempFiles.add(file);
+        Files.write("Labelled With Love".getBytes(), file);
+
+        SharedFile shared = new SharedFile(file);
+        assertTrue(shared.retain());  // reader's reference
+        assertFalse(shared.release()); // cache drops its reference
+        assertTrue(shared.isOpen());
+
+        byte[] buf = new byte[8];
+        assertEquals(8, shared.read(9, buf, 0, buf.length));
+        assertEquals("With Lov", new String(buf));
+
+        assertTrue(shared.release());
+        assertFalse(shared.isOpen());
+        assertFalse(shared.retain());
+    }
+
+    @Test
+    public void interruptedReader()
+    throws Exception {
+        FileDescriptorCache fdc = new FileDescriptorCache(null);
+        File file = File.createTempFile(NAME_PREFIX, ".tmp");
+        tempFiles.add(file);
+        Files.write("Labelled With Love".getBytes(), file);
+
+        byte[] buf = new byte[8];
+        assertEquals(8, fdc.read(file.getPath(), file.length(), 0, buf, 0, buf.length));
+        assertTrue(fdc.contains(file.getPath()));
+
+        Thread.currentThread().interrupt();
+        try {
+            fdc.read(file.getPath(), file.length(), 9, buf, 0, buf.length);
+            fail("read should have been interrupted");
+        } catch (ClosedByInterruptException e) {
+        } finally {
+            Thread.interrupted();
+        }
+        // The interrupt closed the shared channel, so the entry must not be handed out again.
+        assertFalse(fdc.contains(file.getPath()));
+
+        assertEquals(8, fdc.read(file.getPath(), file.length(), 9, buf, 0, buf.length));
+        assertEquals("With Lov", new String(buf));
+        assertTrue(fdc.contains(file.getPath()));
+    }
+
+    @Test
+    public void readersSurviveInterruptedReader()
+    throws Exception {
+        final FileDescriptorCache fdc = new FileDescriptorCache(null);
+        final File file = File.createTempFile(NAME_PREFIX, ".tmp");
+        tempFiles.add(file);
+        final byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(content, file);
+
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger(4);
+        List<Thread> readers = Lists.newArrayList();
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    byte[] buf = new byte[100];
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            int offset = ((seed * 7919) + (i * 131)) % (content.length - buf.length);
+                            int numRead = fdc.read(file.getPath(), content.length, offset, buf, 0, buf.length);
+                            if (numRead != buf.length || buf[0] != content[offset]) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            };
+            readers.add(thread);
+            thread.start();
+        }
+
+        // Keep closing the shared channel by reading with the interrupt flag set.
+        byte[] buf = new byte[100];
+        int interrupted = 0;
+        while (running.get() > 0) {
+            Thread.currentThread().interrupt();
+            try {
+                fdc.read(file.getPath(), content.length, 0, buf, 0, buf.length);
+            } catch (ClosedByInterruptException e) {
+                interrupted++;
+            } finally {
+                Thread.interrupted();
+            }
+        }
+        for (Thread thread : readers) {
+            thread.join();
+        }
+        assertTrue(interrupted > 0);
+        assertEquals(0, failures.get());
+    }
+
     private void write(File file, String content)
     throws IOException {
         OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
@@ -174,6 +174,11 @@ public final class MockStoreManager extends StoreManager {
         return blobs.get(blobKey(mbox, itemId, revision));
     }
 
+    @Override
+    public File getUncompressedFile(MailboxBlob mblob) throws IOException {
+        return mblob.getLocalBlob().getFile();
+    }
+
     @Override
     public InputStream getContent(MailboxBlob mblob) throws IOException {
         return mblob.getLocalBlob().getInputStream();
@@ -23,52 +23,49 @@
  */
 package com.zimbra.cs.account.cache;
 
-import java.util.Map;
-
 import org.apache.commons.lang.StringUtils;
 
-import com.zimbra.common.util.MapUtil;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.HitRateCounter;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
 
+/**
+ * Lookups don't take a lock; writes are serialized so that all indexes are updated together.
+ */
 public class AccountCache implements IAccountCache {
 
-    private Map<String, CacheEntry> mNameCache;
-    private Map<String, CacheEntry> mIdCache;
-    private Map<String, CacheEntry> mAliasCache;
-    private Map<String, CacheEntry> mForeignPrincipalCache;
-    private Map<String, CacheEntry> mOldNameCache;
-    private Counter mHitRate = new HitRateCounter();
-
-    private long mRefreshTTL;
+    private final CacheIndex<CachedEntry<Account>> mNameCache;
+    private final CacheIndex<CachedEntry<Account>> mIdCache;
+    private final CacheIndex<CachedEntry<Account>> mAliasCache;
+    private final CacheIndex<CachedEntry<Account>> mForeignPrincipalCache;
+    private final CacheIndex<CachedEntry<Account>> mOldNameCache;
+    private final Counter mHitRate = new HitRateCounter();
 
-    static class CacheEntry {
-        long mLifetime;
-        Account mEntry;
-
-        CacheEntry(Account entry, long expires) {
-            mEntry = entry;
-            mLifetime = System.currentTimeMillis() + expires;
-        }
+    private final long mRefreshTTL;
+    private final EntryRefresher mRefresher;
 
-        boolean isStale() {
-            return mLifetime < System.currentTimeMillis();
-        }
+    /**
+     * @param maxItems
+     * @param refreshTTL
+     */
+    public AccountCache(int maxItems, long refreshTTL) {
+        this(maxItems, refreshTTL, null);
     }
 
     /**
      * @param maxItems
      * @param refreshTTL
+     * @param refresher reloads entries ahead of their expiry, or {@code null}
      */
-    public AccountCache(int maxItems, long refreshTTL) {
-        mNameCache = MapUtil.newLruMap(maxItems);
-        mIdCache = MapUtil.newLruMap(maxItems);
-        mAliasCache = MapUtil.newLruMap(maxItems);
-        mForeignPrincipalCache = MapUtil.newLruMap(maxItems);
-        mOldNameCache = MapUtil.newLruMap(maxItems);
+    public AccountCache(int maxItems, long refreshTTL, EntryRefresher refresher) {
+        mNameCache = new CacheIndex<CachedEntry<Account>>(maxItems);
+        mIdCache = new CacheIndex<CachedEntry<Account>>(maxItems);
+        mAliasCache = new CacheIndex<CachedEntry<Account>>(maxItems);
+        mForeignPrincipalCache = new CacheIndex<CachedEntry<Account>>(maxItems);
+        mOldNameCache = new CacheIndex<CachedEntry<Account>>(maxItems);
         mRefreshTTL = refreshTTL;
+        mRefresher = refresher;
     }
 
     @Override
@@ -99,10 +96,26 @@ public class AccountCache implements IAccountCache {
         }
     }
 
+    /**
+     * Drops a stale entry from every index that still refers to it.
+     */
+    private void evict(CachedEntry<Account> ce) {
+        Account entry = ce.entry;
+        mNameCache.remove(entry.getName(), ce);
+        mIdCache.remove(entry.getId(), ce);
+        for (String alias : entry.getMultiAttr(Provisioning.A_zimbraMailAlias)) {
+            mAliasCache.remove(alias, ce);
+        }
+        for (String fp : entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal)) {
+            mForeignPrincipalCache.remove(fp, ce);
+        }
+        mOldNameCache.remove(entry.getOldMailAddress(), ce);
+    }
+
     @Override
     public synchronized void put(Account entry) {
         if (entry != null) {
-            CacheEntry cacheEntry = new CacheEntry(entry, mRefreshTTL);
+            CachedEntry<Account> cacheEntry = new CachedEntry<Account>(entry, mRefreshTTL);
             mNameCache.put(entry.getName(), cacheEntry);
             mIdCache.put(entry.getId(), cacheEntry);
 
@@ -127,43 +140,67 @@ public class AccountCache implements IAccountCache {
         put(entry);
     }
 
-    private Account get(String key, Map cache) {
-        CacheEntry ce = (CacheEntry) cache.get(key);
-        if (ce != null) {
-            if (mRefreshTTL != 0 && ce.isStale()) {
-                remove(ce.mEntry);
-                mHitRate.increment(0);
-                return null;
-            } else {
-                mHitRate.increment(100);
-                return ce.mEntry;
-            }
-        } else {
-            mHitRate.increment(0);
+    /**
+     * Re-indexes an entry reloaded by the refresher, unless it was removed or replaced in the meantime.
+     */
+    private synchronized void refreshed(CachedEntry<Account> ce) {
+        if (mIdCache.get(ce.entry.getId()) == ce) {
+            replace(ce.entry);
+        }
+    }
+
+    private Account get(String key, CacheIndex<CachedEntry<Account>> cache) {
+        final CachedEntry<Account> ce = cache.get(key);
+        if (ce == null) {
+            cache.recordLookup(false);
             return null;
+        } else if (mRefreshTTL != 0 && ce.isStale()) {
+            evict(ce);
+            cache.recordLookup(false);
+            return null;
+        }
+        cache.recordLookup(true);
+        if (mRefresher != null && mRefresher.claim(ce, mRefreshTTL)) {
+            mRefresher.refresh(ce, new Runnable() {
+                @Override
+                public void run() {
+                    refreshed(ce);
+                }
+            });
         }
+        return ce.entry;
+    }
+
+    private Account recordLookup(Account acct) {
+        mHitRate.increment(acct != null ? 100 : 0);
+        return acct;
     }
 
     @Override
-    public synchronized Account getById(String key) {
-        return get(key, mIdCache);
+    public Account getById(String key) {
+        return recordLookup(get(key, mIdCache));
     }
 
     @Override
-    public synchronized Account getByName(String key) {
-        Account acct = get(key.toLowerCase(), mNameCache) != null ? get(key.toLowerCase(), mNameCache)
-                : get(key.toLowerCase(), mAliasCache) != null ? get(key.toLowerCase(), mAliasCache)
-                        : get(key.toLowerCase(), mOldNameCache);
-        return acct;
+    public Account getByName(String key) {
+        String name = key.toLowerCase();
+        Account acct = get(name, mNameCache);
+        if (acct == null) {
+            acct = get(name, mAliasCache);
+        }
+        if (acct == null) {
+            acct = get(name, mOldNameCache);
+        }
+        return recordLookup(acct);
     }
 
     @Override
-    public synchronized Account getByForeignPrincipal(String key) {
-        return get(key, mForeignPrincipalCache);
+    public Account getByForeignPrincipal(String key) {
+        return recordLookup(get(key, mForeignPrincipalCache));
     }
 
     @Override
-    public synchronized int getSize() {
+    public int getSize() {
         return mIdCache.size();
     }
 
@@ -171,7 +208,28 @@ public class AccountCache implements IAccountCache {
      * Returns the cache hit rate as a value between 0 and 100.
      */
     @Override
-    public synchronized double getHitRate() {
+    public double getHitRate() {
         return mHitRate.getAverage();
     }
+
+    /**
+     * Returns the hit rate of one index as a value between 0 and 100.
+     */
+    @Override
+    public double getHitRate(Index index) {
+        switch (index) {
+        case id:
+            return mIdCache.getHitRate();
+        case name:
+            return mNameCache.getHitRate();
+        case alias:
+            return mAliasCache.getHitRate();
+        case foreignPrincipal:
+            return mForeignPrincipalCache.getHitRate();
+        case oldName:
+            return mOldNameCache.getHitRate();
+        default:
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.zimbra.common.stats.Counter;
+import com.zimbra.common.stats.HitRateCounter;
+
+/**
+ * One lookup index (by name, by id, by alias, ...) of an LDAP entry cache. Reads never block on writers; the entry
+ * caches serialize their own writes so that all of their indexes are updated together.
+ */
+final class CacheIndex<V> {
+
+    private final Cache<String, V> cache;
+    private final Counter hitRate = new HitRateCounter();
+
+    CacheIndex(int maxItems) {
+        cache = CacheBuilder.newBuilder().maximumSize(Math.max(maxItems, 0)).build();
+    }
+
+    V get(String key) {
+        return key == null ? null : cache.getIfPresent(key);
+    }
+
+    void put(String key, V value) {
+        if (key != null) {
+            cache.put(key, value);
+        }
+    }
+
+    void remove(String key) {
+        if (key != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Removes the mapping only if {@code key} still maps to {@code value}, so that a reader discarding a stale entry
+     * never drops a fresher one that a writer has just put.
+     */
+    void remove(String key, V value) {
+        if (key != null) {
+            cache.asMap().remove(key, value);
+        }
+    }
+
+    void clear() {
+        cache.invalidateAll();
+    }
+
+    int size() {
+        return (int) cache.size();
+    }
+
+    void recordLookup(boolean hit) {
+        hitRate.increment(hit ? 100 : 0);
+    }
+
+    /**
+     * Returns the hit rate of this index as a value between 0 and 100, since the last call.
+     */
+    double getHitRate() {
+        return hitRate.getAverage();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.zimbra.cs.account.NamedEntry;
+
+/**
+ * An entry in one of the LDAP entry caches, shared by all of the cache's indexes.
+ */
+final class CachedEntry<E extends NamedEntry> {
+    final E entry;
+    private final long created;
+    private final long expires;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    CachedEntry(E entry, long refreshTTL) {
+        this.entry = entry;
+        this.created = System.currentTimeMillis();
+        this.expires = created + refreshTTL;
+    }
+
+    boolean isStale() {
+        return expires < System.currentTimeMillis();
+    }
+
+    long getAge() {
+        return System.currentTimeMillis() - created;
+    }
+
+    /**
+     * Returns true for exactly one caller until {@link #endRefresh()} is called.
+     */
+    boolean startRefresh() {
+        return refreshing.compareAndSet(false, true);
+    }
+
+    void endRefresh() {
+        refreshing.set(false);
+    }
+}
@@ -23,9 +23,6 @@
  */
 package com.zimbra.cs.account.cache;
 
-import java.util.Map;
-
-import com.zimbra.common.util.MapUtil;
 import com.zimbra.common.account.Key.DomainBy;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.HitRateCounter;
@@ -33,18 +30,21 @@ import com.zimbra.cs.account.Domain;
 import com.zimbra.cs.account.Provisioning;
 
 /**
+ * Lookups don't take a lock; writes are serialized so that all indexes are updated together.
+ *
  * @author schemers
  **/
 public class DomainCache implements IDomainCache {
     
-    private Map mNameCache;
-    private Map mIdCache;
-    private Map mVirtualHostnameCache;
-    private Map mForeignNameCache;
-    private Map mKrb5RealmCache;
+    private final CacheIndex<CachedEntry<Domain>> mNameCache;
+    private final CacheIndex<CachedEntry<Domain>> mIdCache;
+    private final CacheIndex<CachedEntry<Domain>> mVirtualHostnameCache;
+    private final CacheIndex<CachedEntry<Domain>> mForeignNameCache;
+    private final CacheIndex<CachedEntry<Domain>> mKrb5RealmCache;
     
-    private long mRefreshTTL;
-    private Counter mHitRate = new HitRateCounter();
+    private final long mRefreshTTL;
+    private final EntryRefresher mRefresher;
+    private final Counter mHitRate = new HitRateCounter();
 
     
     public enum GetFromDomainCacheOption {
@@ -61,19 +61,6 @@ public class DomainCache implements IDomainCache {
      */
     private NegativeCache mNegativeCache;
 
-    static class CacheEntry {
-        long mLifetime;
-        Domain mEntry;
-        CacheEntry(Domain entry, long expires) {
-            mEntry = entry;
-            mLifetime = System.currentTimeMillis() + expires;
-        }
-        
-        boolean isStale() {
-            return mLifetime < System.currentTimeMillis();
-        }
-    }
-    
     public static class NonExistingDomain extends Domain {
         private NonExistingDomain() {
             super(null, null, null, null, null);
@@ -82,11 +69,11 @@ public class DomainCache implements IDomainCache {
     
 
     class NegativeCache {
-        private Map mNegativeNameCache;
-        private Map mNegativeIdCache;
-        private Map mNegativeVirtualHostnameCache;
-        private Map mNegativeForeignNameCache;
-        private Map mNegativeKrb5RealmCache;
+        private final CacheIndex<NonExistingDomain> mNegativeNameCache;
+        private final CacheIndex<NonExistingDomain> mNegativeIdCache;
+        private final CacheIndex<NonExistingDomain> mNegativeVirtualHostnameCache;
+        private final CacheIndex<NonExistingDomain> mNegativeForeignNameCache;
+        private final CacheIndex<NonExistingDomain> mNegativeKrb5RealmCache;
 
         private long mNERefreshTTL;
         
@@ -97,11 +84,11 @@ public class DomainCache implements IDomainCache {
         private boolean mEnabled = true;
         
         private NegativeCache(int maxItems, long refreshTTL) {
-            mNegativeNameCache = MapUtil.newLruMap(maxItems);
-            mNegativeIdCache = MapUtil.newLruMap(maxItems);
-            mNegativeVirtualHostnameCache = MapUtil.newLruMap(maxItems);  
-            mNegativeForeignNameCache = MapUtil.newLruMap(maxItems);  
-            mNegativeKrb5RealmCache = MapUtil.newLruMap(maxItems);   
+            mNegativeNameCache = new CacheIndex<NonExistingDomain>(maxItems);
+            mNegativeIdCache = new CacheIndex<NonExistingDomain>(maxItems);
+            mNegativeVirtualHostnameCache = new CacheIndex<NonExistingDomain>(maxItems);
+            mNegativeForeignNameCache = new CacheIndex<NonExistingDomain>(maxItems);
+            mNegativeKrb5RealmCache = new CacheIndex<NonExistingDomain>(maxItems);
             mNERefreshTTL = refreshTTL;
         }
         
@@ -136,15 +123,15 @@ public class DomainCache implements IDomainCache {
             
             switch (domainBy) {
             case name:
-                return (NonExistingDomain)mNegativeNameCache.get(key);
+                return mNegativeNameCache.get(key);
             case id:
-                return (NonExistingDomain)mNegativeIdCache.get(key);
+                return mNegativeIdCache.get(key);
             case virtualHostname:
-                return (NonExistingDomain)mNegativeVirtualHostnameCache.get(key);
+                return mNegativeVirtualHostnameCache.get(key);
             case foreignName:
-                return (NonExistingDomain)mNegativeForeignNameCache.get(key);
+                return mNegativeForeignNameCache.get(key);
             case krb5Realm:
-                return (NonExistingDomain)mNegativeKrb5RealmCache.get(key);
+                return mNegativeKrb5RealmCache.get(key);
             }
             return null;
         }
@@ -204,12 +191,23 @@ public class DomainCache implements IDomainCache {
  * @param refreshTTL
  */
     public DomainCache(int maxItems, long refreshTTL, int maxItemsNegative, long refreshTTLNegative) {
-        mNameCache = MapUtil.newLruMap(maxItems);
-        mIdCache = MapUtil.newLruMap(maxItems);
-        mVirtualHostnameCache = MapUtil.newLruMap(maxItems);  
-        mForeignNameCache = MapUtil.newLruMap(maxItems); 
-        mKrb5RealmCache = MapUtil.newLruMap(maxItems);   
+        this(maxItems, refreshTTL, maxItemsNegative, refreshTTLNegative, null);
+    }
+
+/**
+ * @param maxItems
+ * @param refreshTTL
+ * @param refresher reloads entries ahead of their expiry, or {@code null}
+ */
+    public DomainCache(int maxItems, long refreshTTL, int maxItemsNegative, long refreshTTLNegative,
+            EntryRefresher refresher) {
+        mNameCache = new CacheIndex<CachedEntry<Domain>>(maxItems);
+        mIdCache = new CacheIndex<CachedEntry<Domain>>(maxItems);
+        mVirtualHostnameCache = new CacheIndex<CachedEntry<Domain>>(maxItems);
+        mForeignNameCache = new CacheIndex<CachedEntry<Domain>>(maxItems);
+        mKrb5RealmCache = new CacheIndex<CachedEntry<Domain>>(maxItems);
         mRefreshTTL = refreshTTL;
+        mRefresher = refresher;
         
         mNegativeCache = new NegativeCache(maxItemsNegative, refreshTTLNegative);
     }
@@ -262,7 +260,7 @@ public class DomainCache implements IDomainCache {
             // clean it from the non-existing cache first
             mNegativeCache.clean(domainBy, key, entry);
             
-            CacheEntry cacheEntry = new CacheEntry(entry, mRefreshTTL);
+            CachedEntry<Domain> cacheEntry = new CachedEntry<Domain>(entry, mRefreshTTL);
             mNameCache.put(entry.getName(), cacheEntry);
             mIdCache.put(entry.getId(), cacheEntry);
             
@@ -282,25 +280,53 @@ public class DomainCache implements IDomainCache {
         }
     }
 
-    private Domain get(String key, Map cache) {
-        CacheEntry ce = (CacheEntry) cache.get(key);
-        if (ce != null) {
-            if (mRefreshTTL != 0 && ce.isStale()) {
-                remove(ce.mEntry);
-                mHitRate.increment(0);
-                return null;
-            } else {
-                mHitRate.increment(100);
-                return ce.mEntry;
-            }
-        } else {
+    private synchronized void refreshed(CachedEntry<Domain> ce) {
+        if (mIdCache.get(ce.entry.getId()) == ce) {
+            replace(ce.entry);
+        }
+    }
+
+    /**
+     * Drops a stale entry from every index that still refers to it.
+     */
+    private void evict(CachedEntry<Domain> ce) {
+        Domain entry = ce.entry;
+        mNameCache.remove(entry.getName(), ce);
+        mIdCache.remove(entry.getId(), ce);
+        for (String vh : entry.getMultiAttr(Provisioning.A_zimbraVirtualHostname))
+            mVirtualHostnameCache.remove(vh.toLowerCase(), ce);
+        for (String fn : entry.getMultiAttr(Provisioning.A_zimbraForeignName))
+            mForeignNameCache.remove(fn.toLowerCase(), ce);
+        mKrb5RealmCache.remove(entry.getAttr(Provisioning.A_zimbraAuthKerberos5Realm), ce);
+    }
+
+    private Domain get(String key, CacheIndex<CachedEntry<Domain>> cache) {
+        final CachedEntry<Domain> ce = cache.get(key);
+        if (ce == null) {
+            cache.recordLookup(false);
             mHitRate.increment(0);
             return null;
+        } else if (mRefreshTTL != 0 && ce.isStale()) {
+            evict(ce);
+            cache.recordLookup(false);
+            mHitRate.increment(0);
+            return null;
+        }
+        cache.recordLookup(true);
+        mHitRate.increment(100);
+        if (mRefresher != null && mRefresher.claim(ce, mRefreshTTL)) {
+            mRefresher.refresh(ce, new Runnable() {
+                @Override
+                public void run() {
+                    refreshed(ce);
+                }
+            });
         }
+        return ce.entry;
     }
     
     @Override
-    public synchronized Domain getById(String key, GetFromDomainCacheOption option) {
+    public Domain getById(String key, GetFromDomainCacheOption option) {
         
         switch (option) {
         case POSITIVE:
@@ -318,7 +344,7 @@ public class DomainCache implements IDomainCache {
     }
     
     @Override
-    public synchronized Domain getByName(String key, GetFromDomainCacheOption option) {
+    public Domain getByName(String key, GetFromDomainCacheOption option) {
         
         switch (option) {
         case POSITIVE:
@@ -336,7 +362,7 @@ public class DomainCache implements IDomainCache {
     }
     
     @Override
-    public synchronized Domain getByVirtualHostname(String key, GetFromDomainCacheOption option) {
+    public Domain getByVirtualHostname(String key, GetFromDomainCacheOption option) {
         
         switch (option) {
         case POSITIVE:
@@ -354,7 +380,7 @@ public class DomainCache implements IDomainCache {
     }
     
     @Override
-    public synchronized Domain getByForeignName(String key, GetFromDomainCacheOption option) {
+    public Domain getByForeignName(String key, GetFromDomainCacheOption option) {
         
         switch (option) {
         case POSITIVE:
@@ -372,7 +398,7 @@ public class DomainCache implements IDomainCache {
     }
     
     @Override
-    public synchronized Domain getByKrb5Realm(String key, GetFromDomainCacheOption option) {
+    public Domain getByKrb5Realm(String key, GetFromDomainCacheOption option) {
         
         switch (option) {
         case POSITIVE:
@@ -390,7 +416,7 @@ public class DomainCache implements IDomainCache {
     }
 
     @Override
-    public synchronized int getSize() {
+    public int getSize() {
         return mIdCache.size();
     }
     
@@ -398,7 +424,7 @@ public class DomainCache implements IDomainCache {
      * Returns the cache hit rate as a value between 0 and 100.<br />
      */
     @Override
-    public synchronized double getHitRate() {
+    public double getHitRate() {
     	 return mHitRate.getAverage();
     }
 }
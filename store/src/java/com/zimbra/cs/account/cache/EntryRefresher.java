@@ -0,0 +1,99 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.NamedEntry;
+
+/**
+ * Reloads cached LDAP entries in the background once they have used up {@code ldap_cache_refresh_ahead_percent} of
+ * their refresh TTL, so that frequently used entries are renewed before they go stale instead of being reloaded
+ * synchronously on a request thread. Entries that are not looked up again before the TTL runs out still expire and
+ * are reloaded on demand, as before.
+ */
+public final class EntryRefresher {
+
+    public interface Loader {
+        /**
+         * Re-reads the attributes of the entry in place.
+         */
+        void reload(NamedEntry entry) throws ServiceException;
+    }
+
+    private static final int MAX_PENDING = 1000;
+
+    private static final class ExecutorHolder {
+        static final ThreadPoolExecutor EXECUTOR;
+        static {
+            int threads = Math.max(LC.ldap_cache_refresh_threads.intValue(), 1);
+            EXECUTOR = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(MAX_PENDING),
+                    new ThreadFactoryBuilder().setNameFormat("LdapCacheRefresh-%d").setDaemon(true).build());
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    private final Loader loader;
+
+    public EntryRefresher(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns true if the entry is due for a refresh and the caller has claimed it; the caller must then call
+     * {@link #refresh}.
+     */
+    boolean claim(CachedEntry<?> ce, long refreshTTL) {
+        int percent = LC.ldap_cache_refresh_ahead_percent.intValue();
+        if (refreshTTL <= 0 || percent <= 0 || percent >= 100) {
+            return false;
+        }
+        return ce.getAge() >= refreshTTL / 100 * percent && ce.startRefresh();
+    }
+
+    /**
+     * Reloads the entry on a background thread and then runs {@code reloaded}, which is expected to put the entry
+     * back into the cache with a new lifetime.
+     */
+    void refresh(final CachedEntry<?> ce, final Runnable reloaded) {
+        try {
+            ExecutorHolder.EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loader.reload(ce.entry);
+                        reloaded.run();
+                    } catch (ServiceException | RuntimeException e) {
+                        ZimbraLog.account.debug("unable to refresh cached entry %s", ce.entry.getName(), e);
+                        ce.endRefresh();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too far behind; the entry will be reloaded on demand once it goes stale
+            ce.endRefresh();
+        }
+    }
+}
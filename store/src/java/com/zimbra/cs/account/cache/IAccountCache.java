@@ -19,6 +19,8 @@ package com.zimbra.cs.account.cache;
 import com.zimbra.cs.account.Account;
 
 public interface IAccountCache extends IEntryCache {
+    public enum Index { id, name, alias, foreignPrincipal, oldName }
+
     public void clear();
     public void remove(Account entry);
     public void put(Account entry);
@@ -26,4 +28,5 @@ public interface IAccountCache extends IEntryCache {
     public Account getById(String key);
     public Account getByName(String key);
     public Account getByForeignPrincipal(String key);
+    public double getHitRate(Index index);
 }
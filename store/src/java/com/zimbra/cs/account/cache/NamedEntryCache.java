@@ -24,46 +24,43 @@
 package com.zimbra.cs.account.cache;
 
 import java.util.List;
-import java.util.Map;
 
-import com.zimbra.common.util.MapUtil;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.HitRateCounter;
 import com.zimbra.cs.account.NamedEntry;
 
 /**
+ * Lookups don't take a lock; writes are serialized so that both indexes are updated together.
+ *
  * @author schemers
  **/
 public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E> {
     
-    private Map mNameCache;
-    private Map mIdCache;
+    private final CacheIndex<CachedEntry<E>> mNameCache;
+    private final CacheIndex<CachedEntry<E>> mIdCache;
     
-    private long mRefreshTTL;
-    private Counter mHitRate = new HitRateCounter();
+    private final long mRefreshTTL;
+    private final EntryRefresher mRefresher;
+    private final Counter mHitRate = new HitRateCounter();
    
-
-    static class CacheEntry<E extends NamedEntry> {
-        long mLifetime;
-        E mEntry;
-        CacheEntry(E entry, long expires) {
-            mEntry = entry;
-            mLifetime = System.currentTimeMillis() + expires;
-        }
-        
-        boolean isStale() {
-            return mLifetime < System.currentTimeMillis();
-        }
-    }
-    
 /**
  * @param maxItems
  * @param refreshTTL
  */
     public NamedEntryCache(int maxItems, long refreshTTL) {
-        mNameCache = MapUtil.newLruMap(maxItems);
-        mIdCache = MapUtil.newLruMap(maxItems);
+        this(maxItems, refreshTTL, null);
+    }
+
+/**
+ * @param maxItems
+ * @param refreshTTL
+ * @param refresher reloads entries ahead of their expiry, or {@code null}
+ */
+    public NamedEntryCache(int maxItems, long refreshTTL, EntryRefresher refresher) {
+        mNameCache = new CacheIndex<CachedEntry<E>>(maxItems);
+        mIdCache = new CacheIndex<CachedEntry<E>>(maxItems);
         mRefreshTTL = refreshTTL;
+        mRefresher = refresher;
     }
 
     @Override
@@ -89,7 +86,7 @@ public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E
     @Override
     public synchronized void put(E entry) {
         if (entry != null) {
-            CacheEntry<E> cacheEntry = new CacheEntry<E>(entry, mRefreshTTL);
+            CachedEntry<E> cacheEntry = new CachedEntry<E>(entry, mRefreshTTL);
             mNameCache.put(entry.getName(), cacheEntry);
             mIdCache.put(entry.getId(), cacheEntry);
         }
@@ -110,36 +107,50 @@ public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private E get(String key, Map cache) {
-        CacheEntry<E> ce = (CacheEntry<E>) cache.get(key);
-        if (ce != null) {
-            if (mRefreshTTL != 0 && ce.isStale()) {
-                remove(ce.mEntry);
-                mHitRate.increment(0);
-                return null;
-            } else {
-                mHitRate.increment(100);
-                return ce.mEntry;
-            }
-        } else {
+    private synchronized void refreshed(CachedEntry<E> ce) {
+        if (mIdCache.get(ce.entry.getId()) == ce) {
+            replace(ce.entry);
+        }
+    }
+
+    private E get(String key, CacheIndex<CachedEntry<E>> cache) {
+        final CachedEntry<E> ce = cache.get(key);
+        if (ce == null) {
+            cache.recordLookup(false);
+            mHitRate.increment(0);
+            return null;
+        } else if (mRefreshTTL != 0 && ce.isStale()) {
+            mNameCache.remove(ce.entry.getName(), ce);
+            mIdCache.remove(ce.entry.getId(), ce);
+            cache.recordLookup(false);
             mHitRate.increment(0);
             return null;
         }
+        cache.recordLookup(true);
+        mHitRate.increment(100);
+        if (mRefresher != null && mRefresher.claim(ce, mRefreshTTL)) {
+            mRefresher.refresh(ce, new Runnable() {
+                @Override
+                public void run() {
+                    refreshed(ce);
+                }
+            });
+        }
+        return ce.entry;
     }
     
     @Override
-    public synchronized E getById(String key) {
+    public E getById(String key) {
         return get(key, mIdCache);
     }
     
     @Override
-    public synchronized E getByName(String key) {
+    public E getByName(String key) {
         return get(key.toLowerCase(), mNameCache);
     }
     
     @Override
-    public synchronized int getSize() {
+    public int getSize() {
         return mIdCache.size();
     }
     
@@ -148,7 +159,7 @@ public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E
      * Returns the cache hit rate as a value between 0 and 100.
      */
     @Override
-    public synchronized double getHitRate() {
+    public double getHitRate() {
         return mHitRate.getAverage();
     }
 }
@@ -37,6 +37,7 @@ import com.zimbra.cs.account.XMPPComponent;
 import com.zimbra.cs.account.cache.AccountCache;
 import com.zimbra.cs.account.cache.DomainCache;
 import com.zimbra.cs.account.cache.DomainCache.GetFromDomainCacheOption;
+import com.zimbra.cs.account.cache.EntryRefresher;
 import com.zimbra.cs.account.cache.IAccountCache;
 import com.zimbra.cs.account.cache.IDomainCache;
 import com.zimbra.cs.account.cache.IMimeTypeCache;
@@ -69,15 +70,28 @@ abstract class LdapCache {
      */
     static class LRUMapCache extends LdapCache {
 
+        /**
+         * Entries that are hot enough to be looked up close to their expiry are reloaded from a replica in the
+         * background rather than on the request thread once they go stale.
+         */
+        private static final EntryRefresher refresher = new EntryRefresher(new EntryRefresher.Loader() {
+            @Override
+            public void reload(NamedEntry entry) throws ServiceException {
+                Provisioning.getInstance().reload(entry, false);
+            }
+        });
+
         private final IAccountCache accountCache =
             new AccountCache(
                     LC.ldap_cache_account_maxsize.intValue(),
-                    LC.ldap_cache_account_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_account_maxage.intValue() * Constants.MILLIS_PER_MINUTE,
+                    refresher);
 
         private final INamedEntryCache<LdapCos> cosCache =
             new NamedEntryCache<LdapCos>(
                     LC.ldap_cache_cos_maxsize.intValue(),
-                    LC.ldap_cache_cos_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_cos_maxage.intValue() * Constants.MILLIS_PER_MINUTE,
+                    refresher);
 
         private final INamedEntryCache<ShareLocator> shareLocatorCache =
                 new NamedEntryCache<ShareLocator>(
@@ -89,14 +103,16 @@ abstract class LdapCache {
                     LC.ldap_cache_domain_maxsize.intValue(),
                     LC.ldap_cache_domain_maxage.intValue() * Constants.MILLIS_PER_MINUTE,
                     LC.ldap_cache_external_domain_maxsize.intValue(),
-                    LC.ldap_cache_external_domain_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_external_domain_maxage.intValue() * Constants.MILLIS_PER_MINUTE,
+                    refresher);
 
         private final IMimeTypeCache mimeTypeCache = new LdapMimeTypeCache();
 
         private final INamedEntryCache<Server> serverCache =
             new NamedEntryCache<Server>(
                     LC.ldap_cache_server_maxsize.intValue(),
-                    LC.ldap_cache_server_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_server_maxage.intValue() * Constants.MILLIS_PER_MINUTE,
+                    refresher);
 
         private final INamedEntryCache<UCService> ucServiceCache =
             new NamedEntryCache<UCService>(
@@ -106,7 +122,8 @@ abstract class LdapCache {
         private final INamedEntryCache<LdapZimlet> zimletCache =
             new NamedEntryCache<LdapZimlet>(
                     LC.ldap_cache_zimlet_maxsize.intValue(),
-                    LC.ldap_cache_zimlet_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_zimlet_maxage.intValue() * Constants.MILLIS_PER_MINUTE,
+                    refresher);
 
 
         private final INamedEntryCache<Group> groupCache =
@@ -228,6 +245,9 @@ abstract class LdapCache {
 
             @Override
             public double getHitRate() { return 0; }
+
+            @Override
+            public double getHitRate(Index index) { return 0; }
         }
 
         static class NoopDomainCache implements IDomainCache {
@@ -27,6 +27,7 @@ import com.zimbra.cs.account.Domain;
 import com.zimbra.cs.account.Entry;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.auth.AuthMechanism.AuthMech;
+import com.zimbra.cs.account.cache.IAccountCache;
 import com.zimbra.cs.ldap.LdapClient;
 import com.zimbra.cs.ldap.LdapTODO.TODO;
 import com.zimbra.cs.ldap.SearchLdapOptions;
@@ -75,6 +76,7 @@ public abstract class LdapProv extends Provisioning {
 
     public abstract int getAccountCacheSize();
     public abstract double getAccountCacheHitRate();
+    public abstract double getAccountCacheHitRate(IAccountCache.Index index);
     public abstract int getCosCacheSize();
     public abstract double getCosCacheHitRate();
     public abstract int getDomainCacheSize();
@@ -346,6 +346,9 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
     @Override
     public double getAccountCacheHitRate() { return accountCache.getHitRate(); }
 
+    @Override
+    public double getAccountCacheHitRate(IAccountCache.Index index) { return accountCache.getHitRate(index); }
+
     @Override
     public int getCosCacheSize() { return cosCache.getSize(); }
 
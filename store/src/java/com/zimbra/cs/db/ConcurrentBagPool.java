@@ -0,0 +1,374 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.apache.commons.dbcp.DelegatingConnection;
+import org.apache.commons.pool.impl.GenericObjectPool;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.zimbra.common.util.ZimbraLog;
+
+/**
+ * {@link DbConnectionPool} modelled on HikariCP's {@code ConcurrentBag}.
+ * <p>
+ * Every pooled connection is an {@link Entry} whose state is flipped between in-use and idle with a
+ * CAS, so borrowing and returning a connection never takes a pool-wide lock:
+ * <ol>
+ *  <li>A thread first tries the connections it returned most recently, which are usually idle and
+ *      still warm in its CPU cache.</li>
+ *  <li>Otherwise it scans the shared list for an idle connection.</li>
+ *  <li>Otherwise it opens a new connection if the pool isn't full.</li>
+ *  <li>Otherwise it waits on a {@link SynchronousQueue}; a thread returning a connection while there
+ *      are waiters hands it off directly.</li>
+ * </ol>
+ * When the caller passes an affinity (the mailbox group id), the first two steps prefer connections that
+ * last served the same affinity, so the server-side statement cache of each connection stays specific to
+ * a few {@code mboxgroupN} databases.
+ * <p>
+ * If {@code leakDetectionThreshold} is set, the stack of every borrow is recorded and connections held
+ * for longer than the threshold are logged.
+ */
+final class ConcurrentBagPool extends DbConnectionPool {
+
+    private static final int STATE_REMOVED = -1;
+    private static final int STATE_NOT_IN_USE = 0;
+    private static final int STATE_IN_USE = 1;
+
+    /** Upper bound on the connections remembered per thread. */
+    private static final int MAX_THREAD_LOCAL = 4;
+    /** Waiters re-check the shared list this often in case a connection was freed without hand-off. */
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ConnectionFactory factory;
+    private final int maxActive;
+    private final boolean growWhenExhausted;
+    private final long maxWaitNanos;
+    private final long leakDetectionThreshold;
+
+    private final CopyOnWriteArrayList<Entry> shared = new CopyOnWriteArrayList<Entry>();
+    private final ThreadLocal<List<Entry>> recent = new ThreadLocal<List<Entry>>() {
+        @Override
+        protected List<Entry> initialValue() {
+            return new ArrayList<Entry>(MAX_THREAD_LOCAL);
+        }
+    };
+    private final SynchronousQueue<Entry> handoff = new SynchronousQueue<Entry>(true);
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicLong lastLeakCheck = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param maxWait how long to wait for a connection in msecs, or {@code 0} to wait indefinitely
+     * @param leakDetectionThreshold msecs a connection may be held before it's reported, or {@code 0}
+     */
+    ConcurrentBagPool(ConnectionFactory factory, int maxActive, byte whenExhaustedAction, long maxWait,
+            long leakDetectionThreshold) {
+        this.factory = factory;
+        this.maxActive = maxActive;
+        this.growWhenExhausted = whenExhaustedAction == GenericObjectPool.WHEN_EXHAUSTED_GROW;
+        this.maxWaitNanos = maxWait > 0 ? TimeUnit.MILLISECONDS.toNanos(maxWait) : Long.MAX_VALUE;
+        this.leakDetectionThreshold = Math.max(leakDetectionThreshold, 0);
+    }
+
+    @Override
+    Connection getConnection() throws SQLException {
+        return getConnection(0);
+    }
+
+    @Override
+    Connection getConnection(int affinity) throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool is closed");
+        }
+        Entry entry = borrow(affinity);
+        if (affinity > 0) {
+            entry.affinity = affinity;
+        }
+        active.incrementAndGet();
+        entry.borrowed = System.currentTimeMillis();
+        if (leakDetectionThreshold > 0) {
+            entry.borrowStack = new Throwable("connection borrowed by " + Thread.currentThread().getName());
+            entry.leakReported = false;
+            checkLeaks(entry.borrowed);
+        }
+        return new PooledConnection(entry);
+    }
+
+    private Entry borrow(int affinity) throws SQLException {
+        List<Entry> list = recent.get();
+        if (affinity > 0) {
+            for (int i = list.size() - 1; i >= 0; i--) {
+                Entry entry = list.get(i);
+                if (entry.affinity == affinity && entry.claim()) {
+                    list.remove(i);
+                    return entry;
+                }
+            }
+        }
+        for (int i = list.size() - 1; i >= 0; i--) {
+            Entry entry = list.remove(i);
+            if (entry.claim()) {
+                return entry;
+            }
+        }
+
+        waiters.incrementAndGet();
+        try {
+            Entry entry = scan(affinity);
+            if (entry != null) {
+                return entry;
+            }
+            long deadline = maxWaitNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + maxWaitNanos;
+            while (true) {
+                entry = create();
+                if (entry != null) {
+                    return entry;
+                }
+                long remaining = deadline == Long.MAX_VALUE ? POLL_NANOS : deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLException("timed out waiting for a database connection (" +
+                            active.get() + " of " + maxActive + " in use)");
+                }
+                entry = handoff.poll(Math.min(remaining, POLL_NANOS), TimeUnit.NANOSECONDS);
+                if (entry != null && entry.claim()) {
+                    return entry;
+                }
+                entry = scan(0);
+                if (entry != null) {
+                    return entry;
+                }
+                if (closed) {
+                    throw new SQLException("connection pool is closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a database connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /** Claims an idle connection from the shared list, preferring one with the given affinity. */
+    private Entry scan(int affinity) {
+        if (affinity > 0) {
+            for (Entry entry : shared) {
+                if (entry.affinity == affinity && entry.claim()) {
+                    return entry;
+                }
+            }
+        }
+        for (Entry entry : shared) {
+            if (entry.claim()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** Opens a new connection if the pool has room; returns {@code null} if it's full. */
+    private Entry create() throws SQLException {
+        while (true) {
+            int n = total.get();
+            if (n >= maxActive && !growWhenExhausted) {
+                return null;
+            }
+            if (total.compareAndSet(n, n + 1)) {
+                break;
+            }
+        }
+        try {
+            Connection conn = factory.createConnection();
+            if (conn.getAutoCommit()) {
+                conn.setAutoCommit(false);
+            }
+            Entry entry = new Entry(conn);
+            shared.add(entry);
+            return entry;
+        } catch (SQLException e) {
+            total.decrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool, handing it to a waiting thread if there is one.
+     */
+    private void release(Entry entry, boolean broken) {
+        active.decrementAndGet();
+        entry.borrowStack = null;
+        if (broken || closed) {
+            remove(entry);
+            return;
+        }
+        entry.state.set(STATE_NOT_IN_USE);
+        for (int i = 0; waiters.get() > 0; i++) {
+            if (entry.state.get() != STATE_NOT_IN_USE || handoff.offer(entry)) {
+                return;
+            } else if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+        List<Entry> list = recent.get();
+        if (list.size() < MAX_THREAD_LOCAL) {
+            list.add(entry);
+        }
+    }
+
+    private void remove(Entry entry) {
+        entry.state.set(STATE_REMOVED);
+        if (shared.remove(entry)) {
+            total.decrementAndGet();
+        }
+        try {
+            entry.connection.close();
+        } catch (SQLException e) {
+            ZimbraLog.dbconn.debug("error closing pooled connection", e);
+        }
+    }
+
+    /** Logs connections held longer than the leak detection threshold, at most once a second. */
+    private void checkLeaks(long now) {
+        long last = lastLeakCheck.get();
+        if (now - last < 1000 || !lastLeakCheck.compareAndSet(last, now)) {
+            return;
+        }
+        for (Entry entry : shared) {
+            Throwable stack = entry.borrowStack;
+            if (entry.state.get() == STATE_IN_USE && stack != null && !entry.leakReported &&
+                    now - entry.borrowed > leakDetectionThreshold) {
+                entry.leakReported = true;
+                ZimbraLog.dbconn.warn("Connection held for %d ms, possible leak", now - entry.borrowed, stack);
+            }
+        }
+    }
+
+    @Override
+    int getNumActive() {
+        return active.get();
+    }
+
+    @Override
+    int getNumIdle() {
+        return Math.max(total.get() - active.get(), 0);
+    }
+
+    @Override
+    int getNumWaiting() {
+        return waiters.get();
+    }
+
+    @Override
+    int getMaxActive() {
+        return maxActive;
+    }
+
+    @VisibleForTesting
+    int getNumOpen() {
+        return total.get();
+    }
+
+    @Override
+    void close() {
+        closed = true;
+        for (Entry entry : shared) {
+            if (entry.state.compareAndSet(STATE_NOT_IN_USE, STATE_REMOVED)) {
+                remove(entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Connection connection;
+        final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+        volatile long borrowed;
+        volatile Throwable borrowStack;
+        volatile boolean leakReported;
+        /** Affinity of the last borrow that asked for one, {@code 0} if none has. */
+        volatile int affinity;
+
+        Entry(Connection connection) {
+            this.connection = connection;
+        }
+
+        boolean claim() {
+            return state.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE);
+        }
+    }
+
+    /**
+     * Handle given out for one borrow.  Closing it rolls back any uncommitted work and returns the
+     * physical connection to the pool.
+     */
+    private final class PooledConnection extends DelegatingConnection {
+        private final Entry entry;
+
+        PooledConnection(Entry entry) {
+            super(entry.connection);
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return _closed || entry.connection.isClosed();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (_closed) {
+                return;
+            }
+            boolean broken = false;
+            try {
+                passivate(); // closes statements left open and marks this handle closed
+                if (entry.connection.isClosed()) {
+                    broken = true;
+                } else {
+                    if (!entry.connection.getAutoCommit()) {
+                        entry.connection.rollback();
+                    }
+                    entry.connection.clearWarnings();
+                }
+            } catch (SQLException e) {
+                ZimbraLog.dbconn.debug("discarding connection that failed to reset", e);
+                broken = true;
+            } finally {
+                _closed = true;
+                release(entry, broken);
+            }
+        }
+    }
+}
@@ -20,8 +20,6 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 
-import org.apache.commons.dbcp.PoolingDataSource;
-
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
@@ -119,7 +117,7 @@ public abstract class Db {
      *  the connections or to operate on the pool itself before any
      *  connections are returned to callers. */
     @SuppressWarnings("unused")
-    void startup(PoolingDataSource pool, int poolSize) throws SQLException {
+    void startup(DbConnectionPool pool, int poolSize) throws SQLException {
         // default is to do nothing
     }
 
@@ -131,9 +129,13 @@ public abstract class Db {
     }
 
     /** Callback invoked immediately after a new connection is created for the pool. */
-    @SuppressWarnings("unused")
     void postCreate(Connection conn) throws SQLException {
-        // default is to do nothing
+        // We want READ COMMITTED transaction isolation level for duplicate handling code in
+        // BucketBlobStore.newBlobInfo().  Nothing changes it afterwards, so it is set once per
+        // physical connection rather than on every checkout.
+        if (supports(Capability.READ_COMMITTED_ISOLATION)) {
+            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        }
     }
 
     /** Callback invoked immediately before a connection is fetched from
@@ -0,0 +1,151 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.db.DbPool.DbConnection;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Updates that are queued on a {@link DbConnection} instead of being sent right away.
+ * <p>
+ * Some writes only set the state of a row and never need their update count, for example
+ * folder counts and item metadata.  {@link DbConnection#queueUpdate} holds these writes. They
+ * are sent before the next statement is prepared on the connection, or when the transaction
+ * commits.  Every later statement therefore sees them, and the updates of one transaction
+ * reach the database together.  Queued updates keep their order.  Consecutive updates with
+ * the same SQL are sent as one JDBC batch, which the driver sends in one round trip
+ * ({@code rewriteBatchedStatements}).
+ * <p>
+ * A failing update is reported by whichever statement or commit flushed it.  Turn
+ * {@code zimbra_db_batch_updates} off to send every update immediately, for comparison or
+ * troubleshooting.
+ */
+public final class DbBatch {
+
+    /** The bind values of one queued update, in parameter order. */
+    public static final class Row {
+        private final List<Object> values = new ArrayList<Object>(8);
+
+        public Row setInt(int value) {
+            values.add(value);
+            return this;
+        }
+
+        public Row setLong(long value) {
+            values.add(value);
+            return this;
+        }
+
+        public Row setString(String value) {
+            values.add(value);
+            return this;
+        }
+
+        public Row setNull(int sqlType) {
+            values.add(new Null(sqlType));
+            return this;
+        }
+
+        void bind(PreparedStatement stmt) throws SQLException {
+            int pos = 1;
+            for (Object value : values) {
+                if (value instanceof Integer) {
+                    stmt.setInt(pos++, (Integer) value);
+                } else if (value instanceof Long) {
+                    stmt.setLong(pos++, (Long) value);
+                } else if (value instanceof Null) {
+                    stmt.setNull(pos++, ((Null) value).sqlType);
+                } else {
+                    stmt.setString(pos++, (String) value);
+                }
+            }
+        }
+    }
+
+    private static final class Null {
+        final int sqlType;
+
+        Null(int sqlType) {
+            this.sqlType = sqlType;
+        }
+    }
+
+    private final List<String> sqls = new ArrayList<String>();
+    private final List<Row> rows = new ArrayList<Row>();
+
+    static boolean isEnabled() {
+        return LC.zimbra_db_batch_updates.booleanValue();
+    }
+
+    void add(String sql, Row row) {
+        sqls.add(sql);
+        rows.add(row);
+    }
+
+    boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    void clear() {
+        sqls.clear();
+        rows.clear();
+    }
+
+    /**
+     * Sends the queued updates over {@code conn} and empties the batch, whether or not they
+     * succeed.  This uses the underlying JDBC connection, so it does not flush again.
+     */
+    void flush(DbConnection conn) throws SQLException {
+        try {
+            int size = rows.size();
+            for (int start = 0, end; start < size; start = end) {
+                String sql = sqls.get(start);
+                for (end = start + 1; end < size && sqls.get(end).equals(sql); end++) {
+                }
+                PreparedStatement stmt = new StatTrackingPreparedStatement(
+                        conn.getConnection().prepareStatement(sql), sql);
+                try {
+                    if (end - start == 1) {
+                        rows.get(start).bind(stmt);
+                        stmt.executeUpdate();
+                    } else {
+                        for (int i = start; i < end; i++) {
+                            rows.get(i).bind(stmt);
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                } finally {
+                    conn.closeQuietly(stmt);
+                }
+                ZimbraPerf.COUNTER_DB_BATCH_SIZE.increment(end - start);
+            }
+        } finally {
+            clear();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.commons.dbcp.ConnectionFactory;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.db.DbPool.PoolConfig;
+
+/**
+ * The pool of physical connections behind {@link DbPool}.  The implementation is picked with the
+ * {@code zimbra_db_pool_type} localconfig key:
+ * <ul>
+ *  <li>{@code dbcp} - commons-pool {@code GenericObjectPool} (default)</li>
+ *  <li>{@code bag} - {@link ConcurrentBagPool}, which hands connections out without a pool-wide lock</li>
+ * </ul>
+ */
+abstract class DbConnectionPool {
+
+    static final String TYPE_DBCP = "dbcp";
+    static final String TYPE_BAG = "bag";
+
+    static DbConnectionPool create(PoolConfig pconfig) {
+        ConnectionFactory cfac = ZimbraConnectionFactory.getConnectionFactory(pconfig);
+        String type = LC.zimbra_db_pool_type.value();
+        if (TYPE_BAG.equalsIgnoreCase(type)) {
+            ZimbraLog.dbconn.info("using concurrent bag connection pool, max %d connections", pconfig.mPoolSize);
+            return new ConcurrentBagPool(cfac, pconfig.mPoolSize, pconfig.whenExhaustedAction,
+                    LC.zimbra_db_pool_max_wait.longValue(), LC.zimbra_db_pool_leak_detection_threshold.longValue());
+        }
+        if (!TYPE_DBCP.equalsIgnoreCase(type)) {
+            ZimbraLog.dbconn.warn("unknown %s '%s'; defaulting to %s", LC.zimbra_db_pool_type.key(), type, TYPE_DBCP);
+        }
+        return new DbcpConnectionPool(cfac, pconfig.mPoolSize, pconfig.whenExhaustedAction);
+    }
+
+    /**
+     * Returns a connection from the pool.  Closing the connection returns it to the pool.
+     */
+    abstract Connection getConnection() throws SQLException;
+
+    /**
+     * Returns a connection from the pool, preferring one that was last used with the same affinity
+     * (the mailbox group id, or {@code 0} for none).  Server-side state such as prepared statements is
+     * per connection, and statements on {@code mboxgroupN} tables differ by group, so keeping a group
+     * on the same connections keeps that state warm.  Pools without affinity support ignore it.
+     */
+    Connection getConnection(int affinity) throws SQLException {
+        return getConnection();
+    }
+
+    /** Number of connections currently handed out. */
+    abstract int getNumActive();
+
+    /** Number of open connections sitting in the pool. */
+    abstract int getNumIdle();
+
+    /** Number of threads waiting for a connection. */
+    abstract int getNumWaiting();
+
+    /** Maximum number of connections the pool hands out before callers wait. */
+    abstract int getMaxActive();
+
+    abstract void close() throws Exception;
+}
@@ -55,6 +55,7 @@ import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.zimbra.common.localconfig.DebugConfig;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.ListUtil;
@@ -129,6 +130,13 @@ public class DbMailItem {
         return nextPos;
     }
 
+    static DbBatch.Row setMailboxId(DbBatch.Row row, Mailbox mbox) {
+        if (!DebugConfig.disableMailboxGroups) {
+            row.setInt(mbox.getId());
+        }
+        return row;
+    }
+
     public void create(UnderlyingData data) throws ServiceException {
         if (data.id <= 0 || data.folderId <= 0 || data.parentId == 0) {
             throw ServiceException.FAILURE("invalid data for DB item create", null);
@@ -187,7 +195,7 @@ public class DbMailItem {
             stmt.setString(pos++, recipients);
             stmt.setString(pos++, data.getSubject());
             stmt.setString(pos++, data.name);
-            stmt.setString(pos++, checkMetadataLength(data.metadata));
+            stmt.setString(pos++, checkMetadataLength(toStorageFormat(data.metadata)));
             stmt.setInt(pos++, data.modMetadata);
             if (data.dateChanged > 0) {
                 stmt.setInt(pos++, data.dateChanged);
@@ -289,7 +297,7 @@ public class DbMailItem {
             }
             stmt.setInt(pos++, id);                            // IMAP_ID is initially the same as ID
             stmt.setString(pos++, locator);
-            stmt.setString(pos++, checkMetadataLength(metadata));  // METADATA
+            stmt.setString(pos++, checkMetadataLength(toStorageFormat(metadata)));  // METADATA
             stmt.setInt(pos++, modseq);   // MOD_METADATA
             stmt.setInt(pos++, mbox.getOperationTimestamp());  // CHANGE_DATE
             stmt.setInt(pos++, mbox.getOperationChangeID());   // MOD_CONTENT
@@ -971,54 +979,44 @@ public class DbMailItem {
     public static void saveMetadata(MailItem item, String metadata) throws ServiceException {
         Mailbox mbox = item.getMailbox();
         DbConnection conn = mbox.getOperationConnection();
-        PreparedStatement stmt = null;
         try {
-            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(item) +
+            DbBatch.Row row = new DbBatch.Row()
+                    .setInt((int) (item.getDate() / 1000))
+                    .setLong(item.getSize())
+                    .setString(checkMetadataLength(toStorageFormat(metadata)))
+                    .setInt(mbox.getOperationChangeID())
+                    .setInt(mbox.getOperationTimestamp())
+                    .setInt(item.getSavedSequence());
+            setMailboxId(row, mbox).setInt(item.getId());
+            conn.queueUpdate("UPDATE " + getMailItemTableName(item) +
                         " SET date = ?, size = ?, metadata = ?, mod_metadata = ?, change_date = ?, mod_content = ?" +
-                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?");
-            int pos = 1;
-            stmt.setInt(pos++, (int) (item.getDate() / 1000));
-            stmt.setLong(pos++, item.getSize());
-            stmt.setString(pos++, checkMetadataLength(metadata));
-            stmt.setInt(pos++, mbox.getOperationChangeID());
-            stmt.setInt(pos++, mbox.getOperationTimestamp());
-            stmt.setInt(pos++, item.getSavedSequence());
-            pos = setMailboxId(stmt, mbox, pos);
-            stmt.setInt(pos++, item.getId());
-            stmt.executeUpdate();
+                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?", row);
         } catch (SQLException e) {
             throw ServiceException.FAILURE("writing metadata for mailbox " + item.getMailboxId() + ", item " + item.getId(), e);
-        } finally {
-            DbPool.closeStatement(stmt);
         }
     }
 
     public static void persistCounts(MailItem item, Metadata metadata) throws ServiceException {
         Mailbox mbox = item.getMailbox();
         DbConnection conn = mbox.getOperationConnection();
-        PreparedStatement stmt = null;
         try {
-            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(item) +
-                        " SET size = ?, unread = ?, metadata = ?, mod_metadata = ?, change_date = ?, mod_content = ?" +
-                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?");
-            int pos = 1;
-            stmt.setLong(pos++, item.getSize());
-            stmt.setInt(pos++, item.getUnreadCount());
-            stmt.setString(pos++, checkMetadataLength(metadata.toString()));
-            stmt.setInt(pos++, item.getModifiedSequence());
+            DbBatch.Row row = new DbBatch.Row()
+                    .setLong(item.getSize())
+                    .setInt(item.getUnreadCount())
+                    .setString(checkMetadataLength(toStorageFormat(metadata)))
+                    .setInt(item.getModifiedSequence());
             if (item.getChangeDate() > 0) {
-                stmt.setInt(pos++, (int) (item.getChangeDate() / 1000));
+                row.setInt((int) (item.getChangeDate() / 1000));
             } else {
-                stmt.setNull(pos++, Types.INTEGER);
+                row.setNull(Types.INTEGER);
             }
-            stmt.setInt(pos++, item.getSavedSequence());
-            pos = setMailboxId(stmt, mbox, pos);
-            stmt.setInt(pos++, item.getId());
-            stmt.executeUpdate();
+            row.setInt(item.getSavedSequence());
+            setMailboxId(row, mbox).setInt(item.getId());
+            conn.queueUpdate("UPDATE " + getMailItemTableName(item) +
+                        " SET size = ?, unread = ?, metadata = ?, mod_metadata = ?, change_date = ?, mod_content = ?" +
+                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?", row);
         } catch (SQLException e) {
             throw ServiceException.FAILURE("writing metadata for mailbox " + item.getMailboxId() + ", item " + item.getId(), e);
-        } finally {
-            DbPool.closeStatement(stmt);
         }
     }
 
@@ -1133,7 +1131,7 @@ public class DbMailItem {
             stmt.setString(pos++, item.getSortRecipients());
             stmt.setString(pos++, item.getSortSubject());
             stmt.setString(pos++, name);
-            stmt.setString(pos++, checkMetadataLength(metadata.toString()));
+            stmt.setString(pos++, checkMetadataLength(toStorageFormat(metadata)));
             stmt.setInt(pos++, mailbox.getOperationChangeID());
             stmt.setInt(pos++, mailbox.getOperationTimestamp());
             stmt.setInt(pos++, item.getSavedSequence());
@@ -1295,21 +1293,16 @@ public class DbMailItem {
     public static void saveDate(MailItem item) throws ServiceException {
         Mailbox mbox = item.getMailbox();
         DbConnection conn = mbox.getOperationConnection();
-        PreparedStatement stmt = null;
         try {
-            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(mbox) +
-                        " SET date = ?, mod_metadata = ?, change_date = ? WHERE " + IN_THIS_MAILBOX_AND + "id = ?");
-            int pos = 1;
-            stmt.setInt(pos++, (int) (item.getDate() / 1000));
-            stmt.setInt(pos++, mbox.getOperationChangeID());
-            stmt.setInt(pos++, mbox.getOperationTimestamp());
-            pos = setMailboxId(stmt, mbox, pos);
-            stmt.setInt(pos++, item.getId());
-            stmt.executeUpdate();
+            DbBatch.Row row = new DbBatch.Row()
+                    .setInt((int) (item.getDate() / 1000))
+                    .setInt(mbox.getOperationChangeID())
+                    .setInt(mbox.getOperationTimestamp());
+            setMailboxId(row, mbox).setInt(item.getId());
+            conn.queueUpdate("UPDATE " + getMailItemTableName(mbox) +
+                        " SET date = ?, mod_metadata = ?, change_date = ? WHERE " + IN_THIS_MAILBOX_AND + "id = ?", row);
         } catch (SQLException e) {
             throw ServiceException.FAILURE("setting IMAP UID for item " + item.getId(), e);
-        } finally {
-            DbPool.closeStatement(stmt);
         }
     }
 
@@ -3506,7 +3499,8 @@ public class DbMailItem {
     }
 
 
-    private static final String IMAP_FIELDS = "mi.id, mi.type, mi.imap_id, mi.unread, mi.flags, mi.tag_names";
+    private static final String IMAP_FIELDS =
+        "mi.id, mi.type, mi.imap_id, mi.unread, mi.flags, mi.tag_names, mi.date, mi.size, mi.mod_metadata";
 
     static final String IMAP_TYPES = "(" +
         MailItem.Type.MESSAGE.toByte() + "," +
@@ -3585,7 +3579,8 @@ public class DbMailItem {
 
     private static void addImapResult(List<ImapMessage> result, ResultSet rs) throws SQLException {
         int flags = rs.getBoolean(4) ? Flag.BITMASK_UNREAD | rs.getInt(5) : rs.getInt(5);
-        result.add(new ImapMessage(rs.getInt(1), MailItem.Type.of(rs.getByte(2)), rs.getInt(3), flags, DbTag.deserializeTags(rs.getString(6))));
+        result.add(new ImapMessage(rs.getInt(1), MailItem.Type.of(rs.getByte(2)), rs.getInt(3), flags, DbTag.deserializeTags(rs.getString(6)))
+                .setSearchAttributes(rs.getInt(7) * 1000L, rs.getLong(8), rs.getInt(9)));
     }
 
     public static int countImapRecent(Folder folder, int uidCutoff) throws ServiceException {
@@ -4927,7 +4922,7 @@ public class DbMailItem {
             if (data.name != dbdata.name && (data.name == null || !data.name.equals(dbdata.name))) {
                 failures += " NAME";
             }
-            if (metadata != dbdata.metadata && (metadata == null || !metadata.equals(dbdata.metadata))) {
+            if (!Metadata.sameContent(metadata, dbdata.metadata)) {
                 failures += " METADATA";
             }
 
@@ -4999,6 +4994,17 @@ public class DbMailItem {
         return result;
     }
 
+    /** Returns item metadata in the format it is written to {@code MAIL_ITEM} in.  Once
+     *  enabled via {@link LC#zimbra_metadata_compact_format}, rows move to the compact
+     *  format as they are rewritten; rows in either format can always be read. */
+    static String toStorageFormat(String metadata) {
+        return LC.zimbra_metadata_compact_format.booleanValue() ? Metadata.toCompact(metadata) : metadata;
+    }
+
+    static String toStorageFormat(Metadata metadata) {
+        return LC.zimbra_metadata_compact_format.booleanValue() ? metadata.toCompactString() : metadata.toString();
+    }
+
     public static String encodeMetadata(String metadata) throws ServiceException {
         if (Db.supports(Db.Capability.NON_BMP_CHARACTERS) || !StringUtil.containsSurrogates(metadata)) {
             return metadata;
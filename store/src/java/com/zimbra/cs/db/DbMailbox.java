@@ -504,23 +504,19 @@ public final class DbMailbox {
 
     public static void updateMailboxStats(Mailbox mbox) throws ServiceException {
         DbConnection conn = mbox.getOperationConnection();
-        PreparedStatement stmt = null;
         try {
-            stmt = conn.prepareStatement("UPDATE " + qualifyZimbraTableName(mbox, TABLE_MAILBOX) +
+            conn.queueUpdate("UPDATE " + qualifyZimbraTableName(mbox, TABLE_MAILBOX) +
                     " SET item_id_checkpoint = ?, contact_count = ?, change_checkpoint = ?," +
-                    "  size_checkpoint = ?, new_messages = ? WHERE id = ?");
-            int pos = 1;
-            stmt.setInt(pos++, mbox.getLastItemId());
-            stmt.setInt(pos++, mbox.getContactCount());
-            stmt.setInt(pos++, mbox.getLastChangeID());
-            stmt.setLong(pos++, mbox.getMailItemsSize());
-            stmt.setInt(pos++, mbox.getRecentMessageCount());
-            stmt.setInt(pos++, mbox.getId());
-            stmt.executeUpdate();
+                    "  size_checkpoint = ?, new_messages = ? WHERE id = ?",
+                    new DbBatch.Row()
+                            .setInt(mbox.getLastItemId())
+                            .setInt(mbox.getContactCount())
+                            .setInt(mbox.getLastChangeID())
+                            .setLong(mbox.getMailItemsSize())
+                            .setInt(mbox.getRecentMessageCount())
+                            .setInt(mbox.getId()));
         } catch (SQLException e) {
             throw ServiceException.FAILURE("updating mailbox statistics for mailbox " + mbox.getId(), e);
-        } finally {
-            DbPool.closeStatement(stmt);
         }
     }
 
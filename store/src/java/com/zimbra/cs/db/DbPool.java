@@ -25,9 +25,6 @@ import java.sql.Statement;
 import java.util.Iterator;
 import java.util.Properties;
 
-import org.apache.commons.dbcp.ConnectionFactory;
-import org.apache.commons.dbcp.PoolableConnectionFactory;
-import org.apache.commons.dbcp.PoolingDataSource;
 import org.apache.commons.pool.impl.GenericObjectPool;
 
 import com.zimbra.common.localconfig.LC;
@@ -44,10 +41,9 @@ import com.zimbra.cs.stats.ZimbraPerf;
  */
 public class DbPool {
 
-    private static PoolingDataSource sPoolingDataSource;
     private static String sRootUrl;
     private static String sLoggerRootUrl;
-    private static GenericObjectPool sConnectionPool;
+    private static DbConnectionPool sConnectionPool;
     private static boolean sIsInitialized;
 
     private static boolean isShutdown;
@@ -58,6 +54,7 @@ public class DbPool {
     public static class DbConnection {
         private final Connection connection;
         private Throwable mStackTrace;
+        private DbBatch batch; // updates queued by queueUpdate(), sent before the next statement
         Integer mboxId;
 
         DbConnection(Connection conn) {
@@ -112,14 +109,56 @@ public class DbPool {
         }
 
         public PreparedStatement prepareStatement(String sql) throws SQLException {
+            flushQueuedUpdates();
             return new StatTrackingPreparedStatement(connection.prepareStatement(sql), sql);
         }
 
         public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            flushQueuedUpdates();
             return new StatTrackingPreparedStatement(connection.prepareStatement(sql, autoGeneratedKeys), sql);
         }
 
+        /**
+         * Queues an update whose update count the caller does not need.  It is sent before the
+         * next statement prepared on this connection, or by {@link #flush} or {@link #commit}.
+         * With {@code zimbra_db_batch_updates} off it is sent right away.
+         *
+         * @see DbBatch
+         */
+        public void queueUpdate(String sql, DbBatch.Row row) throws SQLException {
+            if (batch == null) {
+                batch = new DbBatch();
+            }
+            batch.add(sql, row);
+            if (!DbBatch.isEnabled()) {
+                flushQueuedUpdates();
+            }
+        }
+
+        /** Sends any updates queued by {@link #queueUpdate}. */
+        public void flush() throws ServiceException {
+            try {
+                flushQueuedUpdates();
+            } catch (SQLException e) {
+                throw ServiceException.FAILURE("writing queued database updates", e);
+            }
+        }
+
+        private void flushQueuedUpdates() throws SQLException {
+            if (batch != null && !batch.isEmpty()) {
+                batch.flush(this);
+            }
+        }
+
+        private void discardQueuedUpdates() {
+            if (batch != null && !batch.isEmpty()) {
+                ZimbraLog.sqltrace.debug("discarding %d queued updates", batch.size());
+                batch.clear();
+            }
+        }
+
         public void rollback() throws ServiceException {
+            discardQueuedUpdates();
             try {
                 connection.rollback();
             } catch (SQLException e) {
@@ -129,6 +168,7 @@ public class DbPool {
 
         public void commit() throws ServiceException {
             try {
+                flushQueuedUpdates();
                 connection.commit();
             } catch (SQLException e) {
                 throw ServiceException.FAILURE("committing database transaction", e);
@@ -136,6 +176,18 @@ public class DbPool {
         }
 
         public void close() throws ServiceException {
+            // On an auto-commit connection, queued updates are written now.  In a transaction
+            // that was never committed, they are dropped along with the rest of it.
+            try {
+                if (batch != null && !batch.isEmpty() && connection.getAutoCommit()) {
+                    flushQueuedUpdates();
+                }
+            } catch (SQLException e) {
+                ZimbraLog.sqltrace.warn("unable to write queued updates before closing connection", e);
+            } finally {
+                discardQueuedUpdates();
+            }
+
             // first, do any pre-closing ops
             try {
                 Db.getInstance().preClose(this);
@@ -271,19 +323,14 @@ public class DbPool {
     }
 
     /** Initializes the connection pool. */
-    private static synchronized PoolingDataSource getPool() {
+    private static synchronized DbConnectionPool getPool() {
         if (isShutdown)
             throw new RuntimeException("DbPool permanently shutdown");
 
-        if (sPoolingDataSource != null)
-            return sPoolingDataSource;
+        if (sConnectionPool != null)
+            return sConnectionPool;
 
         PoolConfig pconfig = Db.getInstance().getPoolConfig();
-        sConnectionPool = new GenericObjectPool(null, pconfig.mPoolSize, pconfig.whenExhaustedAction, -1, pconfig.mPoolSize);
-        ConnectionFactory cfac = ZimbraConnectionFactory.getConnectionFactory(pconfig);
-
-        boolean defAutoCommit = false, defReadOnly = false;
-        new PoolableConnectionFactory(cfac, sConnectionPool, null, null, defReadOnly, defAutoCommit);
 
         try {
             Class.forName(pconfig.mDriverClassName).newInstance(); //derby requires the .newInstance() call
@@ -293,13 +340,11 @@ public class DbPool {
             System.exit(1);
         }
 
+        DbConnectionPool pool = DbConnectionPool.create(pconfig);
         try {
-            PoolingDataSource pds = new PoolingDataSource(sConnectionPool);
-            pds.setAccessToUnderlyingConnectionAllowed(true);
+            Db.getInstance().startup(pool, pconfig.mPoolSize);
 
-            Db.getInstance().startup(pds, pconfig.mPoolSize);
-
-            sPoolingDataSource = pds;
+            sConnectionPool = pool;
         } catch (SQLException e) {
             ZimbraLog.system.fatal("can't initialize connection pool", e);
             System.exit(1);
@@ -308,7 +353,7 @@ public class DbPool {
         if (pconfig.mSupportsStatsCallback)
             ZimbraPerf.addStatsCallback(new DbStats());
 
-        return sPoolingDataSource;
+        return sConnectionPool;
     }
 
     /**
@@ -332,22 +377,19 @@ public class DbPool {
             long start = ZimbraPerf.STOPWATCH_DB_CONN.start();
 
             // If the connection pool is overutilized, warn about potential leaks
-            PoolingDataSource pool = getPool();
+            DbConnectionPool pool = getPool();
             checkPoolUsage();
 
             Connection dbconn = null;
             DbConnection conn = null;
             try {
-                dbconn = pool.getConnection();
+                // prefer a connection that last worked on this mailbox's group database
+                dbconn = pool.getConnection(mbox != null ? mbox.getSchemaGroupId() : 0);
 
                 if (dbconn.getAutoCommit() != false)
                     dbconn.setAutoCommit(false);
 
-                // We want READ COMMITTED transaction isolation level for duplicate
-                // handling code in BucketBlobStore.newBlobInfo().
-                if (Db.supports(Db.Capability.READ_COMMITTED_ISOLATION))
-                    dbconn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
-
+                // READ COMMITTED isolation is set once per connection by Db.postCreate()
                 conn = new DbConnection(dbconn, mboxId);
                 Db.getInstance().postOpen(conn);
             } catch (SQLException e) {
@@ -527,6 +569,22 @@ public class DbPool {
         return sConnectionPool.getNumActive();
     }
 
+    /**
+     * Returns the number of open connections that are not in use.
+     */
+    public static int getIdleCount() {
+        DbConnectionPool pool = sConnectionPool;
+        return pool != null ? pool.getNumIdle() : 0;
+    }
+
+    /**
+     * Returns the number of threads waiting for a connection.
+     */
+    public static int getWaitingCount() {
+        DbConnectionPool pool = sConnectionPool;
+        return pool != null ? pool.getNumWaiting() : 0;
+    }
+
     /**
      * This is only to be used by DbOfflineMigration to completely close connection to Derby.
      * Note that this doesn't permanently shutdown.  A new getPool() call will restart connections.
@@ -538,7 +596,6 @@ public class DbPool {
             sConnectionPool.close();
             sConnectionPool = null;
         }
-        sPoolingDataSource = null;
         Db.getInstance().shutdown();
     }
 
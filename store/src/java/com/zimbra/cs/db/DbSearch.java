@@ -296,7 +296,8 @@ public final class DbSearch {
                 sql.append(DbMailItem.DB_FIELDS);
                 break;
             case IMAP_MSG:
-                sql.append("mi.id, mi.index_id, mi.type, mi.imap_id, mi.unread, mi.flags, mi.tag_names");
+                sql.append("mi.id, mi.index_id, mi.type, mi.imap_id, mi.unread, mi.flags, mi.tag_names, " +
+                        "mi.date, mi.size, mi.mod_metadata");
                 break;
             case MODSEQ:
                 sql.append("mi.id, mi.index_id, mi.type, mi.mod_metadata");
@@ -1333,7 +1334,8 @@ public final class DbSearch {
             super(rs, sortkey);
             int offset = COLUMN_TYPE;
             int flags = rs.getBoolean(offset + 2) ? Flag.BITMASK_UNREAD | rs.getInt(offset + 3) : rs.getInt(offset + 3);
-            i4msg = new ImapMessage(getId(), getType(), rs.getInt(offset + 1), flags, DbTag.deserializeTags(rs.getString(offset + 4)));
+            i4msg = new ImapMessage(getId(), getType(), rs.getInt(offset + 1), flags, DbTag.deserializeTags(rs.getString(offset + 4)))
+                    .setSearchAttributes(rs.getInt(offset + 5) * 1000L, rs.getLong(offset + 6), rs.getInt(offset + 7));
         }
 
         @Override
@@ -44,6 +44,8 @@ class DbStats implements RealtimeStatsCallback {
 
         try {
             data.put(ZimbraPerf.RTS_DB_POOL_SIZE, DbPool.getSize());
+            data.put(ZimbraPerf.RTS_DB_POOL_IDLE, DbPool.getIdleCount());
+            data.put(ZimbraPerf.RTS_DB_POOL_WAITING, DbPool.getWaitingCount());
             
             // Parse innodb status output
             DbResults results = DbUtil.executeQuery("SHOW ENGINE INNODB STATUS");
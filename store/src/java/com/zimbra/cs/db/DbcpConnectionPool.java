@@ -0,0 +1,81 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.apache.commons.dbcp.PoolableConnectionFactory;
+import org.apache.commons.dbcp.PoolingDataSource;
+import org.apache.commons.pool.impl.GenericObjectPool;
+
+/**
+ * {@link DbConnectionPool} backed by commons-dbcp {@link PoolingDataSource} over a
+ * commons-pool {@link GenericObjectPool}.
+ */
+final class DbcpConnectionPool extends DbConnectionPool {
+
+    private final GenericObjectPool pool;
+    private final PoolingDataSource dataSource;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    DbcpConnectionPool(ConnectionFactory cfac, int poolSize, byte whenExhaustedAction) {
+        pool = new GenericObjectPool(null, poolSize, whenExhaustedAction, -1, poolSize);
+        boolean defAutoCommit = false, defReadOnly = false;
+        new PoolableConnectionFactory(cfac, pool, null, null, defReadOnly, defAutoCommit);
+        dataSource = new PoolingDataSource(pool);
+        dataSource.setAccessToUnderlyingConnectionAllowed(true);
+    }
+
+    @Override
+    Connection getConnection() throws SQLException {
+        // GenericObjectPool doesn't report its waiters, so count the callers inside borrowObject()
+        waiting.incrementAndGet();
+        try {
+            return dataSource.getConnection();
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    @Override
+    int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    @Override
+    int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    @Override
+    int getNumWaiting() {
+        return waiting.get();
+    }
+
+    @Override
+    int getMaxActive() {
+        return pool.getMaxActive();
+    }
+
+    @Override
+    void close() throws Exception {
+        pool.close();
+    }
+}
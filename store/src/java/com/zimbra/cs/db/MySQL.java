@@ -186,6 +186,16 @@ public class MySQL extends Db {
             props.put("useUnicode", "true");
             props.put("characterEncoding", "UTF-8");
             props.put("dumpQueriesOnException", "true");
+            props.put("rewriteBatchedStatements", "true"); // one round trip per DbBatch group
+            if (LC.zimbra_db_server_prepared_statements.booleanValue()) {
+                // Prepare once per connection on the server and send only parameters afterwards.  DbPool
+                // hands out connections with mailbox group affinity, so each connection's cache mostly
+                // holds statements for a few mboxgroup databases.  100 statements x 100 connections stays
+                // under MySQL's default max_prepared_stmt_count of 16382.
+                props.put("useServerPrepStmts", "true");
+                props.put("prepStmtCacheSize", "100");
+                props.put("prepStmtCacheSqlLimit", "2048");
+            }
 
             // props.put("connectTimeout", "0");    // connect timeout in msecs
             // props.put("initialTimeout", "2");    // time to wait between re-connects
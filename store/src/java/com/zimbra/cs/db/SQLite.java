@@ -135,7 +135,7 @@ public final class SQLite extends Db {
 
 
     @Override
-    void startup(org.apache.commons.dbcp.PoolingDataSource pool, int poolSize) throws SQLException {
+    void startup(DbConnectionPool pool, int poolSize) throws SQLException {
         cacheSize = LC.sqlite_cache_size.value();
         if (cacheSize.equals("0"))
             cacheSize = null;
@@ -40,6 +40,7 @@ import java.sql.Timestamp;
 import java.util.Calendar;
 
 import com.zimbra.cs.stats.ActivityTracker;
+import com.zimbra.cs.stats.CommandProfiler;
 import com.zimbra.cs.stats.ZimbraPerf;
 
 /**
@@ -106,6 +107,7 @@ public class StatTrackingPreparedStatement implements PreparedStatement {
     }
 
     private void trackQueryStats(String sql, long startTime) {
+        CommandProfiler.recordDbStatement();
         if (sql != null) {
             tracker.addStat(getQueryType(sql), startTime);
         }
@@ -253,7 +255,10 @@ public class StatTrackingPreparedStatement implements PreparedStatement {
 
     @Override
     public int[] executeBatch() throws SQLException {
-        return stmt.executeBatch();
+        long startTime = System.currentTimeMillis();
+        int[] results = stmt.executeBatch();
+        trackQueryStats(queryString, startTime);
+        return results;
     }
 
     @Override
@@ -142,8 +142,10 @@ public class FreeBusy implements Iterable<FreeBusy.Interval> {
             //
             //         Remember this "uber-start" interval, we'll need it below
             //
-            Interval uberStart;
-            for (uberStart = mHead; uberStart.hasNext(); uberStart = uberStart.getNext())
+            // Callers usually add in start order, so resume from where the previous add left off.
+            long origEnd = toAdd.mEnd;
+            Interval uberStart = mHint != null && mHint.mStart <= toAdd.mStart ? mHint : mHead;
+            for (; uberStart.hasNext(); uberStart = uberStart.getNext())
             {
                 if (uberStart.getNext().mStart > toAdd.mStart) {
                     break;
@@ -244,8 +246,10 @@ public class FreeBusy implements Iterable<FreeBusy.Interval> {
             if (cur.hasPrev()) {
                 cur = cur.getPrev();
             }
-            
-            while (cur.getNext() != null) {
+            mHint = cur;
+
+            // Intervals past toAdd's end were already coalesced by earlier adds.
+            while (cur.getNext() != null && cur.mStart <= origEnd) {
                 assert(cur.getNext().mStart == cur.mEnd);
                 if (cur.mStatus.equals(cur.getNext().mStatus)) {
                     cur.mEnd = cur.getNext().mEnd;
@@ -270,11 +274,19 @@ public class FreeBusy implements Iterable<FreeBusy.Interval> {
         
         public Interval getHead() { return mHead; }
         
+        static final Comparator<Interval> BY_START = new Comparator<Interval>() {
+            @Override
+            public int compare(Interval o1, Interval o2) {
+                return Long.compare(o1.mStart, o2.mStart);
+            }
+        };
         
         long mStart;
         long mEnd;
         
         Interval mHead;
+        /** Interval the last add started coalescing from; every add resets it to a node still in the list. */
+        private Interval mHint;
     }
     
     public static class Interval {
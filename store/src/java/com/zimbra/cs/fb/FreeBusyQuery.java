@@ -19,9 +19,20 @@ package com.zimbra.cs.fb;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.Element;
 import com.zimbra.common.util.ZimbraLog;
@@ -39,6 +50,11 @@ import com.zimbra.soap.ZimbraSoapContext;
 
 public class FreeBusyQuery {
     public static final int CALENDAR_FOLDER_ALL = -1;
+
+    private static final ExecutorService LOCAL_EXECUTOR = new ThreadPoolExecutor(0,
+            Math.max(LC.freebusy_local_lookup_threads.intValue(), 1), 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat("FreeBusyLocal-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
 	
 	private Account mRequestor;
 	private long mStart;
@@ -113,6 +129,8 @@ public class FreeBusyQuery {
     }
     
     private void prepareRequests(ArrayList<FreeBusy> local, RemoteFreeBusyProvider remote, ArrayList<String> external) {
+        boolean parallel = LC.freebusy_local_lookup_threads.intValue() > 1 && mTargets.size() > 1;
+        LinkedHashMap<String, Future<FreeBusy>> pending = new LinkedHashMap<String, Future<FreeBusy>>();
     	for (String id : mTargets.keySet()) {
     		Account acct = mTargets.get(id);
     		try {
@@ -124,21 +142,11 @@ public class FreeBusyQuery {
     		    int folder = mTargetFolder.get(id);
     		
         		if (Provisioning.onLocalServer(acct)) {
-        		    Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
-        		    OperationContext octxt = null;
-        		    if (mCtxt != null && mCtxt.getAuthToken() != null)
-        		        octxt = new OperationContext(mCtxt.getAuthToken());
-        		    else if (mRequestor != null)
-        		        octxt = new OperationContext(mRequestor);
-        		    else
-        		        octxt = new OperationContext(GuestAccount.ANONYMOUS_ACCT);
-                    Appointment exAppt = null;
-                    if (mExApptUid != null) {
-                        CalendarItem ci = mbox.getCalendarItemByUid(octxt, mExApptUid);
-                        if (ci instanceof Appointment)
-                            exAppt = (Appointment) ci;
-                    }
-        		    local.add(mbox.getFreeBusy(octxt, id, mStart, mEnd, folder, exAppt));
+        		    if (parallel) {
+        		        pending.put(id, getLocalFreeBusyAsync(acct, id, folder));
+        		    } else {
+        		        local.add(getLocalFreeBusy(acct, id, folder));
+        		    }
         		} else {
         			remote.addFreeBusyRequest(mRequestor, acct, id, mStart, mEnd, folder);
         		}
@@ -146,6 +154,49 @@ public class FreeBusyQuery {
                 ZimbraLog.fb.error("cannot get free/busy for "+id, e);
     		}
     	}
+        for (Map.Entry<String, Future<FreeBusy>> entry : pending.entrySet()) {
+            try {
+                local.add(entry.getValue().get());
+            } catch (ExecutionException e) {
+                ZimbraLog.fb.error("cannot get free/busy for " + entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                ZimbraLog.fb.warn("interrupted while getting free/busy for %s", entry.getKey());
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private FreeBusy getLocalFreeBusy(Account acct, String id, int folder) throws ServiceException {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        OperationContext octxt = null;
+        if (mCtxt != null && mCtxt.getAuthToken() != null)
+            octxt = new OperationContext(mCtxt.getAuthToken());
+        else if (mRequestor != null)
+            octxt = new OperationContext(mRequestor);
+        else
+            octxt = new OperationContext(GuestAccount.ANONYMOUS_ACCT);
+        Appointment exAppt = null;
+        if (mExApptUid != null) {
+            CalendarItem ci = mbox.getCalendarItemByUid(octxt, mExApptUid);
+            if (ci instanceof Appointment)
+                exAppt = (Appointment) ci;
+        }
+        return mbox.getFreeBusy(octxt, id, mStart, mEnd, folder, exAppt);
+    }
+
+    /**
+     * Runs {@link #getLocalFreeBusy} on {@link #LOCAL_EXECUTOR}, so that a query for many local attendees
+     * isn't the sum of their mailbox lookups.  The requesting thread runs the lookup itself when the pool is busy.
+     * The lookup logs with the requesting thread's context.
+     */
+    private Future<FreeBusy> getLocalFreeBusyAsync(final Account acct, final String id, final int folder) {
+        return LOCAL_EXECUTOR.submit(ZimbraLog.wrapWithContext(new Callable<FreeBusy>() {
+            @Override
+            public FreeBusy call() throws ServiceException {
+                return getLocalFreeBusy(acct, id, folder);
+            }
+        }));
     }
     
     private int getHopcount() {        
@@ -17,7 +17,7 @@
 package com.zimbra.cs.fb;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 
 import com.zimbra.common.localconfig.LC;
@@ -38,9 +38,7 @@ import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mailbox.calendar.IcalXmlStrMap;
 import com.zimbra.cs.mailbox.calendar.cache.CalSummaryCache.CalendarDataResult;
-import com.zimbra.cs.mailbox.calendar.cache.CalendarItemData;
-import com.zimbra.cs.mailbox.calendar.cache.FullInstanceData;
-import com.zimbra.cs.mailbox.calendar.cache.InstanceData;
+import com.zimbra.cs.mailbox.calendar.cache.FreeBusyIndex;
 
 public class LocalFreeBusyProvider {
 
@@ -66,13 +64,17 @@ public class LocalFreeBusyProvider {
 
         IntervalList intervals = new IntervalList(start, end);
 
+        // The full cached summaries are used rather than copies trimmed to the window, so that their free/busy
+        // indexes are shared by every query.
         List<CalendarDataResult> calDataResultList;
         if (folder == FreeBusyQuery.CALENDAR_FOLDER_ALL) {
-            calDataResultList = mbox.getAllCalendarsSummaryForRange(null, MailItem.Type.APPOINTMENT, start, end);
+            calDataResultList = mbox.getAllCalendarsSummaryForRange(null, MailItem.Type.APPOINTMENT, start, end, false);
         } else {
             calDataResultList = new ArrayList<CalendarDataResult>(1);
-            calDataResultList.add(mbox.getCalendarSummaryForRange(null, folder, MailItem.Type.APPOINTMENT, start, end));
+            calDataResultList.add(mbox.getCalendarSummaryForRange(null, folder, MailItem.Type.APPOINTMENT, start, end,
+                    true, false));
         }
+        List<Interval> busy = new ArrayList<Interval>();
         for (CalendarDataResult result : calDataResultList) {
             int folderId = result.data.getFolderId();
             Folder f = mbox.getFolderById(null, folderId);
@@ -89,57 +91,23 @@ public class LocalFreeBusyProvider {
                         f.getName(), folderId, folderFBAllowed, accountAceAllowed);
                 continue;
             }
-            for (Iterator<CalendarItemData> iter = result.data.calendarItemIterator(); iter.hasNext(); ) {
-                CalendarItemData appt = iter.next();
-                int apptId = appt.getCalItemId();
-                if (apptId == exApptId)
+            FreeBusyIndex index = result.data.getFreeBusyIndex();
+            for (int i = index.firstEndingAfter(start), last = index.firstStartingAt(end); i < last; i++) {
+                int apptId = index.getCalItemId(i);
+                if (apptId == exApptId || index.getEnd(i) <= start)
                     continue;
-                FullInstanceData defaultInstance = appt.getDefaultData();
-                if (defaultInstance == null)
-                    continue;
-                boolean isTransparent = false;
-                String transp = defaultInstance.getTransparency();
-                isTransparent = IcalXmlStrMap.TRANSP_TRANSPARENT.equals(transp);
-                long defaultDuration = 0;
-                if (defaultInstance.getDuration() != null)
-                    defaultDuration = defaultInstance.getDuration().longValue();
-                String defaultFreeBusy = defaultInstance.getFreeBusyActual();
-                for (Iterator<InstanceData> instIter = appt.instanceIterator(); instIter.hasNext(); ) {
-                    InstanceData instance = instIter.next();
-                    long instStart = instance.getDtStart() != null ? instance.getDtStart().longValue() : 0;
-                    // Skip instances that are outside the time range but were returned due to alarm being in range.
-                    if (instStart >= end)
-                        continue;
-                    long dur = defaultDuration;
-                    if (instance.getDuration() != null)
-                        dur = instance.getDuration().longValue();
-                    if (dur <= 0)  // Only consider instances with non-zero, positive duration.
-                        continue;
-                    long instEnd = instStart + dur;
-
-                    long recurIdDt = 0;
-                    // Skip if instance is TRANSPARENT to free/busy searches.
-                    if (instance instanceof FullInstanceData) {
-                        FullInstanceData fullInst = (FullInstanceData) instance;
-                        String transpInst = fullInst.getTransparency();
-                        recurIdDt = fullInst.getRecurrenceId();
-                        if (IcalXmlStrMap.TRANSP_TRANSPARENT.equals(transpInst))
-                            continue;
-                    } else if (isTransparent) {
-                        continue;
-                    }
-
-                    String freeBusy = instance.getFreeBusyActual();
-                    if (freeBusy == null)
-                        freeBusy = defaultFreeBusy;
-                    if (!IcalXmlStrMap.FBTYPE_FREE.equals(freeBusy)) {
-                        FBInstance fbInst = new FBInstance(freeBusy, instStart, instEnd, apptId, recurIdDt);
-                        Interval ival = new Interval(instStart, instEnd, freeBusy, fbInst);
-                        intervals.addInterval(ival);
-                    }
-                }
+                long instStart = index.getStart(i);
+                long instEnd = index.getEnd(i);
+                String freeBusy = index.getFreeBusy(i);
+                FBInstance fbInst = new FBInstance(freeBusy, instStart, instEnd, apptId, index.getRecurrenceId(i));
+                busy.add(new Interval(instStart, instEnd, freeBusy, fbInst));
             }
         }
+        // IntervalList is cheapest to fill in start order.
+        Collections.sort(busy, IntervalList.BY_START);
+        for (Interval ival : busy) {
+            intervals.addInterval(ival);
+        }
         if (!accountAceAllowed && numAllowedFolders == 0 && !LC.freebusy_disable_nodata_status.booleanValue()) {
             Interval nodata = new Interval(start, end, IcalXmlStrMap.FBTYPE_NODATA);
             intervals.addInterval(nodata);
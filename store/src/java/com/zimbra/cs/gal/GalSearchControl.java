@@ -30,6 +30,7 @@ import com.google.common.base.Strings;
 import com.zimbra.common.account.Key;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.account.ZAttrProvisioning.GalMode;
+import com.zimbra.common.mailbox.ContactConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.AccountConstants;
 import com.zimbra.common.soap.Element;
@@ -62,6 +63,7 @@ import com.zimbra.cs.index.ZimbraHit;
 import com.zimbra.cs.index.ZimbraQueryResults;
 import com.zimbra.cs.ldap.LdapUtil;
 import com.zimbra.cs.mailbox.Contact;
+import com.zimbra.cs.mailbox.ContactAutoCompleteIndex;
 import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.MailServiceException;
 import com.zimbra.cs.mailbox.Mailbox;
@@ -467,6 +469,9 @@ public class GalSearchControl {
                         !doLocalGalAccountSearch(galAcct))
                     throw new GalAccountNotConfiguredException();
             }
+            if (generateQuery && doLocalGalAccountAutoComplete(galAcct)) {
+                return;
+            }
             if (generateQuery) {
                 generateSearchQuery(galAcct);
             }
@@ -504,6 +509,81 @@ public class GalSearchControl {
         }
     }
 
+    /**
+     * Serves a plain autocomplete from the autocomplete index of the GalSync account's mailbox, which is
+     * shared by everyone in the domain and kept current as GAL sync imports contacts.
+     *
+     * @return false if the request or the mailbox can't be served from the index
+     */
+    private boolean doLocalGalAccountAutoComplete(Account galAcct) throws ServiceException {
+        if (mParams.getOp() != GalOp.autocomplete || !mParams.getUseAutoCompleteIndex() ||
+                mParams.getSearchEntryByDn() != null || !Strings.isNullOrEmpty(mParams.getGalSearchQuery()) ||
+                mParams.getExtraQueryCallback() != null || needResources()) {
+            return false;
+        }
+        String key = ContactAutoCompleteIndex.getLookupKey(Strings.nullToEmpty(mParams.getQuery()));
+        if (key == null) {
+            return false;
+        }
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(galAcct);
+        ContactAutoCompleteIndex index = ContactAutoCompleteIndex.get(mbox);
+        if (index == null) {
+            return false;
+        }
+        // same folders as the inid: terms of getSearchQuery()
+        GalMode galMode = mParams.getDomain().getGalMode();
+        Set<Integer> folderIds = new HashSet<Integer>();
+        for (DataSource ds : galAcct.getAllDataSources()) {
+            if (ds.getType() != DataSourceType.gal)
+                continue;
+            String galType = ds.getAttr(Provisioning.A_zimbraGalType);
+            if (galMode == GalMode.ldap && galType.compareTo("zimbra") == 0)
+                continue;
+            if (galMode == GalMode.zimbra && galType.compareTo("ldap") == 0)
+                continue;
+            folderIds.add(ds.getFolderId());
+        }
+
+        OperationContext octxt = new OperationContext(mbox);
+        GalSearchResultCallback callback = mParams.getResultCallback();
+        int num = 0;
+        boolean hasMore = false;
+        for (int id : index.search(key, folderIds)) {
+            Contact contact;
+            try {
+                contact = mbox.getContactById(octxt, id);
+            } catch (MailServiceException.NoSuchItemException e) {
+                continue;
+            }
+            if (!matchesType(contact)) {
+                continue;
+            }
+            if (num == mParams.getLimit()) {
+                hasMore = true;
+                break;
+            }
+            callback.handleContact(contact);
+            num++;
+        }
+        callback.setHasMoreResult(hasMore);
+        return true;
+    }
+
+    /** Applies the type filter that getSearchQuery() adds to the Lucene query. */
+    private boolean matchesType(Contact contact) {
+        boolean resource = "RESOURCE".equals(contact.get(Provisioning.A_zimbraAccountCalendarUserType));
+        switch (mParams.getType()) {
+        case resource:
+            return resource;
+        case group:
+            return ContactConstants.TYPE_GROUP.equals(contact.get(ContactConstants.A_type));
+        case account:
+            return !resource;
+        default:
+            return true;
+        }
+    }
+
     private boolean doLocalGalAccountSearch(Account galAcct) {
         try {
             Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(galAcct);
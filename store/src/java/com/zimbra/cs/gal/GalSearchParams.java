@@ -67,6 +67,7 @@ public class GalSearchParams {
     private DataSource mDataSource;
     private boolean mIdOnly;
     private boolean mNeedCanExpand;
+    private boolean mUseAutoCompleteIndex;
     private boolean mNeedIsOwner;
     private MemberOfSelector mNeedIsMember;
     private boolean mNeedSMIMECerts;
@@ -233,6 +234,10 @@ public class GalSearchParams {
     public boolean getNeedCanExpand() {
         return mNeedCanExpand;
     }
+
+    public boolean getUseAutoCompleteIndex() {
+        return mUseAutoCompleteIndex;
+    }
     
     public boolean getNeedIsOwner() {
         return mNeedIsOwner;
@@ -366,6 +371,14 @@ public class GalSearchParams {
         mNeedCanExpand = needCanExpand;
     }
 
+    /**
+     * Lets autocomplete on a local GalSync account be served from its {@code ContactAutoCompleteIndex}.  Hits
+     * then come back unsorted, so only callers that sort the results themselves should set this.
+     */
+    public void setUseAutoCompleteIndex(boolean useAutoCompleteIndex) {
+        mUseAutoCompleteIndex = useAutoCompleteIndex;
+    }
+
     public void setNeedIsOwner(boolean needOwnerOf) {
         mNeedIsOwner = needOwnerOf;
     }
@@ -16,6 +16,12 @@
  */
 package com.zimbra.cs.imap;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -31,6 +37,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.zimbra.common.mailbox.BaseFolderInfo;
@@ -59,7 +66,7 @@ import com.zimbra.cs.session.PendingModifications.Change;
  */
 public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Serializable {
     // Update serialVersionUID when changing any instance members. Otherwise serialization won't work correctly.
-    private static final long serialVersionUID = 3845968507901145794L;
+    private static final long serialVersionUID = 6254378417309216983L;
     public static final byte SELECT_READONLY  = 0x01;
     public static final byte SELECT_CONDSTORE = 0x02;
 
@@ -74,7 +81,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     private final int uidValidity;
     private String query;
     private Set<MailItem.Type> typeConstraint = ImapHandler.ITEM_TYPES;
-    private final List<ImapMessage> sequence = new ArrayList<ImapMessage>();
+    private transient List<ImapMessage> sequence = new ArrayList<ImapMessage>();  // see writeObject/readObject
     private final ImapFlagCache tags;   // operationally could be "transient", but that makes deserialization replay depend on magic
 
     // below this point are session-specific attributes of the folder SELECT state
@@ -732,6 +739,29 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         return result;
     }
 
+    /** Returns whether every message in the folder has the date, size and
+     *  MODSEQ needed to evaluate SEARCH keys on them without the index. */
+    protected synchronized boolean hasSearchAttributes() {
+        for (ImapMessage i4msg : sequence) {
+            if (i4msg != null && !i4msg.hasSearchAttributes()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected synchronized ImapMessageSet getMatchingMessages(Predicate<ImapMessage> filter) {
+        ImapMessageSet result = new ImapMessageSet();
+        if (getSize() > 0) {
+            for (ImapMessage i4msg : sequence) {
+                if (i4msg != null && filter.apply(i4msg)) {
+                    result.add(i4msg);
+                }
+            }
+        }
+        return result;
+    }
+
     private static int parseId(String id) {
         // valid values will always be positive ints, so force it there...
         try {
@@ -1129,6 +1159,183 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         }
     }
 
+    /** Writes the {@link #sequence} as parallel columns of varint-encoded
+     *  primitives (UID deltas, item ID offsets, flags, session flags, the
+     *  SEARCH attributes and an index into a table of distinct tag sets)
+     *  rather than as a list of serialized {@link ImapMessage} objects.  For
+     *  large folders this is several times smaller than default
+     *  serialization, which matters for the disk, ehcache and memcached
+     *  paging caches. */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        int count = sequence.size();
+        writeVarint(out, count);
+        int prevUid = 0;
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, i4msg.imapUid - prevUid);
+            prevUid = i4msg.imapUid;
+        }
+        for (ImapMessage i4msg : sequence) {
+            // item ID and IMAP UID only differ for messages that were moved or renumbered
+            writeVarint(out, zigzag(i4msg.msgId - i4msg.imapUid));
+        }
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, i4msg.flags);
+        }
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, i4msg.sflags & 0xFFFF);
+        }
+        // dates are mostly ascending with the UID, so store them as deltas in seconds
+        int prevDate = 0;
+        for (ImapMessage i4msg : sequence) {
+            int date = (int) (i4msg.date / 1000);
+            writeVarint(out, zigzag(date - prevDate));
+            prevDate = date;
+        }
+        for (ImapMessage i4msg : sequence) {
+            writeVarlong(out, i4msg.size);
+        }
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, i4msg.modseq);
+        }
+        Map<List<String>, Integer> tagSets = new HashMap<List<String>, Integer>();
+        List<String[]> tagTable = new ArrayList<String[]>();
+        int[] tagIndexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            String[] t = sequence.get(i).tags;
+            if (ArrayUtil.isEmpty(t)) {
+                continue;
+            }
+            List<String> key = Arrays.asList(t);
+            Integer idx = tagSets.get(key);
+            if (idx == null) {
+                tagTable.add(t);
+                tagSets.put(key, idx = tagTable.size());
+            }
+            tagIndexes[i] = idx;
+        }
+        writeVarint(out, tagTable.size());
+        for (String[] t : tagTable) {
+            writeVarint(out, t.length);
+            for (String tag : t) {
+                out.writeUTF(tag);
+            }
+        }
+        for (int idx : tagIndexes) {
+            writeVarint(out, idx);
+        }
+    }
+
+    /** Reverses {@link #writeObject}.  Messages carrying the same set of tags
+     *  share a single <tt>String[]</tt> after deserialization. */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = readVarint(in);
+        if (count < 0) {
+            throw new InvalidObjectException("negative message count: " + count);
+        }
+        int[] uids = new int[count];
+        int uid = 0;
+        for (int i = 0; i < count; i++) {
+            uids[i] = uid += readVarint(in);
+        }
+        int[] msgIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            msgIds[i] = uids[i] + unzigzag(readVarint(in));
+        }
+        int[] flags = new int[count];
+        for (int i = 0; i < count; i++) {
+            flags[i] = readVarint(in);
+        }
+        short[] sflags = new short[count];
+        for (int i = 0; i < count; i++) {
+            sflags[i] = (short) readVarint(in);
+        }
+        int[] dates = new int[count];
+        int date = 0;
+        for (int i = 0; i < count; i++) {
+            dates[i] = date += unzigzag(readVarint(in));
+        }
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = readVarlong(in);
+        }
+        int[] modseqs = new int[count];
+        for (int i = 0; i < count; i++) {
+            modseqs[i] = readVarint(in);
+        }
+        String[][] tagTable = new String[readVarint(in) + 1][];
+        for (int i = 1; i < tagTable.length; i++) {
+            String[] t = new String[readVarint(in)];
+            for (int j = 0; j < t.length; j++) {
+                t[j] = in.readUTF();
+            }
+            tagTable[i] = t;
+        }
+        List<ImapMessage> messages = new ArrayList<ImapMessage>(count);
+        for (int i = 0; i < count; i++) {
+            int idx = readVarint(in);
+            if (idx < 0 || idx >= tagTable.length) {
+                throw new InvalidObjectException("bad tag set index: " + idx);
+            }
+            ImapMessage i4msg = new ImapMessage(msgIds[i], MailItem.Type.MESSAGE, uids[i], 0, tagTable[idx]);
+            i4msg.flags = flags[i];
+            i4msg.sflags = sflags[i];
+            i4msg.setSearchAttributes(dates[i] * 1000L, sizes[i], modseqs[i]);
+            i4msg.sequence = i + 1;
+            messages.add(i4msg);
+        }
+        sequence = messages;
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static void writeVarlong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarlong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("malformed varlong");
+    }
+
+    private static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("malformed varint");
+    }
+
     @Override
     public void handleTagDelete(int changeId, int tagId, Change chg) {
         dirtyTag(tags.uncache(tagId), changeId, null);
@@ -1227,8 +1434,14 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
                 added.add(item);
             }
             ZimbraLog.imap.debug("  ** imap uid changed (ntfn) {id: %d UID: %d}", itemId, item.getImapUid());
-        } else if ((chg.why & (Change.TAGS | Change.FLAGS | Change.UNREAD)) != 0) {
-            i4msg.setPermanentFlags(item.getFlagBitmask(), item.getTags(), changeId, this);
+        } else {
+            if ((chg.why & (Change.TAGS | Change.FLAGS | Change.UNREAD)) != 0) {
+                i4msg.setPermanentFlags(item.getFlagBitmask(), item.getTags(), changeId, this);
+            }
+            if (item instanceof MailItem) {
+                // any change bumps the item's MODSEQ
+                i4msg.setSearchAttributes((MailItem) item);
+            }
         }
     }
 
@@ -54,6 +54,7 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.io.CountingOutputStream;
 import com.zimbra.client.ZFolder;
 import com.zimbra.client.ZSharedFolder;
 import com.zimbra.common.account.Key;
@@ -122,6 +123,7 @@ import com.zimbra.cs.service.admin.AdminAccessControl;
 import com.zimbra.cs.service.admin.FlushCache;
 import com.zimbra.cs.service.mail.FolderAction;
 import com.zimbra.cs.service.util.ItemId;
+import com.zimbra.cs.stats.CommandProfiler;
 import com.zimbra.cs.util.AccountUtil;
 import com.zimbra.cs.util.BuildInfo;
 import com.zimbra.soap.admin.type.CacheEntrySelector;
@@ -3630,22 +3632,47 @@ public abstract class ImapHandler {
 
         try {
             MailboxStore mboxStore = i4folder.getMailbox();
+            // Flags, sequences, dates, sizes and MODSEQs are all in the selected folder's memory, so only text and
+            // header terms need the index.
             // TODO any way this can be optimized for non-Mailbox MailboxStore?
-            if (unsorted && (mboxStore instanceof Mailbox) && i4search.canBeRunLocally()) {
+            boolean local = unsorted && (mboxStore instanceof Mailbox);
+            ImapSearch indexed = i4search;
+            ImapMessageSet filter = null;
+            if (local) {
                 mboxStore.lock(false);
                 try {
-                    hits = i4search.evaluate(i4folder);
-                    hits.remove(null);
+                    if (i4search.canBeRunLocally(i4folder)) {
+                        indexed = null;
+                        filter = i4search.evaluate(i4folder);
+                        filter.remove(null);
+                    } else if (i4search instanceof ImapSearch.AndOperation && !i4folder.isVirtual()) {
+                        ImapSearch.AndOperation[] split = ((ImapSearch.AndOperation) i4search).split(i4folder);
+                        if (split != null) {
+                            filter = split[0].evaluate(i4folder);
+                            filter.remove(null);
+                            indexed = filter.isEmpty() ? null : split[1];
+                        }
+                    }
+                    if (indexed == null && requiresMODSEQ) {
+                        for (ImapMessage i4msg : filter) {
+                            modseq = Math.max(modseq, i4msg.modseq);
+                        }
+                    }
                 } finally {
                     mboxStore.unlock();
                 }
+            }
+            if (indexed == null) {
+                hits = filter;
             } else {
                 hits = unsorted ? new ImapMessageSet() : new ArrayList<ImapMessage>();
-                try (ZimbraQueryHitResults zqr = runSearch(i4search, i4folder, sort,
-                    requiresMODSEQ ? SearchParams.Fetch.MODSEQ : SearchParams.Fetch.IDS)) {
+                // when the index only sees part of the search it may match more of the folder than the whole would
+                int limit = filter == null ? 2000 : Math.max(2000, i4folder.getSize());
+                try (ZimbraQueryHitResults zqr = runSearch(indexed, i4folder, sort,
+                    requiresMODSEQ ? SearchParams.Fetch.MODSEQ : SearchParams.Fetch.IDS, limit)) {
                     for (ZimbraQueryHit hit = zqr.getNext(); hit != null; hit = zqr.getNext()) {
                         ImapMessage i4msg = i4folder.getById(hit.getItemId());
-                        if (i4msg == null || i4msg.isExpunged()) {
+                        if (i4msg == null || i4msg.isExpunged() || (filter != null && !filter.contains(i4msg))) {
                             continue;
                         }
                         hits.add(i4msg);
@@ -3738,6 +3765,11 @@ public abstract class ImapHandler {
 
     private ZimbraQueryHitResults runSearch(ImapSearch i4search, ImapFolder i4folder, SortBy sort,
             SearchParams.Fetch fetch) throws ImapParseException, ServiceException {
+        return runSearch(i4search, i4folder, sort, fetch, 2000);
+    }
+
+    private ZimbraQueryHitResults runSearch(ImapSearch i4search, ImapFolder i4folder, SortBy sort,
+            SearchParams.Fetch fetch, int limit) throws ImapParseException, ServiceException {
         MailboxStore mbox = i4folder.getMailbox();
         if (mbox == null) {
             throw ServiceException.FAILURE("unexpected session close during search", null);
@@ -3766,7 +3798,7 @@ public abstract class ImapHandler {
         params.setIncludeTagDeleted(true);
         params.setMailItemTypes(MailItem.Type.toCommon(i4folder.getTypeConstraint()));
         params.setZimbraSortBy(sort.toZimbraSortBy());
-        params.setLimit(2000);
+        params.setLimit(limit);
         params.setPrefetch(false);
         params.setZimbraFetchMode(fetch.toZimbraFetchMode());
         params.setTimeZone(tz);
@@ -3999,7 +4031,10 @@ public abstract class ImapHandler {
         ReentrantLock lock = null;
         try {
             for (ImapMessage i4msg : i4set) {
-                PrintStream result = new PrintStream(output, false, Charsets.UTF_8.name());
+                // literals go to the connection stream directly, so that zero-copy transfer can see it
+                CountingOutputStream out = new CountingOutputStream(output);
+                long literalBytes = 0;
+                PrintStream result = new PrintStream(out, false, Charsets.UTF_8.name());
                 try {
                     result.print("* " + i4msg.sequence + " FETCH (");
 
@@ -4050,7 +4085,7 @@ public abstract class ImapHandler {
                     if (!fullMessage.isEmpty()) {
                         for (ImapPartSpecifier pspec : fullMessage) {
                             result.print(empty ? "" : " ");
-                            pspec.write(result, output, item);
+                            literalBytes += pspec.write(result, output, item);
                             empty = false;
                         }
                     }
@@ -4078,7 +4113,7 @@ public abstract class ImapHandler {
                         if (parts != null) {
                             for (ImapPartSpecifier pspec : parts) {
                                 result.print(empty ? "" : " ");
-                                pspec.write(result, output, mm);
+                                literalBytes += pspec.write(result, output, mm);
                                 empty = false;
                             }
                         }
@@ -4130,9 +4165,10 @@ public abstract class ImapHandler {
                 finally {
                     if (result != null) {
                         result.write(')');
-                        output.write(LINE_SEPARATOR_BYTES, 0, LINE_SEPARATOR_BYTES.length);
-                        output.flush();
+                        out.write(LINE_SEPARATOR_BYTES, 0, LINE_SEPARATOR_BYTES.length);
+                        out.flush();
                     }
+                    CommandProfiler.recordBytesWritten(out.getCount() + literalBytes);
                 }
             }
         } finally {
@@ -122,6 +122,10 @@ public class ImapMessage implements Comparable<ImapMessage>, java.io.Serializabl
     short sflags;
     int   flags;
     String[] tags;
+    // INTERNALDATE, RFC822.SIZE and MODSEQ, so that SEARCH can be evaluated without the index; date is 0 if unknown
+    long  date;
+    long  size;
+    int   modseq;
 
     public ImapMessage(int id, MailItem.Type type, int imapId, int flags, String[] tags) {
         this.msgId   = id;
@@ -141,10 +145,14 @@ public class ImapMessage implements Comparable<ImapMessage>, java.io.Serializabl
 
     public ImapMessage(BaseItemInfo item) throws ServiceException {
         this(item.getIdInMailbox(), item.getMailItemType(), item.getImapUid(), item.getFlagBitmask(), item.getTags());
+        if (item instanceof MailItem) {
+            setSearchAttributes((MailItem) item);
+        }
     }
 
     public ImapMessage(MailItem item) {
         this(item.getIdInMailbox(), item.getMailItemType(), item.getImapUid(), item.getFlagBitmask(), item.getTags());
+        setSearchAttributes(item);
     }
 
     public ImapMessage(ZimbraQueryHit hit) throws ServiceException {
@@ -157,6 +165,9 @@ public class ImapMessage implements Comparable<ImapMessage>, java.io.Serializabl
         this.sflags  = (short) (i4msg.sflags & FLAG_IS_CONTACT);
         this.flags   = i4msg.flags;
         this.tags    = i4msg.tags;
+        this.date    = i4msg.date;
+        this.size    = i4msg.size;
+        this.modseq  = i4msg.modseq;
     }
 
     ImapMessage(ImapMessageInfo msgInfo) {
@@ -167,6 +178,22 @@ public class ImapMessage implements Comparable<ImapMessage>, java.io.Serializabl
         this.sflags  = msgInfo.getType().equalsIgnoreCase(MailItem.Type.CONTACT.name()) ? FLAG_IS_CONTACT : 0;
     }
 
+    public ImapMessage setSearchAttributes(long date, long size, int modseq) {
+        this.date   = date;
+        this.size   = size;
+        this.modseq = modseq;
+        return this;
+    }
+
+    ImapMessage setSearchAttributes(MailItem item) {
+        return setSearchAttributes(item.getDate(), item.getSize(), item.getModifiedSequence());
+    }
+
+    /** Returns whether the INTERNALDATE, size and MODSEQ of this message are known locally. */
+    boolean hasSearchAttributes() {
+        return date != 0;
+    }
+
     ImapMessage reset() {
         sflags &= FLAG_IS_CONTACT;
         return this;
@@ -18,10 +18,14 @@ package com.zimbra.cs.imap;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.channels.FileChannel;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -37,7 +41,11 @@ import com.zimbra.common.util.InputStreamWithSize;
 import com.zimbra.common.util.StartOutOfBoundsException;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Message;
 import com.zimbra.cs.mime.Mime;
+import com.zimbra.cs.server.NioOutputStream;
+import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.util.IOUtil;
 
 class ImapPartSpecifier {
     static class BinaryDecodingException extends Exception {
@@ -134,8 +142,14 @@ class ImapPartSpecifier {
         return sb.toString();
     }
 
-    private void write(PrintStream ps, OutputStream os, GettableInputStreamWithSize gisws)
+    /**
+     * Writes the response for this part specifier.  The response text goes to <tt>ps</tt> and any
+     * literal content straight to <tt>os</tt>, which must be the stream <tt>ps</tt> writes to.
+     * Returns the number of bytes written to <tt>os</tt> directly.
+     */
+    private long write(PrintStream ps, OutputStream os, GettableInputStreamWithSize gisws)
     throws IOException, BinaryDecodingException, ServiceException {
+        long written = 0;
         InputStream is = null;
         try {
             InputStreamWithSize contents = getContentOctetRange(gisws);
@@ -171,23 +185,84 @@ class ImapPartSpecifier {
                 ps.write('}');   /* } added to fix vim buggy brace matching code */
                 if (os != null) {
                     os.write(ImapHandler.LINE_SEPARATOR_BYTES);
-                    long written = ByteUtil.copy(is, false, os, false);
-                    assert written == length;
+                    long copied = ByteUtil.copy(is, false, os, false);
+                    assert copied == length;
+                    written = ImapHandler.LINE_SEPARATOR_BYTES.length + copied;
                 }
             }
         } finally {
             ByteUtil.closeStream(is);
         }
+        return written;
     }
 
-    void write(PrintStream ps, OutputStream os, ZimbraMailItem zmi)
+    long write(PrintStream ps, OutputStream os, ZimbraMailItem zmi)
     throws IOException, BinaryDecodingException, ServiceException {
-        write(ps, os, new ZimbraMailItemGettableInputStreamWithSize(zmi));
+        if (os instanceof NioOutputStream && zmi instanceof Message) {
+            long written = transferFile(ps, (NioOutputStream) os, (Message) zmi);
+            if (written >= 0) {
+                return written;
+            }
+        }
+        return write(ps, os, new ZimbraMailItemGettableInputStreamWithSize(zmi));
+    }
+
+    /**
+     * Sends <tt>BODY[]</tt> and <tt>BODY[]&lt;start.len&gt;</tt> for a local message straight
+     * from the blob file to the socket with zero-copy transfer, returning the number of bytes
+     * written to <tt>os</tt> directly.  Returns -1 without writing anything if that's not possible (compressed or external blob, TLS
+     * or SASL on the connection, <tt>BINARY</tt> fetch, etc.), in which case the caller
+     * falls back to copying the content stream.
+     */
+    private long transferFile(PrintStream ps, NioOutputStream os, Message msg)
+    throws IOException, ServiceException {
+        if (!isEntireMessage() || command.startsWith("BINARY") || msg.getDigest() == null ||
+                !os.isFileTransferSupported()) {
+            return -1;
+        }
+        File file = StoreManager.getInstance().getUncompressedFile(msg.getBlob());
+        long size = msg.getSize();
+        if (file == null) {
+            return -1;
+        }
+        long start = 0;
+        long length = size;
+        if (octetStart >= 0) {
+            if (octetStart >= size) {
+                return -1; // let the stream code deal with out of range partials
+            }
+            start = octetStart;
+            length = Math.min(size, octetEnd) - octetStart;
+        }
+
+        FileChannel channel;
+        try {
+            channel = new FileInputStream(file).getChannel();
+        } catch (FileNotFoundException e) {
+            return -1; // blob was just deleted or moved
+        }
+        try {
+            if (channel.size() != size) {
+                IOUtil.closeQuietly(channel);
+                return -1;
+            }
+        } catch (IOException e) {
+            IOUtil.closeQuietly(channel);
+            throw e;
+        }
+
+        ps.print(this);
+        ps.print(" {");
+        ps.print(length);
+        ps.write('}');   /* } added to fix vim buggy brace matching code */
+        os.write(ImapHandler.LINE_SEPARATOR_BYTES);
+        os.transferFrom(channel, start, length);
+        return ImapHandler.LINE_SEPARATOR_BYTES.length + length;
     }
 
-    void write(PrintStream ps, OutputStream os, MimeMessage mimeMsg)
+    long write(PrintStream ps, OutputStream os, MimeMessage mimeMsg)
     throws IOException, BinaryDecodingException, ServiceException {
-        write(ps, os, new MimeMessageGettableInputStreamWithSize(mimeMsg));
+        return write(ps, os, new MimeMessageGettableInputStreamWithSize(mimeMsg));
     }
 
     private interface GettableInputStreamWithSize {
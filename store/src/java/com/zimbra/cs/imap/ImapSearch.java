@@ -18,18 +18,27 @@ package com.zimbra.cs.imap;
 
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Set;
+import java.util.TimeZone;
 import java.util.TreeSet;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.zimbra.common.calendar.WellKnownTimeZones;
+import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
 import com.zimbra.cs.imap.ImapMessage.ImapMessageSet;
 
 abstract class ImapSearch {
-    protected abstract boolean canBeRunLocally();
+    protected abstract boolean canBeRunLocally(ImapFolder i4folder);
     protected abstract String toZimbraSearch(ImapFolder i4folder) throws ImapParseException;
     protected abstract ImapMessageSet evaluate(ImapFolder i4folder) throws ImapParseException;
     protected boolean requiresMODSEQ()  { return false; }
@@ -103,6 +112,36 @@ abstract class ImapSearch {
     }
 
 
+    /** Time zone the index would use for date terms: the user's, falling back to the server's. */
+    protected static TimeZone getTimeZone(ImapFolder i4folder) {
+        TimeZone tz = null;
+        try {
+            ImapCredentials creds = i4folder.getCredentials();
+            Account acct = creds == null ? null : creds.getAccount();
+            if (acct != null) {
+                tz = WellKnownTimeZones.getTimeZoneById(acct.getAttr(Provisioning.A_zimbraPrefTimeZoneId));
+            }
+        } catch (ServiceException e) {
+            ZimbraLog.imap.debug("unable to get time zone for SEARCH, using the server's", e);
+        }
+        return tz == null ? TimeZone.getDefault() : tz;
+    }
+
+    /** Matches messages whose INTERNALDATE is in {@code [lower, upper)}. */
+    private static final class DateRange implements Predicate<ImapMessage> {
+        private final long lower, upper;
+
+        DateRange(long lower, long upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        public boolean apply(ImapMessage i4msg) {
+            return i4msg.date >= lower && i4msg.date < upper;
+        }
+    }
+
     static abstract class LogicalOperation extends ImapSearch {
         protected List<ImapSearch> mChildren = new ArrayList<ImapSearch>();
 
@@ -111,9 +150,9 @@ abstract class ImapSearch {
         }
 
         @Override
-        protected boolean canBeRunLocally() {
+        protected boolean canBeRunLocally(ImapFolder i4folder) {
             for (ImapSearch i4search : mChildren) {
-                if (!i4search.canBeRunLocally()) {
+                if (!i4search.canBeRunLocally(i4folder)) {
                     return false;
                 }
             }
@@ -188,6 +227,24 @@ abstract class ImapSearch {
             }
             return matched;
         }
+
+        /**
+         * Splits this AND into the children that can be evaluated in memory and those that need the index, so that
+         * e.g. {@code UID SEARCH 1:* UNSEEN SUBJECT foo} only sends the SUBJECT term to the index.
+         *
+         * @return the local and the indexed half, or null if either half would be empty
+         */
+        protected AndOperation[] split(ImapFolder i4folder) {
+            AndOperation local = new AndOperation();
+            AndOperation indexed = new AndOperation();
+            for (ImapSearch i4search : mChildren) {
+                (i4search.canBeRunLocally(i4folder) ? local : indexed).addChild(i4search);
+            }
+            if (local.mChildren.isEmpty() || indexed.mChildren.isEmpty()) {
+                return null;
+            }
+            return new AndOperation[] { local, indexed };
+        }
     }
 
     static class OrOperation extends LogicalOperation {
@@ -238,7 +295,7 @@ abstract class ImapSearch {
 
     static class AllSearch extends ImapSearch {
         @Override
-        protected boolean canBeRunLocally()                     { return true; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return true; }
         @Override
         protected String toZimbraSearch(ImapFolder i4folder)    { return "item:all"; }
         @Override
@@ -257,7 +314,7 @@ abstract class ImapSearch {
 
     static class NoneSearch extends ImapSearch {
         @Override
-        protected boolean canBeRunLocally()                     { return true; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return true; }
         @Override
         protected String toZimbraSearch(ImapFolder i4folder)    { return "item:none"; }
         @Override
@@ -281,7 +338,7 @@ abstract class ImapSearch {
         SequenceSearch(String tag, String subSequence, boolean byUID)  { mTag = tag;  mSubSequence = subSequence;  mIsUidSearch = byUID; }
 
         @Override
-        protected boolean canBeRunLocally()  { return true; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return true; }
 
         @Override
         protected String toZimbraSearch(ImapFolder i4folder) throws ImapParseException {
@@ -333,7 +390,7 @@ abstract class ImapSearch {
         FlagSearch(String flagName)  { mFlagName = flagName; }
 
         @Override
-        protected boolean canBeRunLocally()  { return true; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return true; }
 
         @Override
         protected String toZimbraSearch(ImapFolder i4folder) {
@@ -408,8 +465,9 @@ abstract class ImapSearch {
         DateSearch(Relation relation, Date date)  { mDate = date;  mTimestamp = date.getTime();  mRelation = relation; }
 
         @Override
-        protected boolean canBeRunLocally() {
-            return mTimestamp < 0 || mTimestamp > System.currentTimeMillis() + 36 * Constants.MILLIS_PER_MONTH;
+        protected boolean canBeRunLocally(ImapFolder i4folder) {
+            return mTimestamp < 0 || mTimestamp > System.currentTimeMillis() + 36 * Constants.MILLIS_PER_MONTH ||
+                    i4folder.hasSearchAttributes();
         }
 
         @Override
@@ -429,8 +487,23 @@ abstract class ImapSearch {
                 return (mRelation == Relation.after ? i4folder.getAllMessages() : new ImapMessageSet());
             } else if (mTimestamp > System.currentTimeMillis() + 36 * Constants.MILLIS_PER_MONTH) {
                 return (mRelation == Relation.before ? i4folder.getAllMessages() : new ImapMessageSet());
-            } else {
-                throw new UnsupportedOperationException("evaluate of " + toZimbraSearch(i4folder));
+            }
+            // same day boundaries as the index query: the date, taken as a day in the user's time zone
+            Calendar day = new GregorianCalendar();
+            day.setTime(mDate);
+            Calendar start = new GregorianCalendar(getTimeZone(i4folder));
+            start.clear();
+            start.set(day.get(Calendar.YEAR), day.get(Calendar.MONTH), day.get(Calendar.DAY_OF_MONTH));
+            final long lower = start.getTimeInMillis();
+            start.add(Calendar.DAY_OF_MONTH, 1);
+            final long upper = start.getTimeInMillis();
+            switch (mRelation) {
+                case before:
+                    return i4folder.getMatchingMessages(new DateRange(Long.MIN_VALUE, lower));
+                case after:
+                    return i4folder.getMatchingMessages(new DateRange(lower, Long.MAX_VALUE));
+                default:
+                    return i4folder.getMatchingMessages(new DateRange(lower, upper));
             }
         }
 
@@ -480,7 +553,7 @@ abstract class ImapSearch {
         RelativeDateSearch(DateSearch.Relation relation, int offset)  { mOffset = offset;  mRelation = relation; }
 
         @Override
-        protected boolean canBeRunLocally()                   { return false; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return i4folder.hasSearchAttributes(); }
         @Override
         protected String toZimbraSearch(ImapFolder i4folder)  {
             return mRelation.toString() + (System.currentTimeMillis() - mOffset * Constants.MILLIS_PER_SECOND);
@@ -488,7 +561,12 @@ abstract class ImapSearch {
 
         @Override
         protected ImapMessageSet evaluate(ImapFolder i4folder) {
-            throw new UnsupportedOperationException("evaluate of " + toZimbraSearch(i4folder));
+            long cutoff = System.currentTimeMillis() - mOffset * Constants.MILLIS_PER_SECOND;
+            if (mRelation == DateSearch.Relation.before) {
+                return i4folder.getMatchingMessages(new DateRange(Long.MIN_VALUE, cutoff));
+            } else {
+                return i4folder.getMatchingMessages(new DateRange(cutoff, Long.MAX_VALUE));
+            }
         }
 
         @Override
@@ -533,12 +611,17 @@ abstract class ImapSearch {
         @Override
         protected boolean requiresMODSEQ()                    { return true; }
         @Override
-        protected boolean canBeRunLocally()                   { return false; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return i4folder.hasSearchAttributes(); }
         @Override
         protected String toZimbraSearch(ImapFolder i4folder)  { return "(modseq:>" + mChangedSince + ")"; }
         @Override
         protected ImapMessageSet evaluate(ImapFolder i4folder) {
-            throw new UnsupportedOperationException("evaluate of " + toZimbraSearch(i4folder));
+            return i4folder.getMatchingMessages(new Predicate<ImapMessage>() {
+                @Override
+                public boolean apply(ImapMessage i4msg) {
+                    return i4msg.modseq > mChangedSince;
+                }
+            });
         }
 
         @Override
@@ -572,12 +655,17 @@ abstract class ImapSearch {
         SizeSearch(Relation relation, long size)  { mSize = size;  mRelation = relation; }
 
         @Override
-        protected boolean canBeRunLocally()                   { return false; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return i4folder.hasSearchAttributes(); }
         @Override
         protected String toZimbraSearch(ImapFolder i4folder)  { return mRelation + ":" + mSize; }
         @Override
         protected ImapMessageSet evaluate(ImapFolder i4folder) {
-            throw new UnsupportedOperationException("evaluate of " + toZimbraSearch(i4folder));
+            return i4folder.getMatchingMessages(new Predicate<ImapMessage>() {
+                @Override
+                public boolean apply(ImapMessage i4msg) {
+                    return mRelation == Relation.larger ? i4msg.size > mSize : i4msg.size < mSize;
+                }
+            });
         }
 
         @Override
@@ -617,12 +705,12 @@ abstract class ImapSearch {
         ContentSearch(String value)  { mValue = value; }
 
         @Override
-        protected boolean canBeRunLocally()                   { return mValue.trim().equals(""); }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return mValue.trim().equals(""); }
         @Override
         protected String toZimbraSearch(ImapFolder i4folder)  { return stringAsSearchTerm(mValue); }
         @Override
         protected ImapMessageSet evaluate(ImapFolder i4folder) {
-            if (canBeRunLocally())
+            if (canBeRunLocally(i4folder))
                 return i4folder.getAllMessages();
             throw new UnsupportedOperationException("evaluate of " + toZimbraSearch(i4folder));
         }
@@ -747,7 +835,7 @@ abstract class ImapSearch {
         }
 
         @Override
-        protected boolean canBeRunLocally()  { return false; }
+        protected boolean canBeRunLocally(ImapFolder i4folder)  { return false; }
 
         @Override
         protected String toZimbraSearch(ImapFolder i4folder) {
@@ -27,6 +27,7 @@ import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.server.NioConnection;
 import com.zimbra.cs.server.NioHandler;
 import com.zimbra.cs.server.NioOutputStream;
+import com.zimbra.cs.stats.CommandProfiler;
 import com.zimbra.cs.stats.ZimbraPerf;
 
 final class NioImapHandler extends ImapHandler implements NioHandler {
@@ -111,6 +112,7 @@ final class NioImapHandler extends ImapHandler implements NioHandler {
         }
 
         long start = ZimbraPerf.STOPWATCH_IMAP.start();
+        boolean profiled = CommandProfiler.begin(CommandProfiler.Protocol.IMAP);
 
         try {
             if (!checkAccountStatus()) {
@@ -137,6 +139,9 @@ final class NioImapHandler extends ImapHandler implements NioHandler {
                 return false;
             }
         } finally {
+            if (profiled) {
+                CommandProfiler.end(lastCommand != null ? lastCommand.toUpperCase() : null);
+            }
             long elapsed = ZimbraPerf.STOPWATCH_IMAP.stop(start);
             if (lastCommand != null) {
                 ZimbraPerf.IMAP_TRACKER.addStat(lastCommand.toUpperCase(), start);
@@ -190,6 +195,8 @@ final class NioImapHandler extends ImapHandler implements NioHandler {
         if (out != null) {
             out.write(line);
             out.write(LINE_SEPARATOR_BYTES);
+            // IMAP responses are 7-bit apart from literals, which go through FETCH
+            CommandProfiler.recordBytesWritten(line.length() + LINE_SEPARATOR_BYTES.length);
             if (flush) {
                 out.flush();
             }
@@ -32,6 +32,7 @@ import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.NetUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.server.ProtocolHandler;
+import com.zimbra.cs.stats.CommandProfiler;
 import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.IOUtil;
 
@@ -109,10 +110,17 @@ final class TcpImapHandler extends ProtocolHandler {
                 return false;
             }
             boolean keepGoing;
-            if (delegate.authenticator != null && !delegate.authenticator.isComplete()) {
-                keepGoing = delegate.continueAuthentication(request);
-            } else {
-                keepGoing = delegate.executeRequest(request);
+            boolean profiled = CommandProfiler.begin(CommandProfiler.Protocol.IMAP);
+            try {
+                if (delegate.authenticator != null && !delegate.authenticator.isComplete()) {
+                    keepGoing = delegate.continueAuthentication(request);
+                } else {
+                    keepGoing = delegate.executeRequest(request);
+                }
+            } finally {
+                if (profiled) {
+                    CommandProfiler.end(delegate.lastCommand != null ? delegate.lastCommand.toUpperCase() : null);
+                }
             }
             // FIXME Shouldn't we do these before executing the request??
             setIdle(false);
@@ -224,8 +232,10 @@ final class TcpImapHandler extends ProtocolHandler {
             if (os == null) {
                 return;
             }
-            os.write(line.getBytes());
+            byte[] bytes = line.getBytes();
+            os.write(bytes);
             os.write(LINE_SEPARATOR_BYTES);
+            CommandProfiler.recordBytesWritten(bytes.length + LINE_SEPARATOR_BYTES.length);
             if (flush) {
                 os.flush();
             }
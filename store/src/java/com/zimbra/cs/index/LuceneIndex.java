@@ -677,8 +677,14 @@ public final class LuceneIndex extends IndexStore {
     private IndexWriterConfig getWriterConfig() {
         IndexWriterConfig config = new IndexWriterConfig(VERSION, mailbox.index.getAnalyzer());
         config.setMergeScheduler(new MergeScheduler());
-        config.setMaxBufferedDocs(LC.zimbra_index_lucene_max_buffered_docs.intValue());
-        config.setRAMBufferSizeMB(LC.zimbra_index_lucene_ram_buffer_size_kb.intValue() / 1024.0);
+        if (mailbox.index.isReIndexInProgress()) {
+            // re-index adds documents back to back, let a larger RAM buffer alone decide when to flush a segment
+            config.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+            config.setRAMBufferSizeMB(LC.zimbra_reindex_lucene_ram_buffer_size_kb.intValue() / 1024.0);
+        } else {
+            config.setMaxBufferedDocs(LC.zimbra_index_lucene_max_buffered_docs.intValue());
+            config.setRAMBufferSizeMB(LC.zimbra_index_lucene_ram_buffer_size_kb.intValue() / 1024.0);
+        }
         if (LC.zimbra_index_lucene_merge_policy.booleanValue()) {
             LogDocMergePolicy policy = new LogDocMergePolicy();
             config.setMergePolicy(policy);
@@ -838,7 +844,7 @@ public final class LuceneIndex extends IndexStore {
         }
 
         @Override
-        public synchronized int maxDocs() {
+        public int maxDocs() {
             // IndexWriter.maxDoc() - Returns total number of docs in this index, including docs not yet flushed
             //                        (still in the RAM buffer), not counting deletions.
             return writer.get().maxDoc();
@@ -849,9 +855,12 @@ public final class LuceneIndex extends IndexStore {
          * <p>
          * If the index status is stale, delete the stale documents first, then add new documents. If the index status
          * is deferred, we are sure that this item is not already in the index, and so we can skip the check-update step.
+         * <p>
+         * {@link IndexWriter} is thread safe, so this doesn't lock the indexer; callers adding the same item are already
+         * serialized by the mailbox lock.
          */
         @Override
-        public synchronized void addDocument(Folder folder, MailItem item, List<IndexDocument> docs)
+        public void addDocument(Folder folder, MailItem item, List<IndexDocument> docs)
                 throws IOException {
             if (docs == null || docs.isEmpty()) {
                 return;
@@ -0,0 +1,166 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Runs LMTP deliveries on a shared pool of threads, one queue per mailbox.
+ * <p>
+ * Deliveries to the same mailbox run one at a time in the order they were submitted, while
+ * deliveries to different mailboxes run in parallel.  A multi-recipient message therefore
+ * waits for its slowest mailbox instead of for the sum of all of them, and a mailbox that is
+ * locked by a long-running operation only holds up its own queue.
+ * <p>
+ * The pool is sized by {@code zimbra_lmtp_delivery_threads}; when it is {@code 0} there is no
+ * queue and {@link ZimbraLmtpBackend} delivers on the connection thread.
+ */
+final class MailboxDeliveryQueue {
+
+    private static MailboxDeliveryQueue instance;
+
+    /** Number of deliveries submitted but not yet started, across all mailboxes. */
+    private static final AtomicInteger queued = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final Map<Integer, MailboxQueue> queues = new HashMap<Integer, MailboxQueue>(); // guarded by itself
+
+    private MailboxDeliveryQueue(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("LmtpDelivery-%d").setDaemon(true).build());
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    /**
+     * Returns the delivery queue, or {@code null} if parallel delivery is disabled.
+     */
+    static synchronized MailboxDeliveryQueue getInstance() {
+        if (instance == null) {
+            int threads = LC.zimbra_lmtp_delivery_threads.intValue();
+            if (threads <= 0) {
+                return null;
+            }
+            ZimbraLog.lmtp.info("starting LMTP delivery queue with %d threads", threads);
+            instance = new MailboxDeliveryQueue(threads);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the number of deliveries that are waiting for their mailbox queue to reach them.
+     */
+    static int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Queues {@code task} behind any delivery already pending for {@code mailboxId}.
+     */
+    <T> Future<T> submit(int mailboxId, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(new Timed<T>(task));
+        MailboxQueue mq;
+        boolean start = false;
+        queued.incrementAndGet();
+        synchronized (queues) {
+            mq = queues.get(mailboxId);
+            if (mq == null) {
+                mq = new MailboxQueue(mailboxId);
+                queues.put(mailboxId, mq);
+                start = true;
+            }
+            mq.tasks.add(future);
+        }
+        if (start) {
+            executor.execute(mq);
+        }
+        return future;
+    }
+
+    /** Records how long a delivery waited in its queue and how long it took to run. */
+    private static final class Timed<T> implements Callable<T> {
+        private final Callable<T> task;
+        private final long submitted = ZimbraPerf.STOPWATCH_LMTP_QUEUE_WAIT.start();
+
+        Timed(Callable<T> task) {
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            ZimbraPerf.STOPWATCH_LMTP_QUEUE_WAIT.stop(submitted);
+            long start = ZimbraPerf.STOPWATCH_LMTP_DELIVER.start();
+            try {
+                return task.call();
+            } finally {
+                ZimbraPerf.STOPWATCH_LMTP_DELIVER.stop(start);
+            }
+        }
+    }
+
+    /**
+     * Drains the deliveries of one mailbox.  It is in {@link #queues} exactly while it has work,
+     * and at most one pool thread runs it at a time.
+     */
+    private final class MailboxQueue implements Runnable {
+        private final int mailboxId;
+        private final Queue<FutureTask<?>> tasks = new ArrayDeque<FutureTask<?>>(); // guarded by queues
+
+        MailboxQueue(int mailboxId) {
+            this.mailboxId = mailboxId;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                FutureTask<?> task;
+                synchronized (queues) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        queues.remove(mailboxId);
+                        return;
+                    }
+                }
+                queued.decrementAndGet();
+                ZimbraLog.clearContext();
+                try {
+                    // FutureTask catches everything the delivery throws, and a cancelled task is a no-op
+                    task.run();
+                } finally {
+                    ZimbraLog.clearContext();
+                }
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ import javax.net.ssl.SSLSocketFactory;
 import com.zimbra.common.io.TcpServerInputStream;
 import com.zimbra.common.util.NetUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
 
 public class TcpLmtpHandler extends LmtpHandler {
     private TcpServerInputStream inputStream;
@@ -68,9 +69,38 @@ public class TcpLmtpHandler extends LmtpHandler {
     @Override
     protected boolean processCommand() throws IOException {
         // make sure that the connection wasn't dropped during a preceding command processing
-        if (inputStream != null)
-            return processCommand(inputStream.readLine());
-        return false;
+        if (inputStream == null) {
+            return false;
+        }
+        String line = inputStream.readLine();
+        long start = ZimbraPerf.STOPWATCH_LMTP.start();
+        try {
+            return processCommand(line);
+        } finally {
+            if (line != null) {
+                ZimbraPerf.STOPWATCH_LMTP.stop(start);
+                ZimbraPerf.LMTP_TRACKER.addStat(getStatName(line), start);
+            }
+        }
+    }
+
+    private static final String[] STAT_COMMANDS = {
+        "LHLO", "MAIL", "RCPT", "DATA", "RSET", "NOOP", "QUIT", "VRFY", "STARTTLS"
+    };
+
+    /**
+     * Returns the command verb, or "OTHER" for anything that isn't a known command so that garbage
+     * input can't grow the stats tracker.
+     */
+    private static String getStatName(String line) {
+        int space = line.indexOf(' ');
+        String verb = space < 0 ? line : line.substring(0, space);
+        for (String cmd : STAT_COMMANDS) {
+            if (cmd.equalsIgnoreCase(verb)) {
+                return cmd;
+            }
+        }
+        return "OTHER";
     }
 
     @Override
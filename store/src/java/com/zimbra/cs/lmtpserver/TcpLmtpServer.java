@@ -51,13 +51,15 @@ public final class TcpLmtpServer extends TcpServer implements LmtpServer, Realti
 
     /**
      * Implementation of {@link RealtimeStatsCallback} that returns the number
-     * of active handlers and number of threads for this server.
+     * of active handlers and number of threads for this server, and the
+     * number of deliveries waiting in the mailbox delivery queues.
      */
     @Override
     public Map<String, Object> getStatData() {
         Map<String, Object> data = new HashMap<String, Object>();
         data.put(ZimbraPerf.RTS_LMTP_CONN, numActiveHandlers());
         data.put(ZimbraPerf.RTS_LMTP_THREADS, numThreads());
+        data.put(ZimbraPerf.RTS_LMTP_DELIVERY_QUEUE, MailboxDeliveryQueue.getQueuedCount());
         return data;
     }
 }
@@ -24,11 +24,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.mail.MessagingException;
@@ -36,6 +41,7 @@ import javax.mail.internet.MimeMessage;
 
 import org.apache.commons.io.IOUtils;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
@@ -43,6 +49,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.lmtp.LmtpClient;
 import com.zimbra.common.lmtp.LmtpProtocolException;
@@ -53,6 +60,7 @@ import com.zimbra.common.service.DeliveryServiceException;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.BufferStream;
 import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.CopyInputStream;
 import com.zimbra.common.util.LruMap;
 import com.zimbra.common.util.MapUtil;
@@ -77,7 +85,9 @@ import com.zimbra.cs.mailbox.Notification;
 import com.zimbra.cs.mailbox.QuotaWarning;
 import com.zimbra.cs.mime.ParsedMessage;
 import com.zimbra.cs.mime.ParsedMessageOptions;
+import com.zimbra.cs.redolog.op.StoreIncomingBlob;
 import com.zimbra.cs.service.util.ItemId;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobInputStream;
 import com.zimbra.cs.store.MailboxBlob;
@@ -320,6 +330,10 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         public ParsedMessage pm;
         public boolean esd; // whether endSharedDelivery should be called
         public DeliveryAction action;
+        public ParsedMessageOptions pmo; // set when a queued delivery has to parse its own copy of the message
+        public String msgId; // Message-ID for the dedupe cache, known even if that parse fails
+        public DeliveryContext dctxt; // per-recipient contexts for queued delivery
+        public DeliveryContext dctxtEEW;
 
         public RecipientDetail(Account a, Mailbox m, ParsedMessage p, boolean endSharedDelivery, DeliveryAction da) {
             account = a;
@@ -458,6 +472,7 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         String envSender = env.getSender().getEmailAddress();
 
         boolean shared = recipients.size() > 1;
+        MailboxDeliveryQueue queue = shared ? MailboxDeliveryQueue.getInstance() : null;
         List<Integer> targetMailboxIds = new ArrayList<Integer>(recipients.size());
 
         Map<LmtpAddress, RecipientDetail> rcptMap = new HashMap<LmtpAddress, RecipientDetail>(recipients.size());
@@ -519,18 +534,21 @@ public class ZimbraLmtpBackend implements LmtpBackend {
                     }
 
                     ParsedMessage pm;
+                    boolean parsedHere = false;
                     if (attachmentsIndexingEnabled) {
                         if (pmAttachIndex == null) {
                             pmo.setAttachmentIndexing(true);
                             ZimbraLog.lmtp.debug("Creating ParsedMessage from %s with attachment indexing enabled", data == null ? "file" : "memory");
-                            pmAttachIndex = new ParsedMessage(pmo);
+                            pmAttachIndex = parse(pmo);
+                            parsedHere = true;
                         }
                         pm = pmAttachIndex;
                     } else {
                         if (pmNoAttachIndex == null) {
                             pmo.setAttachmentIndexing(false);
                             ZimbraLog.lmtp.debug("Creating ParsedMessage from %s with attachment indexing disabled", data == null ? "file" : "memory");
-                            pmNoAttachIndex = new ParsedMessage(pmo);
+                            pmNoAttachIndex = parse(pmo);
+                            parsedHere = true;
                         }
                         pm = pmNoAttachIndex;
                     }
@@ -555,7 +573,14 @@ public class ZimbraLmtpBackend implements LmtpBackend {
                             da = DeliveryAction.defer;
                         }
                     }
-                    rcptMap.put(recipient, new RecipientDetail(account, mbox, pm, endSharedDelivery, da));
+                    RecipientDetail rd = new RecipientDetail(account, mbox, pm, endSharedDelivery, da);
+                    rd.msgId = msgId;
+                    if (queue != null && da == DeliveryAction.deliver && !parsedHere) {
+                        // Queued deliveries run concurrently and Sieve actions may modify the message,
+                        // so each ParsedMessage goes to one recipient and the others parse their own.
+                        rd.pmo = pmo.setAttachmentIndexing(attachmentsIndexingEnabled);
+                    }
+                    rcptMap.put(recipient, rd);
                     if (da == DeliveryAction.deliver) {
                         targetMailboxIds.add(mbox.getId());
                     }
@@ -581,192 +606,51 @@ public class ZimbraLmtpBackend implements LmtpBackend {
             }
 
             // We now know which addresses are valid and which ParsedMessage
-            // version each recipient needs.  Deliver!
-            for (LmtpAddress recipient : recipients) {
-                String rcptEmail = recipient.getEmailAddress();
-                LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
-                RecipientDetail rd = rcptMap.get(recipient);
-                if (rd == null) {
-                    // Account or mailbox not found.
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
-                            envSender, rcptEmail);
-                    recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
-                    continue;
-                }
-                if (rd.account != null) {
-                    ZimbraLog.addAccountNameToContext(rd.account.getName());
-                }
-                if (rd.mbox != null) {
-                    ZimbraLog.addMboxToContext(rd.mbox.getId());
-                }
-
-                boolean success = false;
-                try {
-                    switch (rd.action) {
-                    case discard:
-                        ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
-                                envSender, rcptEmail);
-                        if (rd.account.getPrefMailForwardingAddress() != null) {
-                            // mail forwarding is set up
-                            for (LmtpCallback callback : callbacks) {
-                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case deliver:
-                        Account account = rd.account;
-                        Mailbox mbox = rd.mbox;
-                        ParsedMessage pm = rd.pm;
-                        List<ItemId> addedMessageIds = null;
-                        ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
-                        boolean acquiredLock;
-                        try {
-                            // Wait for the lock, up to the timeout
-                            acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
-                        } catch (InterruptedException e) {
-                            acquiredLock = false;
-                        }
-                        if (!acquiredLock) {
-                            ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
-                                    envSender, rcptEmail);
-                            reply = LmtpReply.TEMPORARY_FAILURE;
-                            break;
-                        }
-                        try {
-                            if (dedupe(pm, mbox)) {
-                                // message was already delivered to this mailbox
-                                ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
-                            } else if (mbox.dedupeForSelfMsg(pm)) {
-                                ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
-                                        pm.getMessageID());
-
-                            } else if (recipient.getSkipFilters()) {
-                                msgId = pm.getMessageID();
-                                int folderId = Mailbox.ID_FOLDER_INBOX;
-                                if (recipient.getFolder() != null) {
-                                    try {
-                                        Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
-                                        folderId = folder.getId();
-                                    } catch (ServiceException se) {
-                                        if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
-                                            Folder folder = mbox.createFolder(null, recipient.getFolder(),
-                                                    new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
-                                            folderId = folder.getId();
-                                        } else {
-                                            throw se;
-                                        }
-                                    }
-                                }
-                                int flags = Flag.BITMASK_UNREAD;
-                                if (recipient.getFlags() != null) {
-                                    flags = Flag.toBitmask(recipient.getFlags());
-                                }
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
-                                dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            } else if (!DebugConfig.disableIncomingFilter) {
-                                // Get msgid first, to avoid having to reopen and reparse the blob
-                                // file if Mailbox.addMessageInternal() closes it.
-                                pm.getMessageID();
-                                if (blobEEW != null && ExternalEmailWarning.getInstance().isEnabled()
-                                        && ExternalEmailWarning.getInstance().isExternal(account.getName(),
-                                                envSender)) {
-                                    // invoking for EEW
-                                    addedMessageIds = RuleManager.applyRulesToIncomingMessage(null, mbox, pm,
-                                            (int) blobEEW.getRawSize(), rcptEmail, env, sharedDeliveryCtxtEEW,
-                                            Mailbox.ID_FOLDER_INBOX, false, true);
-                                } else {
-                                    // invoking for non-EEW
-                                    addedMessageIds = RuleManager.applyRulesToIncomingMessage(
-                                        null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
-                                        Mailbox.ID_FOLDER_INBOX, false, true);
-                                }
-                            } else {
-                                pm.getMessageID();
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
-                                dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            }
-                            success = true;
-                            if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                                addToDedupeCache(pm, mbox);
-                            }
-                        } finally {
-                            lock.unlock();
-                        }
-
-                        if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                            // Execute callbacks
-                            for (LmtpCallback callback : callbacks) {
-                                for (ItemId id : addedMessageIds) {
-                                    if (id.belongsTo(mbox)) {
-                                        // Message was added to the local mailbox, as opposed to a mountpoint.
-                                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                        try {
-                                            Message msg = mbox.getMessageById(null, id.getId());
-                                            callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
-                                        } catch (OutOfMemoryError oome) {
-                                            Zimbra.halt("LMTP callback failed", oome);
-                                        } catch (Throwable t) {
-                                            ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case defer:
-                        // Delivery to mailbox skipped.  Let MTA retry again later.
-                        // This case happens for shared delivery to a mailbox in
-                        // backup mode.
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
-                                envSender, rcptEmail);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                        break;
+            // version each recipient needs.  Deliver!  With a delivery queue, each mailbox
+            // delivery runs on the queue of its mailbox and this thread waits for all of them.
+            Map<LmtpAddress, Future<Void>> queued = new LinkedHashMap<LmtpAddress, Future<Void>>();
+            boolean incomingBlobLogged = false;
+            try {
+                for (LmtpAddress recipient : recipients) {
+                    RecipientDetail rd = rcptMap.get(recipient);
+                    if (rd == null) {
+                        // Account or mailbox not found.
+                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
+                                envSender, recipient.getEmailAddress());
+                        recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
+                        continue;
                     }
-                } catch (DeliveryServiceException e) {
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
-                    reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
-                } catch (ServiceException e) {
-                    if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
-                        if (config.isPermanentFailureWhenOverQuota()) {
-                            reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
-                        } else {
-                            reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
+                    if (queue != null && rd.action == DeliveryAction.deliver) {
+                        if (shared && !incomingBlobLogged) {
+                            incomingBlobLogged = logIncomingBlob(blob, targetMailboxIds);
+                        }
+                        rd.dctxt = newQueuedDeliveryContext(shared, targetMailboxIds, blob, incomingBlobLogged);
+                        rd.dctxtEEW = newQueuedDeliveryContext(shared, targetMailboxIds, null, false);
+                        if (blobEEW != null && ExternalEmailWarning.getInstance().isEnabled()) {
+                            rd.dctxtEEW.setIncomingBlob(blobEEW);
                         }
-                    } else if (e.isReceiversFault()) {
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
+                        queued.put(recipient, queue.submit(rd.mbox.getId(),
+                                new QueuedDelivery(recipient, rd, env, blob, blobEEW, shared)));
                     } else {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.PERMANENT_FAILURE;
-                    }
-                } catch (Exception e) {
-                    reply = LmtpReply.TEMPORARY_FAILURE;
-                    ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                } finally {
-                    if (rd.action == DeliveryAction.deliver && !success) {
-                        // Message was not delivered.  Remove it from the dedupe
-                        // cache so we don't dedupe it on LMTP retry.
-                        removeFromDedupeCache(msgId, rd.mbox);
-                    }
-                    recipient.setDeliveryStatus(reply);
-                    if (shared && rd != null && rd.esd) {
-                        rd.mbox.endSharedDelivery();
-                        rd.esd = false;
+                        deliverToRecipient(recipient, rd, env, blob, blobEEW, sharedDeliveryCtxt,
+                                sharedDeliveryCtxtEEW, shared);
                     }
                 }
+            } finally {
+                awaitQueuedDeliveries(queued, rcptMap, envSender);
             }
 
             // If this message is being streamed from disk, cache it
             ParsedMessage mimeSource = pmAttachIndex != null ? pmAttachIndex : pmNoAttachIndex;
             MailboxBlob mblob = sharedDeliveryCtxt.getMailboxBlob();
+            if (mblob == null && !queued.isEmpty()) {
+                for (RecipientDetail rd : rcptMap.values()) {
+                    if (rd.pm == mimeSource && rd.dctxt != null && rd.dctxt.getMailboxBlob() != null) {
+                        mblob = rd.dctxt.getMailboxBlob();
+                        break;
+                    }
+                }
+            }
             if (mblob != null && mimeSource != null) {
                 if (bis == null) {
                     bis = mimeSource.getBlobInputStream();
@@ -796,6 +680,307 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         }
     }
 
+    private void deliverToRecipient(LmtpAddress recipient, RecipientDetail rd, LmtpEnvelope env, Blob blob,
+            Blob blobEEW, DeliveryContext sharedDeliveryCtxt, DeliveryContext sharedDeliveryCtxtEEW, boolean shared) {
+        String rcptEmail = recipient.getEmailAddress();
+        String envSender = env.getSender().getEmailAddress();
+        LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
+        if (rd.account != null) {
+            ZimbraLog.addAccountNameToContext(rd.account.getName());
+        }
+        if (rd.mbox != null) {
+            ZimbraLog.addMboxToContext(rd.mbox.getId());
+        }
+
+        boolean success = false;
+        try {
+            switch (rd.action) {
+            case discard:
+                ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
+                        envSender, rcptEmail);
+                if (rd.account.getPrefMailForwardingAddress() != null) {
+                    // mail forwarding is set up
+                    for (LmtpCallback callback : callbacks) {
+                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                        callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case deliver:
+                Account account = rd.account;
+                Mailbox mbox = rd.mbox;
+                if (rd.pmo != null) {
+                    rd.pm = parse(rd.pmo);
+                    rd.pmo = null;
+                }
+                ParsedMessage pm = rd.pm;
+                List<ItemId> addedMessageIds = null;
+                ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
+                boolean acquiredLock;
+                try {
+                    // Wait for the lock, up to the timeout
+                    acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    acquiredLock = false;
+                }
+                if (!acquiredLock) {
+                    ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
+                            envSender, rcptEmail);
+                    reply = LmtpReply.TEMPORARY_FAILURE;
+                    break;
+                }
+                try {
+                    if (dedupe(pm, mbox)) {
+                        // message was already delivered to this mailbox
+                        ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
+                    } else if (mbox.dedupeForSelfMsg(pm)) {
+                        ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
+                                pm.getMessageID());
+
+                    } else if (recipient.getSkipFilters()) {
+                        int folderId = Mailbox.ID_FOLDER_INBOX;
+                        if (recipient.getFolder() != null) {
+                            try {
+                                Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
+                                folderId = folder.getId();
+                            } catch (ServiceException se) {
+                                if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
+                                    Folder folder = mbox.createFolder(null, recipient.getFolder(),
+                                            new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
+                                    folderId = folder.getId();
+                                } else {
+                                    throw se;
+                                }
+                            }
+                        }
+                        int flags = Flag.BITMASK_UNREAD;
+                        if (recipient.getFlags() != null) {
+                            flags = Flag.toBitmask(recipient.getFlags());
+                        }
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
+                        dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    } else if (!DebugConfig.disableIncomingFilter) {
+                        // Get msgid first, to avoid having to reopen and reparse the blob
+                        // file if Mailbox.addMessageInternal() closes it.
+                        pm.getMessageID();
+                        if (blobEEW != null && ExternalEmailWarning.getInstance().isEnabled()
+                                && ExternalEmailWarning.getInstance().isExternal(account.getName(),
+                                        envSender)) {
+                            // invoking for EEW
+                            addedMessageIds = RuleManager.applyRulesToIncomingMessage(null, mbox, pm,
+                                    (int) blobEEW.getRawSize(), rcptEmail, env, sharedDeliveryCtxtEEW,
+                                    Mailbox.ID_FOLDER_INBOX, false, true);
+                        } else {
+                            // invoking for non-EEW
+                            addedMessageIds = RuleManager.applyRulesToIncomingMessage(
+                                null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
+                                Mailbox.ID_FOLDER_INBOX, false, true);
+                        }
+                    } else {
+                        pm.getMessageID();
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+                        dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    }
+                    success = true;
+                    if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                        addToDedupeCache(pm, mbox);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                    // Execute callbacks
+                    for (LmtpCallback callback : callbacks) {
+                        for (ItemId id : addedMessageIds) {
+                            if (id.belongsTo(mbox)) {
+                                // Message was added to the local mailbox, as opposed to a mountpoint.
+                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                                try {
+                                    Message msg = mbox.getMessageById(null, id.getId());
+                                    callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
+                                } catch (OutOfMemoryError oome) {
+                                    Zimbra.halt("LMTP callback failed", oome);
+                                } catch (Throwable t) {
+                                    ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
+                                }
+                            }
+                        }
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case defer:
+                // Delivery to mailbox skipped.  Let MTA retry again later.
+                // This case happens for shared delivery to a mailbox in
+                // backup mode.
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
+                        envSender, rcptEmail);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+                break;
+            }
+        } catch (DeliveryServiceException e) {
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
+            reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
+        } catch (ServiceException e) {
+            if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
+                if (config.isPermanentFailureWhenOverQuota()) {
+                    reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
+                } else {
+                    reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
+                }
+            } else if (e.isReceiversFault()) {
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+            } else {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.PERMANENT_FAILURE;
+            }
+        } catch (Exception e) {
+            reply = LmtpReply.TEMPORARY_FAILURE;
+            ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+        } finally {
+            if (rd.action == DeliveryAction.deliver && !success) {
+                // Message was not delivered.  Remove it from the dedupe
+                // cache so we don't dedupe it on LMTP retry.
+                removeFromDedupeCache(rd.msgId, rd.mbox);
+            }
+            recipient.setDeliveryStatus(reply);
+            if (shared && rd != null && rd.esd) {
+                rd.mbox.endSharedDelivery();
+                rd.esd = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the delivery context for one queued recipient.  Queued deliveries run concurrently, so each
+     * gets its own context; a shared one makes header-editing filters write a mailbox-specific blob
+     * instead of replacing the incoming blob that the other recipients are delivering.  When the incoming
+     * blob has already been logged, the CreateMessage redo records link to it rather than each carrying
+     * the message body.
+     */
+    @VisibleForTesting
+    static DeliveryContext newQueuedDeliveryContext(boolean shared, List<Integer> targetMailboxIds, Blob blob,
+            boolean blobLogged) {
+        DeliveryContext dctxt = new DeliveryContext(shared, targetMailboxIds).setIncomingBlob(blob);
+        if (shared && blobLogged) {
+            dctxt.setFirst(false);
+        }
+        return dctxt;
+    }
+
+    /**
+     * Logs the incoming blob of a shared delivery once, ahead of the queued mailbox deliveries, the way
+     * the first of the serial deliveries does.  Returns false if it could not be logged, in which case
+     * each queued delivery logs it with its own message.
+     */
+    private static boolean logIncomingBlob(Blob blob, List<Integer> targetMailboxIds) {
+        StoreIncomingBlob redoRecorder;
+        try {
+            redoRecorder = new StoreIncomingBlob(blob.getDigest(), (int) blob.getRawSize(), targetMailboxIds);
+        } catch (IOException e) {
+            ZimbraLog.lmtp.warn("unable to log incoming blob %s", blob.getPath(), e);
+            return false;
+        }
+        redoRecorder.start(System.currentTimeMillis());
+        redoRecorder.setBlobBodyInfo(blob.getFile());
+        redoRecorder.log();
+        redoRecorder.commit();
+        return true;
+    }
+
+    /** A mailbox delivery run from {@link MailboxDeliveryQueue}. */
+    private final class QueuedDelivery implements Callable<Void> {
+        private final LmtpAddress recipient;
+        private final RecipientDetail rd;
+        private final LmtpEnvelope env;
+        private final Blob blob;
+        private final Blob blobEEW;
+        private final boolean shared;
+
+        QueuedDelivery(LmtpAddress recipient, RecipientDetail rd, LmtpEnvelope env, Blob blob, Blob blobEEW,
+                boolean shared) {
+            this.recipient = recipient;
+            this.rd = rd;
+            this.env = env;
+            this.blob = blob;
+            this.blobEEW = blobEEW;
+            this.shared = shared;
+        }
+
+        @Override
+        public Void call() {
+            deliverToRecipient(recipient, rd, env, blob, blobEEW, rd.dctxt, rd.dctxtEEW, shared);
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the queued mailbox deliveries of one message, sharing a single mailbox lock
+     * timeout between them.  Deliveries that have not started by then are cancelled and the MTA
+     * is told to retry those recipients; deliveries that have started are always waited for,
+     * since their outcome is what the MTA has to be told.
+     */
+    private void awaitQueuedDeliveries(Map<LmtpAddress, Future<Void>> queued, Map<LmtpAddress, RecipientDetail> rcptMap,
+            String envSender) {
+        long deadline = System.currentTimeMillis() + LC.zimbra_mailbox_lock_timeout.intValue() * Constants.MILLIS_PER_SECOND;
+        boolean interrupted = false;
+        for (Map.Entry<LmtpAddress, Future<Void>> entry : queued.entrySet()) {
+            LmtpAddress recipient = entry.getKey();
+            Future<Void> future = entry.getValue();
+            try {
+                try {
+                    future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    continue;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (TimeoutException e) {
+                }
+                if (future.cancel(false)) {
+                    ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox delivery queue is busy",
+                            envSender, recipient.getEmailAddress());
+                    recipient.setDeliveryStatus(LmtpReply.TEMPORARY_FAILURE);
+                    endSharedDelivery(rcptMap.get(recipient));
+                } else {
+                    Uninterruptibles.getUninterruptibly(future);
+                }
+            } catch (ExecutionException e) {
+                // deliverToRecipient() handles its own exceptions, so this is an Error
+                ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, recipient.getEmailAddress(),
+                        e.getCause());
+                recipient.setDeliveryStatus(LmtpReply.TEMPORARY_FAILURE);
+                endSharedDelivery(rcptMap.get(recipient));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Releases the shared delivery count of a queued delivery that did not get to release it itself. */
+    private static void endSharedDelivery(RecipientDetail rd) {
+        if (rd.esd) {
+            rd.mbox.endSharedDelivery();
+            rd.esd = false;
+        }
+    }
+
+    private static ParsedMessage parse(ParsedMessageOptions pmo) throws ServiceException {
+        long start = ZimbraPerf.STOPWATCH_LMTP_PARSE.start();
+        try {
+            return new ParsedMessage(pmo);
+        } finally {
+            ZimbraPerf.STOPWATCH_LMTP_PARSE.stop(start);
+        }
+    }
+
     private void deliverMessageToRemoteMailboxes(Blob blob, byte[] data, LmtpEnvelope env) {
         Multimap<String, LmtpAddress> serverToRecipientsMap = env.getRemoteServerToRecipientsMap();
         for (String server : serverToRecipientsMap.keySet()) {
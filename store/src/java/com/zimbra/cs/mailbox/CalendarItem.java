@@ -45,7 +45,9 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.SharedByteArrayInputStream;
 
+import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterators;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.calendar.ICalTimeZone;
 import com.zimbra.common.calendar.ParsedDateTime;
@@ -94,6 +96,8 @@ import com.zimbra.cs.mailbox.calendar.ZAttendee;
 import com.zimbra.cs.mailbox.calendar.ZOrganizer;
 import com.zimbra.cs.mailbox.calendar.ZRecur;
 import com.zimbra.cs.mailbox.calendar.ZRecur.Frequency;
+import com.zimbra.cs.mailbox.calendar.cache.CalendarCacheManager;
+import com.zimbra.cs.mailbox.calendar.cache.ExpandedInstanceCache;
 import com.zimbra.cs.mime.Mime;
 import com.zimbra.cs.mime.Mime.FixedMimeMessage;
 import com.zimbra.cs.mime.ParsedAddress;
@@ -559,9 +563,7 @@ public abstract class CalendarItem extends MailItem {
             if (firstInvite.getXZimbraDescriptionHtml() != null) {
                 defInvite.setXZimbraDescriptionHtml(firstInvite.getXZimbraDescriptionHtml());
             }
-            Collection<Instance> instances =
-                    item.expandInstances(CalendarUtils.MICROSOFT_EPOC_START_MS_SINCE_EPOC, Long.MAX_VALUE, false);
-            if (instances.isEmpty()) {
+            if (!item.instanceIterator(CalendarUtils.MICROSOFT_EPOC_START_MS_SINCE_EPOC, Long.MAX_VALUE).hasNext()) {
                 ZimbraLog.calendar.info("CalendarItem has effectively zero instances: id=%d, folderId=%d, subject=\"%s\", UID=%s ",
                         data.id, folder.getId(), firstInvite.isPublic() ? firstInvite.getName() : "(private)", firstInvite.getUid());
                 item.delete();
@@ -981,10 +983,10 @@ public abstract class CalendarItem extends MailItem {
             }
         }
 
-        List<Instance> instances = new ArrayList<Instance>();
+        List<Instance> instances;
         if (mRecurrence != null) {
             long startTime = System.currentTimeMillis();
-            instances = Recurrence.expandInstances(mRecurrence, getId(), start, endAdjusted);
+            instances = expandRecurrence(start, endAdjusted);
             if (ZimbraLog.calendar.isDebugEnabled()) {
                 long elapsed = System.currentTimeMillis() - startTime;
                 ZimbraLog.calendar.debug(
@@ -992,48 +994,104 @@ public abstract class CalendarItem extends MailItem {
                         getId(), start, end, elapsed, instances.size());
             }
         } else {
-            // Calendar item has no recurrence.  The basic case is a simple, non-recurring appointment
-            // which has only one invite.  If there are multiple invites, it could be an attendee who
-            // was invited to a few instances but not the series of a recurring appointment by the
-            // organizer.
-            if (mInvites != null) {
-                for (Invite inv : mInvites) {
-                    if (inv.isCancel())  // Skip canceled instances.
-                        continue;
-                    ParsedDateTime dtStart = inv.getStartTime();
-                    long invStart = dtStart != null ? dtStart.getUtcTime() : 0;
-                    ParsedDateTime dtEnd = inv.getEffectiveEndTime();
-                    long invEnd = dtEnd != null ? dtEnd.getUtcTime() : 0;
-                    if ((invStart < endAdjusted && invEnd > start) || (dtStart == null)) {
-                        Instance inst = new Instance(getId(), new InviteInfo(inv),
-                                                     dtStart != null, dtEnd != null,
-                                                     invStart, invEnd,
-                                                     inv.isAllDayEvent(),
-                                                     dtStart != null ? dtStart.getOffset() : 0,
-                                                     dtEnd != null ? dtEnd.getOffset() : 0,
-                                                     inv.hasRecurId(), false);
-                        instances.add(inst);
-                    }
-                }
-            }
+            instances = getNonRecurringInstances(start, endAdjusted);
         }
 
         // Remove instances that aren't in the actual range.
         for (Iterator<Instance> iter = instances.iterator(); iter.hasNext(); ) {
-            Instance inst = iter.next();
-            if (inst.hasStart() && inst.hasEnd()) {
-                long instStart = inst.getStart();
-                long instEnd = inst.getEnd();
-                // Remove if instance is not the alarm instance and instance ends before range start
-                // or instance starts after range end. (i.e. instance does not overlap range)
-                if (instStart != alarmInstStart && (instEnd <= start || instStart >= end))
-                    iter.remove();
+            if (!isInRange(iter.next(), start, end, alarmInstStart))
+                iter.remove();
+        }
+
+        return instances;
+    }
+
+    /**
+     * Returns the instances {@code expandInstances(start, end, false)} would, in the same order, expanding the
+     * recurrence only as far as the caller reads.  Use it when the caller may stop early, e.g. to find the first
+     * instance or to check that there is one.
+     */
+    public Iterator<Instance> instanceIterator(final long start, final long end) throws ServiceException {
+        Iterator<Instance> instances;
+        if (mRecurrence != null) {
+            instances = Recurrence.instanceIterator(mRecurrence, getId(), start, end);
+        } else {
+            instances = getNonRecurringInstances(start, end).iterator();
+        }
+        return Iterators.filter(instances, new Predicate<Instance>() {
+            @Override
+            public boolean apply(Instance inst) {
+                return isInRange(inst, start, end, 0);
+            }
+        });
+    }
+
+    /**
+     * Expands the recurrence over [start, end), going through the mailbox's expanded instance cache.
+     */
+    private List<Instance> expandRecurrence(long start, long end) throws ServiceException {
+        ExpandedInstanceCache cache = CalendarCacheManager.getInstance().getExpansionCache();
+        // A change in progress may not have bumped the modified sequence yet, so don't cache mid-transaction.
+        if (!cache.isEnabled() || mMailbox.lock.isWriteLockedByCurrentThread()) {
+            return Recurrence.expandInstances(mRecurrence, getId(), start, end);
+        }
+        List<Instance> instances = cache.get(this, start, end);
+        if (instances == null) {
+            long stamp = mMailbox.lock.getWriteStamp();
+            instances = Recurrence.expandInstances(mRecurrence, getId(), start, end);
+            // Only cache the expansion if no change could have been written while it ran.
+            if (stamp >= 0 && stamp == mMailbox.lock.getWriteStamp()) {
+                cache.put(this, start, end, instances);
             }
         }
+        return instances;
+    }
 
+    /**
+     * Calendar item has no recurrence.  The basic case is a simple, non-recurring appointment
+     * which has only one invite.  If there are multiple invites, it could be an attendee who
+     * was invited to a few instances but not the series of a recurring appointment by the
+     * organizer.
+     */
+    private List<Instance> getNonRecurringInstances(long start, long end) {
+        List<Instance> instances = new ArrayList<Instance>();
+        if (mInvites != null) {
+            for (Invite inv : mInvites) {
+                if (inv.isCancel())  // Skip canceled instances.
+                    continue;
+                ParsedDateTime dtStart = inv.getStartTime();
+                long invStart = dtStart != null ? dtStart.getUtcTime() : 0;
+                ParsedDateTime dtEnd = inv.getEffectiveEndTime();
+                long invEnd = dtEnd != null ? dtEnd.getUtcTime() : 0;
+                if ((invStart < end && invEnd > start) || (dtStart == null)) {
+                    Instance inst = new Instance(getId(), new InviteInfo(inv),
+                                                 dtStart != null, dtEnd != null,
+                                                 invStart, invEnd,
+                                                 inv.isAllDayEvent(),
+                                                 dtStart != null ? dtStart.getOffset() : 0,
+                                                 dtEnd != null ? dtEnd.getOffset() : 0,
+                                                 inv.hasRecurId(), false);
+                    instances.add(inst);
+                }
+            }
+        }
         return instances;
     }
 
+    /**
+     * Returns false if the instance is not the alarm instance and it ends before range start
+     * or starts after range end. (i.e. instance does not overlap range)
+     */
+    private static boolean isInRange(Instance inst, long start, long end, long alarmInstStart) {
+        if (inst.hasStart() && inst.hasEnd()) {
+            long instStart = inst.getStart();
+            long instEnd = inst.getEnd();
+            if (instStart != alarmInstStart && (instEnd <= start || instStart >= end))
+                return false;
+        }
+        return true;
+    }
+
     public static class Instance implements Comparable<Instance> {
         private final boolean mHasStart;
         private final boolean mHasEnd;
@@ -1338,6 +1396,12 @@ public abstract class CalendarItem extends MailItem {
         return mInvites.size();
     }
 
+    @Override
+    int estimateCacheWeight() {
+        // decoded invites (components, recurrence rules, attendees) dominate
+        return super.estimateCacheWeight() + 4096 * (mInvites == null ? 0 : mInvites.size());
+    }
+
     public Invite getInvite(int index) {
         return mInvites.get(index);
     }
@@ -2253,8 +2317,7 @@ public abstract class CalendarItem extends MailItem {
                     // remove the item if all the instances are canceled.
                     Invite defInvite = getDefaultInviteOrNull();
                     if (defInvite != null) {
-                        Collection<Instance> instances = expandInstances(0, Long.MAX_VALUE, false);
-                        if (instances.isEmpty())  {
+                        if (!instanceIterator(0, Long.MAX_VALUE).hasNext())  {
                             ZimbraLog.calendar.warn("Deleting calendar item " + getId() +
                                     " in mailbox " + getMailboxId() + " because it has no invite after applying request/cancel invite");
                             delete();
@@ -288,6 +288,17 @@ public class Contact extends MailItem {
         return fields.get(fieldName);
     }
 
+    @Override
+    int estimateCacheWeight() {
+        int weight = super.estimateCacheWeight();
+        if (fields != null) {
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                weight += 64 + 2 * (length(field.getKey()) + length(field.getValue()));
+            }
+        }
+        return weight;
+    }
+
     /** Returns a new <tt>Map</tt> containing all the contact's field/value pairs. */
     public Map<String, String> getAllFields() {
         return new HashMap<String, String>(fields);
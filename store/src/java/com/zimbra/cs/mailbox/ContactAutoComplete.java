@@ -22,11 +22,21 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Joiner;
@@ -34,7 +44,9 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.account.Key;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mailbox.ContactConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.Element;
@@ -315,6 +327,10 @@ public class ContactAutoComplete {
     private boolean mNeedCanExpand; // whether the canExpand info is needed for GAL groups
 
     private static final Set<MailItem.Type> CONTACT_TYPES = EnumSet.of(MailItem.Type.CONTACT);
+    private static final int INDEX_BATCH_SIZE = 50;
+    private static final ExecutorService GAL_EXECUTOR = new ThreadPoolExecutor(0, 32, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat("AutoCompleteGal-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
 
     private boolean mIncludeSharedFolders;
     private Collection<String> mEmailKeys;
@@ -417,24 +433,62 @@ public class ContactAutoComplete {
         if (limit <= 0) {
             return result;
         }
+        long t0 = System.currentTimeMillis();
+        // GAL is searched alongside the contact folders and merged in after them
+        Future<AutoCompleteResult> galResult = null;
+        if (mIncludeGal && LC.zimbra_autocomplete_latency_budget.intValue() > 0) {
+            galResult = queryGalAsync(str, limit, result.rankings);
+        }
+
         Pair<List<Folder>, Map<ItemId, Mountpoint>> pFolders = getLocalRemoteContactFolders(folders);
         List<Folder> listFolders = pFolders.getFirst();
         Map<ItemId, Mountpoint> mountpoints = pFolders.getSecond();
+
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(getRequestedAcctId());
+        ContactAutoCompleteIndex index = ContactAutoCompleteIndex.get(mbox);
+        String lookupKey = ContactAutoCompleteIndex.getLookupKey(str);
+        Set<Integer> localFolderIds = null;
+        if (index != null && lookupKey != null) {
+            // local folders come from the index; only mountpoints still need a search
+            localFolderIds = new HashSet<Integer>();
+            List<Folder> remoteFolders = new ArrayList<Folder>();
+            for (Folder folder : listFolders) {
+                if (folder instanceof Mountpoint) {
+                    remoteFolders.add(folder);
+                } else {
+                    localFolderIds.add(folder.getId());
+                }
+            }
+            listFolders = remoteFolders;
+        }
         final String searchContactFolderQuery = generateFolderQuery(listFolders);
 
-        long t0 = System.currentTimeMillis();
         //Search in ranking table first.
-        addExistingContactsFromRankingTable(str, searchContactFolderQuery, mountpoints, limit, result);
+        if (localFolderIds != null) {
+            addExistingContactsFromIndex(str, index, mbox, localFolderIds, limit, result);
+        }
+        if ((localFolderIds == null || !listFolders.isEmpty()) && result.entries.size() < limit) {
+            addExistingContactsFromRankingTable(str, searchContactFolderQuery, mountpoints, limit, result);
+        }
         long t1 = System.currentTimeMillis();
 
         // search other folders
-        if (result.entries.size() < limit) {
+        if (localFolderIds != null && result.entries.size() < limit) {
+            addContacts(str, mbox, index.search(lookupKey, localFolderIds), result);
+        }
+        if ((localFolderIds == null || !listFolders.isEmpty()) && result.entries.size() < limit) {
             String query = searchContactFolderQuery + generateQuery(str);
             queryFolders(str, query, mountpoints, limit, result);
         }
         long t2 = System.currentTimeMillis();
 
-        if (mIncludeGal && result.entries.size() < limit) {
+        if (galResult != null) {
+            if (result.entries.size() < limit) {
+                mergeGal(galResult, t0, result);
+            } else {
+                galResult.cancel(false);
+            }
+        } else if (mIncludeGal && result.entries.size() < limit) {
             queryGal(str, result);
         }
 
@@ -469,6 +523,47 @@ public class ContactAutoComplete {
         }
     }
 
+    /**
+     * Runs {@link #queryGal} on {@link #GAL_EXECUTOR}, collecting into a result of its own.  A search that is no longer
+     * needed is left to finish rather than interrupted, since an interrupt during the Lucene GAL fallback would close
+     * the shared index file channel.
+     */
+    private Future<AutoCompleteResult> queryGalAsync(final String str, int limit, ContactRankings rankings) {
+        final AutoCompleteResult galResult = new AutoCompleteResult(limit);
+        galResult.rankings = rankings;
+        return GAL_EXECUTOR.submit(ZimbraLog.wrapWithContext(new Callable<AutoCompleteResult>() {
+            @Override
+            public AutoCompleteResult call() {
+                queryGal(str, galResult);
+                return galResult;
+            }
+        }));
+    }
+
+    /**
+     * Waits for the GAL search up to the end of the latency budget and adds its entries.  A result missing
+     * a GAL search that ran late must not be cached.
+     */
+    private void mergeGal(Future<AutoCompleteResult> galResult, long start, AutoCompleteResult result) {
+        long remaining = start + LC.zimbra_autocomplete_latency_budget.intValue() - System.currentTimeMillis();
+        try {
+            AutoCompleteResult gal = galResult.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+            result.appendEntries(gal);
+            if (!gal.canBeCached) {
+                result.canBeCached = false;
+            }
+        } catch (TimeoutException e) {
+            ZimbraLog.gal.info("autocomplete: gal did not answer within %dms", LC.zimbra_autocomplete_latency_budget.intValue());
+            galResult.cancel(false);
+            result.canBeCached = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.canBeCached = false;
+        } catch (ExecutionException e) {
+            ZimbraLog.gal.warn("cannot autocomplete gal", e.getCause());
+        }
+    }
+
     private void queryGal(String str, AutoCompleteResult result) {
         ZimbraLog.gal.debug("querying gal");
         GalSearchParams params = new GalSearchParams(mRequestedAcct, mZsc);
@@ -476,6 +571,7 @@ public class ContactAutoComplete {
         params.setType(mSearchType);
         params.setLimit(200);
         params.setNeedCanExpand(mNeedCanExpand);
+        params.setUseAutoCompleteIndex(true);
         params.setResultCallback(new AutoCompleteCallback(str, result, params));
         try {
             try {
@@ -576,7 +672,7 @@ public class ContactAutoComplete {
         } else if (tokens.size() == 1) { // single token
             return name.toLowerCase().startsWith(tokens.get(0));
         } else {
-            return toPattern(tokens).matcher(name).matches();
+            return matchesTokenPrefixes(tokens, name);
         }
     }
 
@@ -621,51 +717,71 @@ public class ContactAutoComplete {
             }
             return false;
         } else { // multi tokens
-            Pattern pattern = toPattern(tokens);
-
             String firstName = getFieldAsString(attrs, ContactConstants.A_firstName);
             String lastName = getFieldAsString(attrs, ContactConstants.A_lastName);
             String middleName = getFieldAsString(attrs, ContactConstants.A_middleName);
             // first middle last pattern
-            if (pattern.matcher(Joiner.on(' ').skipNulls().join(firstName, middleName, lastName)).matches()) {
+            if (matchesTokenPrefixes(tokens, Joiner.on(' ').skipNulls().join(firstName, middleName, lastName))) {
                 return true;
             }
             // last first middle pattern
-            if (pattern.matcher(Joiner.on(' ').skipNulls().join(lastName, firstName, middleName)).matches()) {
+            if (matchesTokenPrefixes(tokens, Joiner.on(' ').skipNulls().join(lastName, firstName, middleName))) {
                 return true;
             }
             
       
             String fullName = getFieldAsString(attrs, ContactConstants.A_fullName);
-            if (!Strings.isNullOrEmpty(fullName) && pattern.matcher(fullName).matches()) {
+            if (!Strings.isNullOrEmpty(fullName) && matchesTokenPrefixes(tokens, fullName)) {
                 return true;
             }
 
             String nickname = getFieldAsString(attrs, ContactConstants.A_nickname);
-            if (!Strings.isNullOrEmpty(nickname) && pattern.matcher(nickname).matches()) {
+            if (!Strings.isNullOrEmpty(nickname) && matchesTokenPrefixes(tokens, nickname)) {
                 return true;
             }
 
             String phoneticFirstName = getFieldAsString(attrs, ContactConstants.A_phoneticFirstName);
             String phoneticLastName = getFieldAsString(attrs, ContactConstants.A_phoneticLastName);
             // phonetic-last phonetic-first pattern (check this first as it's more common in Japanese)
-            if (pattern.matcher(Joiner.on(' ').skipNulls().join(phoneticLastName, phoneticFirstName)).matches()) {
+            if (matchesTokenPrefixes(tokens, Joiner.on(' ').skipNulls().join(phoneticLastName, phoneticFirstName))) {
                 return true;
             }
             // phonetic-first phonetic-last pattern (check this next as it's less common in Japanese)
-            if (pattern.matcher(Joiner.on(' ').skipNulls().join(phoneticFirstName, phoneticLastName)).matches()) {
+            if (matchesTokenPrefixes(tokens, Joiner.on(' ').skipNulls().join(phoneticFirstName, phoneticLastName))) {
                 return true;
             }
             return false;
         }
     }
 
-    private Pattern toPattern(List<String> tokens) {
-        StringBuilder regex = new StringBuilder();
-        for (String token : tokens) {
-            regex.append(regex.length() == 0 ? "(^|.*\\s)" : "\\s").append(Pattern.quote(token)).append(".*");
+    /**
+     * Returns true if each of the lower-case tokens is a prefix of a separate word of {@code text}, in the
+     * same order.  Equivalent to a case-insensitive match of {@code (^|.*\s)token1.*\stoken2.*}, without
+     * compiling a pattern on every keystroke.
+     */
+    static boolean matchesTokenPrefixes(List<String> tokens, String text) {
+        if (Strings.isNullOrEmpty(text)) {
+            return false;
         }
-        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        int matched = 0;
+        int len = text.length();
+        int i = 0;
+        while (matched < tokens.size()) {
+            while (i < len && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i == len) {
+                return false;
+            }
+            String token = tokens.get(matched);
+            if (text.regionMatches(true, i, token, 0, token.length())) {
+                matched++;
+            }
+            while (i < len && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+        }
+        return true;
     }
 
     public void addMatchedContacts(String query, Map<String, ? extends Object> attrs, int folderId, ItemId id,
@@ -802,25 +918,15 @@ public class ContactAutoComplete {
         try(ZimbraQueryResults qres = mbox.index.search(SoapProtocol.Soap12, octxt, params)) {
             while (qres.hasNext()) {
                 ZimbraHit hit = qres.getNext();
-                Map<String,String> fields = null;
-                ItemId id = null;
-                int fid = 0;
                 if (hit instanceof ContactHit) {
                     Contact c = ((ContactHit) hit).getContact();
                     ZimbraLog.gal.debug("hit: %d", c.getId());
-                    fields = c.getFields();
-                    id = new ItemId(c);
-                    fid = c.getFolderId();
-                    if(returnFullContactData) {
-                        List<Attachment> contactAttachments = c.getAttachments();
-                        if (contactAttachments != null && contactAttachments.size() != 0) {
-                            fields.put("image", c.getId() + "_" + contactAttachments.get(0).getName());
-                        }
-                    }
+                    addContact(str, c, result);
                 } else if (hit instanceof ProxiedHit) {
-                    fields = new HashMap<String, String>();
+                    Map<String,String> fields = new HashMap<String, String>();
+                    int fid = 0;
                     Element top = ((ProxiedHit) hit).getElement();
-                    id = new ItemId(top.getAttribute(MailConstants.A_ID), (String) null);
+                    ItemId id = new ItemId(top.getAttribute(MailConstants.A_ID), (String) null);
                     ZimbraLog.gal.debug("hit: %s", id);
                     ItemId fiid = new ItemId(top.getAttribute(MailConstants.A_FOLDER), (String) null);
                     Mountpoint mp = mountpoints.get(fiid);
@@ -844,11 +950,11 @@ public class ContactAutoComplete {
                             fields.put("image", id.getAccountId() + "_" + id.getId() + "_image");
                         }
                     }
+                    addMatchedContacts(str, fields, fid, id, result);
                 } else {
                     continue;
                 }
 
-                addMatchedContacts(str, fields, fid, id, result);
                 if (!result.canBeCached) {
                     return;
                 }
@@ -857,6 +963,53 @@ public class ContactAutoComplete {
         }
     }
 
+    private void addContact(String str, Contact c, AutoCompleteResult result) {
+        Map<String, String> fields = c.getFields();
+        if (returnFullContactData) {
+            List<Attachment> contactAttachments = c.getAttachments();
+            if (contactAttachments != null && contactAttachments.size() != 0) {
+                fields.put("image", c.getId() + "_" + contactAttachments.get(0).getName());
+            }
+        }
+        addMatchedContacts(str, fields, c.getFolderId(), new ItemId(c), result);
+    }
+
+    /**
+     * Loads the contacts found in the {@link ContactAutoCompleteIndex} and adds the ones that match, a batch
+     * at a time, until the result is full.
+     */
+    private void addContacts(String str, Mailbox mbox, Collection<Integer> ids, AutoCompleteResult result)
+            throws ServiceException {
+        List<Integer> batch = new ArrayList<Integer>(INDEX_BATCH_SIZE);
+        Iterator<Integer> it = ids.iterator();
+        while (it.hasNext() && result.canBeCached) {
+            batch.clear();
+            while (it.hasNext() && batch.size() < INDEX_BATCH_SIZE) {
+                batch.add(it.next());
+            }
+            List<Contact> contacts = new ArrayList<Contact>(batch.size());
+            try {
+                for (MailItem item : mbox.getItemById(octxt, batch, MailItem.Type.CONTACT)) {
+                    contacts.add((Contact) item);
+                }
+            } catch (MailServiceException.NoSuchItemException e) {
+                // deleted since the lookup; load the rest one by one
+                for (int id : batch) {
+                    try {
+                        contacts.add(mbox.getContactById(octxt, id));
+                    } catch (MailServiceException.NoSuchItemException ignore) {
+                    }
+                }
+            }
+            for (Contact c : contacts) {
+                addContact(str, c, result);
+                if (!result.canBeCached) {
+                    return;
+                }
+            }
+        }
+    }
+
     private String generateFolderQuery(Collection<Folder> folders) {
         StringBuilder buf = new StringBuilder("(");
         boolean first = true;
@@ -904,6 +1057,26 @@ public class ContactAutoComplete {
         return buf.toString();
     }
 
+    /**
+     * Like {@link #addExistingContactsFromRankingTable}, but finds the contacts for the top ranked addresses in the
+     * in-memory contact index instead of searching the mailbox.
+     */
+    private void addExistingContactsFromIndex(String str, ContactAutoCompleteIndex index, Mailbox mbox,
+            Set<Integer> folderIds, int limit, AutoCompleteResult result) throws ServiceException {
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        int batchSize = limit;
+        for (ContactEntry contactEntry : result.rankings.search(str)) {
+            if (batchSize-- == 0) {
+                break;
+            }
+            String email = contactEntry.getEmail();
+            if (!StringUtil.isNullOrEmpty(email)) {
+                ids.addAll(index.search(email.toLowerCase(), folderIds));
+            }
+        }
+        addContacts(str, mbox, ids, result);
+    }
+
     /**
      * Get matching entries from ranking table and validates each matching email address in contact ranking table has corresponding contact.
      * @param str
@@ -0,0 +1,351 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.BaseItemInfo;
+import com.zimbra.common.mailbox.ContactConstants;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.PrefixTrie;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.MailItem.Type;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * In-memory prefix index over the contacts of one mailbox.  {@link ContactAutoComplete} uses it to find
+ * candidate contacts in local folders, and {@code GalSearchControl} uses the index of a GAL sync
+ * account's mailbox as a GAL index shared by every account in the domain.  Both replace a Lucene search
+ * per keystroke.
+ * <p>
+ * A contact is indexed under each word of its name fields and under every field value that looks like an
+ * email address, all in lower case.  The candidates are a superset of what
+ * {@link ContactAutoComplete#addMatchedContacts} accepts, which still decides what's returned.
+ * <p>
+ * The index is built the first time it's used, under the mailbox lock, and then kept current by
+ * {@link Listener}.  Keys indexed at build time live in sorted arrays; keys added later go into a
+ * {@link PrefixTrie} until there are enough of them to be worth merging into new arrays.  Entries of
+ * changed or deleted contacts aren't removed from either; a hit counts only if the contact's current
+ * keys still match.  Readers never lock.
+ */
+public final class ContactAutoCompleteIndex {
+
+    private static final String[] NAME_FIELDS = {
+        ContactConstants.A_firstName, ContactConstants.A_middleName, ContactConstants.A_lastName,
+        ContactConstants.A_fullName, ContactConstants.A_nickname,
+        ContactConstants.A_phoneticFirstName, ContactConstants.A_phoneticLastName
+    };
+    private static final int MIN_COMPACT_SIZE = 1024;
+
+    /** Stands in for the index of a mailbox with too many contacts, so we don't try to build it again. */
+    private static final ContactAutoCompleteIndex OVERSIZED = new ContactAutoCompleteIndex();
+
+    /** Folder and sorted keys of each indexed contact. */
+    private final ConcurrentMap<Integer, Entry> contacts = new ConcurrentHashMap<Integer, Entry>();
+    private volatile State state = State.EMPTY;
+    /** Number of key/contact pairs in {@link #state} that no longer match the contact. */
+    private int stale;
+
+    private ContactAutoCompleteIndex() {
+    }
+
+    /**
+     * Returns the index of the mailbox, building it if necessary, or {@code null} if the index is disabled
+     * or the mailbox has more contacts than {@code zimbra_autocomplete_index_max_contacts}.
+     */
+    public static ContactAutoCompleteIndex get(Mailbox mbox) throws ServiceException {
+        if (!LC.zimbra_autocomplete_index_enabled.booleanValue()) {
+            return null;
+        }
+        ContactAutoCompleteIndex index = mbox.getAutoCompleteIndex();
+        if (index == null) {
+            // build under the mailbox lock; changes are committed, and the listener called, under the same lock
+            mbox.lock.lock(false);
+            try {
+                index = mbox.getAutoCompleteIndex();
+                if (index == null) {
+                    index = build(mbox);
+                    mbox.setAutoCompleteIndex(index);
+                }
+            } finally {
+                mbox.lock.release();
+            }
+        }
+        return index == OVERSIZED ? null : index;
+    }
+
+    private static ContactAutoCompleteIndex build(Mailbox mbox) throws ServiceException {
+        long start = System.currentTimeMillis();
+        List<MailItem> items = mbox.getItemList(new OperationContext(mbox), MailItem.Type.CONTACT);
+        if (items.size() > LC.zimbra_autocomplete_index_max_contacts.intValue()) {
+            ZimbraLog.gal.info("not indexing %d contacts of mailbox %d for autocomplete", items.size(), mbox.getId());
+            return OVERSIZED;
+        }
+        ContactAutoCompleteIndex index = new ContactAutoCompleteIndex();
+        for (MailItem item : items) {
+            Contact contact = (Contact) item;
+            index.contacts.put(contact.getId(), new Entry(contact.getFolderId(), keys(contact)));
+        }
+        index.compact();
+        ZimbraLog.gal.debug("indexed %d contacts of mailbox %d for autocomplete in %d ms",
+                items.size(), mbox.getId(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * Returns the key to look a query up by: its longest word, in lower case.  Every word of a multi-word
+     * query must start a word of the name, so the longest is the most selective.
+     */
+    public static String getLookupKey(String query) {
+        String key = null;
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            if (i == query.length() || Character.isWhitespace(query.charAt(i))) {
+                if (start >= 0 && (key == null || i - start > key.length())) {
+                    key = query.substring(start, i);
+                }
+                start = -1;
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        return key == null ? null : key.toLowerCase();
+    }
+
+    /**
+     * Returns the ids of the contacts with a key starting with {@code prefix}, in key order.
+     *
+     * @param folderIds only return contacts in these folders, or any folder if {@code null}
+     */
+    public Collection<Integer> search(String prefix, Set<Integer> folderIds) {
+        State current = state;
+        Set<Integer> result = new LinkedHashSet<Integer>();
+        String[] keys = current.keys;
+        int i = Arrays.binarySearch(keys, prefix);
+        for (i = i >= 0 ? i : -i - 1; i < keys.length && keys[i].startsWith(prefix); i++) {
+            add(current.ids[i], prefix, folderIds, result);
+        }
+        for (Integer id : current.recent.search(prefix, new ArrayList<Integer>())) {
+            add(id, prefix, folderIds, result);
+        }
+        return result;
+    }
+
+    private void add(int id, String prefix, Set<Integer> folderIds, Set<Integer> result) {
+        Entry entry = contacts.get(id);
+        if (entry != null && entry.hasKeyWithPrefix(prefix) &&
+                (folderIds == null || folderIds.contains(entry.folderId))) {
+            result.add(id);
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        return contacts.size();
+    }
+
+    synchronized void put(Contact contact) {
+        Entry entry = new Entry(contact.getFolderId(), keys(contact));
+        Entry old = contacts.put(contact.getId(), entry);
+        PrefixTrie<Integer> recent = state.recent;
+        for (String key : entry.keys) {
+            if (old == null || !old.hasKey(key)) {
+                recent = recent.put(key, contact.getId());
+            }
+        }
+        if (old != null) {
+            for (String key : old.keys) {
+                if (!entry.hasKey(key)) {
+                    stale++;
+                }
+            }
+        }
+        if (recent != state.recent) {
+            state = new State(state.keys, state.ids, recent);
+        }
+        maybeCompact();
+    }
+
+    synchronized void remove(int id) {
+        Entry old = contacts.remove(id);
+        if (old != null) {
+            stale += old.keys.length;
+            maybeCompact();
+        }
+    }
+
+    private void maybeCompact() {
+        State current = state;
+        if (current.recent.size() + stale > Math.max(MIN_COMPACT_SIZE, current.keys.length / 4)) {
+            compact();
+        }
+    }
+
+    /** Rebuilds the sorted arrays from the current contacts, dropping stale pairs and the trie. */
+    private synchronized void compact() {
+        List<Map.Entry<String, Integer>> pairs = new ArrayList<Map.Entry<String, Integer>>();
+        for (Map.Entry<Integer, Entry> contact : contacts.entrySet()) {
+            for (String key : contact.getValue().keys) {
+                pairs.add(new AbstractMap.SimpleImmutableEntry<String, Integer>(key, contact.getKey()));
+            }
+        }
+        Collections.sort(pairs, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
+                return o1.getKey().compareTo(o2.getKey());
+            }
+        });
+        String[] keys = new String[pairs.size()];
+        int[] ids = new int[pairs.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = pairs.get(i).getKey();
+            ids[i] = pairs.get(i).getValue();
+        }
+        state = new State(keys, ids, PrefixTrie.<Integer>empty());
+        stale = 0;
+    }
+
+    private static String[] keys(Contact contact) {
+        Set<String> keys = new TreeSet<String>();
+        for (String field : NAME_FIELDS) {
+            String value = contact.get(field);
+            if (value != null) {
+                addWords(value, keys);
+            }
+        }
+        for (String value : contact.getAllFields().values()) {
+            if (value.indexOf('@') > 0) {
+                keys.add(value.trim().toLowerCase());
+            }
+        }
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    private static void addWords(String value, Set<String> keys) {
+        int start = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            if (i == value.length() || Character.isWhitespace(value.charAt(i))) {
+                if (start >= 0) {
+                    keys.add(value.substring(start, i).toLowerCase());
+                }
+                start = -1;
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+    }
+
+    private static final class Entry {
+        final int folderId;
+        final String[] keys; // sorted
+
+        Entry(int folderId, String[] keys) {
+            this.folderId = folderId;
+            this.keys = keys;
+        }
+
+        boolean hasKey(String key) {
+            return Arrays.binarySearch(keys, key) >= 0;
+        }
+
+        boolean hasKeyWithPrefix(String prefix) {
+            int i = Arrays.binarySearch(keys, prefix);
+            i = i >= 0 ? i : -i - 1;
+            return i < keys.length && keys[i].startsWith(prefix);
+        }
+    }
+
+    /** Sorted keys with the contact id of each, plus the keys added since they were sorted. */
+    private static final class State {
+        static final State EMPTY = new State(new String[0], new int[0], PrefixTrie.<Integer>empty());
+
+        final String[] keys;
+        final int[] ids;
+        final PrefixTrie<Integer> recent;
+
+        State(String[] keys, int[] ids, PrefixTrie<Integer> recent) {
+            this.keys = keys;
+            this.ids = ids;
+            this.recent = recent;
+        }
+    }
+
+    /**
+     * Keeps indexes current.  Notifications are delivered while the changed mailbox is still locked, so
+     * an index never misses a change made after it was built.
+     */
+    public static final class Listener extends MailboxListener {
+        private static final Set<Type> TYPES = EnumSet.of(MailItem.Type.CONTACT);
+
+        @Override
+        public Set<Type> registerForItemTypes() {
+            return TYPES;
+        }
+
+        @Override
+        public void notify(ChangeNotification notification) {
+            Mailbox mbox;
+            try {
+                mbox = MailboxManager.getInstance().getMailboxByAccountId(notification.mailboxAccount.getId(),
+                        MailboxManager.FetchMode.ONLY_IF_CACHED);
+            } catch (ServiceException e) {
+                return;
+            }
+            ContactAutoCompleteIndex index = mbox == null ? null : mbox.getAutoCompleteIndex();
+            if (index == null || index == OVERSIZED) {
+                return;
+            }
+            if (notification.mods.created != null) {
+                for (BaseItemInfo item : notification.mods.created.values()) {
+                    if (item instanceof Contact) {
+                        index.put((Contact) item);
+                    }
+                }
+            }
+            if (notification.mods.modified != null) {
+                for (Change change : notification.mods.modified.values()) {
+                    if (change.what instanceof Contact) {
+                        index.put((Contact) change.what);
+                    }
+                }
+            }
+            if (notification.mods.deleted != null) {
+                for (Map.Entry<ModificationKey, Change> entry : notification.mods.deleted.entrySet()) {
+                    if (entry.getValue().what == MailItem.Type.CONTACT) {
+                        index.remove(entry.getKey().getItemId());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -16,39 +16,50 @@
  */
 package com.zimbra.cs.mailbox;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.TreeSet;
 
 import javax.mail.Address;
 import javax.mail.internet.InternetAddress;
 
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
 import com.zimbra.common.account.Key;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.PrefixTrie;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.mailbox.ContactAutoComplete.ContactEntry;
 
+/**
+ * Table of the addresses an account sends to most, used to rank autocomplete matches.
+ * <p>
+ * The table is stored in the {@code CONTACT_RANKINGS} mailbox config section.  Once decoded it is kept
+ * on the {@link Mailbox} as an immutable {@link Table} with a prefix trie over every address and every
+ * word of the display names, so autocomplete lookups neither hit the database nor take a lock.  Updates
+ * build a new table under the mailbox lock, write it back to the config and then publish it.
+ */
 public class ContactRankings {
-    private static final String CONFIG_KEY_CONTACT_RANKINGS = "CONTACT_RANKINGS";
+    static final String CONFIG_KEY_CONTACT_RANKINGS = "CONTACT_RANKINGS";
     private static final String KEY_NAME = "n";
     private static final String KEY_RANKING = "r";
     private static final String KEY_LAST_ACCESSED = "t";
+    private static final Splitter WORD_SPLITTER = Splitter.on(CharMatcher.whitespace()).omitEmptyStrings();
 
     private int mTableSize;
     private String mAccountId;
-    private TreeMap<String,TreeSet<ContactEntry>> mEntryMap;
-    private HashMap<String,ContactEntry> mEntries;
+    private volatile Table mTable = Table.EMPTY;
     public ContactRankings(String accountId) throws ServiceException {
         mAccountId = accountId;
-        mEntryMap = new TreeMap<String,TreeSet<ContactEntry>>();
-        mEntries = new HashMap<String,ContactEntry>();
         mTableSize = Provisioning.getInstance().get(Key.AccountBy.id, mAccountId).getIntAttr(Provisioning.A_zimbraContactRankingTableSize, 40);
         if (!LC.contact_ranking_enabled.booleanValue())
             return;
@@ -57,32 +68,50 @@ public class ContactRankings {
     public static void reset(String accountId) throws ServiceException {
         if (!LC.contact_ranking_enabled.booleanValue())
             return;
-        ContactRankings rankings = new ContactRankings(accountId);
-        rankings.mEntryMap.clear();
-        rankings.mEntries.clear();
-        rankings.writeToDatabase();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(accountId);
+        mbox.lock.lock();
+        try {
+            ContactRankings rankings = new ContactRankings(accountId);
+            rankings.mTable = Table.EMPTY;
+            rankings.writeToDatabase();
+        } finally {
+            mbox.lock.release();
+        }
     }
     public static void remove(String accountId, String email) throws ServiceException {
         if (!LC.contact_ranking_enabled.booleanValue())
             return;
-        ContactRankings rankings = new ContactRankings(accountId);
-        ContactEntry entry = rankings.mEntries.get(email.toLowerCase());
-        if (entry != null)
-            rankings.remove(entry);
-        rankings.writeToDatabase();
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(accountId);
+        mbox.lock.lock();
+        try {
+            ContactRankings rankings = new ContactRankings(accountId);
+            ContactEntry entry = rankings.mTable.entries.get(email.toLowerCase());
+            if (entry != null)
+                rankings.mTable = rankings.mTable.without(entry);
+            rankings.writeToDatabase();
+        } finally {
+            mbox.lock.release();
+        }
     }
 
     public static void increment(String accountId, Collection<? extends Address> addrs) throws ServiceException {
         if (!LC.contact_ranking_enabled.booleanValue())
             return;
-        ContactRankings rankings = new ContactRankings(accountId);
-        for (Address addr : addrs)
-            if (addr instanceof InternetAddress) {
-                InternetAddress address = (InternetAddress)addr;
-                rankings.increment(address.getAddress(), address.getPersonal());
-            }
+        // hold the mailbox lock across read-modify-write so concurrent senders don't lose each other's updates
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(accountId);
+        mbox.lock.lock();
+        try {
+            ContactRankings rankings = new ContactRankings(accountId);
+            for (Address addr : addrs)
+                if (addr instanceof InternetAddress) {
+                    InternetAddress address = (InternetAddress)addr;
+                    rankings.increment(address.getAddress(), address.getPersonal());
+                }
 
-        rankings.writeToDatabase();
+            rankings.writeToDatabase();
+        } finally {
+            mbox.lock.release();
+        }
     }
 
     public static void increment(String accountId, Address[] addrs) throws ServiceException {
@@ -94,7 +123,8 @@ public class ContactRankings {
     public synchronized void increment(String email, String displayName) {
         long now = System.currentTimeMillis();
         email = email.toLowerCase();
-        ContactEntry entry = mEntries.get(email.toLowerCase());
+        Table table = mTable;
+        ContactEntry entry = table.entries.get(email);
         if (entry == null) {
             entry = new ContactEntry();
             entry.mEmail = email;
@@ -103,79 +133,116 @@ public class ContactRankings {
             entry.mFolderId = ContactAutoComplete.FOLDER_ID_UNKNOWN;
             entry.mLastAccessed = now;
 
-            if (mEntries.size() >= mTableSize) {
-                ContactEntry lastEntry = getSortedSet().last();
+            if (table.size() >= mTableSize) {
+                ContactEntry lastEntry = table.getSortedSet().last();
                 if (lastEntry.mRanking < 1)
-                    remove(lastEntry);
+                    table = table.without(lastEntry);
             }
 
-            if (mEntries.size() < mTableSize) {
-                add(entry);
+            if (table.size() < mTableSize) {
+                table = table.with(entry);
             } else {
-                for (ContactEntry e : mEntries.values()) {
+                // entries of a published table are shared with readers, so age copies of them
+                List<ContactEntry> aged = new ArrayList<ContactEntry>(table.size());
+                for (ContactEntry e : table.entries.values()) {
+                    ContactEntry copy = copy(e);
                     int weeksOld = (int) ((now - e.mLastAccessed) / Constants.MILLIS_PER_WEEK) + 1;
-                    e.mRanking -= weeksOld;
-                    if (e.mRanking < 0)
-                        e.mRanking = 0;
+                    copy.mRanking -= weeksOld;
+                    if (copy.mRanking < 0)
+                        copy.mRanking = 0;
+                    aged.add(copy);
                 }
+                table = Table.of(aged);
             }
         } else {
-            entry.mRanking++;
-            if (entry.mRanking <= 0)
-                entry.mRanking = 1;
+            ContactEntry updated = copy(entry);
+            updated.mRanking++;
+            if (updated.mRanking <= 0)
+                updated.mRanking = 1;
             if (displayName != null && displayName.length() > 0)
-                entry.setName(displayName);
-            entry.mLastAccessed = now;
+                updated.setName(displayName);
+            updated.mLastAccessed = now;
+            table = table.without(entry).with(updated);
         }
+        mTable = table;
     }
     public int query(String email) {
-        ContactEntry entry = mEntries.get(email.toLowerCase());
+        ContactEntry entry = mTable.entries.get(email.toLowerCase());
         if (entry != null)
             return entry.mRanking;
         return 0;
     }
-    public synchronized Collection<ContactEntry> search(String str) {
+    /**
+     * Returns the entries whose address starts with {@code str}, or whose display name has a word starting
+     * with each whitespace separated token of {@code str}, in order.
+     */
+    public Collection<ContactEntry> search(String str) {
         TreeSet<ContactEntry> entries = new TreeSet<ContactEntry>();
-        int len = str.length();
-        for (String k : mEntryMap.tailMap(str).keySet()) {
-            if (k.length() >= len &&
-                    k.substring(0, len).equalsIgnoreCase(str)) {
-                entries.addAll(mEntryMap.get(k));
-            } else
-                break;
+        List<String> tokens = new ArrayList<String>(2);
+        for (String token : WORD_SPLITTER.split(str)) {
+            tokens.add(token.toLowerCase());
+        }
+        Table table = mTable;
+        if (tokens.size() <= 1) {
+            return table.trie.search(tokens.isEmpty() ? "" : tokens.get(0), entries);
+        }
+        for (ContactEntry entry : table.trie.search(tokens.get(0), new TreeSet<ContactEntry>())) {
+            if (ContactAutoComplete.matchesTokenPrefixes(tokens, entry.mDisplayName)) {
+                entries.add(entry);
+            }
         }
         return entries;
     }
-    private synchronized TreeSet<ContactEntry> getSortedSet() {
-        return new TreeSet<ContactEntry>(mEntries.values());
+    private TreeSet<ContactEntry> getSortedSet() {
+        return mTable.getSortedSet();
     }
-    private synchronized void readFromDatabase() throws ServiceException {
+    private void readFromDatabase() throws ServiceException {
         Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(mAccountId);
-        Metadata config = mbox.getConfig(null, CONFIG_KEY_CONTACT_RANKINGS);
-        if (config == null) {
-            config = new Metadata();
-            mbox.setConfig(null, CONFIG_KEY_CONTACT_RANKINGS, config);
-        }
-        for (Map.Entry<Object, Object> entry : config.map.entrySet()) {
-            if (entry.getValue() instanceof Map) {
-                Map<?, ?> m = (Map<?, ?>) entry.getValue();
-                ContactEntry contact = new ContactEntry();
-                contact.mEmail = ((String) entry.getKey()).toLowerCase();
-                Long num = (Long) m.get(KEY_RANKING);
-                contact.mRanking = num.intValue();
-                num = (Long) m.get(KEY_LAST_ACCESSED);
-                contact.mLastAccessed = num.longValue();
-                contact.setName((String) m.get(KEY_NAME));
-                contact.mFolderId = ContactAutoComplete.FOLDER_ID_UNKNOWN;
-                add(contact);
+        Table table = mbox.getCachedContactRankings();
+        if (table != null) {
+            mTable = table;
+            return;
+        }
+        // load under the mailbox lock so a table decoded from an old config can't be published over a newer one
+        mbox.lock.lock();
+        try {
+            table = mbox.getCachedContactRankings();
+            if (table == null) {
+                Metadata config = mbox.getConfig(null, CONFIG_KEY_CONTACT_RANKINGS);
+                if (config == null) {
+                    config = new Metadata();
+                    mbox.setConfig(null, CONFIG_KEY_CONTACT_RANKINGS, config);
+                }
+                List<ContactEntry> entries = new ArrayList<ContactEntry>();
+                for (Map.Entry<Object, Object> entry : config.decodedMap().entrySet()) {
+                    if (entry.getValue() instanceof Map) {
+                        Map<?, ?> m = (Map<?, ?>) entry.getValue();
+                        ContactEntry contact = new ContactEntry();
+                        contact.mEmail = ((String) entry.getKey()).toLowerCase();
+                        Long num = (Long) m.get(KEY_RANKING);
+                        contact.mRanking = num.intValue();
+                        num = (Long) m.get(KEY_LAST_ACCESSED);
+                        contact.mLastAccessed = num.longValue();
+                        contact.setName((String) m.get(KEY_NAME));
+                        contact.mFolderId = ContactAutoComplete.FOLDER_ID_UNKNOWN;
+                        entries.add(contact);
+                    }
+                }
+                table = Table.of(entries);
+                mbox.setCachedContactRankings(table);
+                mTable = table;
+                dump("reading");
             }
+        } finally {
+            mbox.lock.release();
         }
-        dump("reading");
+        mTable = table;
     }
-    private synchronized void writeToDatabase() throws ServiceException {
+    private void writeToDatabase() throws ServiceException {
         Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(mAccountId);
+        Table table = mTable;
         Metadata config = new Metadata();
-        for (ContactEntry entry : getSortedSet()) {
+        for (ContactEntry entry : table.getSortedSet()) {
             Metadata m = new Metadata();
             m.put(KEY_RANKING, entry.mRanking);
             if (entry.mDisplayName != null)
@@ -184,31 +251,17 @@ public class ContactRankings {
             config.put(entry.mEmail, m);
         }
         mbox.setConfig(null, CONFIG_KEY_CONTACT_RANKINGS, config);
+        mbox.setCachedContactRankings(table);
         dump("writing");
     }
-    private synchronized TreeSet<ContactEntry> get(String str) {
-        TreeSet<ContactEntry> val = mEntryMap.get(str.toLowerCase());
-        if (val == null) {
-            val = new TreeSet<ContactEntry>();
-            mEntryMap.put(str.toLowerCase(), val);
-        }
-        return val;
-    }
-    private synchronized void add(ContactEntry entry) {
-        get(entry.mEmail).add(entry);
-        if (entry.mDisplayName.length() > 0)
-            get(entry.mDisplayName).add(entry);
-        if (entry.mLastName.length() > 0)
-            get(entry.mLastName).add(entry);
-        mEntries.put(entry.mEmail.toLowerCase(), entry);
-    }
-    private synchronized void remove(ContactEntry entry) {
-        get(entry.mEmail).remove(entry);
-        if (entry.mDisplayName.length() > 0)
-            get(entry.mDisplayName).remove(entry);
-        if (entry.mLastName.length() > 0)
-            get(entry.mLastName).remove(entry);
-        mEntries.remove(entry.mEmail.toLowerCase());
+    private static ContactEntry copy(ContactEntry entry) {
+        ContactEntry copy = new ContactEntry();
+        copy.mEmail = entry.mEmail;
+        copy.setName(entry.mDisplayName);
+        copy.mRanking = entry.mRanking;
+        copy.mFolderId = entry.mFolderId;
+        copy.mLastAccessed = entry.mLastAccessed;
+        return copy;
     }
     private void dump(String action) {
         if (ZimbraLog.gal.isDebugEnabled()) {
@@ -221,5 +274,71 @@ public class ContactRankings {
             ZimbraLog.gal.debug(buf.toString());
         }
     }
-}
 
+    /**
+     * Immutable snapshot of a ranking table.  Entries are keyed by lower-case address and indexed in the
+     * trie under the address and each lower-case word of the display name.  Entries are never modified
+     * once they are in a table.
+     */
+    static final class Table {
+        static final Table EMPTY = new Table(Collections.<String, ContactEntry>emptyMap(),
+                PrefixTrie.<ContactEntry>empty());
+
+        final Map<String, ContactEntry> entries;
+        final PrefixTrie<ContactEntry> trie;
+
+        private Table(Map<String, ContactEntry> entries, PrefixTrie<ContactEntry> trie) {
+            this.entries = entries;
+            this.trie = trie;
+        }
+
+        static Table of(Collection<ContactEntry> list) {
+            Map<String, ContactEntry> map = new HashMap<String, ContactEntry>(list.size() * 2);
+            PrefixTrie<ContactEntry> trie = PrefixTrie.empty();
+            for (ContactEntry entry : list) {
+                map.put(entry.mEmail, entry);
+                for (String key : keys(entry)) {
+                    trie = trie.put(key, entry);
+                }
+            }
+            return new Table(Collections.unmodifiableMap(map), trie);
+        }
+
+        int size() {
+            return entries.size();
+        }
+
+        Table with(ContactEntry entry) {
+            Map<String, ContactEntry> map = new HashMap<String, ContactEntry>(entries);
+            map.put(entry.mEmail, entry);
+            PrefixTrie<ContactEntry> updated = trie;
+            for (String key : keys(entry)) {
+                updated = updated.put(key, entry);
+            }
+            return new Table(Collections.unmodifiableMap(map), updated);
+        }
+
+        Table without(ContactEntry entry) {
+            Map<String, ContactEntry> map = new HashMap<String, ContactEntry>(entries);
+            map.remove(entry.mEmail);
+            PrefixTrie<ContactEntry> updated = trie;
+            for (String key : keys(entry)) {
+                updated = updated.remove(key, entry);
+            }
+            return new Table(Collections.unmodifiableMap(map), updated);
+        }
+
+        TreeSet<ContactEntry> getSortedSet() {
+            return new TreeSet<ContactEntry>(entries.values());
+        }
+
+        private static Set<String> keys(ContactEntry entry) {
+            Set<String> keys = new HashSet<String>();
+            keys.add(entry.mEmail);
+            for (String word : WORD_SPLITTER.split(entry.mDisplayName)) {
+                keys.add(word.toLowerCase());
+            }
+            return keys;
+        }
+    }
+}
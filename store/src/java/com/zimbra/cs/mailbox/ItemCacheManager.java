@@ -0,0 +1,297 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Enforces a server-wide memory budget on the per-mailbox {@link MailItem} caches.
+ * <p>
+ * Each mailbox owns a {@link Segment}.  Segments report the estimated size of the items
+ * they hold, and whenever the total goes over {@link LC#zimbra_mailbox_item_cache_max_bytes}
+ * the largest segments are trimmed, least recently used items first, down to their fair
+ * share of the budget.  A segment that is being used by a mailbox transaction is never
+ * trimmed by another thread, so a busy mailbox can't lose items in the middle of an
+ * operation.
+ * <p>
+ * Segments are only weakly referenced here.  A mailbox that is dropped from the
+ * {@link MailboxManager} cache takes its items with it.
+ */
+public final class ItemCacheManager {
+
+    private static final ItemCacheManager SINGLETON = new ItemCacheManager(getConfiguredMaxBytes());
+
+    /** Trim down to this fraction of the budget, so we don't reclaim on every transaction. */
+    private static final double LOW_WATER_MARK = 0.9;
+
+    /** Maximum number of items evicted from a segment per batch. */
+    private static final int EVICTION_BATCH = 16;
+
+    /** A segment and its weight at the time of the snapshot, so that sorting is stable. */
+    private static final class SegmentWeight {
+        final Segment segment;
+        final long weight;
+
+        SegmentWeight(Segment segment) {
+            this.segment = segment;
+            this.weight = segment.getWeight();
+        }
+    }
+
+    private static final Comparator<SegmentWeight> BY_WEIGHT_DESC = new Comparator<SegmentWeight>() {
+        @Override
+        public int compare(SegmentWeight s1, SegmentWeight s2) {
+            return Long.compare(s2.weight, s1.weight);
+        }
+    };
+
+    private final Map<Integer, WeakReference<Segment>> segments = new ConcurrentHashMap<Integer, WeakReference<Segment>>();
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ReentrantLock reclaimLock = new ReentrantLock();
+    private volatile long maxBytes;
+
+    ItemCacheManager(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static ItemCacheManager getInstance() {
+        return SINGLETON;
+    }
+
+    private static long getConfiguredMaxBytes() {
+        long maxBytes = LC.zimbra_mailbox_item_cache_max_bytes.longValue();
+        return maxBytes > 0 ? maxBytes : Runtime.getRuntime().maxMemory() / 10;
+    }
+
+    /**
+     * One mailbox's share of the item cache.
+     */
+    abstract static class Segment {
+        final int mailboxId;
+        private final ItemCacheManager manager;
+        private final AtomicLong weight = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private int users; // guarded by this
+
+        Segment(ItemCacheManager manager, int mailboxId) {
+            this.manager = manager;
+            this.mailboxId = mailboxId;
+        }
+
+        /** Returns the number of cached items. */
+        abstract int size();
+
+        /**
+         * Evicts up to <tt>count</tt> of the least recently used items.
+         *
+         * @return the number of items evicted
+         */
+        abstract int evictEldest(int count);
+
+        /** Called when an item of the given estimated size enters or leaves the segment. */
+        final void adjustWeight(long delta) {
+            weight.addAndGet(delta);
+            manager.totalWeight.addAndGet(delta);
+        }
+
+        final void recordEviction(int count) {
+            evictions.addAndGet(count);
+            manager.evictions.addAndGet(count);
+            ZimbraPerf.COUNTER_MBOX_ITEM_CACHE_EVICT.increment(count);
+        }
+
+        final void recordAccess(boolean hit) {
+            (hit ? hits : misses).incrementAndGet();
+        }
+
+        /** Marks the segment as in use by a mailbox transaction. */
+        final synchronized void acquire() {
+            users++;
+        }
+
+        final synchronized void release() {
+            if (users > 0) {
+                users--;
+            }
+        }
+
+        final long getWeight() {
+            return weight.get();
+        }
+
+        final long getEvictions() {
+            return evictions.get();
+        }
+
+        /** Returns the hit rate as a percentage, or <tt>-1</tt> if there were no lookups. */
+        final int getHitRate() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total == 0 ? -1 : (int) (h * 100 / total);
+        }
+
+        /**
+         * Trims the segment down to <tt>target</tt> bytes, unless it's being used by a
+         * transaction on another thread.
+         *
+         * @param force trim even if the segment is in use; only the thread that is
+         *        running the transaction may pass <tt>true</tt>
+         * @return the number of bytes freed
+         */
+        final synchronized long trim(long target, boolean force) {
+            if (users > 0 && !force) {
+                return 0;
+            }
+            long before = weight.get();
+            int evicted = 0;
+            long current;
+            while ((current = weight.get()) > target) {
+                // evict roughly as many average-sized items as needed, a few at a time
+                int size = size();
+                long average = size > 0 ? Math.max(1, current / size) : current;
+                int batch = (int) Math.min(EVICTION_BATCH, Math.max(1, (current - target + average - 1) / average));
+                int n = evictEldest(batch);
+                if (n == 0) {
+                    break;
+                }
+                evicted += n;
+            }
+            if (evicted > 0) {
+                recordEviction(evicted);
+                ZimbraLog.cache.debug("evicted %d items from item cache of mailbox %d", evicted, mailboxId);
+            }
+            return before - weight.get();
+        }
+    }
+
+    void register(Segment segment) {
+        segments.put(segment.mailboxId, new WeakReference<Segment>(segment));
+    }
+
+    /**
+     * Frees memory if the caches are over budget.  Cheap when they aren't.
+     *
+     * @param current segment of the calling thread's mailbox, which may be trimmed even
+     *        though it's in use, or <tt>null</tt>
+     */
+    void reclaim(Segment current) {
+        if (totalWeight.get() <= maxBytes || !reclaimLock.tryLock()) {
+            return;
+        }
+        try {
+            List<SegmentWeight> live = getSegments();
+            long total = 0;
+            for (SegmentWeight sw : live) {
+                total += sw.weight;
+            }
+            // Resync with the segments; weights of mailboxes that got GCed are dropped here.
+            totalWeight.set(total);
+            if (total <= maxBytes || live.isEmpty()) {
+                return;
+            }
+
+            long lowWater = (long) (maxBytes * LOW_WATER_MARK);
+            long excess = total - lowWater;
+            long fairShare = lowWater / live.size();
+            // First take from the mailboxes that use more than their fair share, biggest first.
+            for (SegmentWeight sw : live) {
+                if (excess <= 0 || sw.weight <= fairShare) {
+                    break;
+                }
+                excess -= sw.segment.trim(Math.max(fairShare, sw.weight - excess), sw.segment == current);
+            }
+            // If that wasn't enough (the big ones were busy), shrink everyone proportionally.
+            if (excess > 0) {
+                double ratio = (double) lowWater / total;
+                for (SegmentWeight sw : live) {
+                    if (excess <= 0) {
+                        break;
+                    }
+                    Segment segment = sw.segment;
+                    excess -= segment.trim((long) (segment.getWeight() * ratio), segment == current);
+                }
+            }
+        } catch (RuntimeException e) {
+            ZimbraLog.cache.warn("error reclaiming item cache memory", e);
+        } finally {
+            reclaimLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the live segments, largest first.
+     */
+    private List<SegmentWeight> getSegments() {
+        List<SegmentWeight> live = new ArrayList<SegmentWeight>(segments.size());
+        for (Iterator<WeakReference<Segment>> it = segments.values().iterator(); it.hasNext();) {
+            Segment segment = it.next().get();
+            if (segment == null) {
+                it.remove();
+            } else {
+                live.add(new SegmentWeight(segment));
+            }
+        }
+        Collections.sort(live, BY_WEIGHT_DESC);
+        return live;
+    }
+
+    void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns the estimated size in bytes of all cached items. */
+    public long getDataSize() {
+        return Math.max(0, totalWeight.get());
+    }
+
+    /** Returns the number of items evicted to stay within the budget. */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns one line per mailbox for the <tt>limit</tt> mailboxes with the largest caches:
+     * mailbox id, number of items, estimated size, hit rate and evictions.
+     */
+    public List<String> getMailboxStats(int limit) {
+        List<SegmentWeight> live = getSegments();
+        List<String> stats = new ArrayList<String>(Math.min(limit, live.size()));
+        for (SegmentWeight sw : live.subList(0, Math.min(limit, live.size()))) {
+            Segment segment = sw.segment;
+            stats.add(String.format("mailbox=%d items=%d bytes=%d hitRate=%d evictions=%d",
+                    segment.mailboxId, segment.size(), sw.weight, segment.getHitRate(),
+                    segment.getEvictions()));
+        }
+        return stats;
+    }
+}
@@ -775,6 +775,7 @@ public abstract class MailItem implements Comparable<MailItem>, ScheduledTaskRes
                                                  // color map with 9 fixed colors.
     protected CustomMetadataList mExtendedData;
     protected ACL                rights;
+    int                          mCacheWeight;       // weight recorded by the mailbox item cache
 
     MailItem(Mailbox mbox, UnderlyingData data) throws ServiceException {
         this(mbox, data, false);
@@ -821,6 +822,26 @@ public abstract class MailItem implements Comparable<MailItem>, ScheduledTaskRes
         return mData.uuid;
     }
 
+    /** Rough estimate of the heap used by this item, in bytes.  Used by the
+     *  {@link ItemCacheManager} to keep cached items within its memory budget. */
+    int estimateCacheWeight() {
+        int weight = 512 + 2 * (length(mData.getSubject()) + length(mData.name) + length(mData.locator) +
+                length(mData.uuid) + length(mData.getPrevFolders()));
+        for (String tag : mData.getTags()) {
+            weight += 48 + 2 * tag.length();
+        }
+        if (mExtendedData != null) {
+            for (Pair<String, String> entry : mExtendedData) {
+                weight += 64 + 2 * (length(entry.getFirst()) + length(entry.getSecond()));
+            }
+        }
+        return weight;
+    }
+
+    static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
     /** Returns the item's type. */
     public Type getType() {
         return Type.of(mData.type);
@@ -22,7 +22,6 @@ import java.io.Reader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -61,6 +60,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 import com.zimbra.client.ZFolder;
 import com.zimbra.client.ZMailbox;
 import com.zimbra.client.ZMailbox.Options;
@@ -512,7 +512,10 @@ public class Mailbox implements MailboxStore {
             this.sync = null;
             this.config = null;
             this.deletes = null;
-            this.itemCache = null;
+            if (this.itemCache != null) {
+                this.itemCache.release();
+                this.itemCache = null;
+            }
             this.indexItems.clear();
             this.dirty.clear();
             this.otherDirtyStuff.clear();
@@ -608,18 +611,54 @@ public class Mailbox implements MailboxStore {
         }
     }
 
-    private static class ItemCache {
-        private final Map<Integer /* id */, MailItem> mapById;
+    /**
+     * This mailbox's segment of the server-wide item cache.  Entries are weighed with
+     * {@link MailItem#estimateCacheWeight()} so that {@link ItemCacheManager} can keep
+     * all mailboxes within a global memory budget.
+     */
+    private static class ItemCache extends ItemCacheManager.Segment {
+        private final ConcurrentLinkedHashMap<Integer /* id */, MailItem> mapById;
         private final Map<String /* uuid */, Integer /* id */> uuid2id;
         private final Mailbox mbox;
         private boolean isAlwaysOn = false;
 
         public ItemCache(Mailbox mbox) {
+            super(ItemCacheManager.getInstance(), mbox.getId());
             mapById = new ConcurrentLinkedHashMap.Builder<Integer, MailItem>().maximumWeightedCapacity(
-                            MAX_ITEM_CACHE_WITH_LISTENERS).build();
+                            MAX_ITEM_CACHE_WITH_LISTENERS).listener(new EvictionListener<Integer, MailItem>() {
+                                @Override
+                                public void onEviction(Integer id, MailItem item) {
+                                    uncached(item);
+                                    recordEviction(1);
+                                }
+                            }).build();
             uuid2id = new ConcurrentHashMap<String, Integer>(MAX_ITEM_CACHE_WITH_LISTENERS);
             this.mbox = mbox;
             this.isAlwaysOn = Zimbra.isAlwaysOn();
+            if (!isAlwaysOn) {
+                ItemCacheManager.getInstance().register(this);
+            }
+        }
+
+        /** Updates the segment weight and uuid index after <tt>item</tt> left the map. */
+        private void uncached(MailItem item) {
+            adjustWeight(-item.mCacheWeight);
+            item.mCacheWeight = 0;
+            String uuid = item.getUuid();
+            if (uuid != null) {
+                uuid2id.remove(uuid, item.getId());
+            }
+        }
+
+        @Override
+        int evictEldest(int count) {
+            int evicted = 0;
+            for (Integer id : mapById.ascendingKeySetWithLimit(count)) {
+                if (remove(id.intValue()) != null) {
+                    evicted++;
+                }
+            }
+            return evicted;
         }
 
         public void put(MailItem item) {
@@ -631,7 +670,18 @@ public class Mailbox implements MailboxStore {
                 }
             } else {
                 int id = item.getId();
-                mapById.put(id, item);
+                int weight = item.estimateCacheWeight();
+                int previousWeight = item.mCacheWeight;
+                item.mCacheWeight = weight;
+                MailItem old = mapById.put(id, item);
+                if (old == item) {
+                    adjustWeight(weight - previousWeight);
+                } else {
+                    adjustWeight(weight - (old == null ? 0 : old.mCacheWeight));
+                    if (old != null) {
+                        old.mCacheWeight = 0;
+                    }
+                }
                 String uuid = item.getUuid();
                 if (uuid != null) {
                     uuid2id.put(uuid, id);
@@ -685,10 +735,7 @@ public class Mailbox implements MailboxStore {
             } else {
                 MailItem removed = mapById.remove(id);
                 if (removed != null) {
-                    String uuid = removed.getUuid();
-                    if (uuid != null) {
-                        uuid2id.remove(uuid);
-                    }
+                    uncached(removed);
                 }
                 return removed;
             }
@@ -725,7 +772,12 @@ public class Mailbox implements MailboxStore {
         }
 
         public void clear() {
-            mapById.clear();
+            for (Integer id : mapById.keySet()) {
+                MailItem removed = mapById.remove(id);
+                if (removed != null) {
+                    uncached(removed);
+                }
+            }
             uuid2id.clear();
         }
     }
@@ -754,11 +806,15 @@ public class Mailbox implements MailboxStore {
 
     private FolderCache mFolderCache;
     private Map<Object, Tag> mTagCache;
-    private SoftReference<ItemCache> mItemCache = new SoftReference<ItemCache>(null);
+    private volatile ItemCache mItemCache;
     private final Map<String, Integer> mConvHashes = new ConcurrentLinkedHashMap.Builder<String, Integer>()
                     .maximumWeightedCapacity(MAX_MSGID_CACHE).build();
     private final Map<String, Integer> mSentMessageIDs = new ConcurrentLinkedHashMap.Builder<String, Integer>()
                     .maximumWeightedCapacity(MAX_MSGID_CACHE).build();
+    /** Decoded {@link ContactRankings} config section; dropped whenever that section is rewritten. */
+    private volatile ContactRankings.Table mContactRankings;
+    /** Autocomplete index of the mailbox's contacts, built on first use. */
+    private volatile ContactAutoCompleteIndex mAutoCompleteIndex;
 
     private MailboxMaintenance maintenance;
     private volatile boolean open = false;
@@ -774,6 +830,22 @@ public class Mailbox implements MailboxStore {
         lock = new MailboxLock(data.accountId, this);
     }
 
+    ContactRankings.Table getCachedContactRankings() {
+        return mContactRankings;
+    }
+
+    void setCachedContactRankings(ContactRankings.Table table) {
+        mContactRankings = table;
+    }
+
+    ContactAutoCompleteIndex getAutoCompleteIndex() {
+        return mAutoCompleteIndex;
+    }
+
+    void setAutoCompleteIndex(ContactAutoCompleteIndex index) {
+        mAutoCompleteIndex = index;
+    }
+
     public void setGalSyncMailbox(boolean galSyncMailbox) {
         this.galSyncMailbox = galSyncMailbox;
     }
@@ -1851,14 +1923,17 @@ public class Mailbox implements MailboxStore {
             recorder.setChangeId(getOperationChangeID());
         }
 
-        // keep a hard reference to the item cache to avoid having it GCed during the op
-        ItemCache cache = mItemCache.get();
+        // pin the item cache so that ItemCacheManager doesn't trim it during the op
+        ItemCache cache = mItemCache;
         if (cache == null) {
             cache = new ItemCache(this);
-            mItemCache = new SoftReference<ItemCache>(cache);
+            mItemCache = cache;
             ZimbraLog.cache.debug("created a new MailItem cache for mailbox " + getId());
         }
-        currentChange().itemCache = cache;
+        if (currentChange().itemCache != cache) {
+            cache.acquire();
+            currentChange().itemCache = cache;
+        }
 
         // don't permit mailbox access during maintenance
         if (maintenance != null && !maintenance.canAccess()) {
@@ -1976,6 +2051,9 @@ public class Mailbox implements MailboxStore {
             currentChange().dirty.recordModified(this, Change.CONFIG);
             currentChange().config = new Pair<String, Metadata>(section, config);
             DbMailbox.updateConfig(this, section, config);
+            if (section.equals(ContactRankings.CONFIG_KEY_CONTACT_RANKINGS)) {
+                mContactRankings = null;
+            }
             success = true;
         } finally {
             endTransaction(success);
@@ -2021,7 +2099,10 @@ public class Mailbox implements MailboxStore {
         if (currentChange().isActive()) {
             currentChange().itemCache.clear();
         } else {
-            mItemCache.clear();
+            ItemCache cache = mItemCache;
+            if (cache != null) {
+                cache.clear();
+            }
         }
         try {
             if (Zimbra.isAlwaysOn()) {
@@ -2828,7 +2909,7 @@ public class Mailbox implements MailboxStore {
         }
         assert (currentChange().depth == 0);
 
-        ItemCache cache = mItemCache.get();
+        ItemCache cache = mItemCache;
         FolderCache folders = mFolderCache == null || Collections.disjoint(pms.changedTypes, FOLDER_TYPES) ? mFolderCache
                         : snapshotFolders();
 
@@ -5116,6 +5197,15 @@ public class Mailbox implements MailboxStore {
 
     public CalendarDataResult getCalendarSummaryForRange(OperationContext octxt, int folderId, MailItem.Type type,
                     long start, long end, boolean followLimit) throws ServiceException {
+        return getCalendarSummaryForRange(octxt, folderId, type, start, end, followLimit, true);
+    }
+
+    /**
+     * @param computeSubRange if false, the result may cover more than the requested range; this lets callers share
+     *                        the cached summary (and its free/busy index) instead of getting a trimmed copy
+     */
+    public CalendarDataResult getCalendarSummaryForRange(OperationContext octxt, int folderId, MailItem.Type type,
+                    long start, long end, boolean followLimit, boolean computeSubRange) throws ServiceException {
         lock.lock(false);
         try {
             Folder folder = getFolderById(folderId);
@@ -5124,7 +5214,7 @@ public class Mailbox implements MailboxStore {
                                 + folder.getName());
             }
             return CalendarCacheManager.getInstance().getSummaryCache()
-                            .getCalendarSummary(octxt, getAccountId(), folderId, type, start, end, true);
+                            .getCalendarSummary(octxt, getAccountId(), folderId, type, start, end, computeSubRange);
         } finally {
             lock.release();
         }
@@ -5132,6 +5222,14 @@ public class Mailbox implements MailboxStore {
 
     public List<CalendarDataResult> getAllCalendarsSummaryForRange(OperationContext octxt, MailItem.Type type,
                     long start, long end) throws ServiceException {
+        return getAllCalendarsSummaryForRange(octxt, type, start, end, true);
+    }
+
+    /**
+     * @see #getCalendarSummaryForRange(OperationContext, int, MailItem.Type, long, long, boolean, boolean)
+     */
+    public List<CalendarDataResult> getAllCalendarsSummaryForRange(OperationContext octxt, MailItem.Type type,
+                    long start, long end, boolean computeSubRange) throws ServiceException {
         boolean success = false;
         try {
             // folder cache is populated in beginTransaction...
@@ -5153,7 +5251,7 @@ public class Mailbox implements MailboxStore {
                         continue;
                     }
                     CalendarDataResult result = CalendarCacheManager.getInstance().getSummaryCache().
-                        getCalendarSummary(octxt, getAccountId(), folder.getId(), type, start, end, true);
+                        getCalendarSummary(octxt, getAccountId(), folder.getId(), type, start, end, computeSubRange);
                     if (result != null) {
                         list.add(result);
                     }
@@ -9791,6 +9889,10 @@ public class Mailbox implements MailboxStore {
                 // update mailbox size, folder unread/message counts
                 try {
                     snapshotCounts();
+                    // send queued row updates now, so that a failure rolls back instead of failing the commit
+                    if (currentChange().conn != null) {
+                        currentChange().conn.flush();
+                    }
                 } catch (ServiceException e) {
                     exception = e;
                     success = false;
@@ -10219,17 +10321,22 @@ public class Mailbox implements MailboxStore {
     }
 
     private void trimItemCache() {
+        ItemCache cache = currentChange().itemCache;
+        if (cache == null) {
+            return;
+        }
+        trimItemCache(cache);
+        // keep all mailboxes together within the server-wide memory budget
+        ItemCacheManager.getInstance().reclaim(cache);
+    }
+
+    private void trimItemCache(ItemCache cache) {
         try {
             int sizeTarget = mListeners.isEmpty() ? MAX_ITEM_CACHE_WITHOUT_LISTENERS : MAX_ITEM_CACHE_WITH_LISTENERS;
             if (galSyncMailbox) {
                 sizeTarget = MAX_ITEM_CACHE_FOR_GALSYNC_MAILBOX;
             }
 
-            ItemCache cache = currentChange().itemCache;
-            if (cache == null) {
-                return;
-            }
-
             int excess = cache.size() - sizeTarget;
             if (excess <= 0) {
                 return;
@@ -10268,6 +10375,10 @@ public class Mailbox implements MailboxStore {
         // The global item cache counter always gets updated
         if (!isCachedType(type)) {
             ZimbraPerf.COUNTER_MBOX_ITEM_CACHE.increment(item == null ? 0 : 100);
+            ItemCache cache = mItemCache;
+            if (cache != null) {
+                cache.recordAccess(item != null);
+            }
         }
 
         // the per-access log only gets updated when cache or perf debug logging is on
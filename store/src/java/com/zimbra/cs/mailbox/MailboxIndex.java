@@ -18,15 +18,23 @@ package com.zimbra.cs.mailbox;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
@@ -95,6 +103,11 @@ public final class MailboxIndex {
     private static final ExecutorService REINDEX_EXECUTOR = new ThreadPoolExecutor(
             0, LC.zimbra_reindex_threads.intValue(), 0L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             new ThreadFactoryBuilder().setNameFormat("ReIndex-%d").setDaemon(true).build());
+    private static final int REINDEX_QUEUE_SIZE = Math.max(LC.zimbra_reindex_queue_size.intValue(), 1);
+    // Blob read and text extraction for re-index, shared by all the mailboxes being re-indexed. Each re-index has at
+    // most REINDEX_QUEUE_SIZE items queued here, so the FIFO queue round-robins between mailboxes and a huge mailbox
+    // can't starve the others. null if extraction runs inline on the re-index thread.
+    private static final ThreadPoolExecutor EXTRACT_EXECUTOR = newExtractExecutor();
 
     private volatile long lastFailedTime = -1;
     // Only one thread may run index at a time.
@@ -121,6 +134,20 @@ public final class MailboxIndex {
         analyzer = ZimbraAnalyzer.getAnalyzer(analyzerName);
     }
 
+    private static ThreadPoolExecutor newExtractExecutor() {
+        int threads = LC.zimbra_reindex_extract_threads.intValue();
+        if (threads < 0) {
+            return null;
+        } else if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("ReIndexExtract-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Starts all index threads.
      */
@@ -513,6 +540,7 @@ public final class MailboxIndex {
     private class ReIndexTask extends IndexTask {
         private final Collection<Integer> ids;
         private final ReIndexStatus status = new ReIndexStatus();
+        private final CountDownLatch done = new CountDownLatch(1);
 
         ReIndexTask(Mailbox mbox, Collection<Integer> ids) {
             super(mbox);
@@ -528,14 +556,12 @@ public final class MailboxIndex {
                 reIndex();
                 long elapsed = System.currentTimeMillis() - start;
                 long avg = 0;
-                long mps = 0;
 
                 if (status.getProcessed() > 0) {
                     avg = elapsed / status.getProcessed();
-                    mps = avg > 0 ? 1000 / avg : 0;
                 }
-                ZimbraLog.index.info("Re-index completed items=%d,failed=%d,elapsed=%d (avg %d ms/item, %d items/sec)",
-                        status.getTotal(), status.getFailed(), elapsed, avg, mps);
+                ZimbraLog.index.info("Re-index completed items=%d,failed=%d,elapsed=%d (avg %d ms/item, %.2f items/sec)",
+                        status.getTotal(), status.getFailed(), elapsed, avg, status.getThroughput());
                 onCompletion();
             } catch (ServiceException e) {
                 if (e.getCode() == ServiceException.INTERRUPTED) {
@@ -551,6 +577,7 @@ public final class MailboxIndex {
                 synchronized (MailboxIndex.this) {
                     reIndex = null;
                 }
+                done.countDown();
             }
         }
 
@@ -717,6 +744,10 @@ public final class MailboxIndex {
      * Index a potentially very large list of {@link MailItem}s. Iterate through the list of items, fetch each one and
      * call generateIndexData(). Buffer the items, IndexData into a chunk and when the chunk gets sufficiently large,
      * run a Mailbox transaction to actually do the indexing
+     * <p>
+     * A re-index is run as a pipeline instead: this thread fetches the items, generateIndexData() (blob read, MIME
+     * parsing and attachment text extraction) runs on the shared extract pool, and the results are collected in order
+     * into chunks of the same size, so the mailbox lock is held for no longer than before.
      *
      * @param ids item IDs to index
      * @param status progress will be written to the status
@@ -729,6 +760,10 @@ public final class MailboxIndex {
         if (ids.isEmpty()) {
             return;
         }
+        if (EXTRACT_EXECUTOR != null && status instanceof ReIndexStatus) {
+            indexItemListPipelined(ids, status);
+            return;
+        }
 
         // we re-index 'chunks' of items -- up to a certain size or count
         List<Mailbox.IndexItemEntry> chunk = new ArrayList<Mailbox.IndexItemEntry>();
@@ -741,34 +776,9 @@ public final class MailboxIndex {
             // Fetch the item and generate the list of Lucene documents to index. Do this without holding the Mailbox
             // lock. Once we've accumulated a "chunk" of items, do a mailbox transaction to actually add them to the
             // index.
-            ZimbraLog.index.debug("Tokenizing id=%d", id);
-            MailItem item = null;
-            try {
-                mailbox.beginReadTransaction("IndexItemList-Fetch", null);
-                item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, false);
-            } catch (MailServiceException.NoSuchItemException e) { // fallback to dumpster
-                try {
-                    item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, true);
-                } catch (MailServiceException.NoSuchItemException again) { // The item has just been deleted.
-                    ZimbraLog.index.debug("deferred item no longer exist id=%d", id);
-                    removeDeferredId(id);
-                    continue;
-                }
-            } catch (MailServiceException e) {
-                // fetch without metadata because reindex will regenerate metadata
-                if (MailServiceException.INVALID_METADATA.equals(e.getCode()) && isReIndexInProgress()) {
-                    UnderlyingData ud = DbMailItem.getById(mailbox, id, MailItem.Type.UNKNOWN, false);
-                    ud.metadata = null; // ignore corrupted metadata
-                    item = mailbox.getItem(ud);
-                } else {
-                    throw e;
-                }
-            } catch (Exception e) {
-                ZimbraLog.index.warn("Failed to fetch deferred item id=%d", id, e);
-                status.addFailed(1);
+            MailItem item = fetchItem(id, status);
+            if (item == null) {
                 continue;
-            } finally {
-                mailbox.endTransaction(item != null);
             }
             try {
                 chunk.add(new Mailbox.IndexItemEntry(item, item.generateIndexData()));
@@ -781,33 +791,167 @@ public final class MailboxIndex {
             chunkByteSize += item.getSize();
 
             if (i == ids.size() || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS) {
-                // we have a chunk of items and their corresponding index data -- add them to the index
-                try {
-                    ZimbraLog.index.debug("Batch progress %d/%d", i, ids.size());
+                ZimbraLog.index.debug("Batch progress %d/%d", i, ids.size());
+                commitChunk(chunk, status);
+                chunkByteSize = 0;
+            }
+        }
+    }
 
-                    if (status.isCancelled()) {
-                        throw ServiceException.INTERRUPTED("cancelled");
+    private void indexItemListPipelined(Collection<Integer> ids, BatchStatus status) throws ServiceException {
+        Deque<Future<Mailbox.IndexItemEntry>> queue = new ArrayDeque<Future<Mailbox.IndexItemEntry>>();
+        List<Mailbox.IndexItemEntry> chunk = new ArrayList<Mailbox.IndexItemEntry>();
+        long chunkByteSize = 0;
+        Iterator<Integer> itr = ids.iterator();
+        try {
+            while (true) {
+                // keep the extract pool busy, but never queue more than our share
+                while (queue.size() < REINDEX_QUEUE_SIZE && itr.hasNext()) {
+                    int id = itr.next();
+                    status.addProcessed(1);
+                    MailItem item = fetchItem(id, status);
+                    if (item != null) {
+                        queue.add(EXTRACT_EXECUTOR.submit(new ExtractTask(item)));
                     }
+                }
+                status.setBacklog(queue.size());
+                if (queue.isEmpty()) {
+                    break;
+                }
 
-                    try {
-                        boolean success = false;
-                        try {
-                            mailbox.beginTransaction("IndexItemList-Commit", null);
-                            for (Mailbox.IndexItemEntry entry : chunk) {
-                                mailbox.addIndexItemToCurrentChange(entry);
-                            }
-                            success = true;
-                        } finally {
-                            mailbox.endTransaction(success);
-                        }
-                    } catch (ServiceException e) {
-                        ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
-                        status.addFailed(chunk.size());
+                Mailbox.IndexItemEntry entry = takeExtracted(queue.poll(), status);
+                if (entry != null) {
+                    chunk.add(entry);
+                    chunkByteSize += entry.item.getSize();
+                }
+                boolean last = queue.isEmpty() && !itr.hasNext();
+                if (!chunk.isEmpty() && (last || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS)) {
+                    ZimbraLog.index.debug("Batch progress %d/%d backlog=%d",
+                            status.getProcessed(), ids.size(), queue.size());
+                    commitChunk(chunk, status);
+                    chunkByteSize = 0;
+                }
+            }
+        } finally {
+            for (Future<Mailbox.IndexItemEntry> future : queue) {
+                future.cancel(false);
+            }
+            status.setBacklog(0);
+        }
+    }
+
+    /**
+     * Waits for the index data of an item queued in the extract pool.
+     *
+     * @return the item and its index data, or null if it failed
+     */
+    private Mailbox.IndexItemEntry takeExtracted(Future<Mailbox.IndexItemEntry> future, BatchStatus status)
+            throws ServiceException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw ServiceException.INTERRUPTED("interrupted while waiting for text extraction");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof MailItem.TemporaryIndexingException) {
+                ZimbraLog.index.warn("Temporary index failure", cause);
+                lastFailedTime = System.currentTimeMillis();
+            } else {
+                ZimbraLog.index.warn("Failed to generate index data", cause);
+            }
+            status.addFailed(1);
+            return null;
+        }
+    }
+
+    /**
+     * Fetches an item to index, falling back to the dumpster.
+     *
+     * @return the item, or null if it no longer exists or failed to load
+     */
+    private MailItem fetchItem(int id, BatchStatus status) throws ServiceException {
+        ZimbraLog.index.debug("Tokenizing id=%d", id);
+        MailItem item = null;
+        try {
+            mailbox.beginReadTransaction("IndexItemList-Fetch", null);
+            item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, false);
+        } catch (MailServiceException.NoSuchItemException e) { // fallback to dumpster
+            try {
+                item = mailbox.getItemById(id, MailItem.Type.UNKNOWN, true);
+            } catch (MailServiceException.NoSuchItemException again) { // The item has just been deleted.
+                ZimbraLog.index.debug("deferred item no longer exist id=%d", id);
+                removeDeferredId(id);
+                return null;
+            }
+        } catch (MailServiceException e) {
+            // fetch without metadata because reindex will regenerate metadata
+            if (MailServiceException.INVALID_METADATA.equals(e.getCode()) && isReIndexInProgress()) {
+                UnderlyingData ud = DbMailItem.getById(mailbox, id, MailItem.Type.UNKNOWN, false);
+                ud.metadata = null; // ignore corrupted metadata
+                item = mailbox.getItem(ud);
+            } else {
+                throw e;
+            }
+        } catch (Exception e) {
+            ZimbraLog.index.warn("Failed to fetch deferred item id=%d", id, e);
+            status.addFailed(1);
+            return null;
+        } finally {
+            mailbox.endTransaction(item != null);
+        }
+        return item;
+    }
+
+    /**
+     * Adds a chunk of items and their corresponding index data to the index in a mailbox transaction, then clears it.
+     */
+    private void commitChunk(List<Mailbox.IndexItemEntry> chunk, BatchStatus status) throws ServiceException {
+        try {
+            if (status.isCancelled()) {
+                throw ServiceException.INTERRUPTED("cancelled");
+            }
+
+            try {
+                boolean success = false;
+                try {
+                    mailbox.beginTransaction("IndexItemList-Commit", null);
+                    for (Mailbox.IndexItemEntry entry : chunk) {
+                        mailbox.addIndexItemToCurrentChange(entry);
                     }
+                    success = true;
                 } finally {
-                    chunk.clear();
-                    chunkByteSize = 0;
+                    mailbox.endTransaction(success);
                 }
+                status.addIndexed(chunk.size());
+            } catch (ServiceException e) {
+                ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
+                status.addFailed(chunk.size());
+            }
+        } finally {
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Generates the index data of an item on the extract pool.
+     */
+    private final class ExtractTask implements Callable<Mailbox.IndexItemEntry> {
+        private final MailItem item;
+
+        ExtractTask(MailItem item) {
+            this.item = item;
+        }
+
+        @Override
+        public Mailbox.IndexItemEntry call() throws Exception {
+            ZimbraLog.addMboxToContext(mailbox.getId());
+            ZimbraLog.addItemToContext(item.getId());
+            try {
+                return new Mailbox.IndexItemEntry(item, item.generateIndexData());
+            } finally {
+                ZimbraLog.clearContext();
             }
         }
     }
@@ -1058,6 +1202,17 @@ public final class MailboxIndex {
         return reIndex != null;
     }
 
+    /**
+     * Waits for the re-index in progress, if any, to finish.
+     *
+     * @return false if it is still in progress after the timeout
+     */
+    @VisibleForTesting
+    boolean awaitReIndex(long timeout, TimeUnit unit) throws InterruptedException {
+        ReIndexTask task = reIndex;
+        return task == null || task.done.await(timeout, unit);
+    }
+
     public boolean isCompactIndexInProgress() {
         return compactIndex != null;
     }
@@ -1309,6 +1464,8 @@ public final class MailboxIndex {
         private int total = -1;
         private int processed = 0;
         private int failed = 0;
+        private int indexed = 0;
+        private int backlog = 0;
 
         void setTotal(int value) {
             total = value;
@@ -1322,6 +1479,14 @@ public final class MailboxIndex {
             failed += delta;
         }
 
+        void addIndexed(int delta) {
+            indexed += delta;
+        }
+
+        void setBacklog(int value) {
+            backlog = value;
+        }
+
         public int getTotal() {
             return total;
         }
@@ -1334,6 +1499,20 @@ public final class MailboxIndex {
             return failed;
         }
 
+        /**
+         * Returns the number of items committed to the index so far.
+         */
+        public int getIndexed() {
+            return indexed;
+        }
+
+        /**
+         * Returns the number of items fetched but still waiting for text extraction.
+         */
+        public int getBacklog() {
+            return backlog;
+        }
+
         boolean isCancelled() {
             return false;
         }
@@ -1344,6 +1523,8 @@ public final class MailboxIndex {
                 .add("total", getTotal())
                 .add("processed", getProcessed())
                 .add("failed", getFailed())
+                .add("indexed", getIndexed())
+                .add("backlog", getBacklog())
                 .toString();
         }
     }
@@ -1355,6 +1536,9 @@ public final class MailboxIndex {
         private volatile int total = -1;
         private volatile int processed = 0;
         private volatile int failed = 0;
+        private volatile int indexed = 0;
+        private volatile int backlog = 0;
+        private volatile long startTime = 0L;
         private volatile boolean cancel = false;
 
         private ReIndexStatus() {
@@ -1363,13 +1547,15 @@ public final class MailboxIndex {
         @Override
         void setTotal(int value) {
             total = value;
+            startTime = System.currentTimeMillis();
         }
 
         @Override
         void addProcessed(int delta) {
             processed += delta;
             if (processed % 2000 == 0) {
-                ZimbraLog.index.info("Re-index progress %d/%d", processed, total);
+                ZimbraLog.index.info("Re-index progress %d/%d (indexed=%d,backlog=%d,%.2f items/sec)",
+                        processed, total, indexed, backlog, getThroughput());
             }
         }
 
@@ -1378,6 +1564,16 @@ public final class MailboxIndex {
             failed += delta;
         }
 
+        @Override
+        void addIndexed(int delta) {
+            indexed += delta;
+        }
+
+        @Override
+        void setBacklog(int value) {
+            backlog = value;
+        }
+
         @Override
         public int getTotal() {
             return total;
@@ -1393,6 +1589,24 @@ public final class MailboxIndex {
             return failed;
         }
 
+        @Override
+        public int getIndexed() {
+            return indexed;
+        }
+
+        @Override
+        public int getBacklog() {
+            return backlog;
+        }
+
+        /**
+         * Returns the number of items committed to the index per second since the re-index started.
+         */
+        public double getThroughput() {
+            long elapsed = System.currentTimeMillis() - startTime;
+            return startTime > 0L && elapsed > 0L ? 1000.0 * indexed / elapsed : 0.0;
+        }
+
         void cancel() {
             cancel = true;
         }
@@ -1401,6 +1615,18 @@ public final class MailboxIndex {
         boolean isCancelled() {
             return cancel;
         }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                .add("total", total)
+                .add("processed", processed)
+                .add("failed", failed)
+                .add("indexed", indexed)
+                .add("backlog", backlog)
+                .add("throughput", String.format("%.2f", getThroughput()))
+                .toString();
+        }
     }
 
     public static abstract class IndexTask implements Runnable {
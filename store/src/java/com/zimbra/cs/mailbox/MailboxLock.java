@@ -29,6 +29,7 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.mailbox.lock.DebugZLock;
 import com.zimbra.cs.mailbox.lock.ZLock;
+import com.zimbra.cs.stats.CommandProfiler;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.cs.zookeeper.CuratorManager;
 
@@ -46,6 +47,8 @@ public final class MailboxLock {
     private InterProcessSemaphoreMutex dLock = null;
     private final Stack<Boolean> lockStack = new Stack<Boolean>();
     private Mailbox mbox;
+    /** Bumped every time the write lock is acquired; only ever written by the write lock holder. */
+    private volatile long writeStamp = 0;
 
     public MailboxLock(String id, Mailbox mbox) {
         if (Zimbra.isAlwaysOn()) {
@@ -88,6 +91,16 @@ public final class MailboxLock {
         return zLock.isWriteLockedByCurrentThread();
     }
 
+    /**
+     * Returns a value that changes whenever the write lock has been acquired since the last call, or {@code -1}
+     * while some thread holds the write lock.  Lets a reader that computed something without the lock tell whether
+     * a writer could have changed the mailbox in the meantime.
+     */
+    public long getWriteStamp() {
+        long stamp = writeStamp;
+        return zLock.isWriteLocked() ? -1 : stamp;
+    }
+
     public boolean isUnlocked() {
         return !isWriteLockedByCurrentThread() && zLock.getReadHoldCount() == 0;
     }
@@ -169,6 +182,9 @@ public final class MailboxLock {
                     return;
                 }
                 lockStack.push(write);
+                if (write) {
+                    writeStamp++;
+                }
                 try {
                     acquireDistributedLock(write);
                 } catch (ServiceException e) {
@@ -191,13 +207,19 @@ public final class MailboxLock {
                 throw e;
             }
             // Wait for the lock up to the timeout.
-            if (tryLockWithTimeout(write)) {
+            long waitStart = System.nanoTime();
+            boolean locked = tryLockWithTimeout(write);
+            CommandProfiler.recordLockWait(System.nanoTime() - waitStart);
+            if (locked) {
                 if (mbox.requiresWriteLock() && !isWriteLockedByCurrentThread()) {
                     //writer finished a purge while we waited
                     promote();
                     return;
                 }
                 lockStack.push(write);
+                if (write) {
+                    writeStamp++;
+                }
                 try {
                     acquireDistributedLock(write);
                 } catch (ServiceException e) {
@@ -19,16 +19,18 @@ package com.zimbra.cs.mailbox;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mime.MimeConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.FrequencySketch;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
 import com.zimbra.common.util.ZimbraLog;
@@ -54,13 +56,29 @@ public class MessageCache {
         long size = 0;
     }
 
-    /** Cache mapping message digest to the corresponding message structure. */
-    private static Map<String, CacheNode> sCache = new LinkedHashMap<String, CacheNode>(150, (float) 0.75, true);
-    /** Maximum number of items in {@link #sCache}. */
+    /** Approximate heap cost of a cached entry beyond its in-memory message
+     *  data: the parsed MIME structure, headers and the node itself. */
+    private static final long NODE_OVERHEAD = 2048;
+
+    /** Number of independently locked segments; must be a power of two. */
+    private static final int NUM_SEGMENTS = 16;
+
+    /** Cache mapping message digest to the corresponding message structure,
+     *  split into segments by digest so that lookups for different messages
+     *  do not contend on a single monitor. */
+    private static final Segment[] sSegments = new Segment[NUM_SEGMENTS];
+    static {
+        for (int i = 0; i < NUM_SEGMENTS; i++) {
+            sSegments[i] = new Segment();
+        }
+    }
+    /** Maximum number of items in the cache. */
     private static int sMaxCacheSize;
+    /** Maximum weight of the cache, in bytes. */
+    private static long sMaxCacheBytes;
     /** Number of bytes of message data stored in the cache.  This value includes only
      * messages that are read into memory, not streamed from disk. */
-    private volatile static long sDataSize = 0;
+    private static final AtomicLong sDataSize = new AtomicLong();
 
     static {
         try {
@@ -71,25 +89,53 @@ public class MessageCache {
     }
 
     public static void loadSettings() throws ServiceException {
-        sMaxCacheSize = Provisioning.getInstance().getLocalServer().getMessageCacheSize();
-        ZimbraLog.cache.info("setting message cache size to " + sMaxCacheSize);
+        long maxBytes = LC.zimbra_message_cache_max_bytes.longValue();
+        if (maxBytes <= 0) {
+            ZimbraLog.cache.warn("%s is %d; the message cache is bounded by its entry count only",
+                    LC.zimbra_message_cache_max_bytes.key(), maxBytes);
+        }
+        setLimits(Provisioning.getInstance().getLocalServer().getMessageCacheSize(), maxBytes);
+        ZimbraLog.cache.info("setting message cache size to " + sMaxCacheSize + " (" + sMaxCacheBytes + " bytes)");
+    }
+
+    /**
+     * @param maxSize maximum number of messages, {@code 0} disables the cache
+     * @param maxBytes maximum weight in bytes, {@code 0} or less for no byte limit
+     */
+    static void setLimits(int maxSize, long maxBytes) {
+        if (maxBytes <= 0) {
+            maxBytes = Long.MAX_VALUE;
+        }
+        sMaxCacheSize = maxSize;
+        sMaxCacheBytes = maxBytes;
+        int segmentSize = maxSize <= 0 ? 0 : (maxSize + NUM_SEGMENTS - 1) / NUM_SEGMENTS;
+        long segmentBytes = maxBytes == Long.MAX_VALUE ? maxBytes : (maxBytes + NUM_SEGMENTS - 1) / NUM_SEGMENTS;
+        for (Segment segment : sSegments) {
+            segment.setLimits(segmentSize, segmentBytes);
+        }
+    }
+
+    private static Segment segmentFor(String digest) {
+        int h = digest.hashCode();
+        h ^= (h >>> 16);
+        return sSegments[h & (NUM_SEGMENTS - 1)];
     }
 
     /** Returns the number of messages in the cache. */
     public static int getSize() {
-        synchronized (sCache) {
-            return sCache.size();
+        int size = 0;
+        for (Segment segment : sSegments) {
+            size += segment.size();
         }
+        return size;
     }
 
     public static boolean contains(String digest) {
-        synchronized (sCache) {
-            return sCache.containsKey(digest);
-        }
+        return segmentFor(digest).containsKey(digest);
     }
 
     public static long getDataSize() {
-        return sDataSize;
+        return sDataSize.get();
     }
 
     /** Uncaches any data associated with the given item.  This must be done
@@ -124,12 +170,8 @@ public class MessageCache {
      *  stale data. */
     public static void purge(String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.remove(digest);
-                if (node != null) {
-                    sLog.debug("Purged digest %s from the message cache.", digest);
-                    sDataSize -= node.size;
-                }
+            if (segmentFor(digest).remove(digest) != null) {
+                sLog.debug("Purged digest %s from the message cache.", digest);
             }
         }
     }
@@ -157,13 +199,13 @@ public class MessageCache {
         int mboxId = item.getMailboxId();
         boolean isEncrypted = false;
 
-        synchronized (sCache) {
-            cnode = sCache.get(digest);
-            if (cnode == null) {
-                newNode = true;
-                cnode = new CacheNode();
-            }
+        Segment segment = segmentFor(digest);
+        cnode = segment.get(digest);
+        if (cnode == null) {
+            newNode = true;
+            cnode = new CacheNode();
         }
+        long sizeBefore = cnode.size;
 
         try {
             if (cnode.message == null) {
@@ -174,10 +216,6 @@ public class MessageCache {
                     cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), in);
                     if (item.getSize() < MESSAGE_CACHE_DISK_STREAMING_THRESHOLD) {
                         cnode.size = item.getSize();
-                        // Not the best place to increment the data size, but cacheItem()
-                        // won't get called if we're expanding a message for an existing
-                        // node.
-                        sDataSize += cnode.size;
                     }
                 } finally {
                     ByteUtil.closeStream(in);
@@ -220,6 +258,9 @@ public class MessageCache {
 
             if (newNode) {
                 cacheItem(digest, cnode);
+            } else if (cnode.size != sizeBefore) {
+                // data was loaded or expanded for a node that is already cached
+                segment.resize(digest, cnode, cnode.size - sizeBefore);
             }
         } catch (IOException e) {
             throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
@@ -286,7 +327,6 @@ public class MessageCache {
         expander.expand();
         cnode.expanded = expander.getExpanded();
         if (cnode.expanded != cnode.message) {
-            sDataSize += cnode.size;
             cnode.size *= 2;
         }
     }
@@ -362,29 +402,118 @@ public class MessageCache {
 
     private static void cacheItem(String digest, CacheNode cnode) {
         sLog.debug("Caching MimeMessage for digest %s.", digest);
-        synchronized (sCache) {
-            sCache.put(digest, cnode);
-            // Cache data size was incremented in getMimeMessage().
-
-            // trim the cache if needed
-            if (sCache.size() > sMaxCacheSize) {
-                Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-                while (sCache.size() > sMaxCacheSize && it.hasNext()) {
-                    Map.Entry<String, CacheNode> entry = it.next();
-                    sLog.debug("Pruning digest %s from the cache.", entry.getKey());
-                    it.remove();
-                    sDataSize -= entry.getValue().size;
-                }
-            }
-        }
+        segmentFor(digest).put(digest, cnode);
     }
 
     public static void removeDecryptedMessages(int mboxId) {
         sLog.debug("Start removing decrypted messages for mboxId=%d", mboxId);
-        synchronized (sCache) {
-            Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, CacheNode> entry = it.next();
+        for (Segment segment : sSegments) {
+            segment.removeDecryptedMessages(mboxId);
+        }
+        sLog.debug("Removed decrypted messages for mboxId=%d", mboxId);
+    }
+
+    public static String getDecryptionError(int id, String digest) {
+        if (digest != null) {
+            CacheNode node = segmentFor(digest).peek(digest);
+            if (node != null) {
+                return node.smimeAccessInfo.get(id);
+            }
+        }
+        return null;
+    }
+
+    private static long weigh(CacheNode node) {
+        return NODE_OVERHEAD + node.size;
+    }
+
+    /**
+     * One stripe of the cache, using W-TinyLFU eviction.  New entries go into
+     * a small LRU admission window; when the window overflows, its eldest
+     * entry has to compete with the eldest entry of the main LRU and only the
+     * one that has been requested more often (according to a frequency
+     * sketch of recent lookups) is kept.  This way a one-off scan of large
+     * messages cannot flush the frequently read working set.  Both the entry
+     * count and the total weight in bytes are bounded.
+     */
+    private static final class Segment {
+        private final LinkedHashMap<String, CacheNode> window = new LinkedHashMap<String, CacheNode>(16, 0.75f, true);
+        private final LinkedHashMap<String, CacheNode> main = new LinkedHashMap<String, CacheNode>(64, 0.75f, true);
+        private FrequencySketch sketch = new FrequencySketch(16);
+        private int maxSize;
+        private long maxWeight;
+        private long weight;
+
+        synchronized void setLimits(int size, long bytes) {
+            if (size != maxSize) {
+                sketch = new FrequencySketch(size);
+            }
+            maxSize = size;
+            maxWeight = bytes;
+            evict();
+        }
+
+        synchronized int size() {
+            return window.size() + main.size();
+        }
+
+        synchronized boolean containsKey(String digest) {
+            return window.containsKey(digest) || main.containsKey(digest);
+        }
+
+        /** Looks up the node without counting it as an access. */
+        synchronized CacheNode peek(String digest) {
+            CacheNode node = window.get(digest);
+            return node != null ? node : main.get(digest);
+        }
+
+        synchronized CacheNode get(String digest) {
+            sketch.increment(digest);
+            return peek(digest);
+        }
+
+        synchronized CacheNode remove(String digest) {
+            CacheNode node = window.remove(digest);
+            if (node == null) {
+                node = main.remove(digest);
+            }
+            if (node != null) {
+                removed(node);
+            }
+            return node;
+        }
+
+        synchronized void put(String digest, CacheNode node) {
+            remove(digest);
+            long w = weigh(node);
+            if (maxSize <= 0 || w > maxWeight) {
+                sLog.debug("Not caching digest %s (weight %d).", digest, w);
+                ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICT.increment();
+                return;
+            }
+            window.put(digest, node);
+            weight += w;
+            sDataSize.addAndGet(node.size);
+            evict();
+        }
+
+        /** Accounts for a change in the data size of a node that may be cached. */
+        synchronized void resize(String digest, CacheNode node, long delta) {
+            if (peek(digest) != node) {
+                return;  // evicted or replaced in the meantime
+            }
+            weight += delta;
+            sDataSize.addAndGet(delta);
+            evict();
+        }
+
+        synchronized void removeDecryptedMessages(int mboxId) {
+            removeDecryptedMessages(window, mboxId);
+            removeDecryptedMessages(main, mboxId);
+        }
+
+        private static void removeDecryptedMessages(Map<String, CacheNode> map, int mboxId) {
+            for (Map.Entry<String, CacheNode> entry : map.entrySet()) {
                 CacheNode cacheNode = entry.getValue();
                 try {
                     if (Mime.isEncrypted(cacheNode.message.getContentType())
@@ -397,18 +526,58 @@ public class MessageCache {
                 }
             }
         }
-        sLog.debug("Removed decrypted messages for mboxId=%d", mboxId);
-    }
 
-    public static String getDecryptionError(int id, String digest) {
-        if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.get(digest);
-                if (node != null) {
-                    return node.smimeAccessInfo.get(id);
+        private void evict() {
+            int windowMax = Math.max(1, maxSize / 100);
+            int mainMax = Math.max(0, maxSize - windowMax);
+            while (main.size() > mainMax) {
+                evictEldest(main);
+            }
+            // Entries overflowing the admission window move to the main LRU,
+            // or have to win against its eldest entry once it is full.
+            while (window.size() > windowMax) {
+                Map.Entry<String, CacheNode> candidate = window.entrySet().iterator().next();
+                window.remove(candidate.getKey());
+                if (main.size() < mainMax) {
+                    main.put(candidate.getKey(), candidate.getValue());
+                } else if (mainMax > 0 && wins(candidate.getKey(), main.keySet().iterator().next())) {
+                    evictEldest(main);
+                    main.put(candidate.getKey(), candidate.getValue());
+                } else {
+                    evicted(candidate.getKey(), candidate.getValue());
+                }
+            }
+            // Enforce the weight bound, again letting the frequency sketch pick the victim.
+            while (weight > maxWeight && !(window.isEmpty() && main.isEmpty())) {
+                if (main.isEmpty()) {
+                    evictEldest(window);
+                } else if (window.isEmpty() || wins(window.keySet().iterator().next(), main.keySet().iterator().next())) {
+                    evictEldest(main);
+                } else {
+                    evictEldest(window);
                 }
             }
         }
-        return null;
+
+        private boolean wins(String candidate, String victim) {
+            return sketch.frequency(candidate) > sketch.frequency(victim);
+        }
+
+        private void evictEldest(LinkedHashMap<String, CacheNode> map) {
+            Map.Entry<String, CacheNode> eldest = map.entrySet().iterator().next();
+            map.remove(eldest.getKey());
+            evicted(eldest.getKey(), eldest.getValue());
+        }
+
+        private void evicted(String digest, CacheNode node) {
+            sLog.debug("Pruning digest %s from the cache.", digest);
+            removed(node);
+            ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICT.increment();
+        }
+
+        private void removed(CacheNode node) {
+            weight -= weigh(node);
+            sDataSize.addAndGet(-node.size);
+        }
     }
 }
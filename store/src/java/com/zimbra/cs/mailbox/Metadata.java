@@ -147,6 +147,14 @@ public final class Metadata {
             map = new HashMap<Object, Object>();
             return;
         }
+        if (MetadataEncoding.isEncoded(encoded)) {
+            try {
+                map = MetadataEncoding.decodeLazily(encoded);
+                return;
+            } catch (IllegalArgumentException e) {
+                throw MailServiceException.INVALID_METADATA(encoded, e);
+            }
+        }
         try {
             try {
                 map = (Map) BEncoding.decode(encoded);
@@ -202,9 +210,30 @@ public final class Metadata {
         return this;
     }
 
+    /** Returns the value for {@code key}, decoding it first if it is still encoded. */
+    private Object value(Object key) {
+        Object value = map.get(key);
+        if (value instanceof MetadataEncoding.Lazy) {
+            value = ((MetadataEncoding.Lazy) value).decode();
+            map.put(key, value);
+        }
+        return value;
+    }
+
+    /** Decodes any values that are still encoded and returns the underlying map.  Call this
+     *  before the map is handed to code that doesn't know about lazily decoded values. */
+    Map<Object, Object> decodedMap() {
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            if (entry.getValue() instanceof MetadataEncoding.Lazy) {
+                entry.setValue(((MetadataEncoding.Lazy) entry.getValue()).decode());
+            }
+        }
+        return map;
+    }
+
     public Map<String, ?> asMap()  {
         Map<String, Object> result = new HashMap<String, Object>();
-        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+        for (Map.Entry<Object, Object> entry : decodedMap().entrySet()) {
             Object key = entry.getKey();
             Object value = entry.getValue();
             if (key == null || value == null) {
@@ -255,7 +284,7 @@ public final class Metadata {
 
     public Metadata put(String key, Metadata value) {
         if (key != null && value != null) {
-            map.put(key, value.map);
+            map.put(key, value.decodedMap());
         }
         return this;
     }
@@ -284,7 +313,7 @@ public final class Metadata {
     }
 
     public String get(String key, String defaultValue) {
-        Object value = map.get(key);
+        Object value = value(key);
         return value == null ? defaultValue : value.toString();
     }
 
@@ -318,7 +347,7 @@ public final class Metadata {
     }
 
     public MetadataList getList(String key, boolean nullOK) throws ServiceException {
-        Object value = map.get(key);
+        Object value = value(key);
         if (nullOK && value == null) {
             return null;
         }
@@ -335,7 +364,7 @@ public final class Metadata {
     }
 
     public Metadata getMap(String key, boolean nullable) throws ServiceException {
-        Object value = map.get(key);
+        Object value = value(key);
         if (nullable && value == null) {
             return null;
         }
@@ -350,14 +379,56 @@ public final class Metadata {
     @Override
     public String toString() {
         put(FN_MD_VERSION, LEGACY_METADATA_VERSION);
-        String result = BEncoding.encode(map);
+        String result = BEncoding.encode(decodedMap());
         map.remove(FN_MD_VERSION);
         return result;
     }
 
+    /** Returns this metadata in the compact format used for {@code MAIL_ITEM} rows.
+     *  Fields that haven't been read since the row was loaded are copied without decoding.
+     * @see MetadataEncoding */
+    public String toCompactString() {
+        return MetadataEncoding.encode(map);
+    }
+
+    /** Returns whether {@code encoded} is in the compact format rather than BEncoded. */
+    public static boolean isCompact(String encoded) {
+        return MetadataEncoding.isEncoded(encoded);
+    }
+
+    /** Re-encodes a BEncoded metadata string in the compact format.  Strings that are
+     *  already compact, or that aren't a BEncoded map, are returned unchanged. */
+    public static String toCompact(String encoded) {
+        if (encoded == null || encoded.isEmpty() || encoded.charAt(0) != 'd') {
+            return encoded;
+        }
+        try {
+            Map<?, ?> decoded = BEncoding.decode(encoded);
+            decoded.remove(FN_MD_VERSION);
+            return MetadataEncoding.encode(decoded);
+        } catch (BEncodingException e) {
+            return encoded;
+        }
+    }
+
+    /** Returns whether two encoded metadata strings hold the same values, regardless of
+     *  which format each one is in. */
+    public static boolean sameContent(String encoded1, String encoded2) {
+        if (encoded1 == null || encoded2 == null) {
+            return encoded1 == encoded2;
+        } else if (encoded1.equals(encoded2)) {
+            return true;
+        }
+        try {
+            return new Metadata(encoded1).decodedMap().equals(new Metadata(encoded2).decodedMap());
+        } catch (ServiceException e) {
+            return false;
+        }
+    }
+
     public String prettyPrint() {
         StringBuilder sb = new StringBuilder(2048);
-        prettyEncode(sb, map, 0);
+        prettyEncode(sb, decodedMap(), 0);
         sb.setLength(sb.length() - 1);  // Remove the last newline.
         return sb.toString();
     }
@@ -0,0 +1,399 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Compact encoding for item {@link Metadata}, used for the {@code METADATA} column of
+ * {@code MAIL_ITEM}.
+ * <p>
+ * Like {@link com.zimbra.common.util.BEncoding} it is plain text, so it can live in the
+ * existing column next to rows that are still BEncoded.  Differences from BEncoding:
+ * <ul>
+ *   <li>the string starts with {@link #MARKER} and a format version;
+ *   <li>numbers, lengths and counts are varints of 5 bits per character;
+ *   <li>well-known field names are stored as an index into {@link #KEYS};
+ *   <li>maps and lists are prefixed with their encoded length, so a decoder can skip them.
+ * </ul>
+ * The skip lets {@link Metadata} decode only the top-level directory of a row and leave
+ * each field as a {@link Lazy} slice until it is read.
+ * <pre>
+ *   metadata := MARKER VERSION count (key value)*
+ *   key      := '#' varint(index in KEYS) | ':' varint(length) chars
+ *   value    := '+' varint(n) | '-' varint(-n - 1) | ':' varint(length) chars
+ *             | '{' varint(span) varint(count) (key value)*
+ *             | '[' varint(span) varint(count) value*
+ * </pre>
+ * {@code span} is the number of characters following the span varint up to the end of the
+ * map or list.
+ */
+final class MetadataEncoding {
+    static final char MARKER = '~';
+    static final char VERSION = '1';
+
+    private static final char TAG_INTERNED = '#';
+    private static final char TAG_STRING = ':';
+    private static final char TAG_POSITIVE = '+';
+    private static final char TAG_NEGATIVE = '-';
+    private static final char TAG_MAP = '{';
+    private static final char TAG_LIST = '[';
+
+    /** varint digits: the last 5-bit group of a number is '0'..'O', earlier groups are 'P'..'o' */
+    private static final char DIGIT_LAST = '0';
+    private static final char DIGIT_MORE = 'P';
+
+    /**
+     * Interned field names.  The index of a name is stored in encoded rows, so this list is
+     * append-only: never remove or reorder an entry.
+     */
+    private static final String[] KEYS = {
+        // Metadata
+        "a", "acl", "aclm", "ad", "aid", "ais", "ape", "aps", "att", "c", "cif", "comp", "cr", "ct", "d", "das",
+        "wosd", "de", "dee", "do", "dt", "ast", "en", "f", "fld", "i4d", "i4du", "i4l", "i4r", "id", "idnt", "inv",
+        "l", "ld", "lo", "lst", "lt", "mseq", "nc", "no", "p", "prt", "q", "r", "rd", "rev", "rid", "rl", "rp",
+        "rs", "rt", "ruuid", "s", "sd", "sg", "rem", "sz", "t", "tzm", "u", "ua", "unxt", "url", "v", "mdver",
+        "ver", "vt", "ww", "X", "xd",
+        // Invite
+        "it", "af", "at", "byme", "cat", "cl", "clSetByMe", "completed", "cmt", "contact", "desc", "descH",
+        "xDescH", "dinM", "frag", "dts", "duration", "et", "fb", "geo", "mid", "lastMod", "mthd", "n", "numAt",
+        "numCat", "numCmt", "numContacts", "org", "isOrg", "ptst", "rsvp", "recurrence", "seq", "lfseq", "status",
+        "st", "tr", "prio", "pctcompl", "numAl", "al", "noidxmm",
+        // Contact fields
+        "firstName", "lastName", "middleName", "fullName", "fileAs", "nickname", "company", "jobTitle", "email",
+        "email2", "email3", "workEmail1", "homeEmail1", "workPhone", "workFax", "homePhone", "mobilePhone", "notes",
+        "workStreet", "workCity", "workState", "workPostalCode", "workCountry", "homeStreet", "homeCity",
+        "homeState", "homePostalCode", "homeCountry", "birthday", "type", "dlist", "groupMember", "image"
+    };
+
+    private static final Map<String, Integer> KEY_INDEX = new HashMap<String, Integer>(KEYS.length * 2);
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            // a name listed twice keeps its first index, which is the one writers use
+            if (!KEY_INDEX.containsKey(KEYS[i])) {
+                KEY_INDEX.put(KEYS[i], i);
+            }
+        }
+    }
+
+    /** An undecoded value: a slice of the encoded row, decoded on first access. */
+    static final class Lazy {
+        private final String source;
+        private final int start;
+        private final int end;
+
+        Lazy(String source, int start, int end) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+
+        Object decode() {
+            Cursor cursor = new Cursor(source, start, end);
+            Object value = cursor.readValue();
+            if (cursor.pos != end) {
+                throw cursor.invalid("trailing characters in value");
+            }
+            return value;
+        }
+
+        void appendTo(StringBuilder sb) {
+            sb.append(source, start, end);
+        }
+
+        @Override
+        public String toString() {
+            Object value = decode();
+            return value == null ? null : value.toString();
+        }
+    }
+
+    private MetadataEncoding() {
+    }
+
+    static boolean isEncoded(String encoded) {
+        return encoded != null && encoded.length() >= 2 && encoded.charAt(0) == MARKER;
+    }
+
+    static String encode(Map<?, ?> map) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(MARKER).append(VERSION);
+        int countAt = sb.length();
+        int count = 0;
+        for (Map.Entry<?, ?> entry : sorted(map).entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                appendKey(sb, entry.getKey().toString());
+                appendValue(sb, entry.getValue());
+                count++;
+            }
+        }
+        sb.insert(countAt, varint(count));
+        return sb.toString();
+    }
+
+    /** Writes entries in key order, as BEncoding does, so equal maps always encode the same way. */
+    private static Map<?, ?> sorted(Map<?, ?> map) {
+        return map instanceof SortedMap ? map : new TreeMap<Object, Object>(map);
+    }
+
+    private static void appendKey(StringBuilder sb, String key) {
+        Integer index = KEY_INDEX.get(key);
+        if (index != null) {
+            sb.append(TAG_INTERNED);
+            appendVarint(sb, index);
+        } else {
+            sb.append(TAG_STRING);
+            appendVarint(sb, key.length());
+            sb.append(key);
+        }
+    }
+
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value instanceof Lazy) {
+            // untouched field of a compact row: copy it over without decoding
+            ((Lazy) value).appendTo(sb);
+        } else if (value instanceof Map) {
+            sb.append(TAG_MAP);
+            int spanAt = sb.length();
+            int count = 0;
+            for (Map.Entry<?, ?> entry : sorted((Map<?, ?>) value).entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    appendKey(sb, entry.getKey().toString());
+                    appendValue(sb, entry.getValue());
+                    count++;
+                }
+            }
+            sb.insert(spanAt, varint(count));
+            sb.insert(spanAt, varint(sb.length() - spanAt));
+        } else if (value instanceof List) {
+            sb.append(TAG_LIST);
+            int spanAt = sb.length();
+            int count = 0;
+            for (Object element : (List<?>) value) {
+                if (element != null) {
+                    appendValue(sb, element);
+                    count++;
+                }
+            }
+            sb.insert(spanAt, varint(count));
+            sb.insert(spanAt, varint(sb.length() - spanAt));
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            long n = ((Number) value).longValue();
+            if (n >= 0) {
+                sb.append(TAG_POSITIVE);
+                appendVarint(sb, n);
+            } else {
+                sb.append(TAG_NEGATIVE);
+                appendVarint(sb, -(n + 1));
+            }
+        } else {
+            // as with BEncoding, everything else (booleans, doubles) is stored as its string form
+            String str = value.toString();
+            sb.append(TAG_STRING);
+            appendVarint(sb, str.length());
+            sb.append(str);
+        }
+    }
+
+    private static String varint(long n) {
+        StringBuilder sb = new StringBuilder(4);
+        appendVarint(sb, n);
+        return sb.toString();
+    }
+
+    private static void appendVarint(StringBuilder sb, long n) {
+        while ((n & ~0x1FL) != 0) {
+            sb.append((char) (DIGIT_MORE + (n & 0x1F)));
+            n >>>= 5;
+        }
+        sb.append((char) (DIGIT_LAST + n));
+    }
+
+    /**
+     * Decodes the top level of a compact row.  Numbers are decoded right away; strings, maps and
+     * lists are left as {@link Lazy} values.
+     *
+     * @throws IllegalArgumentException if the row is not valid compact metadata
+     */
+    static Map<Object, Object> decodeLazily(String encoded) {
+        if (encoded.charAt(1) != VERSION) {
+            throw new IllegalArgumentException("unsupported compact metadata version " + encoded.charAt(1));
+        }
+        Cursor cursor = new Cursor(encoded, 2, encoded.length());
+        int count = cursor.readCount();
+        Map<Object, Object> map = new HashMap<Object, Object>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String key = cursor.readKey();
+            int start = cursor.pos;
+            char tag = cursor.peek();
+            if (tag == TAG_POSITIVE || tag == TAG_NEGATIVE) {
+                map.put(key, cursor.readValue());
+            } else {
+                cursor.skipValue();
+                map.put(key, new Lazy(encoded, start, cursor.pos));
+            }
+        }
+        if (cursor.pos != encoded.length()) {
+            throw cursor.invalid("trailing characters");
+        }
+        return map;
+    }
+
+    /** Fully decodes a compact row into the same structure {@code BEncoding.decode} returns. */
+    static Map<Object, Object> decode(String encoded) {
+        Map<Object, Object> map = decodeLazily(encoded);
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            if (entry.getValue() instanceof Lazy) {
+                entry.setValue(((Lazy) entry.getValue()).decode());
+            }
+        }
+        return map;
+    }
+
+    private static final class Cursor {
+        private final String source;
+        private final int end;
+        int pos;
+
+        Cursor(String source, int start, int end) {
+            this.source = source;
+            this.pos = start;
+            this.end = end;
+        }
+
+        IllegalArgumentException invalid(String reason) {
+            return new IllegalArgumentException("invalid compact metadata at offset " + pos + ": " + reason);
+        }
+
+        char peek() {
+            if (pos >= end) {
+                throw invalid("unexpected end");
+            }
+            return source.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        long readVarint() {
+            long n = 0;
+            for (int shift = 0; shift < 64; shift += 5) {
+                char c = next();
+                if (c >= DIGIT_LAST && c < DIGIT_LAST + 32) {
+                    return n | ((long) (c - DIGIT_LAST) << shift);
+                } else if (c >= DIGIT_MORE && c < DIGIT_MORE + 32) {
+                    n |= (long) (c - DIGIT_MORE) << shift;
+                } else {
+                    pos--;
+                    throw invalid("bad varint digit '" + c + "'");
+                }
+            }
+            throw invalid("varint too long");
+        }
+
+        int readCount() {
+            long n = readVarint();
+            if (n > end - pos) {
+                throw invalid("length " + n + " exceeds remaining " + (end - pos));
+            }
+            return (int) n;
+        }
+
+        private String readChars() {
+            int length = readCount();
+            String str = source.substring(pos, pos + length);
+            pos += length;
+            return str;
+        }
+
+        String readKey() {
+            char tag = next();
+            if (tag == TAG_INTERNED) {
+                long index = readVarint();
+                if (index >= KEYS.length) {
+                    throw invalid("unknown key index " + index);
+                }
+                return KEYS[(int) index];
+            } else if (tag == TAG_STRING) {
+                return readChars();
+            }
+            pos--;
+            throw invalid("bad key tag '" + tag + "'");
+        }
+
+        Object readValue() {
+            char tag = next();
+            switch (tag) {
+                case TAG_POSITIVE:
+                    return Long.valueOf(readVarint());
+                case TAG_NEGATIVE:
+                    return Long.valueOf(-readVarint() - 1);
+                case TAG_STRING:
+                    return readChars();
+                case TAG_MAP: {
+                    readCount();
+                    int count = readCount();
+                    Map<String, Object> map = new HashMap<String, Object>(count * 4 / 3 + 1);
+                    for (int i = 0; i < count; i++) {
+                        String key = readKey();
+                        map.put(key, readValue());
+                    }
+                    return map;
+                }
+                case TAG_LIST: {
+                    readCount();
+                    int count = readCount();
+                    List<Object> list = new ArrayList<Object>(count);
+                    for (int i = 0; i < count; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                default:
+                    pos--;
+                    throw invalid("bad value tag '" + tag + "'");
+            }
+        }
+
+        void skipValue() {
+            char tag = next();
+            switch (tag) {
+                case TAG_POSITIVE:
+                case TAG_NEGATIVE:
+                    readVarint();
+                    break;
+                case TAG_STRING:
+                case TAG_MAP:
+                case TAG_LIST:
+                    int span = readCount();
+                    pos += span;
+                    break;
+                default:
+                    pos--;
+                    throw invalid("bad value tag '" + tag + "'");
+            }
+        }
+    }
+}
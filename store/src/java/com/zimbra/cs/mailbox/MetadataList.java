@@ -110,7 +110,7 @@ public class MetadataList {
 
     public MetadataList add(Metadata value)  {
         if (value != null) {
-            list.add(value.map);
+            list.add(value.decodedMap());
         }
         return this;
     }
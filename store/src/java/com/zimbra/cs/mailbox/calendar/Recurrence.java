@@ -31,6 +31,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.zimbra.common.calendar.ICalTimeZone;
 import com.zimbra.common.calendar.ParsedDateTime;
 import com.zimbra.common.calendar.ParsedDuration;
@@ -129,6 +133,11 @@ public class Recurrence
         abstract List<Instance> expandInstances(int calItemId, long start, long end)
         throws ServiceException;
 
+        // same instances as expandInstances, but generated as the iterator is read so that callers
+        // needing only the first few don't pay for the whole range
+        abstract Iterator<Instance> instanceIterator(int calItemId, long start, long end)
+        throws ServiceException;
+
         // get the first time for which the rule has instances
         public ParsedDateTime getStartTime();
         // get the last time (-1 means forever) for which the rule has instances
@@ -317,6 +326,15 @@ public class Recurrence
             return toRet;
         }
 
+        Iterator<Instance> instanceIterator(int calItemId, long start, long end)
+        throws ServiceException {
+            List<Iterator<Instance>> iters = new ArrayList<Iterator<Instance>>(mRules.size());
+            for (IRecurrence cur : mRules) {
+                iters.add(cur.instanceIterator(calItemId, start, end));
+            }
+            return ListUtil.mergeSortedIterators(iters, true);
+        }
+
         @Override
         public String toString() {
             StringBuffer toRet = new StringBuffer();
@@ -432,6 +450,11 @@ public class Recurrence
             return expandInstances(calItemId);
         }
 
+        @Override
+        public Iterator<Instance> instanceIterator(int calItemId, long start, long end) {
+            return expandInstances(calItemId).iterator();
+        }
+
         /**
          * @return returns ALL instances - know this will not be an infinite list...
          */
@@ -733,36 +756,16 @@ public class Recurrence
             if (toRet != null) {
                 return toRet;
             }
-            ICalTimeZone tz = mDtStart.getTimeZone();
-            if (tz == null)
-                tz = ICalTimeZone.getUTC();
+            ICalTimeZone tz = getTimeZone();
             try {
-                long duration = 0;
-                if (mDuration != null) {
-                    ParsedDateTime et = mDtStart.add(mDuration);
-                    duration = et.getUtcTime() - mDtStart.getUtcTime();
-                }
-                List <java.util.Date> dateList = mRecur.expandRecurrenceOverRange(mDtStart, start - duration, end);
+                List <java.util.Date> dateList = mRecur.expandRecurrenceOverRange(mDtStart, start - getDurationMillis(), end);
 
                 toRet = new ArrayList<Instance>(dateList.size());
 
-                int num = 0;
-                for (Iterator iter = dateList.iterator(); iter.hasNext();) {
-                    Date cur = (Date)iter.next();
-                    long instStart = cur.getTime();
-                    long instEnd;
-                    if (mDuration != null) {
-                        ParsedDateTime startDt = ParsedDateTime.fromUTCTime(instStart, tz);
-                        instEnd = startDt.add(mDuration).getUtcTime();
-                    } else {
-                        instEnd = instStart;
-                    }
-                    if (instStart < end && instEnd > start) {
-                        int startTzo = tz.getOffset(instStart);
-                        int endTzo = tz.getOffset(instEnd);
-                        boolean allDay = !mDtStart.hasTime() || (mDtStart.hasZeroTime() && mDuration != null && mDuration.isMultipleOfDays());
-                        toRet.add(num++, new Instance(calItemId, mInvId, true, true, instStart, instEnd,
-                                allDay, startTzo, endTzo, false, false));
+                for (Date cur : dateList) {
+                    Instance inst = toInstance(calItemId, tz, cur.getTime(), start, end);
+                    if (inst != null) {
+                        toRet.add(inst);
                     }
                 }
             } catch (ServiceException se) {
@@ -779,6 +782,81 @@ public class Recurrence
             return toRet;
         }
 
+        @Override
+        public Iterator<Instance> instanceIterator(final int calItemId, final long start, final long end) {
+            if (mDtStart == null) {
+                ZimbraLog.calendar.warn("Unable to expand a recurrence with no DTSTART");
+                return Collections.emptyIterator();
+            }
+            List<Instance> expanded = expandMap.get(String.valueOf(calItemId) + '-' + start + '-' + end);
+            if (expanded != null) {
+                return expanded.iterator();
+            }
+            final ICalTimeZone tz = getTimeZone();
+            final Iterator<Date> dates;
+            try {
+                dates = mRecur.iterateRecurrenceOverRange(mDtStart, start - getDurationMillis(), end);
+            } catch (ServiceException se) {
+                // Bugs 3172 and 3240.  Ignore recurrence rules with bad data.
+                ZimbraLog.calendar.warn("ServiceException expanding recurrence rule: " + mRecur.toString(), se);
+                return Collections.emptyIterator();
+            } catch (IllegalArgumentException iae) {
+                ZimbraLog.calendar.warn("Invalid recurrence rule: " + mRecur.toString(), iae);
+                return Collections.emptyIterator();
+            }
+            return new AbstractIterator<Instance>() {
+                @Override
+                protected Instance computeNext() {
+                    try {
+                        while (dates.hasNext()) {
+                            Instance inst = toInstance(calItemId, tz, dates.next().getTime(), start, end);
+                            if (inst != null) {
+                                return inst;
+                            }
+                        }
+                    } catch (IllegalArgumentException iae) {
+                        ZimbraLog.calendar.warn("Invalid recurrence rule: " + mRecur.toString(), iae);
+                    }
+                    return endOfData();
+                }
+            };
+        }
+
+        private ICalTimeZone getTimeZone() {
+            ICalTimeZone tz = mDtStart.getTimeZone();
+            return tz != null ? tz : ICalTimeZone.getUTC();
+        }
+
+        private long getDurationMillis() {
+            if (mDuration == null) {
+                return 0;
+            }
+            ParsedDateTime et = mDtStart.add(mDuration);
+            return et.getUtcTime() - mDtStart.getUtcTime();
+        }
+
+        /**
+         * Returns the instance starting at {@code instStart}, or {@code null} if it doesn't overlap
+         * [{@code start}, {@code end}).
+         */
+        private Instance toInstance(int calItemId, ICalTimeZone tz, long instStart, long start, long end) {
+            long instEnd;
+            if (mDuration != null) {
+                ParsedDateTime startDt = ParsedDateTime.fromUTCTime(instStart, tz);
+                instEnd = startDt.add(mDuration).getUtcTime();
+            } else {
+                instEnd = instStart;
+            }
+            if (instStart >= end || instEnd <= start) {
+                return null;
+            }
+            int startTzo = tz.getOffset(instStart);
+            int endTzo = tz.getOffset(instEnd);
+            boolean allDay = !mDtStart.hasTime() || (mDtStart.hasZeroTime() && mDuration != null && mDuration.isMultipleOfDays());
+            return new Instance(calItemId, mInvId, true, true, instStart, instEnd,
+                    allDay, startTzo, endTzo, false, false);
+        }
+
         public ZRecur getRule() { return mRecur; }
 
 
@@ -964,20 +1042,12 @@ public class Recurrence
                 toAdd = new ArrayList<Instance>(1);
 
             // DTSTART
-            long firstStart = mDtStart.getUtcTime();
-            ParsedDateTime dtFirstEnd = mDuration != null ? mDtStart.add(mDuration) : null;
-            long firstEnd = dtFirstEnd != null ? dtFirstEnd.getUtcTime() : firstStart;
-            if (firstStart < end && firstEnd > start) {
+            CalendarItem.Instance dtstartInst = getDtStartInstance(calItemId, start, end);
+            if (dtstartInst != null) {
                 CalendarItem.Instance first = null;
                 if (toAdd.size() > 0) {
                     first = toAdd.get(0);
                 }
-
-                boolean allDay = !mDtStart.hasTime() || (mDtStart.hasZeroTime() && mDuration != null && mDuration.isMultipleOfDays());
-                CalendarItem.Instance dtstartInst = new CalendarItem.Instance(
-                        calItemId, mInvId, true, true, firstStart, firstEnd,
-                        allDay, mDtStart.getOffset(), dtFirstEnd != null ? dtFirstEnd.getOffset() : 0,
-                        false, true);
                 if (first == null || first.compareTo(dtstartInst) != 0)
                     toAdd.add(0,dtstartInst);
             }
@@ -990,6 +1060,52 @@ public class Recurrence
                     toAdd, toExclude, new Instance.StartTimeComparator());
         }
 
+        @Override
+        public Iterator<Instance> instanceIterator(int calItemId, long start, long end)
+        throws ServiceException {
+            if (mDtStart == null) {
+                ZimbraLog.calendar.warn("Unable to expand a recurrence with no DTSTART");
+                return Collections.emptyIterator();
+            }
+
+            // RRULEs + RDATEs
+            Iterator<Instance> toAdd;
+            if (mAddRules != null)
+                toAdd = mAddRules.instanceIterator(calItemId, start, end);
+            else
+                toAdd = Collections.emptyIterator();
+
+            // DTSTART
+            CalendarItem.Instance dtstartInst = getDtStartInstance(calItemId, start, end);
+            if (dtstartInst != null) {
+                PeekingIterator<Instance> rest = Iterators.peekingIterator(toAdd);
+                if (!rest.hasNext() || rest.peek().compareTo(dtstartInst) != 0)
+                    toAdd = Iterators.concat(Iterators.singletonIterator(dtstartInst), rest);
+                else
+                    toAdd = rest;
+            }
+
+            // -(EXRULEs + EXDATEs)
+            if (mSubtractRules == null)
+                return toAdd;
+            return ListUtil.subtractSortedIterators(toAdd,
+                    mSubtractRules.instanceIterator(calItemId, start, end), new Instance.StartTimeComparator());
+        }
+
+        /** Returns the DTSTART instance, or {@code null} if it doesn't overlap [{@code start}, {@code end}). */
+        private CalendarItem.Instance getDtStartInstance(int calItemId, long start, long end) {
+            long firstStart = mDtStart.getUtcTime();
+            ParsedDateTime dtFirstEnd = mDuration != null ? mDtStart.add(mDuration) : null;
+            long firstEnd = dtFirstEnd != null ? dtFirstEnd.getUtcTime() : firstStart;
+            if (firstStart >= end || firstEnd <= start)
+                return null;
+            boolean allDay = !mDtStart.hasTime() || (mDtStart.hasZeroTime() && mDuration != null && mDuration.isMultipleOfDays());
+            return new CalendarItem.Instance(
+                    calItemId, mInvId, true, true, firstStart, firstEnd,
+                    allDay, mDtStart.getOffset(), dtFirstEnd != null ? dtFirstEnd.getOffset() : 0,
+                    false, true);
+        }
+
         @Override
         public Element toXml(Element parent) {
             if (mAddRules != null) {
@@ -1224,6 +1340,11 @@ public class Recurrence
             return new ArrayList<Instance>(); // NONE!
         }
 
+        @Override
+        public Iterator<Instance> instanceIterator(int calItemId, long start, long end) {
+            return Collections.emptyIterator();
+        }
+
         @Override
         public ParsedDateTime getStartTime() {
             return null;
@@ -1310,6 +1431,13 @@ public class Recurrence
             return toRet;
         }
 
+        @Override
+        public Iterator<Instance> instanceIterator(int calItemId, long start, long end)
+        throws ServiceException {
+            // An exception has a handful of instances at most; expand them so they get marked as exceptions.
+            return expandInstances(calItemId, start, end).iterator();
+        }
+
 
         @Override
         public Element toXml(Element parent) {
@@ -1446,9 +1574,88 @@ public class Recurrence
 
         @Override
         public List<Instance> expandInstances(int calItemId, long start, long end) throws ServiceException {
+            long[] adjusted = adjustRange(start, end);
+            long startAdjusted = adjusted[0];
+            long endAdjusted = adjusted[1];
+
+            // get the list of instances that THIS rule expands into
+            List<Instance> stdInstances = super.expandInstances(calItemId, startAdjusted, endAdjusted);
+
+            // Iterate the expanded instances and eliminate instances whose start time:
+            // 1) lies outside the [start, end) range
+            // 2) or matches RECURRENCE-ID of one of the exceptions.
+            for (Iterator<Instance> iter = stdInstances.iterator(); iter.hasNext(); ) {
+                Instance inst = iter.next();
+                if (inst != null) {
+                    if (inst.getEnd() < start || inst.getStart() >= end) {
+                        // Restrict to [start, end) range.
+                        iter.remove();
+                    } else if (matchesException(inst)) {
+                        iter.remove();
+                    }
+                }
+            }
+
+            // Expand and add all exceptions in the range.
+            List<List<Instance>> exceptionInstancesList =
+                    expandExceptions(calItemId, start, end, startAdjusted, endAdjusted);
+
+            // Combine all rule and exception instances.
+            List<Instance> toRet;
+            if (exceptionInstancesList.isEmpty()) {
+                toRet = stdInstances;
+            } else {
+                toRet = new ArrayList<Instance>();
+                List<Instance> toAdd[] = new List[exceptionInstancesList.size() + 1];
+                toAdd[0] = stdInstances;
+                int offset = 1;
+                for (List<Instance> except : exceptionInstancesList) {
+                    toAdd[offset++] = except;
+                }
+                ListUtil.mergeSortedLists(toRet, toAdd, true);
+            }
+
+            return toRet;
+        }
+
+        @Override
+        public Iterator<Instance> instanceIterator(int calItemId, final long start, final long end)
+        throws ServiceException {
+            long[] adjusted = adjustRange(start, end);
+            long startAdjusted = adjusted[0];
+            long endAdjusted = adjusted[1];
+
+            // Same filtering as expandInstances, applied as the rule's instances are generated.
+            Iterator<Instance> stdInstances = Iterators.filter(
+                    super.instanceIterator(calItemId, startAdjusted, endAdjusted), new Predicate<Instance>() {
+                @Override
+                public boolean apply(Instance inst) {
+                    return inst == null ||
+                            (inst.getEnd() >= start && inst.getStart() < end && !matchesException(inst));
+                }
+            });
+
+            List<List<Instance>> exceptionInstancesList =
+                    expandExceptions(calItemId, start, end, startAdjusted, endAdjusted);
+            if (exceptionInstancesList.isEmpty()) {
+                return stdInstances;
+            }
+            List<Iterator<Instance>> toAdd = new ArrayList<Iterator<Instance>>(exceptionInstancesList.size() + 1);
+            toAdd.add(stdInstances);
+            for (List<Instance> except : exceptionInstancesList) {
+                toAdd.add(except.iterator());
+            }
+            return ListUtil.mergeSortedIterators(toAdd, true);
+        }
+
+        /**
+         * Stretches [{@code start}, {@code end}) to ensure all exception instances are included.
+         *
+         * @return adjusted start and end
+         */
+        private long[] adjustRange(long start, long end) throws ServiceException {
             long startAdjusted = start;
             long endAdjusted = end;
-            // Stretch the start/end times to ensure all exception instances are included.
             for (IException except : mExceptions) {
                 if (except != null) {
                     RecurId rid = except.getRecurId();
@@ -1482,44 +1689,40 @@ public class Recurrence
                     }
                 }
             }
+            return new long[] { startAdjusted, endAdjusted };
+        }
 
-            // get the list of instances that THIS rule expands into
-            List<Instance> stdInstances = super.expandInstances(calItemId, startAdjusted, endAdjusted);
-
-            // Iterate the expanded instances and eliminate instances whose start time:
-            // 1) lies outside the [start, end) range
-            // 2) or matches RECURRENCE-ID of one of the exceptions.
-            for (Iterator<Instance> iter = stdInstances.iterator(); iter.hasNext(); ) {
-                Instance inst = iter.next();
-                if (inst != null) {
-                    if (inst.getEnd() < start || inst.getStart() >= end) {
-                        // Restrict to [start, end) range.
-                        iter.remove();
-                    } else {
-                        for (IException except : mExceptions) {
-                            if (except != null) {
-                                long instStart = inst.getStart();
-                                if (inst.isAllDay()) {
-                                    // Adjust start time value from instance's TZ to exception's TZ.
-                                    RecurId eRid = except.getRecurId();
-                                    if (eRid != null && eRid.getDt() != null) {
-                                        long eOffset = eRid.getDt().getOffset();
-                                        long iOffset = inst.getStartTzOffset();
-                                        if (iOffset != eOffset)
-                                            instStart += iOffset - eOffset;
-                                    }
-                                }
-                                if (except.matches(instStart)) {
-                                    iter.remove();
-                                    break;
-                                }
-                            }
+        /**
+         * Returns true if the instance's start time matches RECURRENCE-ID of one of the exceptions.
+         */
+        private boolean matchesException(Instance inst) {
+            for (IException except : mExceptions) {
+                if (except != null) {
+                    long instStart = inst.getStart();
+                    if (inst.isAllDay()) {
+                        // Adjust start time value from instance's TZ to exception's TZ.
+                        RecurId eRid = except.getRecurId();
+                        if (eRid != null && eRid.getDt() != null) {
+                            long eOffset = eRid.getDt().getOffset();
+                            long iOffset = inst.getStartTzOffset();
+                            if (iOffset != eOffset)
+                                instStart += iOffset - eOffset;
                         }
                     }
+                    if (except.matches(instStart)) {
+                        return true;
+                    }
                 }
             }
+            return false;
+        }
 
-            // Expand and add all exceptions in the range.
+        /**
+         * Expands the exceptions over the adjusted range, restricted to [{@code start}, {@code end}).  Exceptions
+         * with no instances in range are left out.
+         */
+        private List<List<Instance>> expandExceptions(int calItemId, long start, long end,
+                long startAdjusted, long endAdjusted) throws ServiceException {
             List<List<Instance>> exceptionInstancesList = new ArrayList<List<Instance>>();
             for (IException except : mExceptions) {
                 if (except != null) {
@@ -1538,23 +1741,7 @@ public class Recurrence
                         exceptionInstancesList.add(instances);
                 }
             }
-
-            // Combine all rule and exception instances.
-            List<Instance> toRet;
-            if (exceptionInstancesList.isEmpty()) {
-                toRet = stdInstances;
-            } else {
-                toRet = new ArrayList<Instance>();
-                List<Instance> toAdd[] = new List[exceptionInstancesList.size() + 1];
-                toAdd[0] = stdInstances;
-                int offset = 1;
-                for (List<Instance> except : exceptionInstancesList) {
-                    toAdd[offset++] = except;
-                }
-                ListUtil.mergeSortedLists(toRet, toAdd, true);
-            }
-
-            return toRet;
+            return exceptionInstancesList;
         }
 
         @Override
@@ -1647,6 +1834,40 @@ public class Recurrence
         return toRet;
     }
 
+    /**
+     * Lazy counterpart of {@link #expandInstances(IRecurrence, int, long, long)}, with the same elimination of
+     * duplicate instances.
+     */
+    public static Iterator<Instance> instanceIterator(IRecurrence recur, int calItemId, long start, long end)
+    throws ServiceException {
+        final PeekingIterator<Instance> iter = Iterators.peekingIterator(recur.instanceIterator(calItemId, start, end));
+        return new AbstractIterator<Instance>() {
+            @Override
+            protected Instance computeNext() {
+                Instance prev = null;
+                while (prev == null) {
+                    if (!iter.hasNext()) {
+                        return endOfData();
+                    }
+                    prev = iter.next();
+                }
+                while (iter.hasNext()) {
+                    Instance inst = iter.peek();
+                    if (inst != null) {
+                        if (!inst.sameTime(prev)) {
+                            break;
+                        }
+                        // Prefer the instance that wasn't generated from RDATE.
+                        if (!inst.fromRdate())
+                            prev = inst;
+                    }
+                    iter.next();
+                }
+                return prev;
+            }
+        };
+    }
+
     // Get the set of TZIDs referenced in a recurrence.  RDATE and EXDATE can use TZID parameter.
     public static Set<String> getReferencedTZIDs(IRecurrence recur) {
         Set<String> tzids = new HashSet<String>();
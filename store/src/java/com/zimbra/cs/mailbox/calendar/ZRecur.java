@@ -17,6 +17,7 @@
 package com.zimbra.cs.mailbox.calendar;
 
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
@@ -25,8 +26,10 @@ import java.util.Date;
 import java.util.Formatter;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.http.client.utils.DateUtils;
@@ -657,80 +660,126 @@ public class ZRecur implements Cloneable {
         long rangeEnd)
     throws ServiceException {
         List<Date> toRet = new LinkedList<Date>();
+        for (Iterator<Date> iter = iterateRecurrenceOverRange(dtStart, rangeStart, rangeEnd); iter.hasNext(); ) {
+            toRet.add(iter.next());
+        }
+        return toRet;
+    }
 
-        Date rangeStartDate = new Date(rangeStart);
-        // subtract 1000ms (1sec) because the code in the method treats
-        // end time as inclusive while the rangeEnd input argument is
-        // exclusive value
-        Date rangeEndDate = new Date(rangeEnd - 1000);
-        Date dtStartDate = new Date(dtStart.getUtcTime());
+    /**
+     * Returns the dates {@link #expandRecurrenceOverRange} returns, in the same order, expanding the rule one
+     * frequency interval at a time as the caller advances.  A caller that stops at the first date it is interested
+     * in doesn't pay for the rest of the range.
+     */
+    public Iterator<Date> iterateRecurrenceOverRange(ParsedDateTime dtStart, long rangeStart, long rangeEnd)
+    throws ServiceException {
+        return new Expansion(dtStart, rangeStart, rangeEnd);
+    }
+
+    private final class Expansion implements Iterator<Date> {
+        private final Date dtStartDate;
+        private final Date earliestDate;
+        private Date rangeEndDate;
+        private final int maxInstancesExpanded;
+        private int numInstancesExpanded = 1;  // initially 1 rather than 0 because DTSTART is always included
+        private GregorianCalendar cur;
+        private int baseMonthDay;
+        private boolean baseIsLeapDay;
+        private final int interval;
+        private int numConsecutiveIterationsWithoutMatchingInstance = 0;
+        private boolean pastHardEndTime = false;
+        private boolean done = false;
+        private final ArrayDeque<Date> pending = new ArrayDeque<Date>();
+
+        Expansion(ParsedDateTime dtStart, long rangeStart, long rangeEnd) throws ServiceException {
+            Date rangeStartDate = new Date(rangeStart);
+            // subtract 1000ms (1sec) because the code in the method treats
+            // end time as inclusive while the rangeEnd input argument is
+            // exclusive value
+            rangeEndDate = new Date(rangeEnd - 1000);
+            dtStartDate = new Date(dtStart.getUtcTime());
+
+            if (dtStartDate.after(rangeStartDate))
+                earliestDate = dtStartDate;
+            else
+                earliestDate = rangeStartDate;
 
-        Date earliestDate;
-        if (dtStartDate.after(rangeStartDate))
-            earliestDate = dtStartDate;
-        else
-            earliestDate = rangeStartDate;
+            if (mUntil != null) {
+                Date until = mUntil.getDateForRecurUntil(dtStart.getTimeZone());
+                if (until.before(rangeEndDate))
+                    rangeEndDate = until;
+            }
 
-        if (mUntil != null) {
-            Date until = mUntil.getDateForRecurUntil(dtStart.getTimeZone());
-            if (until.before(rangeEndDate))
-                rangeEndDate = until;
+            // Set limit of expansion count.
+            int maxInstancesFromConfig = sExpansionLimits.maxInstances;
+            if (maxInstancesFromConfig <= 0)
+                maxInstancesExpanded = mCount;
+            else if (mCount <= 0)
+                maxInstancesExpanded = maxInstancesFromConfig;
+            else
+                maxInstancesExpanded = Math.min(mCount, maxInstancesFromConfig);
+
+            // Set hard limit of expansion time range.  (bug 21989)
+            //changes made it handle TimeZone for ZCS-10805
+            ParsedDateTime earliestDateTime = ParsedDateTime.fromUTCTime(earliestDate.getTime(), dtStart.getTimeZone());
+            Date hardEndDate = getEstimatedEndTime(earliestDateTime);
+            if (hardEndDate.before(rangeEndDate))
+                rangeEndDate = hardEndDate;
+
+            int ival = mInterval;
+            if (ival <= 0)
+                ival = 1;
+            interval = ival;
+
+            if (rangeEndDate.before(earliestDate)) {
+                ZimbraLog.calendar.debug("Expanding recurrence over range where range end %s is before earliest date %s",
+                        DateUtils.formatDate(rangeEndDate), DateUtils.formatDate(earliestDate));
+                done = true;
+                return;
+            }
+
+            cur = dtStart.getCalendarCopy();
+            baseMonthDay = cur.get(Calendar.DAY_OF_MONTH);
+            baseIsLeapDay = ((baseMonthDay == 29) && (cur.get(Calendar.MONTH) == Calendar.FEBRUARY));
+
+            // DTSTART is always part of the expansion, as long as it falls within
+            // the range.
+            if (!dtStartDate.before(earliestDate) && !dtStartDate.after(rangeEndDate))
+                pending.add(dtStartDate);
         }
 
-        // Set limit of expansion count.
-        int maxInstancesFromConfig = sExpansionLimits.maxInstances;
-        int maxInstancesExpanded;
-        if (maxInstancesFromConfig <= 0)
-            maxInstancesExpanded = mCount;
-        else if (mCount <= 0)
-            maxInstancesExpanded = maxInstancesFromConfig;
-        else
-            maxInstancesExpanded = Math.min(mCount, maxInstancesFromConfig);
-        int numInstancesExpanded = 1;  // initially 1 rather than 0 because DTSTART is always included
-
-        // Set hard limit of expansion time range.  (bug 21989)
-        //changes made it handle TimeZone for ZCS-10805
-        ParsedDateTime earliestDateTime = ParsedDateTime.fromUTCTime(earliestDate.getTime(), dtStart.getTimeZone());
-        Date hardEndDate = getEstimatedEndTime(earliestDateTime);
-        if (hardEndDate.before(rangeEndDate))
-            rangeEndDate = hardEndDate;
-
-        if (rangeEndDate.before(earliestDate)) {
-            ZimbraLog.calendar.debug("Expanding recurrence over range where range end %s is before earliest date %s",
-                    DateUtils.formatDate(rangeEndDate), DateUtils.formatDate(earliestDate));
-            return toRet;
+        @Override
+        public boolean hasNext() {
+            // until we hit rangeEnd, or we've SAVED count entries:
+            //
+            //     gather each set {
+            //
+            //
+            //
+            //        curDate forward one INTERVAL
+            //
+            //     }
+            //     check Set against BYSETPOS & ranges & count
+            //
+            while (pending.isEmpty() && !done) {
+                if (pastHardEndTime || (maxInstancesExpanded > 0 && numInstancesExpanded >= maxInstancesExpanded)) {
+                    done = true;
+                } else {
+                    expandInterval();
+                }
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public Date next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return pending.poll();
         }
 
-        GregorianCalendar cur = dtStart.getCalendarCopy();
-        int baseMonthDay = cur.get(Calendar.DAY_OF_MONTH);
-        boolean baseIsLeapDay = ((baseMonthDay == 29) && (cur.get(Calendar.MONTH) == Calendar.FEBRUARY));
-
-        // until we hit rangeEnd, or we've SAVED count entries:
-        //
-        //     gather each set {
-        //
-        //
-        //
-        //        curDate forward one INTERVAL
-        //
-        //     }
-        //     check Set against BYSETPOS & ranges & count
-        //
-
-        int interval = mInterval;
-        if (interval <= 0)
-            interval = 1;
-
-        // DTSTART is always part of the expansion, as long as it falls within
-        // the range.
-        if (!dtStartDate.before(earliestDate) && !dtStartDate.after(rangeEndDate))
-            toRet.add(dtStartDate);
-
-        int numConsecutiveIterationsWithoutMatchingInstance = 0;
-        boolean pastHardEndTime = false;
-        long numIterations = 0;  // track how many times we looped
-        while (!pastHardEndTime && (maxInstancesExpanded <= 0 || numInstancesExpanded < maxInstancesExpanded)) {
-            numIterations++;
+        /** Gathers the dates of the frequency interval {@code cur} is in and moves {@code cur} to the next one. */
+        private void expandInterval() {
             boolean curIsAtOrAfterEarliestDate = !cur.getTime().before(earliestDate);
             boolean curIsAfterEndDate = cur.getTime().after(rangeEndDate);
             List<Calendar> addList = new LinkedList<Calendar>();
@@ -747,19 +796,19 @@ public class ZRecur implements Cloneable {
                  * BYMONTH - only those months
                  */
                 if (!checkMonthList(cur))
-                    continue;
+                    return;
 
                 if (!checkYearDayList(cur))
-                    continue;
+                    return;
 
                 if (!checkMonthDayList(cur))
-                    continue;
+                    return;
 
                 if (!checkDayList(cur))
-                    continue;
+                    return;
 
                 if (!checkHourList(cur))
-                    continue;
+                    return;
 
                 addList.add((Calendar)(cur.clone()));
 
@@ -807,16 +856,16 @@ public class ZRecur implements Cloneable {
                  */
 
                 if (!checkMonthList(cur))
-                    continue;
+                    return;
 
                 if (!checkYearDayList(cur))
-                    continue;
+                    return;
 
                 if (!checkMonthDayList(cur))
-                    continue;
+                    return;
 
                 if (!checkDayList(cur))
-                    continue;
+                    return;
 
                 addList.add((Calendar)(cur.clone()));
 
@@ -859,13 +908,13 @@ public class ZRecur implements Cloneable {
                  *
                  */
                 if (!checkMonthList(cur))
-                    continue;
+                    return;
 
                 if (!checkYearDayList(cur))
-                    continue;
+                    return;
 
                 if (!checkMonthDayList(cur))
-                    continue;
+                    return;
 
                 addList.add((Calendar)(cur.clone()));
 
@@ -878,10 +927,10 @@ public class ZRecur implements Cloneable {
                 break;
             case MONTHLY:
                 if (!checkMonthList(cur))
-                    continue;
+                    return;
 
                 if (!checkYearDayList(cur))
-                    continue;
+                    return;
 
                 addList.add((Calendar)(cur.clone()));
 
@@ -934,7 +983,8 @@ public class ZRecur implements Cloneable {
                 break;
             default:
                 // MINUTELY and SECONDLY are intentionally not supported for performance reasons.
-                return toRet;
+                done = true;
+                return;
             }
 
             addList = handleSetPos(addList);
@@ -959,7 +1009,7 @@ public class ZRecur implements Cloneable {
 
                 if (!toAdd.after(rangeEndDate)) {
                     if (!toAdd.before(earliestDate)) {
-                        toRet.add(toAdd);
+                        pending.add(toAdd);
                         noInstanceFound = false;
                     }
                 } else {
@@ -986,15 +1036,14 @@ public class ZRecur implements Cloneable {
                 else
                     numConsecutiveIterationsWithoutMatchingInstance = 0;
                 if (numConsecutiveIterationsWithoutMatchingInstance >= 4) {
-                    ZimbraLog.calendar.warn("Invalid recurrence rule: " + toString());
-                    return toRet;
+                    ZimbraLog.calendar.warn("Invalid recurrence rule: " + ZRecur.this.toString());
+                    done = true;
+                    return;
                 }
             }
 
             pastHardEndTime = foundInstancePastEndDate || (noInstanceFound && curIsAfterEndDate);
         }
-
-        return toRet;
     }
 
     @Override
@@ -17,14 +17,28 @@
 
 package com.zimbra.cs.mailbox.calendar.cache;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.calendar.ParsedDateTime;
 import com.zimbra.common.localconfig.LC;
@@ -362,133 +376,104 @@ public class CalSummaryCache {
         sMaxSearchDays = LC.calendar_search_max_days.intValueWithinRange(0, 3660);
     }
 
-    @SuppressWarnings("serial")
-    private static class SummaryLRU extends LinkedHashMap<CalSummaryKey, CalendarData> {
-        private final int mMaxAllowed;
-
-        // map that keeps track of which calendar folders are cached for each account
-        // This map is updated every time a calendar folder is added, removed, or aged out
-        // of the LRU.
-        private final Map<String /* account id */, Set<Integer> /* folder ids */> mAccountFolders;
-
-        private SummaryLRU(int capacity) {
-            super(capacity + 1, 1.0f, true);
-            mMaxAllowed = Math.max(capacity, 1);
-            mAccountFolders = new HashMap<String, Set<Integer>>();
-        }
-
-        @Override
-        public void clear() {
-            super.clear();
-            mAccountFolders.clear();
-        }
-
-        @Override
-        public CalendarData put(CalSummaryKey key, CalendarData value) {
-            CalendarData prevVal = super.put(key, value);
-            if (prevVal == null)
-                registerWithAccount(key);
-            return prevVal;
-        }
-
-        @Override
-        public void putAll(Map<? extends CalSummaryKey, ? extends CalendarData> t) {
-            super.putAll(t);
-            for (CalSummaryKey key : t.keySet()) {
-                registerWithAccount(key);
+    // Re-expands items patched into cached summaries without holding up the committing thread and its lock.  A
+    // task that doesn't fit in the queue is dropped; its items stay stale and the next reader refetches them.
+    private static final ExecutorService EXPAND_EXECUTOR = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(1000),
+            new ThreadFactoryBuilder().setNameFormat("CalSummaryExpand-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    /**
+     * Keeps track of which calendar folders are cached for each account, so that a deleted item can be matched to
+     * its folder and a mailbox can be purged.  Updated every time a calendar folder is added to or removed from the
+     * cache, including evictions.
+     */
+    private final class AccountFolders implements RemovalListener<CalSummaryKey, CalendarData> {
+        private final Map<String /* account id */, Set<Integer> /* folder ids */> mFolders =
+                new HashMap<String, Set<Integer>>();
+
+        synchronized void register(CalSummaryKey key) {
+            Set<Integer> folders = mFolders.get(key.getAccountId());
+            if (folders == null) {
+                folders = new HashSet<Integer>();
+                mFolders.put(key.getAccountId(), folders);
             }
+            folders.add(key.getFolderId());
         }
 
         @Override
-        public CalendarData remove(Object key) {
-            CalendarData prevVal = super.remove(key);
-            if (prevVal != null && key instanceof CalSummaryKey) {
-                CalSummaryKey k = (CalSummaryKey) key;
-                deregisterFromAccount(k);
+        public void onRemoval(RemovalNotification<CalSummaryKey, CalendarData> notification) {
+            if (notification.getCause() != RemovalCause.REPLACED) {
+                deregister(notification.getKey());
             }
-            return prevVal;
-        }
-
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<CalSummaryKey, CalendarData> eldest) {
-            boolean remove = size() > mMaxAllowed;
-            if (remove)
-                deregisterFromAccount(eldest.getKey());
-            return remove;
         }
 
-        private void registerWithAccount(CalSummaryKey key) {
-            String accountId = key.getAccountId();
-            int folderId = key.getFolderId();
-            Set<Integer> folders = mAccountFolders.get(accountId);
-            if (folders == null) {
-                folders = new HashSet<Integer>();
-                mAccountFolders.put(accountId, folders);
+        private synchronized void deregister(CalSummaryKey key) {
+            // The folder may have been cached again since it was removed.
+            if (key == null || mSummaryCache.asMap().containsKey(key)) {
+                return;
             }
-            folders.add(folderId);
-        }
-
-        private void deregisterFromAccount(CalSummaryKey key) {
-            String accountId = key.getAccountId();
-            int folderId = key.getFolderId();
-            Set<Integer> folders = mAccountFolders.get(accountId);
+            Set<Integer> folders = mFolders.get(key.getAccountId());
             if (folders != null) {
-                folders.remove(folderId);
+                folders.remove(key.getFolderId());
                 // If no folders are cached for the account, drop the account entry from the map to save memory.
                 if (folders.isEmpty())
-                    mAccountFolders.remove(accountId);
+                    mFolders.remove(key.getAccountId());
             }
         }
 
-        public static final int FOLDER_NOT_FOUND = -1;
-
-        public int getFolderForItem(String accountId, int itemId) {
-            int retval = FOLDER_NOT_FOUND;
-            Set<Integer> folders = mAccountFolders.get(accountId);
-            if (folders != null) {
-                for (int folderId : folders) {
-                    CalSummaryKey key = new CalSummaryKey(accountId, folderId);
-                    CalendarData calData = get(key);
-                    if (calData != null) {
-                        CalendarItemData ci = calData.getCalendarItemData(itemId);
-                        if (ci != null) {
-                            retval = folderId;
-                            break;
-                        }
-                    }
-                }
-            }
-            return retval;
+        synchronized Integer[] getFolders(String accountId) {
+            Set<Integer> folders = mFolders.get(accountId);
+            return folders == null ? new Integer[0] : folders.toArray(new Integer[folders.size()]);
         }
+    }
 
-        /**
-         * Toss all folders of the account from the LRU.
-         * @param mboxId
-         */
-        public void removeAccount(String accountId) {
-            Set<Integer> folders = mAccountFolders.get(accountId);
-            if (folders != null) {
-                // Get a copy of the folder list to avoid ConcurrentModificationException on mMboxFolders.
-                Integer[] fids = folders.toArray(new Integer[0]);
-                for (int folderId : fids) {
-                    CalSummaryKey key = new CalSummaryKey(accountId, folderId);
-                    remove(key);
-                }
+    private static final int FOLDER_NOT_FOUND = -1;
+
+    /**
+     * Returns the cached calendar folder containing the item, looking at the calendars being patched first.
+     */
+    private int getFolderForItem(String accountId, int itemId, Map<CalSummaryKey, CalendarData> patched) {
+        for (int folderId : mAccountFolders.getFolders(accountId)) {
+            CalSummaryKey key = new CalSummaryKey(accountId, folderId);
+            CalendarData calData = patched.get(key);
+            if (calData == null) {
+                calData = mSummaryCache.getIfPresent(key);
+            }
+            if (calData != null && calData.getCalendarItemData(itemId) != null) {
+                return folderId;
             }
         }
+        return FOLDER_NOT_FOUND;
     }
 
-    // LRU cache containing range-limited calendar summary by calendar folder
-    private final SummaryLRU mSummaryCache;
+    // Range-limited calendar summary by calendar folder.  Cached CalendarData objects are never modified; change
+    // notifications replace them with patched copies.
+    private final Cache<CalSummaryKey, CalendarData> mSummaryCache;
+    private final AccountFolders mAccountFolders;
     private final int mLRUCapacity;
     private final CalSummaryMemcachedCache mMemcachedCache;
+    private final ExecutorService mExpandExecutor;
 
     CalSummaryCache(final int capacity) {
+        this(capacity, EXPAND_EXECUTOR);
+    }
+
+    @VisibleForTesting
+    CalSummaryCache(final int capacity, ExecutorService expandExecutor) {
         mLRUCapacity = capacity;
-        mSummaryCache = new SummaryLRU(capacity);
+        mExpandExecutor = expandExecutor;
+        mAccountFolders = new AccountFolders();
+        mSummaryCache = CacheBuilder.newBuilder().maximumSize(Math.max(capacity, 1))
+                .removalListener(mAccountFolders).build();
         mMemcachedCache = new CalSummaryMemcachedCache();
     }
 
+    @VisibleForTesting
+    CalendarData getCachedSummary(CalSummaryKey key) {
+        return mSummaryCache.getIfPresent(key);
+    }
+
     private static enum CacheLevel { Memory, Memcached, File, Miss }
 
     public class CalendarDataResult {
@@ -575,40 +560,31 @@ public class CalSummaryCache {
         OperationContext ownerOctxt = new OperationContext(targetAcct);
         int currentModSeq = folder.getImapMODSEQ();
 
-        // Lookup from heap LRU.
-            synchronized (mSummaryCache) {
-                if (mLRUCapacity > 0) {
-                    calData = mSummaryCache.get(key);
-                    lruSize = mSummaryCache.size();
-                }
-            }
-            if (calData != null) {
-                // Sanity check: Cached data can't be newer than the backend data.
-                if (calData.getModSeq() > currentModSeq) {
-                    calData = null;
-                } else {
-                    dataFrom = CacheLevel.Memory;
-                    // Data loaded from heap LRU supports incremental update for stale items.
-                    incrementalUpdate = sMaxStaleItems > 0;
-                }
+        // Lookup from heap cache.  This never blocks.
+        CalendarData cachedCalData = null;
+        if (mLRUCapacity > 0) {
+            calData = cachedCalData = mSummaryCache.getIfPresent(key);
+            lruSize = (int) mSummaryCache.size();
+        }
+        if (calData != null) {
+            // Sanity check: Cached data can't be newer than the backend data.
+            if (calData.getModSeq() > currentModSeq) {
+                calData = null;
+            } else {
+                dataFrom = CacheLevel.Memory;
             }
+        }
 
         if (calData == null) {
             // Load from file.
             try {
                 calData = FileStore.loadCalendarData(mbox.getId(), folderId, currentModSeq);
                 if (calData != null) {
-                    // If data is up to date, add to LRU.
+                    // If data is up to date, add to the heap cache.
                     if (calData.getModSeq() == currentModSeq) {
-                        if (mLRUCapacity > 0) {
-                            synchronized (mSummaryCache) {
-                                mSummaryCache.put(key, calData);
-                                lruSize = mSummaryCache.size();
-                            }
+                        if (publish(mbox, ownerOctxt, key, cachedCalData, calData)) {
+                            lruSize = (int) mSummaryCache.size();
                         }
-                    } else {
-                        // Data loaded from file doesn't have stale items list.  It can't be refreshed incrementally.
-                        incrementalUpdate = false;
                     }
                     dataFrom = CacheLevel.File;
                 }
@@ -628,6 +604,10 @@ public class CalSummaryCache {
                 // current data's range covers the requested range.
                 if (rangeStart >= calData.getRangeStart() && rangeEnd <= calData.getRangeEnd())
                     reusableCalData = calData;
+                // Stale items are only tracked for changes the cache was notified of.  If the folder has moved
+                // on since the data was loaded, the unchanged items have to be found with a folder scan.
+                if (calData.getModSeq() != currentModSeq)
+                    incrementalUpdate = false;
                 calData = null;  // force recompute further down
             } else if (rangeStart < calData.getRangeStart() || rangeEnd > calData.getRangeEnd()) {
                 // Requested range is not within cached range.  Recompute cached range in the hope
@@ -648,11 +628,9 @@ public class CalSummaryCache {
                                                    sRangeMonthFrom, sRangeNumMonths);
             calData = reloadCalendarOverRange(ownerOctxt, mbox, folderId, type,
                     defaultRange.getFirst(), defaultRange.getSecond(), reusableCalData, incrementalUpdate);
-            synchronized (mSummaryCache) {
-                if (mLRUCapacity > 0) {
-                    mSummaryCache.put(key, calData);
-                    lruSize = mSummaryCache.size();
-                }
+            ZimbraPerf.COUNTER_CALENDAR_CACHE_REBUILD.increment(calData.getNumItems());
+            if (publish(mbox, ownerOctxt, key, cachedCalData, calData)) {
+                lruSize = (int) mSummaryCache.size();
             }
             dataFrom = CacheLevel.Miss;
 
@@ -681,6 +659,7 @@ public class CalSummaryCache {
             dataFrom = CacheLevel.Miss;
             result.data = reloadCalendarOverRange(ownerOctxt, mbox, folderId, type, rangeStart, rangeEnd,
                     reusableCalData, incrementalUpdate);
+            ZimbraPerf.COUNTER_CALENDAR_CACHE_REBUILD.increment(result.data.getNumItems());
         }
 
         // hit/miss tracking
@@ -712,14 +691,45 @@ public class CalSummaryCache {
         return result;
     }
 
+    /**
+     * Adds freshly loaded data to the heap cache, unless the folder changed while it was being loaded or the cached
+     * entry is no longer {@code expected}.  Change notifications patch the cache under the mailbox write lock, so
+     * checking the folder under the read lock guarantees that no change is lost between the load and the put.
+     *
+     * @return true if the data was cached
+     */
+    @VisibleForTesting
+    boolean publish(Mailbox mbox, OperationContext octxt, CalSummaryKey key, CalendarData expected,
+            CalendarData calData) {
+        if (mLRUCapacity <= 0)
+            return false;
+        mbox.lock.lock(false);
+        try {
+            if (mbox.getFolderById(octxt, key.getFolderId()).getImapMODSEQ() != calData.getModSeq())
+                return false;
+            boolean cached;
+            if (expected == null) {
+                cached = mSummaryCache.asMap().putIfAbsent(key, calData) == null;
+            } else {
+                cached = mSummaryCache.asMap().replace(key, expected, calData);
+            }
+            if (cached)
+                mAccountFolders.register(key);
+            return cached;
+        } catch (ServiceException e) {
+            ZimbraLog.calendar.debug("not caching calendar summary for %s", key, e);
+            return false;
+        } finally {
+            mbox.lock.release();
+        }
+    }
+
     private void invalidateSummary(Mailbox mbox, int folderId) {
         if (!LC.calendar_cache_enabled.booleanValue())
             return;
         int mboxId = mbox.getId();
         CalSummaryKey key = new CalSummaryKey(mbox.getAccountId(), folderId);
-        synchronized (mSummaryCache) {
-            mSummaryCache.remove(key);
-        }
+        mSummaryCache.invalidate(key);
         try {
             FileStore.deleteCalendarData(mboxId, folderId);
         } catch (ServiceException e) {
@@ -727,34 +737,124 @@ public class CalSummaryCache {
         }
     }
 
-    private void invalidateItem(Mailbox mbox, int folderId, int calItemId) {
-        if (!LC.calendar_cache_enabled.booleanValue())
-            return;
+    /**
+     * Patches the cached summary of a calendar folder for one changed item, on a private copy of the cached data.
+     * Expanding instances can take a while, so a created or modified item is only marked stale here and queued in
+     * {@code toExpand} for {@link #expand}, along with its MODSEQ as of the change.
+     *
+     * @param calItem the item as of the change, or {@code null} if it was deleted or moved out of the folder
+     */
+    private void patchItem(Map<CalSummaryKey, CalendarData> patched,
+            Map<CalSummaryKey, Map<Integer, Integer>> toExpand, Mailbox mbox, int folderId, int calItemId,
+            CalendarItem calItem) {
         CalSummaryKey key = new CalSummaryKey(mbox.getAccountId(), folderId);
-        CalendarData calData = null;
-        synchronized (mSummaryCache) {
-            if (mLRUCapacity > 0) {
-                calData = mSummaryCache.get(key);
-            }
+        CalendarData calData = patched.get(key);
+        if (calData == null) {
+            CalendarData cached = mSummaryCache.getIfPresent(key);
+            if (cached == null)
+                return;
+            calData = new CalendarData(cached);
+            patched.put(key, calData);
         }
-        // Invalidate the item from the calendar.
-        if (calData != null) {
+        if (calItem != null && calItem.getFolderId() == folderId) {
             int numStaleItems = calData.markItemStale(calItemId);
             // If there are too many stale items, purge the calendar from cache to avoid accumulating
             // too many stale item ids.
-            if (numStaleItems > sMaxStaleItemsBeforeInvalidatingCalendar)
+            if (numStaleItems > sMaxStaleItemsBeforeInvalidatingCalendar) {
+                patched.remove(key);
+                toExpand.remove(key);
                 invalidateSummary(mbox, folderId);
+                return;
+            }
+            Map<Integer, Integer> modSeqs = toExpand.get(key);
+            if (modSeqs == null) {
+                modSeqs = new LinkedHashMap<Integer, Integer>();
+                toExpand.put(key, modSeqs);
+            }
+            modSeqs.put(calItemId, calItem.getModifiedSequence());
+        } else {
+            calData.removeCalendarItem(calItemId);
+            ZimbraPerf.COUNTER_CALENDAR_CACHE_PATCH.increment();
         }
     }
 
-    void notifyCommittedChanges(PendingLocalModifications mods, int changeId) {
+    /**
+     * Expands the items a change left stale in a cached summary and caches the result, as long as {@code patched} is
+     * still the cached summary.  If another change or a reader has replaced it in the meantime, the items are still
+     * marked stale there or have been refetched already.  The items are reloaded under the mailbox read lock so that
+     * only committed state is expanded, and if any of them has been modified since the patch the result is dropped
+     * and the items stay stale.
+     *
+     * @param modSeqs the MODSEQ of each item to expand as of the patch, by item id
+     */
+    private void expand(CalSummaryKey key, CalendarData patched, Map<Integer, Integer> modSeqs) {
+        Mailbox mbox;
+        try {
+            mbox = MailboxManager.getInstance().getMailboxByAccountId(key.getAccountId(), FetchMode.DO_NOT_AUTOCREATE);
+        } catch (ServiceException e) {
+            ZimbraLog.calendar.debug("Error looking up the mailbox of calendar summary %s", key, e);
+            return;
+        }
+        if (mbox == null)
+            return;
+        CalendarData calData = new CalendarData(patched);
+        mbox.lock.lock(false);
+        try {
+            for (Map.Entry<Integer, Integer> entry : modSeqs.entrySet()) {
+                int calItemId = entry.getKey();
+                if (!calData.isItemStale(calItemId)) {
+                    // deleted or moved out by a later change in the same transaction
+                    continue;
+                }
+                CalendarItem calItem;
+                try {
+                    calItem = mbox.getCalendarItemById(null, calItemId);
+                } catch (ServiceException e) {
+                    // Deleted since the patch, most likely.  Leave it to the next reader to refetch the items.
+                    ZimbraLog.calendar.debug("Error looking up calendar item %d", calItemId, e);
+                    return;
+                }
+                if (calItem.getModifiedSequence() != entry.getValue()) {
+                    // Modified since the patch; the change that did it patches the summary again.
+                    return;
+                }
+                try {
+                    CalendarItemData calItemData =
+                            reloadCalendarItemOverRange(calItem, calData.getRangeStart(), calData.getRangeEnd());
+                    if (calItemData != null) {
+                        calData.putCalendarItem(calItemData);
+                    } else {
+                        calData.removeCalendarItem(calItemId);
+                    }
+                    ZimbraPerf.COUNTER_CALENDAR_CACHE_PATCH.increment();
+                } catch (ServiceException e) {
+                    // Leave it to the next reader to refetch the item.
+                    ZimbraLog.calendar.debug("Error patching calendar summary for item %d", calItemId, e);
+                }
+            }
+            mSummaryCache.asMap().replace(key, patched, calData);
+        } finally {
+            mbox.lock.release();
+        }
+    }
+
+    /**
+     * Applies the changes of one committed transaction to the cached summaries.  Notifications of a mailbox are
+     * delivered in commit order under its write lock, and every cached summary was current when it was cached (see
+     * {@link #publish}), so a summary that has been patched for a change is current as of the new folder MODSEQ.
+     * Only the cheap part runs here: created and modified items are marked stale and expanded by
+     * {@link #expand} on another thread, under the mailbox read lock rather than the write lock.
+     */
+    private void patchSummaries(PendingLocalModifications mods) {
+        Map<CalSummaryKey, CalendarData> patched = new HashMap<CalSummaryKey, CalendarData>();
+        Map<CalSummaryKey, Map<Integer, Integer>> toExpand = new HashMap<CalSummaryKey, Map<Integer, Integer>>();
+        List<Folder> folders = new ArrayList<Folder>();
         if (mods.created != null) {
             for (Map.Entry<ModificationKey, BaseItemInfo> entry : mods.created.entrySet()) {
                 BaseItemInfo item = entry.getValue();
                 if (item instanceof CalendarItem) {
                     CalendarItem calItem = (CalendarItem) item;
-                    int folderId = calItem.getFolderId();
-                    invalidateItem(calItem.getMailbox(), folderId, calItem.getId());
+                    patchItem(patched, toExpand, calItem.getMailbox(), calItem.getFolderId(), calItem.getId(), calItem);
                 }
             }
         }
@@ -767,19 +867,17 @@ public class CalSummaryCache {
                     Mailbox mbox = item.getMailbox();
                     int folderId = item.getFolderId();
                     int itemId = item.getId();
-                    invalidateItem(mbox, folderId, itemId);
 
-                    // If this is a folder move, invalidate the item from the old folder too.
+                    // If this is a folder move, drop the item from the old folder too.
                     if ((change.why & Change.FOLDER) != 0) {
-                        String accountId = mbox.getAccountId();
-                        int prevFolderId;
-                        synchronized (mSummaryCache) {
-                            prevFolderId = mSummaryCache.getFolderForItem(accountId, itemId);
-                        }
-                        if (prevFolderId != folderId && prevFolderId != SummaryLRU.FOLDER_NOT_FOUND) {
-                            invalidateItem(mbox, prevFolderId, itemId);
+                        int prevFolderId = getFolderForItem(mbox.getAccountId(), itemId, patched);
+                        if (prevFolderId != folderId && prevFolderId != FOLDER_NOT_FOUND) {
+                            patchItem(patched, toExpand, mbox, prevFolderId, itemId, null);
                         }
                     }
+                    patchItem(patched, toExpand, mbox, folderId, itemId, item);
+                } else if (whatChanged instanceof Folder) {
+                    folders.add((Folder) whatChanged);
                 }
             }
         }
@@ -809,27 +907,68 @@ public class CalSummaryCache {
                         lastAcctId = acctId;
                         lastMbox = mbox;
                         int itemId = entry.getKey().getItemId();
-                        String accountId = mbox.getAccountId();
-                        int folderId;
-                        synchronized (mSummaryCache) {
-                            folderId = mSummaryCache.getFolderForItem(accountId, itemId);
-                        }
-                        if (folderId != SummaryLRU.FOLDER_NOT_FOUND) {
-                            invalidateItem(mbox, folderId, itemId);
+                        int folderId = getFolderForItem(mbox.getAccountId(), itemId, patched);
+                        if (folderId != FOLDER_NOT_FOUND) {
+                            patchItem(patched, toExpand, mbox, folderId, itemId, null);
                         }
                     }
                 }
             }
         }
 
+        // The folders' MODSEQs moved on with the changes just applied.
+        for (Folder folder : folders) {
+            CalSummaryKey key = new CalSummaryKey(folder.getMailbox().getAccountId(), folder.getId());
+            CalendarData calData = patched.get(key);
+            if (calData == null) {
+                CalendarData cached = mSummaryCache.getIfPresent(key);
+                if (cached == null || cached.getModSeq() >= folder.getImapMODSEQ())
+                    continue;
+                calData = new CalendarData(cached);
+                patched.put(key, calData);
+            }
+            if (calData.getModSeq() < folder.getImapMODSEQ())
+                calData.setModSeq(folder.getImapMODSEQ());
+        }
+
+        for (Map.Entry<CalSummaryKey, CalendarData> entry : patched.entrySet()) {
+            final CalSummaryKey key = entry.getKey();
+            final CalendarData calData = entry.getValue();
+            // Don't bring back a calendar that was evicted in the meantime.
+            if (mSummaryCache.asMap().replace(key, calData) == null)
+                continue;
+            final Map<Integer, Integer> modSeqs = toExpand.get(key);
+            if (modSeqs != null) {
+                mExpandExecutor.submit(ZimbraLog.wrapWithContext(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        expand(key, calData, modSeqs);
+                        return null;
+                    }
+                }));
+            }
+        }
+    }
+
+    void notifyCommittedChanges(PendingLocalModifications mods, int changeId) {
+        if (mLRUCapacity > 0 && LC.calendar_cache_enabled.booleanValue()) {
+            try {
+                patchSummaries(mods);
+            } catch (RuntimeException e) {
+                ZimbraLog.calendar.warn("Error patching calendar summary cache; clearing it", e);
+                mSummaryCache.invalidateAll();
+            }
+        }
+
         if (MemcachedConnector.isConnected()) {
             mMemcachedCache.notifyCommittedChanges(mods, changeId);
         }
     }
 
     void purgeMailbox(Mailbox mbox) throws ServiceException {
-        synchronized (mSummaryCache) {
-            mSummaryCache.removeAccount(mbox.getAccountId());
+        String accountId = mbox.getAccountId();
+        for (int folderId : mAccountFolders.getFolders(accountId)) {
+            mSummaryCache.invalidate(new CalSummaryKey(accountId, folderId));
         }
         if (MemcachedConnector.isConnected()) {
             mMemcachedCache.purgeMailbox(mbox);
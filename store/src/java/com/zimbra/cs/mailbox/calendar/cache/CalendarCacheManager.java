@@ -34,6 +34,9 @@ public class CalendarCacheManager {
     private boolean mSummaryCacheEnabled;
     private CalSummaryCache mSummaryCache;
 
+    // for recurrence expansions
+    private ExpandedInstanceCache mExpansionCache;
+
     // for CalDAV ctag caching
     private CalListCache mCalListCache;
     private CtagInfoCache mCtagCache;
@@ -53,6 +56,7 @@ public class CalendarCacheManager {
         if (mSummaryCacheEnabled)
             summaryLRUSize = LC.calendar_cache_lru_size.intValue();
         mSummaryCache = new CalSummaryCache(summaryLRUSize);
+        mExpansionCache = new ExpandedInstanceCache(LC.calendar_cache_expansion_max_instances.longValue());
     }
 
     public void notifyCommittedChanges(PendingLocalModifications mods, int changeId) {
@@ -66,6 +70,7 @@ public class CalendarCacheManager {
 
     public void purgeMailbox(Mailbox mbox) throws ServiceException {
         mSummaryCache.purgeMailbox(mbox);
+        mExpansionCache.purgeMailbox(mbox);
         if (MemcachedConnector.isConnected()) {
             mCalListCache.purgeMailbox(mbox);
             mCtagCache.purgeMailbox(mbox);
@@ -74,6 +79,7 @@ public class CalendarCacheManager {
 
     CtagInfoCache getCtagCache() { return mCtagCache; }
     public CalSummaryCache getSummaryCache() { return mSummaryCache; }
+    public ExpandedInstanceCache getExpansionCache() { return mExpansionCache; }
     public CtagResponseCache getCtagResponseCache() { return mCtagResponseCache; }
 
     public AccountCtags getCtags(AccountKey key) throws ServiceException {
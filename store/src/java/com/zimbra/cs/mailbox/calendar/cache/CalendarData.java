@@ -36,6 +36,10 @@ public class CalendarData {
     private List<CalendarItemData> mCalendarItems;
     private Map<Integer, CalendarItemData> mCalendarItemsMap;
     private Set<Integer> mStaleItemIds;
+    private volatile FreeBusyIndex mFreeBusyIndex;
+    // index of an earlier version of this calendar, and the items patched since; see getFreeBusyIndex()
+    private FreeBusyIndex mFreeBusyBase;
+    private Set<Integer> mFreeBusyChanged;
 
     CalendarData(int folderId, int modSeq, long rangeStart, long rangeEnd) {
         mFolderId = folderId;
@@ -47,11 +51,89 @@ public class CalendarData {
         mStaleItemIds = new HashSet<Integer>();
     }
 
+    /**
+     * Copy of {@code other} that can be patched without affecting readers of the original.
+     */
+    CalendarData(CalendarData other) {
+        mFolderId = other.mFolderId;
+        mModSeq = other.mModSeq;
+        mRangeStart = other.mRangeStart;
+        mRangeEnd = other.mRangeEnd;
+        mCalendarItems = new ArrayList<CalendarItemData>(other.mCalendarItems);
+        mCalendarItemsMap = new HashMap<Integer, CalendarItemData>(other.mCalendarItemsMap);
+        mStaleItemIds = new HashSet<Integer>();
+        other.copyStaleItemIdsTo(mStaleItemIds);
+        synchronized (other) {
+            if (other.mFreeBusyIndex != null) {
+                mFreeBusyBase = other.mFreeBusyIndex;
+                mFreeBusyChanged = new HashSet<Integer>();
+            } else if (other.mFreeBusyBase != null) {
+                mFreeBusyBase = other.mFreeBusyBase;
+                mFreeBusyChanged = new HashSet<Integer>(other.mFreeBusyChanged);
+            }
+        }
+    }
+
     void addCalendarItem(CalendarItemData calItemData) {
         mCalendarItems.add(calItemData);
         mCalendarItemsMap.put(calItemData.getCalItemId(), calItemData);
     }
 
+    /**
+     * Replaces the data of a calendar item in place, or adds it if the item isn't in this calendar yet.
+     */
+    void putCalendarItem(CalendarItemData calItemData) {
+        CalendarItemData prev = mCalendarItemsMap.put(calItemData.getCalItemId(), calItemData);
+        int index = prev == null ? -1 : mCalendarItems.indexOf(prev);
+        if (index >= 0) {
+            mCalendarItems.set(index, calItemData);
+        } else {
+            mCalendarItems.add(calItemData);
+        }
+        clearItemStale(calItemData.getCalItemId());
+        freeBusyChanged(calItemData.getCalItemId());
+    }
+
+    void removeCalendarItem(int calItemId) {
+        CalendarItemData prev = mCalendarItemsMap.remove(calItemId);
+        if (prev != null) {
+            mCalendarItems.remove(prev);
+        }
+        clearItemStale(calItemId);
+        freeBusyChanged(calItemId);
+    }
+
+    private synchronized void freeBusyChanged(int calItemId) {
+        if (mFreeBusyChanged != null)
+            mFreeBusyChanged.add(calItemId);
+    }
+
+    /**
+     * Returns the busy instances of this calendar sorted for window lookups.  The index is built on first use; for
+     * a patched copy of a cached calendar it is derived from the index of the version it was copied from.
+     */
+    public FreeBusyIndex getFreeBusyIndex() {
+        FreeBusyIndex index = mFreeBusyIndex;
+        if (index != null)
+            return index;
+        synchronized (this) {
+            if (mFreeBusyIndex == null) {
+                if (mFreeBusyBase != null) {
+                    mFreeBusyIndex = mFreeBusyBase.update(this, mFreeBusyChanged);
+                } else {
+                    mFreeBusyIndex = FreeBusyIndex.build(this);
+                }
+                mFreeBusyBase = null;
+                mFreeBusyChanged = null;
+            }
+            return mFreeBusyIndex;
+        }
+    }
+
+    void setModSeq(int modSeq) {
+        mModSeq = modSeq;
+    }
+
     public CalendarItemData getCalendarItemData(int calItemId) {
         return mCalendarItemsMap.get(calItemId);
     }
@@ -89,6 +171,10 @@ public class CalendarData {
         return mStaleItemIds.size();
     }
 
+    synchronized void clearItemStale(int calItemId) {
+        mStaleItemIds.remove(calItemId);
+    }
+
     synchronized boolean isItemStale(int calItemId) {
         return mStaleItemIds.contains(calItemId);
     }
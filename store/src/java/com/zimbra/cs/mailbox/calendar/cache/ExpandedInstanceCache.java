@@ -0,0 +1,135 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.zimbra.cs.mailbox.CalendarItem;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Bounded cache of recurrence expansions, keyed by calendar item, its modified and saved sequences and the
+ * exact time range expanded.  Any change to the item bumps its sequences, so stale entries are never returned;
+ * they just age out.  The cache is bounded by the total number of instances it holds rather than by entry
+ * count, as a daily meeting expanded over a year weighs much more than a weekly one over a month.
+ */
+public final class ExpandedInstanceCache {
+
+    private final Cache<Key, List<Instance>> cache;
+
+    /**
+     * @param maxInstances total instances to hold, {@code 0} to disable the cache
+     */
+    public ExpandedInstanceCache(long maxInstances) {
+        if (maxInstances > 0) {
+            cache = CacheBuilder.newBuilder().maximumWeight(maxInstances).weigher(new Weigher<Key, List<Instance>>() {
+                @Override
+                public int weigh(Key key, List<Instance> value) {
+                    return value.size() + 1;
+                }
+            }).build();
+        } else {
+            cache = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns a copy of the cached expansion of the item over [start, end), or {@code null} if it isn't cached.
+     */
+    public List<Instance> get(CalendarItem calItem, long start, long end) {
+        if (cache == null) {
+            return null;
+        }
+        List<Instance> instances = cache.getIfPresent(new Key(calItem, start, end));
+        if (instances == null) {
+            ZimbraPerf.COUNTER_CALENDAR_EXPANSION_HIT.increment(0);
+            return null;
+        }
+        ZimbraPerf.COUNTER_CALENDAR_EXPANSION_HIT.increment(1);
+        return new ArrayList<Instance>(instances);
+    }
+
+    public void put(CalendarItem calItem, long start, long end, List<Instance> instances) {
+        if (cache != null) {
+            cache.put(new Key(calItem, start, end), Collections.unmodifiableList(new ArrayList<Instance>(instances)));
+        }
+    }
+
+    public void purgeMailbox(Mailbox mbox) {
+        if (cache == null) {
+            return;
+        }
+        int mboxId = mbox.getId();
+        for (Iterator<Key> iter = cache.asMap().keySet().iterator(); iter.hasNext(); ) {
+            if (iter.next().mboxId == mboxId) {
+                iter.remove();
+            }
+        }
+    }
+
+    @VisibleForTesting
+    long size() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    private static final class Key {
+        final int mboxId;
+        final int calItemId;
+        final int modMetadata;
+        final int modContent;
+        final long start;
+        final long end;
+
+        Key(CalendarItem calItem, long start, long end) {
+            this.mboxId = calItem.getMailboxId();
+            this.calItemId = calItem.getId();
+            this.modMetadata = calItem.getModifiedSequence();
+            this.modContent = calItem.getSavedSequence();
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mboxId == other.mboxId && calItemId == other.calItemId && modMetadata == other.modMetadata &&
+                    modContent == other.modContent && start == other.start && end == other.end;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(mboxId, calItemId, modMetadata, modContent, start, end);
+        }
+    }
+}
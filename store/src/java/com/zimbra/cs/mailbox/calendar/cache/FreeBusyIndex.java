@@ -0,0 +1,210 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.zimbra.cs.mailbox.calendar.IcalXmlStrMap;
+
+/**
+ * The busy instances of a {@link CalendarData}, sorted by start time, so that the instances overlapping a
+ * free/busy window are found with a binary search instead of walking every calendar item and instance.
+ * <p>
+ * Instances that are free, transparent or have no positive duration are left out.  An index is immutable; when
+ * a patched copy of a calendar summary needs one, it is derived from the previous version's index by replacing
+ * the entries of the changed items only.
+ *
+ * @see CalendarData#getFreeBusyIndex()
+ */
+public final class FreeBusyIndex {
+
+    private final int size;
+    private final long[] starts;
+    private final long[] ends;
+    /** {@code maxEnds[i]} is the latest end of entries {@code 0..i}, so it never decreases. */
+    private final long[] maxEnds;
+    private final String[] freeBusy;
+    private final int[] calItemIds;
+    private final long[] recurIds;
+
+    private FreeBusyIndex(List<Entry> entries) {
+        size = entries.size();
+        starts = new long[size];
+        ends = new long[size];
+        maxEnds = new long[size];
+        freeBusy = new String[size];
+        calItemIds = new int[size];
+        recurIds = new long[size];
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            Entry entry = entries.get(i);
+            starts[i] = entry.start;
+            ends[i] = entry.end;
+            maxEnd = Math.max(maxEnd, entry.end);
+            maxEnds[i] = maxEnd;
+            freeBusy[i] = entry.freeBusy;
+            calItemIds[i] = entry.calItemId;
+            recurIds[i] = entry.recurId;
+        }
+    }
+
+    static FreeBusyIndex build(CalendarData calData) {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Iterator<CalendarItemData> iter = calData.calendarItemIterator(); iter.hasNext(); ) {
+            addEntries(iter.next(), entries);
+        }
+        Collections.sort(entries, BY_START);
+        return new FreeBusyIndex(entries);
+    }
+
+    /**
+     * Returns the index of {@code calData}, given that it differs from the calendar this index was built for only
+     * in the items listed in {@code changed}.
+     */
+    FreeBusyIndex update(CalendarData calData, Set<Integer> changed) {
+        if (changed.isEmpty())
+            return this;
+        List<Entry> added = new ArrayList<Entry>();
+        for (int calItemId : changed) {
+            CalendarItemData calItemData = calData.getCalendarItemData(calItemId);
+            if (calItemData != null)
+                addEntries(calItemData, added);
+        }
+        Collections.sort(added, BY_START);
+
+        // merge the unchanged entries with the new ones; both runs are sorted by start
+        List<Entry> entries = new ArrayList<Entry>(size + added.size());
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            if (changed.contains(calItemIds[i]))
+                continue;
+            for (; j < added.size() && added.get(j).start < starts[i]; j++) {
+                entries.add(added.get(j));
+            }
+            entries.add(new Entry(starts[i], ends[i], freeBusy[i], calItemIds[i], recurIds[i]));
+        }
+        entries.addAll(added.subList(j, added.size()));
+        return new FreeBusyIndex(entries);
+    }
+
+    /** Applies the rules free/busy has always used to decide which instances of an item make it busy. */
+    private static void addEntries(CalendarItemData appt, List<Entry> entries) {
+        FullInstanceData defaultInstance = appt.getDefaultData();
+        if (defaultInstance == null)
+            return;
+        boolean isTransparent = IcalXmlStrMap.TRANSP_TRANSPARENT.equals(defaultInstance.getTransparency());
+        long defaultDuration = 0;
+        if (defaultInstance.getDuration() != null)
+            defaultDuration = defaultInstance.getDuration().longValue();
+        String defaultFreeBusy = defaultInstance.getFreeBusyActual();
+        for (Iterator<InstanceData> instIter = appt.instanceIterator(); instIter.hasNext(); ) {
+            InstanceData instance = instIter.next();
+            long instStart = instance.getDtStart() != null ? instance.getDtStart().longValue() : 0;
+            long dur = defaultDuration;
+            if (instance.getDuration() != null)
+                dur = instance.getDuration().longValue();
+            if (dur <= 0)  // Only consider instances with non-zero, positive duration.
+                continue;
+
+            long recurIdDt = 0;
+            // Skip if instance is TRANSPARENT to free/busy searches.
+            if (instance instanceof FullInstanceData) {
+                FullInstanceData fullInst = (FullInstanceData) instance;
+                recurIdDt = fullInst.getRecurrenceId();
+                if (IcalXmlStrMap.TRANSP_TRANSPARENT.equals(fullInst.getTransparency()))
+                    continue;
+            } else if (isTransparent) {
+                continue;
+            }
+
+            String fb = instance.getFreeBusyActual();
+            if (fb == null)
+                fb = defaultFreeBusy;
+            if (!IcalXmlStrMap.FBTYPE_FREE.equals(fb))
+                entries.add(new Entry(instStart, instStart + dur, fb, appt.getCalItemId(), recurIdDt));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the first entry that may end after {@code time}.  Together with {@link #firstStartingAt(long)} this
+     * bounds the entries overlapping a window; entries in between still have to be checked with {@link #getEnd(int)}.
+     */
+    public int firstEndingAfter(long time) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (maxEnds[mid] > time) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Returns the first entry starting at or after {@code time}. */
+    public int firstStartingAt(long time) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] >= time) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    public long getStart(int i)        { return starts[i]; }
+    public long getEnd(int i)          { return ends[i]; }
+    public String getFreeBusy(int i)   { return freeBusy[i]; }
+    public int getCalItemId(int i)     { return calItemIds[i]; }
+    public long getRecurrenceId(int i) { return recurIds[i]; }
+
+    private static final class Entry {
+        final long start;
+        final long end;
+        final String freeBusy;
+        final int calItemId;
+        final long recurId;
+
+        Entry(long start, long end, String freeBusy, int calItemId, long recurId) {
+            this.start = start;
+            this.end = end;
+            this.freeBusy = freeBusy;
+            this.calItemId = calItemId;
+            this.recurId = recurId;
+        }
+    }
+
+    private static final Comparator<Entry> BY_START = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return e1.start < e2.start ? -1 : (e1.start == e2.start ? 0 : 1);
+        }
+    };
+}
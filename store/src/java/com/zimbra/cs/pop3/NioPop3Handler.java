@@ -24,6 +24,7 @@ import com.zimbra.cs.server.NioOutputStream;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
 
 import org.apache.mina.filter.codec.RecoverableProtocolDecoderException;
 
@@ -119,6 +120,16 @@ final class NioPop3Handler extends Pop3Handler implements NioHandler {
         }
     }
 
+    @Override
+    void transferFile(FileChannel channel, long position, long count) throws IOException {
+        NioOutputStream nioutput = (NioOutputStream) output;
+        if (nioutput.isFileTransferSupported()) {
+            nioutput.transferFrom(channel, position, count);
+        } else {
+            super.transferFile(channel, position, count);
+        }
+    }
+
     @Override
     public void setLoggingContext() {
         super.setLoggingContext();
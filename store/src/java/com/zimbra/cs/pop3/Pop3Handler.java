@@ -17,15 +17,22 @@
 
 package com.zimbra.cs.pop3;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 import org.apache.commons.codec.binary.Base64;
 
+import com.google.common.io.ByteStreams;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
@@ -45,6 +52,8 @@ import com.zimbra.cs.security.sasl.AuthenticatorUser;
 import com.zimbra.cs.security.sasl.PlainAuthenticator;
 import com.zimbra.cs.server.ServerThrottle;
 import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.util.IOUtil;
 
 /**
  * @since Nov 25, 2004
@@ -368,6 +377,20 @@ abstract class Pop3Handler {
 
     abstract void sendLine(String line, boolean flush) throws IOException;
 
+    /**
+     * Sends <tt>count</tt> bytes of <tt>channel</tt> starting at <tt>position</tt>, after any
+     * output written so far.  Takes ownership of <tt>channel</tt>.  The content is copied
+     * through {@link #output}; handlers that can send it with zero-copy transfer override this.
+     */
+    void transferFile(FileChannel channel, long position, long count) throws IOException {
+        try {
+            channel.position(position);
+            ByteUtil.copy(ByteStreams.limit(Channels.newInputStream(channel), count), false, output, false);
+        } finally {
+            IOUtil.closeQuietly(channel);
+        }
+    }
+
     /*
      * state:
      *   in a line
@@ -683,17 +706,85 @@ abstract class Pop3Handler {
             throw new Pop3CmdException("please specify a message");
         }
         Message m = mailbox.getMessage(msg);
-        InputStream is = null;
-        try {
-            is = m.getContentStream();
+        FileChannel channel = openWireReadyContent(m);
+        if (channel != null) {
             sendOK("message follows", false);
-            sendMessage(is, Integer.MAX_VALUE);
-        } finally {
-            ByteUtil.closeStream(is);
+            transferFile(channel, 0, m.getSize());
+            output.write(TERMINATOR_BYTE);
+            output.write(LINE_SEPARATOR);
+            output.flush();
+        } else {
+            InputStream is = null;
+            try {
+                is = m.getContentStream();
+                sendOK("message follows", false);
+                sendMessage(is, Integer.MAX_VALUE);
+            } finally {
+                ByteUtil.closeStream(is);
+            }
         }
         mailbox.getPop3Msg(msg).setRetrieved(true);
     }
 
+    /**
+     * Opens the message blob for {@link #transferFile} if its content can go to the client
+     * unmodified, i.e. {@link #sendMessage} would neither dot-stuff nor rewrite line
+     * endings.  Returns <tt>null</tt> if the caller has to use {@link #sendMessage}.
+     */
+    private FileChannel openWireReadyContent(Message msg) throws IOException, ServiceException {
+        if (msg.getDigest() == null || msg.getSize() > Integer.MAX_VALUE) {
+            return null;
+        }
+        File file = StoreManager.getInstance().getUncompressedFile(msg.getBlob());
+        if (file == null) {
+            return null;
+        }
+        FileChannel channel;
+        try {
+            channel = new FileInputStream(file).getChannel();
+        } catch (FileNotFoundException e) {
+            return null; // blob was just deleted or moved
+        }
+        boolean ready = false;
+        try {
+            long size = channel.size();
+            // Scan a read-only mapping, which also pulls the blob into the page cache
+            // for the transfer that follows.
+            ready = size > 0 && size == msg.getSize() &&
+                    isWireReady(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            if (!ready) {
+                IOUtil.closeQuietly(channel);
+            }
+        }
+        return ready ? channel : null;
+    }
+
+    /**
+     * Returns <tt>true</tt> if every line in <tt>buf</tt> ends with CRLF, including the last
+     * one, and no line starts with the terminator character.
+     */
+    static boolean isWireReady(ByteBuffer buf) {
+        boolean startOfLine = true;
+        byte prev = 0;
+        for (int i = buf.position(), limit = buf.limit(); i < limit; i++) {
+            byte b = buf.get(i);
+            if (b == '\n') {
+                if (prev != '\r') {
+                    return false;
+                }
+                startOfLine = true;
+            } else {
+                if (prev == '\r' || (startOfLine && b == TERMINATOR_C)) {
+                    return false;
+                }
+                startOfLine = false;
+            }
+            prev = b;
+        }
+        return prev == '\n';
+    }
+
     private void doTOP(String arg) throws Pop3CmdException, IOException, ServiceException {
         if (state != STATE_TRANSACTION) {
             throw new Pop3CmdException("this command is only valid after a login");
@@ -30,6 +30,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.util.FileUtil;
 import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.ZimbraLog;
@@ -38,6 +39,7 @@ import com.zimbra.cs.db.Db;
 import com.zimbra.cs.mailbox.MailServiceException;
 import com.zimbra.cs.redolog.logger.FileLogReader;
 import com.zimbra.cs.redolog.logger.FileLogWriter;
+import com.zimbra.cs.redolog.logger.GroupCommitLogWriter;
 import com.zimbra.cs.redolog.logger.LogWriter;
 import com.zimbra.cs.redolog.op.AbortTxn;
 import com.zimbra.cs.redolog.op.Checkpoint;
@@ -166,6 +168,9 @@ public class RedoLogManager {
     public LogWriter createLogWriter(RedoLogManager redoMgr,
                                         File logfile,
                                         long fsyncIntervalMS) {
+        if (LC.zimbra_redolog_group_commit.booleanValue()) {
+            return new GroupCommitLogWriter(redoMgr, logfile, fsyncIntervalMS);
+        }
         return new FileLogWriter(redoMgr, logfile, fsyncIntervalMS);
     }
 
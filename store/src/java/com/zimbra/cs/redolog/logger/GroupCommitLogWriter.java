@@ -0,0 +1,625 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.zimbra.common.localconfig.DebugConfig;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.redolog.CommitId;
+import com.zimbra.cs.redolog.RedoCommitCallback;
+import com.zimbra.cs.redolog.RedoConfig;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.RolloverManager;
+import com.zimbra.cs.redolog.op.CommitTxn;
+import com.zimbra.cs.redolog.op.RedoableOp;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * Redo log writer that batches concurrent writers into group commits.
+ * <p>
+ * Logging threads never touch the file.  They serialize their op into a
+ * byte array and append it to a lock-free queue.  A single flusher thread
+ * drains the queue, copies the pending entries into a ring of pre-allocated
+ * direct buffers, writes the whole batch with one gathering write and issues
+ * at most one fsync per batch.  Commit callbacks are fired in log order once
+ * the batch containing their commit record is on disk, and synchronous callers
+ * are released at the same time.
+ * <p>
+ * The on-disk format is identical to {@link FileLogWriter}, so the two are
+ * interchangeable and existing logs are read back with {@link FileLogReader}.
+ * Enabled with the {@code zimbra_redolog_group_commit} localconfig key.
+ */
+public class GroupCommitLogWriter implements LogWriter {
+
+    private static String sServerId;
+    static {
+        try {
+            sServerId = Provisioning.getInstance().getLocalServer().getId();
+        } catch (ServiceException e) {
+            ZimbraLog.redolog.error("Unable to get local server ID", e);
+            sServerId = "unknown";
+        }
+    }
+
+    protected RedoLogManager mRedoLogMgr;
+
+    // Synchronizes access to mRAF, mChannel and mHeader between the flusher
+    // and open/close/flush.  Logging threads never take it.
+    private final Object mLock = new Object();
+
+    private FileHeader mHeader;
+    private long mFirstOpTstamp;
+    private long mLastOpTstamp;
+    private volatile long mCreateTime;
+
+    private File mFile;
+    private RandomAccessFile mRAF;
+    private FileChannel mChannel;
+    private volatile boolean mOpen;
+
+    // Logical size of the log, including entries that are queued but not yet written.
+    private final AtomicLong mFileSize = new AtomicLong();
+    private volatile long mLastLogTime;
+
+    private final long mFsyncIntervalMS;
+    // how long written data may stay unsynced when nobody waits for it
+    private final long mSyncIntervalNanos;
+    private final boolean mFsyncDisabled;
+
+    private final ConcurrentLinkedQueue<Entry> mQueue = new ConcurrentLinkedQueue<Entry>();
+    // number of threads between the open check and the queue append in log()
+    private final AtomicInteger mAppenders = new AtomicInteger();
+    // true if bytes have been written since the last fsync
+    private boolean mDirty;
+    private long mLastFsyncNanos;
+
+    private final ByteBuffer[] mRing;
+    private final ByteBuffer[] mGather;
+    private final List<Entry> mBatch = new ArrayList<Entry>();
+
+    private volatile Flusher mFlusher;
+
+    // for gathering some stats; nonessential for functionality
+    private final AtomicLong mLogCount = new AtomicLong();
+    private long mFsyncCount;
+    private long mBatchCount;
+
+    public GroupCommitLogWriter(RedoLogManager redoLogMgr, File logfile, long fsyncIntervalMS) {
+        this(redoLogMgr, logfile, fsyncIntervalMS,
+                LC.zimbra_redolog_group_commit_buffers.intValue(),
+                LC.zimbra_redolog_group_commit_buffer_size.intValue());
+    }
+
+    GroupCommitLogWriter(RedoLogManager redoLogMgr, File logfile, long fsyncIntervalMS,
+            int numBuffers, int bufferSize) {
+        mRedoLogMgr = redoLogMgr;
+
+        mHeader = new FileHeader(sServerId);
+        mFile = logfile;
+        mFileSize.set(mFile.length());
+        mLastLogTime = mFile.lastModified();
+
+        mFsyncIntervalMS = fsyncIntervalMS;
+        mSyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMS > 0 ? fsyncIntervalMS : 1000);
+        mFsyncDisabled = DebugConfig.disableRedoLogFsync;
+
+        numBuffers = Math.max(numBuffers, 1);
+        bufferSize = Math.max(bufferSize, 1024);
+        mRing = new ByteBuffer[numBuffers];
+        for (int i = 0; i < numBuffers; i++) {
+            mRing[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+        // every entry either lands in a ring buffer or, if it is too big for one, is wrapped on its own
+        mGather = new ByteBuffer[numBuffers * 2];
+    }
+
+    @Override public long getSequence() {
+        synchronized (mLock) {
+            return mHeader.getSequence();
+        }
+    }
+
+    @Override public long getSize() {
+        return mFileSize.get();
+    }
+
+    @Override public long getCreateTime() {
+        return mCreateTime;
+    }
+
+    @Override public long getLastLogTime() {
+        return mLastLogTime;
+    }
+
+    @Override public boolean isEmpty() throws IOException {
+        return getSize() <= FileHeader.HEADER_LEN;
+    }
+
+    @Override public boolean exists() {
+        return mFile.exists();
+    }
+
+    @Override public String getAbsolutePath() {
+        return mFile.getAbsolutePath();
+    }
+
+    @Override public boolean renameTo(File dest) {
+        return mFile.renameTo(dest);
+    }
+
+    @Override public boolean delete() {
+        return mFile.delete();
+    }
+
+    @Override public synchronized void open() throws IOException {
+        synchronized (mLock) {
+            if (mRAF != null) return;  // already open
+
+            mRAF = new RandomAccessFile(mFile, "rw");
+            mChannel = mRAF.getChannel();
+
+            if (mRAF.length() >= FileHeader.HEADER_LEN) {
+                mHeader.read(mRAF);
+                mCreateTime = mHeader.getCreateTime();
+                if (mCreateTime == 0) {
+                    mCreateTime = System.currentTimeMillis();
+                    mHeader.setCreateTime(mCreateTime);
+                }
+                mFirstOpTstamp = mHeader.getFirstOpTstamp();
+                mLastOpTstamp = mHeader.getLastOpTstamp();
+            } else {
+                mCreateTime = System.currentTimeMillis();
+                mHeader.setCreateTime(mCreateTime);
+                mHeader.setSequence(mRedoLogMgr.getCurrentLogSequence());
+            }
+            mHeader.setOpen(true);
+            mHeader.write(mRAF);
+
+            // go to the end of file, so we can append
+            long len = mRAF.length();
+            mChannel.position(len);
+            mFileSize.set(len);
+            mDirty = false;
+            mLastFsyncNanos = System.nanoTime();
+        }
+
+        mFlusher = new Flusher();
+        mOpen = true;
+        mFlusher.start();
+    }
+
+    @Override public synchronized void close() throws IOException {
+        if (!mOpen) {
+            return;
+        }
+        mOpen = false;
+        // Wait for threads that passed the open check to finish appending,
+        // so the flusher sees every entry before it exits.
+        while (mAppenders.get() > 0) {
+            Thread.yield();
+        }
+        mFlusher.stopThread();
+        mFlusher = null;
+
+        synchronized (mLock) {
+            // Pick up anything the flusher did not get to.
+            while (!mQueue.isEmpty()) {
+                writeBatch();
+            }
+            if (mLastOpTstamp != 0)
+                mHeader.setLastOpTstamp(mLastOpTstamp);
+            mHeader.setOpen(false);
+            mHeader.setFileSize(mRAF.length());
+            mHeader.write(mRAF);
+
+            mChannel.force(true);
+            mRAF.close();
+            mRAF = null;
+            mChannel = null;
+        }
+
+        if (!mNoStat && mLogCount.get() > 0 && ZimbraLog.redolog.isDebugEnabled())
+            ZimbraLog.redolog.debug("Logged: %d items, %d batches, %d fsyncs", mLogCount.get(), mBatchCount, mFsyncCount);
+    }
+
+    /**
+     * Appends the op to the commit queue.  If {@code synchronous} is true the
+     * calling thread parks until the flusher has written and fsynced the batch
+     * containing the op; otherwise it returns as soon as the op is queued.
+     */
+    @Override public void log(RedoableOp op, InputStream data, boolean synchronous) throws IOException {
+        mAppenders.incrementAndGet();
+        Entry entry;
+        Flusher flusher;
+        try {
+            if (!mOpen)
+                throw new IOException("Redolog file closed");
+            flusher = mFlusher;
+
+            byte[] bytes;
+            try {
+                bytes = ByteUtil.getContent(data, 1024);
+            } finally {
+                data.close();
+            }
+            entry = new Entry(op.getTimestamp(), bytes, synchronous ? Thread.currentThread() : null);
+
+            if (op instanceof CommitTxn) {
+                RedoCommitCallback cb = ((CommitTxn) op).getCallback();
+                if (cb != null) {
+                    long redoSeq = mRedoLogMgr.getRolloverManager().getCurrentSequence();
+                    entry.mCallback = cb;
+                    entry.mCommitId = new CommitId(redoSeq, (CommitTxn) op);
+                }
+            }
+
+            mFileSize.addAndGet(bytes.length);
+            mLogCount.incrementAndGet();
+            mLastLogTime = System.currentTimeMillis();
+            mQueue.offer(entry);
+        } finally {
+            mAppenders.decrementAndGet();
+        }
+        flusher.wakeup();
+
+        if (synchronous) {
+            awaitDurable(entry);
+        }
+    }
+
+    @Override public void flush() throws IOException {
+        if (!mOpen) {
+            return;
+        }
+        // A marker entry with no data forces an fsync of everything queued ahead of it.
+        Entry marker = new Entry(0, null, Thread.currentThread());
+        Flusher flusher;
+        mAppenders.incrementAndGet();
+        try {
+            if (!mOpen) {
+                return;
+            }
+            flusher = mFlusher;
+            mQueue.offer(marker);
+        } finally {
+            mAppenders.decrementAndGet();
+        }
+        flusher.wakeup();
+        awaitDurable(marker);
+    }
+
+    private void awaitDurable(Entry entry) throws IOException {
+        boolean interrupted = false;
+        while (!entry.mDurable) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            ZimbraLog.redolog.info("Thread interrupted while waiting for group commit");
+            Thread.currentThread().interrupt();
+        }
+        if (entry.mError != null) {
+            throw new IOException("Error writing redolog " + mFile.getAbsolutePath(), entry.mError);
+        }
+    }
+
+    private boolean mNoStat;
+    public void noStat(boolean b) {
+        mNoStat = b;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public synchronized File rollover(LinkedHashMap /*<TxnId, RedoableOp>*/ activeOps)
+    throws IOException {
+        RolloverManager romgr = mRedoLogMgr.getRolloverManager();
+
+        long lastSeq = getSequence();
+
+        // Close current log, so it's impossible for its content to change.
+        noStat(true);
+        close();
+
+        romgr.incrementSequence();
+
+        String currentPath = mFile.getAbsolutePath();
+
+        // Open a temporary logger.
+        File tempLogfile = new File(mFile.getParentFile(), romgr.getTempFilename(lastSeq + 1));
+        GroupCommitLogWriter tempLogger =
+            new GroupCommitLogWriter(mRedoLogMgr, tempLogfile, 0, mRing.length, mRing[0].capacity());
+        tempLogger.open();
+        tempLogger.noStat(true);
+
+        // Rewrite change entries for all active operations, maintaining
+        // their order of occurrence.  (LinkedHashMap ensures ordering.)
+        Set opsSet = activeOps.entrySet();
+        for (Iterator it = opsSet.iterator(); it.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) it.next();
+            RedoableOp op = (RedoableOp) entry.getValue();
+            tempLogger.log(op, op.getInputStream(), false);
+        }
+        tempLogger.close();
+
+        // Rename the current log to rolled-over name.
+        File rolloverFile = romgr.getRolloverFile(lastSeq);
+        if (RedoConfig.redoLogDeleteOnRollover()) {
+            // Delete the current log.  We don't need to hold on to the
+            // indexing-only log files after rollover.
+            if (!mFile.delete())
+                throw new IOException("Unable to delete current redo log " + mFile.getAbsolutePath());
+        } else {
+            File destDir = rolloverFile.getParentFile();
+            if (destDir != null && !destDir.exists())
+                destDir.mkdirs();
+            if (!mFile.renameTo(rolloverFile))
+                throw new IOException("Unable to rename current redo log to " + rolloverFile.getAbsolutePath());
+        }
+
+        // Rename the temporary logger to current logfile name.
+        String tempPath = tempLogfile.getAbsolutePath();
+        mFile = new File(currentPath);
+        if (!tempLogfile.renameTo(mFile))
+            throw new IOException("Unable to rename " + tempPath + " to " + currentPath);
+
+        // Reopen current log.
+        open();
+        noStat(false);
+
+        return rolloverFile;
+    }
+
+    /**
+     * Drains one batch from the queue, writes it with a single gathering write
+     * and, if any entry in it needs durability or the fsync interval has passed,
+     * fsyncs once.  Must be called with mLock held, either from the flusher or
+     * from close().
+     */
+    private void writeBatch() throws IOException {
+        int numGather = 0;
+        int ringIdx = 0;
+        ByteBuffer current = null;
+        boolean needSync = false;
+        long lastTstamp = 0;
+
+        for (Entry e; (e = mQueue.peek()) != null; ) {
+            byte[] bytes = e.mData;
+            int len = bytes == null ? 0 : bytes.length;
+            if (len > 0) {
+                if (current != null && current.remaining() >= len) {
+                    current.put(bytes);
+                } else if (len <= mRing[0].capacity() && ringIdx < mRing.length && numGather < mGather.length) {
+                    current = mRing[ringIdx++];
+                    current.clear();
+                    current.put(bytes);
+                    mGather[numGather++] = current;
+                } else if (len > mRing[0].capacity() && numGather < mGather.length) {
+                    // too big for a ring buffer; hand it to the channel as is
+                    current = null;
+                    mGather[numGather++] = ByteBuffer.wrap(bytes);
+                } else {
+                    break;  // ring is full; leave the rest for the next batch
+                }
+            }
+            mQueue.poll();
+            mBatch.add(e);
+            needSync |= e.mWaiter != null || e.mCallback != null;
+            lastTstamp = Math.max(lastTstamp, e.mTstamp);
+            if (mFirstOpTstamp == 0 && e.mData != null) {
+                mFirstOpTstamp = e.mTstamp;
+            }
+        }
+        if (mBatch.isEmpty()) {
+            return;
+        }
+
+        IOException error = null;
+        try {
+            if (mFirstOpTstamp != 0 && mHeader.getFirstOpTstamp() == 0) {
+                // Record first transaction in header.
+                mLastOpTstamp = Math.max(lastTstamp, mLastOpTstamp);
+                mHeader.setFirstOpTstamp(mFirstOpTstamp);
+                mHeader.setLastOpTstamp(mLastOpTstamp);
+                long pos = mChannel.position();
+                mHeader.write(mRAF);
+                mChannel.position(pos);
+            }
+            mLastOpTstamp = Math.max(lastTstamp, mLastOpTstamp);
+
+            for (int i = 0; i < ringIdx; i++) {
+                mRing[i].flip();
+            }
+            while (numGather > 0 && mGather[numGather - 1].hasRemaining()) {
+                mChannel.write(mGather, 0, numGather);
+            }
+            if (numGather > 0) {
+                mDirty = true;
+            }
+            if (mDirty && (needSync || System.nanoTime() - mLastFsyncNanos >= mSyncIntervalNanos)) {
+                fsync();
+            }
+            mBatchCount++;
+            ZimbraPerf.COUNTER_REDO_BATCH_SIZE.increment(mBatch.size());
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            for (int i = 0; i < numGather; i++) {
+                mGather[i] = null;
+            }
+        }
+
+        // Commit callbacks and waiters are released in log order, after the fsync.
+        for (Entry e : mBatch) {
+            if (error == null && e.mCallback != null) {
+                try {
+                    e.mCallback.callback(e.mCommitId);
+                } catch (OutOfMemoryError oom) {
+                    Zimbra.halt("out of memory", oom);
+                } catch (Throwable t) {
+                    ZimbraLog.misc.error("Error while making commit callback", t);
+                }
+            }
+            e.mError = error;
+            e.mDurable = true;
+            if (e.mWaiter != null) {
+                LockSupport.unpark(e.mWaiter);
+            }
+        }
+        mBatch.clear();
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Fsyncs the data written since the last fsync.  Must be called with mLock held.
+     */
+    private void fsync() throws IOException {
+        if (!mFsyncDisabled) {
+            long start = System.nanoTime();
+            mChannel.force(false);
+            ZimbraPerf.COUNTER_REDO_FSYNC_US.increment((System.nanoTime() - start) / 1000);
+            mFsyncCount++;
+        }
+        mDirty = false;
+        mLastFsyncNanos = System.nanoTime();
+    }
+
+    /**
+     * Fsyncs data written without anybody waiting for it, like asynchronous
+     * ops, once it has been unsynced for the fsync interval, so that a crash
+     * loses at most one interval's worth of them.  Must be called with mLock
+     * held.
+     *
+     * @return how long the flusher may park before it has to check again
+     */
+    private long fsyncIfDue(long idleNanos) throws IOException {
+        if (!mDirty || mChannel == null) {
+            return idleNanos;
+        }
+        long remaining = mSyncIntervalNanos - (System.nanoTime() - mLastFsyncNanos);
+        if (remaining > 0) {
+            return Math.min(idleNanos, remaining);
+        }
+        fsync();
+        return idleNanos;
+    }
+
+    @VisibleForTesting
+    long getFsyncCount() {
+        synchronized (mLock) {
+            return mFsyncCount;
+        }
+    }
+
+    private static final class Entry {
+        final long mTstamp;
+        final byte[] mData;
+        final Thread mWaiter;
+        RedoCommitCallback mCallback;
+        CommitId mCommitId;
+        volatile IOException mError;
+        volatile boolean mDurable;
+
+        Entry(long tstamp, byte[] data, Thread waiter) {
+            mTstamp = tstamp;
+            mData = data;
+            mWaiter = waiter;
+        }
+    }
+
+    // The single thread that writes queued entries to the file.  It parks
+    // while the queue is empty and is woken up by logging threads.
+    private class Flusher extends Thread {
+        private volatile boolean mRunning = true;
+        private final long mIdleNanos;
+
+        Flusher() {
+            super("GroupCommitLogWriter.Flusher-" + System.currentTimeMillis());
+            setDaemon(true);
+            long idleMS = mFsyncIntervalMS > 0 ? Math.min(mFsyncIntervalMS, 1000) : 1000;
+            mIdleNanos = TimeUnit.MILLISECONDS.toNanos(idleMS);
+        }
+
+        void wakeup() {
+            LockSupport.unpark(this);
+        }
+
+        @Override public void run() {
+            ZimbraLog.redolog.info("Starting redolog group commit thread");
+            while (mRunning || !mQueue.isEmpty()) {
+                try {
+                    if (mQueue.isEmpty()) {
+                        long parkNanos;
+                        synchronized (mLock) {
+                            parkNanos = fsyncIfDue(mIdleNanos);
+                        }
+                        LockSupport.parkNanos(GroupCommitLogWriter.this, parkNanos);
+                        continue;
+                    }
+                    synchronized (mLock) {
+                        writeBatch();
+                    }
+                } catch (IOException e) {
+                    String message = "Error while writing " + mFile.getAbsolutePath() + "; Aborting.";
+                    Zimbra.halt(message, e);
+                }
+            }
+            ZimbraLog.redolog.info("redolog group commit thread exiting");
+        }
+
+        // Stop the thread after it has drained the queue.  Wait until the thread really stops.
+        void stopThread() {
+            mRunning = false;
+            wakeup();
+            try {
+                while (isAlive()) {
+                    ZimbraLog.redolog.debug("waiting for %s to finish.", getName());
+                    join(Constants.MILLIS_PER_MINUTE);
+                }
+            } catch (InterruptedException e) {
+                ZimbraLog.redolog.warn("InterruptedException while stopping %s", getName(), e);
+            }
+        }
+    }
+}
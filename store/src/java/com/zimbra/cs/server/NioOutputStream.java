@@ -19,13 +19,23 @@ package com.zimbra.cs.server;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.DefaultFileRegion;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
 
 import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.IOUtil;
 
 public final class NioOutputStream extends OutputStream {
     private final IoSession session;
@@ -79,6 +89,51 @@ public final class NioOutputStream extends OutputStream {
         buf.put((byte) b);
     }
 
+    /**
+     * Returns <tt>true</tt> if data written with {@link #transferFrom} can go straight
+     * from the file to the socket.  That's only the case when no filter in the chain
+     * transforms outgoing bytes (TLS, SASL or a custom extension filter).
+     */
+    public boolean isFileTransferSupported() {
+        if (!LC.nio_zero_copy_enabled.booleanValue()) {
+            return false;
+        }
+        for (IoFilterChain.Entry entry : session.getFilterChain().getAll()) {
+            IoFilter filter = entry.getFilter();
+            if (!(filter instanceof ExecutorFilter || filter instanceof NioLoggingFilter ||
+                    filter instanceof ProtocolCodecFilter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Flushes any buffered data and then sends <tt>count</tt> bytes from <tt>channel</tt>,
+     * starting at <tt>position</tt>, with {@link FileChannel#transferTo} so the data never
+     * passes through the Java heap.  Takes ownership of <tt>channel</tt>, which is closed
+     * once the write completes or fails.
+     * <p>
+     * The caller must check {@link #isFileTransferSupported} first.
+     */
+    public synchronized void transferFrom(final FileChannel channel, long position, long count) throws IOException {
+        flush();
+        WriteFuture future;
+        try {
+            future = writeToSession(new DefaultFileRegion(channel, position, count));
+        } catch (IOException e) {
+            IOUtil.closeQuietly(channel);
+            throw e;
+        }
+        future.addListener(new IoFutureListener<WriteFuture>() {
+            @Override
+            public void operationComplete(WriteFuture f) {
+                IOUtil.closeQuietly(channel);
+            }
+        });
+        ZimbraPerf.COUNTER_BLOB_ZERO_COPY.increment(count);
+    }
+
     @Override
     public synchronized void flush() throws IOException {
         if (buf.position() > 0) {
@@ -88,7 +143,7 @@ public final class NioOutputStream extends OutputStream {
         }
     }
 
-    private synchronized void writeToSession(Object output) throws IOException {
+    private synchronized WriteFuture writeToSession(Object output) throws IOException {
         long writeBytes = session.getScheduledWriteBytes();
         WriteFuture future = session.write(output);
         if (writeBytes > maxScheduledBytes) {
@@ -107,6 +162,7 @@ public final class NioOutputStream extends OutputStream {
                 ZimbraLog.nio.debug("now have %d scheduled bytes, %d messages; %d written bytes %d messages", session.getScheduledWriteBytes(), session.getScheduledWriteMessages(), session.getWrittenBytes(), session.getWrittenMessages());
             }
         }
+        return future;
     }
 
     @Override
@@ -0,0 +1,83 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.admin;
+
+import java.util.List;
+import java.util.Map;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.soap.Element;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.Server;
+import com.zimbra.cs.account.accesscontrol.AdminRight;
+import com.zimbra.cs.account.accesscontrol.Rights.Admin;
+import com.zimbra.cs.stats.CommandProfiler;
+import com.zimbra.cs.stats.CommandProfiler.CommandStats;
+import com.zimbra.soap.JaxbUtil;
+import com.zimbra.soap.ZimbraSoapContext;
+import com.zimbra.soap.admin.message.GetCommandProfileRequest;
+import com.zimbra.soap.admin.message.GetCommandProfileResponse;
+import com.zimbra.soap.admin.type.CommandProfileInfo;
+
+public class GetCommandProfile extends AdminDocumentHandler {
+
+    @Override
+    public Element handle(Element request, Map<String, Object> context) throws ServiceException {
+        ZimbraSoapContext zsc = getZimbraSoapContext(context);
+
+        Server localServer = Provisioning.getInstance().getLocalServer();
+        checkRight(zsc, context, localServer, Admin.R_getServerStats);
+
+        GetCommandProfileRequest req = JaxbUtil.elementToJaxb(request);
+        CommandProfiler.Protocol[] protocols;
+        if (req.getProtocol() == null) {
+            protocols = CommandProfiler.Protocol.values();
+        } else {
+            try {
+                protocols = new CommandProfiler.Protocol[] {
+                        CommandProfiler.Protocol.valueOf(req.getProtocol().toUpperCase()) };
+            } catch (IllegalArgumentException e) {
+                throw ServiceException.INVALID_REQUEST("invalid protocol: " + req.getProtocol(), e);
+            }
+        }
+
+        GetCommandProfileResponse response = new GetCommandProfileResponse();
+        for (CommandProfiler.Protocol protocol : protocols) {
+            for (CommandStats stats : CommandProfiler.getStats(protocol)) {
+                CommandProfileInfo info = new CommandProfileInfo(protocol.name().toLowerCase(), stats.getCommand());
+                info.setCount(stats.getCount());
+                info.setSampled(stats.getSampled());
+                info.setWallMs(stats.getWallMs());
+                info.setMaxWallMs(stats.getMaxWallMs());
+                info.setCpuMs(stats.getCpuMs());
+                info.setDbStatements(stats.getDbStatements());
+                info.setLockWaitMs(stats.getLockWaitMs());
+                info.setBytesWritten(stats.getBytesWritten());
+                response.addCommand(info);
+            }
+            if (req.getReset()) {
+                CommandProfiler.reset(protocol);
+            }
+        }
+        return zsc.jaxbToElement(response);
+    }
+
+    @Override
+    public void docRights(List<AdminRight> relatedRights, List<String> notes) {
+        relatedRights.add(Admin.R_getServerStats);
+    }
+}
@@ -17,7 +17,7 @@
 
 package com.zimbra.cs.service.mail;
 
-import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -105,8 +105,8 @@ public class CompleteTaskInstance extends CalendarRequest {
             // Update recurrence's start date to the next instance start date.
             long oldStart = recurStart.getUtcTime();
             long newStart = -1;
-            Collection<Instance> instances = calItem.expandInstances(oldStart, Long.MAX_VALUE, false);
-            for (Instance inst : instances) {
+            for (Iterator<Instance> iter = calItem.instanceIterator(oldStart, Long.MAX_VALUE); iter.hasNext(); ) {
+                Instance inst = iter.next();
                 if (inst.getStart() > oldStart) {
                     newStart = inst.getStart();
                     break;
@@ -248,7 +248,10 @@ public class WaitSetRequest extends MailDocumentHandler {
             }
 
             if (block) {
-                noDataSleep(cb);
+                if (!WaitSetMgr.isCoalescing()) {
+                    // coalesced deliveries resume the suspended request, so there's no need to hold the thread
+                    noDataSleep(cb);
+                }
                 synchronized (cb) {
                     if (!cb.completed) { // don't wait if it completed right away
                         long timeout = getTimeoutMillis(req.getTimeout(), adminAllowed);
@@ -17,15 +17,21 @@
 package com.zimbra.cs.session;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.mailbox.BaseItemInfo;
 import com.zimbra.common.mailbox.MailboxStore;
 import com.zimbra.common.mailbox.ZimbraMailItem;
@@ -253,9 +259,110 @@ public final class PendingLocalModifications extends PendingModifications<MailIt
         return ret;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Encodes these changes for delivery to another server.
+     *
+     * @see PendingModificationsEncoding
+     */
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        serialize(out);
+        return out.toByteArray();
+    }
+
+    public void serialize(OutputStream out) throws IOException {
+        PendingModificationsEncoding.encode(this, out);
+    }
+
+    /**
+     * Encodes these changes with Java serialization, the format used before
+     * {@link PendingModificationsEncoding}.  Only kept to compare the two; {@link ModificationKeyMeta}
+     * refuses to be deserialized, so this format can't be read back in this server.
+     */
+    @VisibleForTesting
+    byte[] serializeJava() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(changedTypes);
+            oos.writeObject(new HashSet<Integer>(getChangedParentFolders()));
+            LinkedHashMap<ModificationKeyMeta, String> metaCreated = null;
+            if (created != null) {
+                metaCreated = new LinkedHashMap<ModificationKeyMeta, String>();
+                for (Entry<PendingModifications.ModificationKey, BaseItemInfo> entry : created.entrySet()) {
+                    if (entry.getValue() instanceof MailItem) {
+                        metaCreated.put(new ModificationKeyMeta(entry.getKey().getAccountId(), entry.getKey().getItemId()),
+                                ((MailItem) entry.getValue()).serializeUnderlyingData().toString());
+                    }
+                }
+            }
+            oos.writeObject(metaCreated);
+            oos.writeObject(getSerializable(modified));
+            oos.writeObject(getSerializable(deleted));
+        }
+        return bos.toByteArray();
+    }
+
+    private static Map<ModificationKeyMeta, ChangeMeta> getSerializable(
+            Map<PendingModifications.ModificationKey, PendingModifications.Change> map) {
+        if (map == null) {
+            return null;
+        }
+        Map<ModificationKeyMeta, ChangeMeta> ret = new LinkedHashMap<ModificationKeyMeta, ChangeMeta>();
+        for (Entry<PendingModifications.ModificationKey, PendingModifications.Change> entry : map.entrySet()) {
+            PendingModifications.Change change = entry.getValue();
+            ChangeMeta.ObjectType whatType;
+            String metaWhat;
+            if (change.what instanceof MailItem) {
+                whatType = ChangeMeta.ObjectType.MAILITEM;
+                metaWhat = ((MailItem) change.what).serializeUnderlyingData().toString();
+            } else if (change.what instanceof MailItem.Type) {
+                whatType = ChangeMeta.ObjectType.MAILITEMTYPE;
+                metaWhat = ((MailItem.Type) change.what).name();
+            } else if (change.what instanceof Mailbox) {
+                whatType = ChangeMeta.ObjectType.MAILBOX;
+                metaWhat = null;
+            } else {
+                continue;
+            }
+            ChangeMeta.ObjectType preModifyObjType = null;
+            String metaPreModifyObj = null;
+            if (change.preModifyObj instanceof MailItem) {
+                preModifyObjType = ChangeMeta.ObjectType.MAILITEM;
+                metaPreModifyObj = ((MailItem) change.preModifyObj).serializeUnderlyingData().toString();
+            } else if (change.preModifyObj instanceof MailItem.Type) {
+                preModifyObjType = ChangeMeta.ObjectType.MAILITEMTYPE;
+                metaPreModifyObj = ((MailItem.Type) change.preModifyObj).name();
+            }
+            ret.put(new ModificationKeyMeta(entry.getKey().getAccountId(), entry.getKey().getItemId()),
+                    new ChangeMeta(whatType, metaWhat, change.why, preModifyObjType, metaPreModifyObj));
+        }
+        return ret;
+    }
+
+    /**
+     * Decodes changes sent by another server.  Payloads that aren't in the binary encoding are
+     * handed to the older Java serialization reader.
+     */
     public static PendingLocalModifications deserialize(Mailbox mbox, byte[] data)
             throws IOException, ClassNotFoundException, ServiceException {
+        if (PendingModificationsEncoding.isEncoded(data)) {
+            return deserialize(mbox, new ByteArrayInputStream(data), data.length);
+        }
+        return deserializeJava(mbox, data);
+    }
+
+    /**
+     * Decodes binary encoded changes from the next {@code length} bytes of {@code in}.  Lengths in
+     * the encoding that run past the end of those bytes fail with an {@link IOException}.
+     */
+    public static PendingLocalModifications deserialize(Mailbox mbox, InputStream in, int length)
+            throws IOException, ServiceException {
+        return PendingModificationsEncoding.decode(mbox, in, length);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PendingLocalModifications deserializeJava(Mailbox mbox, byte[] data)
+            throws IOException, ClassNotFoundException, ServiceException {
         ByteArrayInputStream bis = new ByteArrayInputStream(data);
         PendingLocalModifications pms = new PendingLocalModifications();
         try (ObjectInputStream ois = new SecureObjectInputStream(bis, Type.class.getName())) {
@@ -0,0 +1,423 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.google.common.io.ByteStreams;
+
+import com.zimbra.common.mailbox.BaseItemInfo;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.Metadata;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * Binary encoding of {@link PendingLocalModifications}, used to ship mailbox notifications to
+ * other servers.
+ * <p>
+ * Replaces Java serialization of {@link PendingModifications.ModificationKeyMeta} and
+ * {@link PendingModifications.ChangeMeta} maps: there are no class descriptors, the account id
+ * shared by every key is written once, numbers are varints and item snapshots use the compact
+ * {@link Metadata} format.  Since version 2 everything after the version byte is deflated: item
+ * snapshots repeat the same keys and similar values, and that is where most of the bytes are.
+ * The encoding is written to and read from a stream in one pass.
+ * <pre>
+ *   pms      := MAGIC VERSION body                   version 1 body as is, version 2 deflated
+ *   body     := types folders folders accounts created modified deleted
+ *   types    := varint(n) byte*                      MailItem.Type.toByte()
+ *   folders  := varint(n) zigzag*                    changed parent folders, then changed folders
+ *   accounts := varint(n) string*                    account ids referenced by keys
+ *   created  := varint(n + 1) (key object)* | 0      0 means null
+ *   modified := varint(n + 1) (key object varint(why) object)* | 0
+ *   deleted  := varint(n + 1) (key object varint(why) object)* | 0
+ *   key      := varint(account index) zigzag(item id)
+ *   object   := NULL | MAILBOX | TYPE byte | ITEM string | INTEGER zigzag
+ *   string   := varint(length) UTF-8 bytes
+ * </pre>
+ * Readers must reject versions they don't know; add a new version rather than changing the
+ * meaning of an existing one.  Lengths and counts come from another server and are checked
+ * against the bytes that are left before anything is allocated for them.
+ */
+final class PendingModificationsEncoding {
+    /** Never the first byte of a Java serialization stream, which starts with {@code 0xACED}. */
+    static final int MAGIC = 0x5A;
+    static final int VERSION = 2;
+    /** Uncompressed body, still accepted from servers that haven't been upgraded. */
+    static final int VERSION_PLAIN = 1;
+    /** Upper bound of the deflate expansion ratio, used to bound the inflated body length. */
+    private static final long MAX_INFLATE_RATIO = 1032;
+
+    private static final int OBJ_NULL = 0;
+    private static final int OBJ_MAILBOX = 1;
+    private static final int OBJ_TYPE = 2;
+    private static final int OBJ_ITEM = 3;
+    private static final int OBJ_INTEGER = 4;
+
+    private PendingModificationsEncoding() {
+    }
+
+    static boolean isEncoded(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xff) == MAGIC;
+    }
+
+    static void encode(PendingModifications<MailItem> pms, OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater, 512);
+            encodeBody(pms, dos);
+            dos.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void encodeBody(PendingModifications<MailItem> pms, OutputStream out) throws IOException {
+        writeVarint(out, pms.changedTypes.size());
+        for (MailItem.Type type : pms.changedTypes) {
+            out.write(type.toByte());
+        }
+        writeInts(out, pms.getChangedParentFolders());
+        writeInts(out, pms.getChangedFolders());
+
+        Map<String, Integer> accounts = new LinkedHashMap<String, Integer>(2);
+        addAccounts(accounts, pms.created);
+        addAccounts(accounts, pms.modified);
+        addAccounts(accounts, pms.deleted);
+        writeVarint(out, accounts.size());
+        for (String accountId : accounts.keySet()) {
+            writeString(out, accountId);
+        }
+
+        if (pms.created == null) {
+            writeVarint(out, 0);
+        } else {
+            writeVarint(out, pms.created.size() + 1);
+            for (Map.Entry<ModificationKey, BaseItemInfo> entry : pms.created.entrySet()) {
+                writeKey(out, accounts, entry.getKey());
+                writeObject(out, entry.getValue());
+            }
+        }
+        writeChanges(out, accounts, pms.modified);
+        writeChanges(out, accounts, pms.deleted);
+    }
+
+    /**
+     * @param length number of bytes of {@code in} that belong to the encoded notification
+     */
+    static PendingLocalModifications decode(Mailbox mbox, InputStream in, int length)
+            throws IOException, ServiceException {
+        Input raw = new Input(in, length);
+        if (readByte(raw) != MAGIC) {
+            throw new IOException("not an encoded notification");
+        }
+        int version = readByte(raw);
+        if (version == VERSION_PLAIN) {
+            return decodeBody(mbox, raw);
+        } else if (version != VERSION) {
+            throw new IOException("unsupported notification encoding version " + version);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            InputStream body = new InflaterInputStream(ByteStreams.limit(in, raw.remaining), inflater, 512);
+            return decodeBody(mbox, new Input(body, raw.remaining * MAX_INFLATE_RATIO));
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static PendingLocalModifications decodeBody(Mailbox mbox, Input in)
+            throws IOException, ServiceException {
+        PendingLocalModifications pms = new PendingLocalModifications();
+        for (int i = readCount(in); i > 0; i--) {
+            pms.changedTypes.add(MailItem.Type.of((byte) readByte(in)));
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            pms.addChangedParentFolderId(readZigzag(in));
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            pms.addChangedFolderId(readZigzag(in));
+        }
+
+        int numAccounts = readCount(in);
+        List<String> accounts = new ArrayList<String>(Math.min(numAccounts, 16));
+        for (int i = 0; i < numAccounts; i++) {
+            accounts.add(readString(in));
+        }
+
+        Reader reader = new Reader(mbox, in);
+        int count = readCount(in);
+        if (count > 0) {
+            pms.created = new LinkedHashMap<ModificationKey, BaseItemInfo>(capacity(count - 1));
+            for (int i = 1; i < count; i++) {
+                ModificationKey key = readKey(in, accounts);
+                Object item = reader.readObject();
+                if (item instanceof BaseItemInfo) {
+                    pms.created.put(key, (BaseItemInfo) item);
+                }
+            }
+        }
+        pms.modified = readChanges(reader, accounts, new HashMap<ModificationKey, Change>());
+        pms.deleted = readChanges(reader, accounts, new LinkedHashMap<ModificationKey, Change>());
+        return pms;
+    }
+
+    private static void addAccounts(Map<String, Integer> accounts, Map<ModificationKey, ?> map) {
+        if (map != null) {
+            for (ModificationKey key : map.keySet()) {
+                if (!accounts.containsKey(key.getAccountId())) {
+                    accounts.put(key.getAccountId(), accounts.size());
+                }
+            }
+        }
+    }
+
+    private static void writeChanges(OutputStream out, Map<String, Integer> accounts, Map<ModificationKey, Change> map)
+            throws IOException {
+        if (map == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, map.size() + 1);
+        for (Map.Entry<ModificationKey, Change> entry : map.entrySet()) {
+            Change chg = entry.getValue();
+            writeKey(out, accounts, entry.getKey());
+            writeObject(out, chg.what);
+            writeVarint(out, chg.why);
+            writeObject(out, chg.preModifyObj);
+        }
+    }
+
+    private static Map<ModificationKey, Change> readChanges(Reader reader, List<String> accounts,
+            Map<ModificationKey, Change> map) throws IOException, ServiceException {
+        int count = readCount(reader.in);
+        if (count == 0) {
+            return null;
+        }
+        for (int i = 1; i < count; i++) {
+            ModificationKey key = readKey(reader.in, accounts);
+            Object what = reader.readObject();
+            int why = readVarint(reader.in);
+            Object preModifyObj = reader.readObject();
+            if (what != null) {
+                map.put(key, new Change(what, why, preModifyObj));
+            }
+        }
+        return map;
+    }
+
+    private static void writeKey(OutputStream out, Map<String, Integer> accounts, ModificationKey key)
+            throws IOException {
+        writeVarint(out, accounts.get(key.getAccountId()));
+        writeZigzag(out, key.getItemId());
+    }
+
+    private static ModificationKey readKey(Input in, List<String> accounts) throws IOException {
+        int index = readVarint(in);
+        if (index >= accounts.size()) {
+            throw new IOException("bad account index " + index);
+        }
+        return new ModificationKey(accounts.get(index), readZigzag(in));
+    }
+
+    private static void writeObject(OutputStream out, Object obj) throws IOException {
+        if (obj instanceof MailItem) {
+            out.write(OBJ_ITEM);
+            writeString(out, ((MailItem) obj).serializeUnderlyingData().toCompactString());
+        } else if (obj instanceof MailItem.Type) {
+            out.write(OBJ_TYPE);
+            out.write(((MailItem.Type) obj).toByte());
+        } else if (obj instanceof Mailbox) {
+            out.write(OBJ_MAILBOX);
+        } else if (obj instanceof Integer) {
+            out.write(OBJ_INTEGER);
+            writeZigzag(out, (Integer) obj);
+        } else {
+            if (obj != null) {
+                ZimbraLog.session.debug("not encoding notification object of %s", obj.getClass().getName());
+            }
+            out.write(OBJ_NULL);
+        }
+    }
+
+    private static void writeInts(OutputStream out, Set<Integer> values) throws IOException {
+        writeVarint(out, values.size());
+        for (int value : values) {
+            writeZigzag(out, value);
+        }
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(Input in) throws IOException {
+        int len = readCount(in);
+        // the inflated bound is generous, so grow with the bytes that actually arrive
+        byte[] bytes = new byte[Math.min(len, 8192)];
+        for (int off = 0; off < len; ) {
+            if (off == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min((long) len, bytes.length * 2L));
+            }
+            off += in.read(bytes, off, bytes.length - off);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeZigzag(OutputStream out, int value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readZigzag(Input in) throws IOException {
+        int n = readVarint(in);
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /** Writes {@code value} as an unsigned LEB128 varint: 7 bits per byte, high bit set on all but the last. */
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(Input in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(in);
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Reads a length or element count.  Every element takes at least one byte, so anything larger
+     * than what is left of the input can't be right.
+     */
+    private static int readCount(Input in) throws IOException {
+        int n = readVarint(in);
+        if (n < 0 || n > in.remaining) {
+            throw new IOException("bad length " + n + " with " + in.remaining + " bytes left");
+        }
+        return n;
+    }
+
+    private static int readByte(Input in) throws IOException {
+        return in.read();
+    }
+
+    private static int capacity(int size) {
+        return Math.max(Math.min(size, 1024) * 4 / 3 + 1, 16);
+    }
+
+    /** Counts down the bytes the encoding may still take up. */
+    private static final class Input {
+        private final InputStream in;
+        long remaining;
+
+        Input(InputStream in, long remaining) {
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        int read() throws IOException {
+            int b = remaining > 0 ? in.read() : -1;
+            if (b < 0) {
+                throw new EOFException();
+            }
+            remaining--;
+            return b;
+        }
+
+        int read(byte[] b, int off, int len) throws IOException {
+            int n = remaining > 0 ? in.read(b, off, (int) Math.min(len, remaining)) : -1;
+            if (n < 0) {
+                throw new EOFException();
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /** Turns encoded objects back into items of the receiving server's mailbox. */
+    private static final class Reader {
+        final Mailbox mbox;
+        final Input in;
+        private boolean mailboxRefreshed;
+
+        Reader(Mailbox mbox, Input in) {
+            this.mbox = mbox;
+            this.in = in;
+        }
+
+        Object readObject() throws IOException, ServiceException {
+            int kind = readByte(in);
+            switch (kind) {
+                case OBJ_NULL:
+                    return null;
+                case OBJ_MAILBOX:
+                    if (!mailboxRefreshed) {
+                        mbox.refreshMailbox(null);
+                        mailboxRefreshed = true;
+                    }
+                    return mbox;
+                case OBJ_TYPE:
+                    return MailItem.Type.of((byte) readByte(in));
+                case OBJ_INTEGER:
+                    return readZigzag(in);
+                case OBJ_ITEM:
+                    MailItem.UnderlyingData ud = new MailItem.UnderlyingData();
+                    ud.deserialize(new Metadata(readString(in)));
+                    MailItem item = MailItem.constructItem(mbox, ud, true);
+                    if (item instanceof Folder) {
+                        Folder folder = (Folder) item;
+                        folder.setParent(mbox.getFolderById(null, folder.getFolderId()));
+                    }
+                    return item;
+                default:
+                    throw new IOException("unknown notification object kind " + kind);
+            }
+        }
+    }
+}
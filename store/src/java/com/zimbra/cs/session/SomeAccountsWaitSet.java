@@ -22,7 +22,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.AccountServiceException;
@@ -31,6 +34,7 @@ import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mailbox.MailboxManager.FetchMode;
 import com.zimbra.cs.service.mail.WaitSetRequest;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.soap.admin.type.SessionForWaitSet;
 import com.zimbra.soap.admin.type.WaitSetInfo;
 import com.zimbra.soap.admin.type.WaitSetSessionInfo;
@@ -41,6 +45,10 @@ import com.zimbra.soap.admin.type.WaitSetSessionInfo;
  * External APIs:
  *     WaitSet.doWait()              // primary wait API
  *     WaitSet.getDefaultInterest()  // accessor
+ *
+ * When {@link WaitSetMgr#isCoalescing()}, sessions signal changes by queueing them without taking the WaitSet
+ * lock; a delivery thread picks up everything queued within the coalescing window and completes the waiting
+ * callback once.
  */
 public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxManager.Listener {
 
@@ -50,6 +58,16 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
     /** these are the accounts we are listening to.  Stores EITHER a WaitSetSession or an AccountID  */
     private HashMap<String, WaitSetAccount> mSessions = new HashMap<String, WaitSetAccount>();
 
+    /** signals raised since the last delivery; moved into the current signalled set under the WaitSet lock */
+    private final ConcurrentLinkedQueue<Signal> mIncoming = new ConcurrentLinkedQueue<Signal>();
+    private final AtomicBoolean mDeliveryScheduled = new AtomicBoolean();
+    private final Runnable mDelivery = new Runnable() {
+        @Override
+        public void run() {
+            deliverSignals();
+        }
+    };
+
     /** Constructor */
     SomeAccountsWaitSet(String ownerAccountId, String id, Set<MailItem.Type> defaultInterest) {
         super(ownerAccountId, id, defaultInterest);
@@ -97,6 +115,7 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
         ZimbraLog.session.trace("SomeAccountsWaitSet.doWait - setting mCb was=%s new=%s", mCb, cb);
         mCb = cb;
         mCbSeqNo = Long.parseLong(lastKnownSeqNo);
+        drainSignals();
         trySendData();
 
         return errors;
@@ -255,6 +274,7 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
         cancelExistingCB();
         HashMap<String, WaitSetAccount> toRet = mSessions;
         mSessions = new HashMap<String, WaitSetAccount>();
+        mIncoming.clear();
         mCurrentSignalledSessions.clear();
         mSentSignalledSessions.clear();
         mSentSignalledAccounts.clear();
@@ -276,6 +296,7 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
      * @param session
      */
     synchronized protected void unsignalDataReady(WaitSetSession session) {
+        drainSignals();
         if (mSessions.containsKey(session.getTargetAccountId())) { // ...false if waitset is shutting down...
             mCurrentSignalledAccounts.remove(session.getTargetAccountId());
             mCurrentSignalledSessions.remove(session.getTargetAccountId());
@@ -286,15 +307,27 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
      * Called by the WaitSetSession when there is data to be signalled by this session
      * @param session
      */
-    synchronized protected void signalDataReady(WaitSetSession session) {
+    protected void signalDataReady(WaitSetSession session) {
         signalDataReady(session, null);
     }
 
     /**
-     * Called by the WaitSetSession when there is data to be signalled by this session
+     * Called by the WaitSetSession when there is data to be signalled by this session.  Unless signals are
+     * delivered immediately, this only queues the signal and never blocks on the WaitSet lock.
      * @param session
      */
-    synchronized protected void signalDataReady(WaitSetSession session, PendingModifications pms) {
+    protected void signalDataReady(WaitSetSession session, PendingModifications pms) {
+        if (!WaitSetMgr.isCoalescing()) {
+            signalDataReadyNow(session, pms);
+            return;
+        }
+        mIncoming.add(new Signal(session, pms));
+        if (mDeliveryScheduled.compareAndSet(false, true)) {
+            WaitSetMgr.scheduleDelivery(mDelivery);
+        }
+    }
+
+    private synchronized void signalDataReadyNow(WaitSetSession session, PendingModifications pms) {
         boolean trace = ZimbraLog.session.isTraceEnabled();
         if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.signalDataReady 1");
         String targetAccId = session.getTargetAccountId();
@@ -310,6 +343,93 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
         if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.signalDataReady done");
     }
 
+    /** Delivers the signals queued during the coalescing window.  Runs on a WaitSetMgr delivery thread. */
+    private void deliverSignals() {
+        mDeliveryScheduled.set(false); // before draining, so that a signal queued after the drain schedules again
+        synchronized (this) {
+            boolean waiting = mCb != null;
+            long oldest = drainSignals();
+            if (oldest > 0) {
+                trySendData();
+                if (waiting && mCb == null) {
+                    ZimbraPerf.STOPWATCH_WAITSET_DELIVER.stop(oldest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves queued signals into the current signalled set, merging the changes of an account that signals more
+     * than once.
+     *
+     * @return time the oldest drained signal was raised, or {@code 0} if none were queued
+     */
+    @SuppressWarnings("rawtypes")
+    private synchronized long drainSignals() {
+        long oldest = 0;
+        int count = 0;
+        Map<String, List<PendingModifications>> merges = null;
+        for (Signal signal; (signal = mIncoming.poll()) != null; count++) {
+            if (oldest == 0) {
+                oldest = signal.time;
+            }
+            String targetAccId = signal.session.getTargetAccountId();
+            if (!mSessions.containsKey(targetAccId)) { // ...false if waitset is shutting down...
+                continue;
+            }
+            if (mCurrentSignalledAccounts.add(targetAccId)) {
+                mCurrentSignalledSessions.add(signal.session);
+                addMods(currentPendingModifications, targetAccId, signal.pms);
+            } else if (signal.pms != null) {
+                if (merges == null) {
+                    merges = new HashMap<String, List<PendingModifications>>();
+                }
+                List<PendingModifications> list = merges.get(targetAccId);
+                if (list == null) {
+                    list = new ArrayList<PendingModifications>(4);
+                    PendingModifications current = currentPendingModifications.get(targetAccId);
+                    if (current != null) {
+                        list.add(current);
+                    }
+                    merges.put(targetAccId, list);
+                }
+                list.add(signal.pms);
+            }
+        }
+        if (merges != null) {
+            for (Map.Entry<String, List<PendingModifications>> entry : merges.entrySet()) {
+                addMods(currentPendingModifications, entry.getKey(), merge(entry.getValue()));
+            }
+        }
+        if (count > 0) {
+            ZimbraPerf.COUNTER_WAITSET_SIGNALS.increment(count);
+        }
+        return oldest;
+    }
+
+    /**
+     * Combines the changes of several signals for one account into a new object; the ones passed in are shared
+     * with other sessions of the mailbox and must not be modified.  Remote changes are merged into a remote object
+     * if there are only remote ones, otherwise everything is merged into a local one, which records the item
+     * changes of either kind.
+     */
+    @VisibleForTesting
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static PendingModifications merge(List<PendingModifications> list) {
+        if (list.size() == 1) {
+            return list.get(0);
+        }
+        boolean remote = true;
+        for (PendingModifications pms : list) {
+            remote &= pms instanceof PendingRemoteModifications;
+        }
+        PendingModifications merged = remote ? new PendingRemoteModifications() : new PendingLocalModifications();
+        for (PendingModifications pms : list) {
+            merged.add(pms);
+        }
+        return merged;
+    }
+
     @Override
     public synchronized WaitSetInfo handleQuery() {
         WaitSetInfo info = super.handleQuery();
@@ -386,4 +506,16 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
     public long getCurrentSeqNo() {
         return mCurrentSeqNo;
     }
+
+    @SuppressWarnings("rawtypes")
+    private static final class Signal {
+        final WaitSetSession session;
+        final PendingModifications pms;
+        final long time = System.currentTimeMillis();
+
+        Signal(WaitSetSession session, PendingModifications pms) {
+            this.session = session;
+            this.pms = pms;
+        }
+    }
 }
@@ -23,7 +23,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.account.Key;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
@@ -64,7 +68,8 @@ public class WaitSetMgr {
         }
     };
 
-    private static final HashMap<String, WaitSetBase> sWaitSets = new HashMap<String, WaitSetBase>();
+    /** Updates are made under the map's monitor together with {@link #sWaitSetsByAccountId}; lookups don't lock. */
+    private static final Map<String, WaitSetBase> sWaitSets = new ConcurrentHashMap<String, WaitSetBase>();
 
     private static final HashMap<String /*AccountId*/, List<String /*WaitSetId*/>> sWaitSetsByAccountId = new HashMap<String, List<String>>();
 
@@ -72,6 +77,14 @@ public class WaitSetMgr {
 
     private static final int WAITSET_TIMEOUT = (int) (LC.zimbra_active_waitset_timeout_minutes.intValue() * Constants.MILLIS_PER_MINUTE);
 
+    private static final long COALESCE_WINDOW = LC.zimbra_waitset_coalesce_window_ms.longValueWithinRange(0,
+            Constants.MILLIS_PER_MINUTE);
+
+    /** Runs coalesced WaitSet deliveries, so that committing threads never complete WaitSet requests themselves. */
+    private static final ScheduledThreadPoolExecutor sDeliveryExecutor = new ScheduledThreadPoolExecutor(
+            LC.zimbra_waitset_delivery_threads.intValueWithinRange(1, 64),
+            new ThreadFactoryBuilder().setNameFormat("WaitSetDelivery-%d").setDaemon(true).build());
+
     /**
      * Create a new WaitSet, optionally specifying an initial set of accounts
      * to start listening on
@@ -247,6 +260,20 @@ public class WaitSetMgr {
 
     public static void shutdown() {
         sSweeper.cancel();
+        sDeliveryExecutor.shutdown();
+    }
+
+    /**
+     * Returns {@code true} if WaitSet signals are coalesced and delivered by {@link #scheduleDelivery}, {@code false}
+     * if they are delivered on the thread that raised them.
+     */
+    public static boolean isCoalescing() {
+        return COALESCE_WINDOW > 0;
+    }
+
+    /** Runs {@code delivery} once the coalescing window has passed. */
+    static void scheduleDelivery(Runnable delivery) {
+        sDeliveryExecutor.schedule(delivery, COALESCE_WINDOW, TimeUnit.MILLISECONDS);
     }
 
 
@@ -264,16 +291,14 @@ public class WaitSetMgr {
 
 
     private static WaitSetBase lookupInternal(String id) {
-        synchronized(sWaitSets) {
-            WaitSetBase toRet = sWaitSets.get(id);
-            if (toRet != null) {
-                assert(!Thread.holdsLock(toRet));
-                synchronized(toRet) {
-                    toRet.setLastAccessedTime(System.currentTimeMillis());
-                }
+        WaitSetBase toRet = sWaitSets.get(id);
+        if (toRet != null) {
+            assert(!Thread.holdsLock(toRet));
+            synchronized(toRet) {
+                toRet.setLastAccessedTime(System.currentTimeMillis());
             }
-            return toRet;
         }
+        return toRet;
     }
 
     /**
@@ -338,13 +363,11 @@ public class WaitSetMgr {
     }
 
     public static boolean isMonitoringFolderForImap(String accountId, int folderId) {
-        synchronized(sWaitSets) {
-            for (IWaitSet ws : sWaitSets.values()) {
-                if (ws instanceof SomeAccountsWaitSet) {
-                    SomeAccountsWaitSet saWs = (SomeAccountsWaitSet) ws;
-                    if (saWs.isMonitoringFolder(accountId, folderId)) {
-                        return true;
-                    }
+        for (IWaitSet ws : sWaitSets.values()) {
+            if (ws instanceof SomeAccountsWaitSet) {
+                SomeAccountsWaitSet saWs = (SomeAccountsWaitSet) ws;
+                if (saWs.isMonitoringFolder(accountId, folderId)) {
+                    return true;
                 }
             }
         }
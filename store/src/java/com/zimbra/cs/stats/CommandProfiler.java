@@ -0,0 +1,381 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.stats;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.zimbra.common.localconfig.LC;
+
+/**
+ * Always-on, sampled per-command execution profile for SOAP requests and IMAP commands.
+ * <p>
+ * A protocol handler brackets each command with {@link #begin} and {@link #end}.  Every command is
+ * counted; one in {@code zimbra_command_profile_sample_rate} is also sampled, in which case wall time,
+ * thread CPU time, DB statements, mailbox lock wait time and bytes written are accumulated into the
+ * command's slot.  Code running on the request thread reports into the current sample through the
+ * static {@code record} methods, which are no-ops when the thread isn't being sampled.
+ * <p>
+ * Slots are {@link LongAdder}s in a {@link ConcurrentHashMap}, so recording never takes a lock.
+ * The number of distinct commands per protocol is capped; anything beyond the cap is counted under
+ * {@link #OVERFLOW}.
+ */
+public final class CommandProfiler {
+
+    public enum Protocol { SOAP, IMAP }
+
+    static final String OVERFLOW = "other";
+    static final String UNKNOWN = "unknown";
+    private static final int MAX_COMMANDS = 512;
+
+    private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREAD_MX.isCurrentThreadCpuTimeSupported();
+
+    private static final Map<Protocol, ConcurrentMap<String, Slot>> SLOTS =
+            new EnumMap<Protocol, ConcurrentMap<String, Slot>>(Protocol.class);
+    static {
+        for (Protocol protocol : Protocol.values()) {
+            SLOTS.put(protocol, new ConcurrentHashMap<String, Slot>());
+        }
+    }
+
+    private static final ThreadLocal<Sample> CURRENT = new ThreadLocal<Sample>() {
+        @Override
+        protected Sample initialValue() {
+            return new Sample();
+        }
+    };
+
+    private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    };
+
+    private CommandProfiler() {
+    }
+
+    /**
+     * Starts profiling a command on the current thread.
+     *
+     * @return {@code false} if a command is already being profiled on this thread, in which case the
+     *  caller must not call {@link #end}
+     */
+    public static boolean begin(Protocol protocol) {
+        return begin(protocol, shouldSample());
+    }
+
+    @VisibleForTesting
+    static boolean begin(Protocol protocol, boolean sampled) {
+        Sample sample = CURRENT.get();
+        if (sample.protocol != null) {
+            return false;
+        }
+        sample.protocol = protocol;
+        sample.sampled = sampled;
+        if (sampled) {
+            sample.startNanos = System.nanoTime();
+            sample.startCpuNanos = currentThreadCpuTime();
+        }
+        return true;
+    }
+
+    /**
+     * Names the command being profiled on the current thread, unless it has already been named.
+     * Nested dispatches (e.g. the requests inside a {@code BatchRequest}) are attributed to the
+     * outermost command.
+     */
+    public static void setCommand(String command) {
+        Sample sample = CURRENT.get();
+        if (sample.protocol != null && sample.command == null) {
+            sample.command = command;
+        }
+    }
+
+    public static void end(String command) {
+        setCommand(command);
+        end();
+    }
+
+    /**
+     * Finishes the command started by {@link #begin} and folds its sample into the command's slot.
+     */
+    public static void end() {
+        Sample sample = CURRENT.get();
+        if (sample.protocol == null) {
+            return;
+        }
+        try {
+            Slot slot = getSlot(sample.protocol, sample.command != null ? sample.command : UNKNOWN);
+            slot.count.increment();
+            if (sample.sampled) {
+                long wall = System.nanoTime() - sample.startNanos;
+                slot.sampled.increment();
+                slot.wallNanos.add(wall);
+                slot.maxWallNanos.accumulate(wall);
+                if (sample.startCpuNanos >= 0) {
+                    long cpu = currentThreadCpuTime();
+                    if (cpu >= 0) {
+                        slot.cpuNanos.add(cpu - sample.startCpuNanos);
+                    }
+                }
+                slot.dbStatements.add(sample.dbStatements);
+                slot.lockWaitNanos.add(sample.lockWaitNanos);
+                slot.bytesWritten.add(sample.bytesWritten);
+            }
+        } finally {
+            sample.clear();
+        }
+    }
+
+    /**
+     * Called for every SQL statement executed on the current thread.
+     */
+    public static void recordDbStatement() {
+        Sample sample = CURRENT.get();
+        if (sample.sampled) {
+            sample.dbStatements++;
+        }
+    }
+
+    /**
+     * Called with the time the current thread spent blocked acquiring a mailbox lock.
+     */
+    public static void recordLockWait(long nanos) {
+        Sample sample = CURRENT.get();
+        if (sample.sampled) {
+            sample.lockWaitNanos += nanos;
+        }
+    }
+
+    /**
+     * Called with the number of response bytes written by the current thread.
+     */
+    public static void recordBytesWritten(long bytes) {
+        Sample sample = CURRENT.get();
+        if (sample.sampled) {
+            sample.bytesWritten += bytes;
+        }
+    }
+
+    /**
+     * Returns the profile of every command seen for the given protocol, busiest (by total sampled
+     * wall time) first.
+     */
+    public static List<CommandStats> getStats(Protocol protocol) {
+        List<CommandStats> result = new ArrayList<CommandStats>();
+        for (Map.Entry<String, Slot> entry : SLOTS.get(protocol).entrySet()) {
+            result.add(new CommandStats(protocol, entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(result, new Comparator<CommandStats>() {
+            @Override
+            public int compare(CommandStats o1, CommandStats o2) {
+                return Long.compare(o2.wallNanos, o1.wallNanos);
+            }
+        });
+        return result;
+    }
+
+    public static void reset() {
+        for (ConcurrentMap<String, Slot> slots : SLOTS.values()) {
+            slots.clear();
+        }
+    }
+
+    public static void reset(Protocol protocol) {
+        SLOTS.get(protocol).clear();
+    }
+
+    private static Slot getSlot(Protocol protocol, String command) {
+        ConcurrentMap<String, Slot> slots = SLOTS.get(protocol);
+        Slot slot = slots.get(command);
+        if (slot == null) {
+            if (slots.size() >= MAX_COMMANDS) {
+                command = OVERFLOW;
+            }
+            slot = new Slot();
+            Slot existing = slots.putIfAbsent(command, slot);
+            if (existing != null) {
+                slot = existing;
+            }
+        }
+        return slot;
+    }
+
+    private static boolean shouldSample() {
+        int rate = LC.zimbra_command_profile_sample_rate.intValue();
+        if (rate <= 0) {
+            return false;
+        }
+        return rate == 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+    }
+
+    private static long currentThreadCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_MX.getCurrentThreadCpuTime() : -1L;
+    }
+
+    /**
+     * Per-thread state of the command being profiled.  Reused across commands to keep the unsampled
+     * path allocation free.
+     */
+    private static final class Sample {
+        Protocol protocol;
+        String command;
+        boolean sampled;
+        long startNanos;
+        long startCpuNanos;
+        long dbStatements;
+        long lockWaitNanos;
+        long bytesWritten;
+
+        void clear() {
+            protocol = null;
+            command = null;
+            sampled = false;
+            startNanos = 0L;
+            startCpuNanos = 0L;
+            dbStatements = 0L;
+            lockWaitNanos = 0L;
+            bytesWritten = 0L;
+        }
+    }
+
+    private static final class Slot {
+        final LongAdder count = new LongAdder();
+        final LongAdder sampled = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAccumulator maxWallNanos = new LongAccumulator(MAX, 0L);
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder dbStatements = new LongAdder();
+        final LongAdder lockWaitNanos = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+    }
+
+    /**
+     * Point-in-time copy of one command's slot.  Totals cover sampled executions only; {@link #getCount}
+     * covers every execution.
+     */
+    public static final class CommandStats {
+        private final Protocol protocol;
+        private final String command;
+        private final long count;
+        private final long sampled;
+        private final long wallNanos;
+        private final long maxWallNanos;
+        private final long cpuNanos;
+        private final long dbStatements;
+        private final long lockWaitNanos;
+        private final long bytesWritten;
+
+        CommandStats(Protocol protocol, String command, Slot slot) {
+            this.protocol = protocol;
+            this.command = command;
+            // read sampled first so that it never exceeds count in the snapshot
+            this.sampled = slot.sampled.sum();
+            this.count = slot.count.sum();
+            this.wallNanos = slot.wallNanos.sum();
+            this.maxWallNanos = slot.maxWallNanos.get();
+            this.cpuNanos = slot.cpuNanos.sum();
+            this.dbStatements = slot.dbStatements.sum();
+            this.lockWaitNanos = slot.lockWaitNanos.sum();
+            this.bytesWritten = slot.bytesWritten.sum();
+        }
+
+        public String getProtocol() {
+            return protocol.name();
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSampled() {
+            return sampled;
+        }
+
+        public long getWallMs() {
+            return TimeUnit.NANOSECONDS.toMillis(wallNanos);
+        }
+
+        public long getMaxWallMs() {
+            return TimeUnit.NANOSECONDS.toMillis(maxWallNanos);
+        }
+
+        public long getCpuMs() {
+            return TimeUnit.NANOSECONDS.toMillis(cpuNanos);
+        }
+
+        public long getDbStatements() {
+            return dbStatements;
+        }
+
+        public long getLockWaitMs() {
+            return TimeUnit.NANOSECONDS.toMillis(lockWaitNanos);
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public double getAvgWallMs() {
+            return sampled == 0 ? 0.0 : wallNanos / (sampled * 1000000.0);
+        }
+
+        public double getAvgCpuMs() {
+            return sampled == 0 ? 0.0 : cpuNanos / (sampled * 1000000.0);
+        }
+
+        public double getAvgDbStatements() {
+            return sampled == 0 ? 0.0 : (double) dbStatements / sampled;
+        }
+
+        public double getAvgLockWaitMs() {
+            return sampled == 0 ? 0.0 : lockWaitNanos / (sampled * 1000000.0);
+        }
+
+        public double getAvgBytesWritten() {
+            return sampled == 0 ? 0.0 : (double) bytesWritten / sampled;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s count=%d sampled=%d avgWallMs=%.2f avgCpuMs=%.2f avgDbStatements=%.2f " +
+                    "avgLockWaitMs=%.2f avgBytesWritten=%.0f maxWallMs=%d", protocol, command, count, sampled,
+                    getAvgWallMs(), getAvgCpuMs(), getAvgDbStatements(), getAvgLockWaitMs(), getAvgBytesWritten(),
+                    getMaxWallMs());
+        }
+    }
+}
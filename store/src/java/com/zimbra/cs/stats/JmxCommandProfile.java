@@ -0,0 +1,37 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2022 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.stats;
+
+import java.util.List;
+
+public class JmxCommandProfile implements JmxCommandProfileMXBean {
+
+    @Override
+    public List<CommandProfiler.CommandStats> getSoapCommands() {
+        return CommandProfiler.getStats(CommandProfiler.Protocol.SOAP);
+    }
+
+    @Override
+    public List<CommandProfiler.CommandStats> getImapCommands() {
+        return CommandProfiler.getStats(CommandProfiler.Protocol.IMAP);
+    }
+
+    @Override
+    public void reset() {
+        CommandProfiler.reset();
+    }
+}
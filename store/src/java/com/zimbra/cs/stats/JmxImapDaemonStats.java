@@ -18,10 +18,12 @@
 package com.zimbra.cs.stats;
 
 import com.zimbra.common.stats.DeltaCalculator;
+import com.zimbra.common.stats.PercentileCalculator;
 
 public class JmxImapDaemonStats implements JmxImapDaemonStatsMBean {
 
     private final DeltaCalculator imapDeltaCalc = new DeltaCalculator(ZimbraPerf.STOPWATCH_IMAP);
+    private final PercentileCalculator imapPercentiles = new PercentileCalculator(ZimbraPerf.STOPWATCH_IMAP);
 
     JmxImapDaemonStats() {
     }
@@ -36,8 +38,14 @@ public class JmxImapDaemonStats implements JmxImapDaemonStatsMBean {
         return (long) imapDeltaCalc.getRealtimeAverage();
     }
 
+    @Override
+    public long getImapResponseP99Ms() {
+        return imapPercentiles.getRealtimeValueAtPercentile(99);
+    }
+
     @Override
     public void reset() {
         imapDeltaCalc.reset();
+        imapPercentiles.reset();
     }
 }
\ No newline at end of file
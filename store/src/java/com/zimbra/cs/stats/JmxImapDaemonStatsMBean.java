@@ -20,4 +20,5 @@ package com.zimbra.cs.stats;
 public interface JmxImapDaemonStatsMBean extends JmxStatsMBeanBase {
     long getImapRequests();
     long getImapResponseMs();
+    long getImapResponseP99Ms();
 }
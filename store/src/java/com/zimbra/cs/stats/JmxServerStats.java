@@ -23,11 +23,15 @@ import java.util.List;
 
 import com.zimbra.common.stats.Accumulator;
 import com.zimbra.common.stats.DeltaCalculator;
+import com.zimbra.common.stats.PercentileCalculator;
 import com.zimbra.cs.db.DbPool;
+import com.zimbra.cs.mailbox.ItemCacheManager;
 import com.zimbra.cs.mailbox.MessageCache;
 
 public class JmxServerStats implements JmxServerStatsMBean {
 
+    private static final int ITEM_CACHE_MAILBOX_STATS_LIMIT = 50;
+
     private DeltaCalculator mDbConn = new DeltaCalculator(ZimbraPerf.STOPWATCH_DB_CONN);
     private DeltaCalculator mLdapConn = new DeltaCalculator(ZimbraPerf.STOPWATCH_LDAP_DC);
     private DeltaCalculator mItemCache = new DeltaCalculator(ZimbraPerf.COUNTER_MBOX_ITEM_CACHE);
@@ -39,6 +43,12 @@ public class JmxServerStats implements JmxServerStatsMBean {
     private DeltaCalculator mPop = new DeltaCalculator(ZimbraPerf.STOPWATCH_POP);
     private DeltaCalculator mSoap = new DeltaCalculator(ZimbraPerf.STOPWATCH_SOAP);
     private DeltaCalculator mBisSeek = new DeltaCalculator(ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_SEEK_RATE); 
+
+    private PercentileCalculator mDbConnPercentiles = new PercentileCalculator(ZimbraPerf.STOPWATCH_DB_CONN);
+    private PercentileCalculator mImapPercentiles = new PercentileCalculator(ZimbraPerf.STOPWATCH_IMAP);
+    private PercentileCalculator mLmtpPercentiles = new PercentileCalculator(ZimbraPerf.STOPWATCH_LMTP);
+    private PercentileCalculator mPopPercentiles = new PercentileCalculator(ZimbraPerf.STOPWATCH_POP);
+    private PercentileCalculator mSoapPercentiles = new PercentileCalculator(ZimbraPerf.STOPWATCH_SOAP);
     
     private final List<Accumulator> mAccumulators;
     
@@ -56,6 +66,12 @@ public class JmxServerStats implements JmxServerStatsMBean {
         accumulators.add(mPop);
         accumulators.add(mSoap);
         accumulators.add(mBisSeek);
+
+        accumulators.add(mDbConnPercentiles);
+        accumulators.add(mImapPercentiles);
+        accumulators.add(mLmtpPercentiles);
+        accumulators.add(mPopPercentiles);
+        accumulators.add(mSoapPercentiles);
         
         mAccumulators = Collections.unmodifiableList(accumulators);
     }
@@ -68,10 +84,22 @@ public class JmxServerStats implements JmxServerStatsMBean {
         return (long) mDbConn.getRealtimeAverage();
     }
 
+    public long getDatabaseConnectionGetP99Ms() {
+        return mDbConnPercentiles.getRealtimeValueAtPercentile(99);
+    }
+
     public long getDatabaseConnectionsInUse() {
         return DbPool.getSize();
     }
 
+    public long getDatabaseConnectionsIdle() {
+        return DbPool.getIdleCount();
+    }
+
+    public long getDatabaseConnectionWaiters() {
+        return DbPool.getWaitingCount();
+    }
+
     public long getLdapDirectoryContextGetMs() {
         return (long) mLdapConn.getRealtimeAverage();
     }
@@ -108,6 +136,20 @@ public class JmxServerStats implements JmxServerStatsMBean {
         return (long) mItemCache.getRealtimeAverage();
     }
 
+    public long getItemCacheDataSize() {
+        return ItemCacheManager.getInstance().getDataSize();
+    }
+
+    public long getItemCacheEvictions() {
+        return ZimbraPerf.COUNTER_MBOX_ITEM_CACHE_EVICT.getCount();
+    }
+
+    /** Per-mailbox item cache statistics for the mailboxes with the largest caches. */
+    public String[] getItemCacheMailboxStats() {
+        List<String> stats = ItemCacheManager.getInstance().getMailboxStats(ITEM_CACHE_MAILBOX_STATS_LIMIT);
+        return stats.toArray(new String[stats.size()]);
+    }
+
     public long getMailboxCacheHitRate() {
         return (long) mMailboxCache.getRealtimeAverage();
     }
@@ -136,6 +178,14 @@ public class JmxServerStats implements JmxServerStatsMBean {
         return (long) mMessageCache.getRealtimeAverage();
     }
 
+    public long getMessageCacheDataSize() {
+        return MessageCache.getDataSize();
+    }
+
+    public long getMessageCacheEvictions() {
+        return ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICT.getCount();
+    }
+
     public long getMessagesAdded() {
         return ZimbraPerf.STOPWATCH_MBOX_ADD_MSG.getCount();
     }
@@ -148,6 +198,10 @@ public class JmxServerStats implements JmxServerStatsMBean {
         return (long) mSoap.getRealtimeAverage();
     }
 
+    public long getSoapResponseP99Ms() {
+        return mSoapPercentiles.getRealtimeValueAtPercentile(99);
+    }
+
     public long getBlobInputStreamReads() {
         return ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_READ.getCount();
     }
@@ -160,6 +214,14 @@ public class JmxServerStats implements JmxServerStatsMBean {
         return (long) mImap.getRealtimeAverage();
     }
 
+    public long getImapResponseP99Ms() {
+        return mImapPercentiles.getRealtimeValueAtPercentile(99);
+    }
+
+    public long getLmtpResponseP99Ms() {
+        return mLmtpPercentiles.getRealtimeValueAtPercentile(99);
+    }
+
     public long getPopRequests() {
         return ZimbraPerf.STOPWATCH_POP.getCount();
     }
@@ -167,6 +229,10 @@ public class JmxServerStats implements JmxServerStatsMBean {
     public long getPopResponseMs() {
         return (long) mPop.getRealtimeAverage();
     }
+
+    public long getPopResponseP99Ms() {
+        return mPopPercentiles.getRealtimeValueAtPercentile(99);
+    }
     
     public void reset() {
         for (Accumulator accum : mAccumulators) {
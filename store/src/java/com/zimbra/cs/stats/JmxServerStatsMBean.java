@@ -23,10 +23,17 @@ public interface JmxServerStatsMBean extends JmxStatsMBeanBase
     long getBlobInputStreamSeekRate();
     long getDatabaseConnectionGets();
     long getDatabaseConnectionGetMs();
+    long getDatabaseConnectionGetP99Ms();
     long getDatabaseConnectionsInUse();
+    long getDatabaseConnectionsIdle();
+    long getDatabaseConnectionWaiters();
     long getImapRequests();
     long getImapResponseMs();
+    long getImapResponseP99Ms();
     long getItemCacheHitRate();
+    long getItemCacheDataSize();
+    long getItemCacheEvictions();
+    String[] getItemCacheMailboxStats();
     long getLdapDirectoryContextGetMs();
     long getLdapDirectoryContextGets();
     long getLmtpDeliveredBytes();
@@ -34,6 +41,7 @@ public interface JmxServerStatsMBean extends JmxStatsMBeanBase
     long getLmtpReceivedBytes();
     long getLmtpReceivedMessages();
     long getLmtpRecipients();
+    long getLmtpResponseP99Ms();
     long getMailboxCacheHitRate();
     long getMailboxCacheSize();
     long getMailboxGetMs();
@@ -41,9 +49,13 @@ public interface JmxServerStatsMBean extends JmxStatsMBeanBase
     long getMessageAddMs();
     long getMessageCacheSize();
     long getMessageCacheHitRate();
+    long getMessageCacheDataSize();
+    long getMessageCacheEvictions();
     long getMessagesAdded();
     long getPopRequests();
     long getPopResponseMs();
+    long getPopResponseP99Ms();
     long getSoapRequests();
     long getSoapResponseMs();
+    long getSoapResponseP99Ms();
 }
@@ -23,7 +23,9 @@ import java.util.Map;
 import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.accesscontrol.PermissionCache;
+import com.zimbra.cs.account.cache.IAccountCache;
 import com.zimbra.cs.account.ldap.LdapProv;
+import com.zimbra.cs.mailbox.ItemCacheManager;
 import com.zimbra.cs.mailbox.MessageCache;
 import com.zimbra.cs.store.BlobInputStream;
 import com.zimbra.cs.store.FileDescriptorCache;
@@ -35,6 +37,8 @@ public class ServerStatsCallback implements RealtimeStatsCallback {
         Map<String, Object> data = new HashMap<String, Object>();
         data.put(ZimbraPerf.RTS_MBOX_CACHE_SIZE, ZimbraPerf.getMailboxCacheSize());
         data.put(ZimbraPerf.RTS_MSG_CACHE_SIZE, MessageCache.getSize());
+        data.put(ZimbraPerf.RTS_MSG_CACHE_BYTES, MessageCache.getDataSize());
+        data.put(ZimbraPerf.RTS_ITEM_CACHE_BYTES, ItemCacheManager.getInstance().getDataSize());
         
         FileDescriptorCache fdc = BlobInputStream.getFileDescriptorCache();
         data.put(ZimbraPerf.RTS_FD_CACHE_SIZE, fdc.getSize());
@@ -47,6 +51,9 @@ public class ServerStatsCallback implements RealtimeStatsCallback {
             LdapProv ldap = (LdapProv) prov;
             data.put(ZimbraPerf.RTS_ACCOUNT_CACHE_SIZE, ldap.getAccountCacheSize());
             data.put(ZimbraPerf.RTS_ACCOUNT_CACHE_HIT_RATE, ldap.getAccountCacheHitRate());
+            data.put(ZimbraPerf.RTS_ACCOUNT_CACHE_ID_HIT_RATE, ldap.getAccountCacheHitRate(IAccountCache.Index.id));
+            data.put(ZimbraPerf.RTS_ACCOUNT_CACHE_NAME_HIT_RATE, ldap.getAccountCacheHitRate(IAccountCache.Index.name));
+            data.put(ZimbraPerf.RTS_ACCOUNT_CACHE_ALIAS_HIT_RATE, ldap.getAccountCacheHitRate(IAccountCache.Index.alias));
             data.put(ZimbraPerf.RTS_COS_CACHE_SIZE, ldap.getCosCacheSize());
             data.put(ZimbraPerf.RTS_COS_CACHE_HIT_RATE, ldap.getCosCacheHitRate());
             data.put(ZimbraPerf.RTS_DOMAIN_CACHE_SIZE, ldap.getDomainCacheSize());
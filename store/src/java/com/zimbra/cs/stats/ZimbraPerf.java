@@ -40,6 +40,8 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Accumulator;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.DeltaCalculator;
+import com.zimbra.common.stats.LatencyHistogram;
+import com.zimbra.common.stats.PercentileCalculator;
 import com.zimbra.common.stats.RealtimeStats;
 import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.common.stats.StatsDumper;
@@ -64,6 +66,12 @@ public class ZimbraPerf {
     @Description("Number of database connections in use")
     public static final String RTS_DB_POOL_SIZE = "db_pool_size";
 
+    @Description("Number of idle database connections in the pool")
+    public static final String RTS_DB_POOL_IDLE = "db_pool_idle";
+
+    @Description("Number of threads waiting for a database connection")
+    public static final String RTS_DB_POOL_WAITING = "db_pool_waiting";
+
     @Description("InnoDB buffer pool hit rate")
     public static final String RTS_INNODB_BP_HIT_RATE = "innodb_bp_hit_rate";
 
@@ -73,6 +81,9 @@ public class ZimbraPerf {
     @Description("Number of LMTP handler threads")
     public static final String RTS_LMTP_THREADS = "lmtp_threads";
 
+    @Description("Number of LMTP mailbox deliveries waiting in the per-mailbox delivery queues")
+    public static final String RTS_LMTP_DELIVERY_QUEUE = "lmtp_delivery_queue";
+
     @Description("Number of cleartext POP3 connections")
     public static final String RTS_POP_CONN = "pop_conn";
 
@@ -112,6 +123,12 @@ public class ZimbraPerf {
     @Description("Number of message structures cached in memory")
     public static final String RTS_MSG_CACHE_SIZE = "msg_cache_size";
 
+    @Description("Number of bytes of message data held in the message cache")
+    public static final String RTS_MSG_CACHE_BYTES = "msg_cache_bytes";
+
+    @Description("Estimated size in bytes of the mail items in the mailbox item caches")
+    public static final String RTS_ITEM_CACHE_BYTES = "item_cache_bytes";
+
     @Description("Number of open file descriptors that reference message content")
     public static final String RTS_FD_CACHE_SIZE = "fd_cache_size";
 
@@ -128,6 +145,15 @@ public class ZimbraPerf {
     @Description("LDAP account cache hit rate")
     public static final String RTS_ACCOUNT_CACHE_HIT_RATE = "account_cache_hit_rate";
 
+    @Description("LDAP account cache hit rate of lookups by id")
+    public static final String RTS_ACCOUNT_CACHE_ID_HIT_RATE = "account_cache_id_hit_rate";
+
+    @Description("LDAP account cache hit rate of lookups by name")
+    public static final String RTS_ACCOUNT_CACHE_NAME_HIT_RATE = "account_cache_name_hit_rate";
+
+    @Description("LDAP account cache hit rate of lookups by alias, after a miss by name")
+    public static final String RTS_ACCOUNT_CACHE_ALIAS_HIT_RATE = "account_cache_alias_hit_rate";
+
     @Description("LDAP COS cache size")
     public static final String RTS_COS_CACHE_SIZE = "cos_cache_size";
 
@@ -177,32 +203,48 @@ public class ZimbraPerf {
     public static final Counter COUNTER_LMTP_RCVD_RCPT = new Counter();
     public static final Counter COUNTER_LMTP_DLVD_MSGS = new Counter();
     public static final Counter COUNTER_LMTP_DLVD_BYTES = new Counter();
-    public static final StopWatch STOPWATCH_DB_CONN = new StopWatch();
+    public static final StopWatch STOPWATCH_LMTP_PARSE = new StopWatch();
+    public static final StopWatch STOPWATCH_LMTP_QUEUE_WAIT = new StopWatch();
+    public static final LatencyHistogram STOPWATCH_LMTP_DELIVER = new LatencyHistogram();
+    public static final LatencyHistogram STOPWATCH_LMTP = new LatencyHistogram();  // LMTP command response time
+    public static final LatencyHistogram STOPWATCH_DB_CONN = new LatencyHistogram();
     public static final StopWatch STOPWATCH_LDAP_DC = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_ADD_MSG = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_GET = new StopWatch();         // Mailbox accessor response time
     public static final Counter COUNTER_MBOX_CACHE = new Counter();           // Mailbox cache hit rate
     public static final Counter COUNTER_MBOX_MSG_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_MSG_CACHE_EVICT = new Counter();
     public static final Counter COUNTER_MBOX_ITEM_CACHE = new Counter();
-    public static final StopWatch STOPWATCH_SOAP = new StopWatch();
-    public static final StopWatch STOPWATCH_IMAP = new StopWatch();
-    public static final StopWatch STOPWATCH_POP = new StopWatch();
+    public static final Counter COUNTER_MBOX_ITEM_CACHE_EVICT = new Counter();
+    public static final LatencyHistogram STOPWATCH_SOAP = new LatencyHistogram();
+    public static final LatencyHistogram STOPWATCH_IMAP = new LatencyHistogram();
+    public static final LatencyHistogram STOPWATCH_POP = new LatencyHistogram();
     public static final Counter COUNTER_IDX_WRT = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_MEM_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_LRU_SIZE = new Counter();
+    public static final Counter COUNTER_CALENDAR_CACHE_PATCH = new Counter();    // cached calendar items patched in place
+    public static final Counter COUNTER_CALENDAR_CACHE_REBUILD = new Counter();  // calendar summaries reloaded, by item count
+    public static final Counter COUNTER_CALENDAR_EXPANSION_HIT = new Counter();  // recurrence expansions served from cache
     public static final Counter COUNTER_IDX_BYTES_WRITTEN = new Counter();
     public static final Counter COUNTER_IDX_BYTES_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_SEEK_RATE = new Counter();
+    public static final Counter COUNTER_BLOB_ZERO_COPY = new Counter();        // bytes sent with FileChannel.transferTo
     public static final StopWatch STOPWATCH_EWS = new StopWatch();
+    public static final Counter COUNTER_REDO_BATCH_SIZE = new Counter();      // ops written per redolog group commit
+    public static final Counter COUNTER_REDO_FSYNC_US = new Counter();        // redolog fsync latency in microseconds
+    public static final Counter COUNTER_DB_BATCH_SIZE = new Counter();        // queued updates sent per statement
+    public static final LatencyHistogram STOPWATCH_WAITSET_DELIVER = new LatencyHistogram(); // change to WaitSet response
+    public static final Counter COUNTER_WAITSET_SIGNALS = new Counter();      // signals coalesced per WaitSet delivery
 
     public static final ActivityTracker SOAP_TRACKER = new ActivityTracker("soap.csv");
     public static final ActivityTracker IMAP_TRACKER = new ActivityTracker("imap.csv");
     public static final ActivityTracker IMAPD_TRACKER = new ActivityTracker("imapd.csv");
     public static final ActivityTracker POP_TRACKER = new ActivityTracker("pop3.csv");
+    public static final ActivityTracker LMTP_TRACKER = new ActivityTracker("lmtp.csv");
     public static final ActivityTracker LDAP_TRACKER = new ActivityTracker("ldap.csv");
     public static final ActivityTracker SYNC_TRACKER = new ActivityTracker("sync.csv");
     public static final ActivityTracker SQL_TRACKER  = new ActivityTracker("sql.csv");
@@ -214,15 +256,16 @@ public class ZimbraPerf {
     private static Map<String, String> descriptions = Maps.newTreeMap(String.CASE_INSENSITIVE_ORDER);
 
     private static String[] mboxRealtimeStatsNames = new String[] {
-            RTS_DB_POOL_SIZE, RTS_INNODB_BP_HIT_RATE,
-            RTS_LMTP_CONN, RTS_LMTP_THREADS,
+            RTS_DB_POOL_SIZE, RTS_DB_POOL_IDLE, RTS_DB_POOL_WAITING, RTS_INNODB_BP_HIT_RATE,
+            RTS_LMTP_CONN, RTS_LMTP_THREADS, RTS_LMTP_DELIVERY_QUEUE,
             RTS_POP_CONN, RTS_POP_THREADS, RTS_POP_SSL_CONN, RTS_POP_SSL_THREADS,
             RTS_IMAP_CONN, RTS_IMAP_THREADS, RTS_IMAP_SSL_CONN, RTS_IMAP_SSL_THREADS,
             RTS_HTTP_IDLE_THREADS, RTS_HTTP_THREADS, RTS_SOAP_SESSIONS,
-            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE,
+            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE, RTS_MSG_CACHE_BYTES, RTS_ITEM_CACHE_BYTES,
             RTS_FD_CACHE_SIZE, RTS_FD_CACHE_HIT_RATE,
             RTS_ACL_CACHE_HIT_RATE,
             RTS_ACCOUNT_CACHE_SIZE, RTS_ACCOUNT_CACHE_HIT_RATE,
+            RTS_ACCOUNT_CACHE_ID_HIT_RATE, RTS_ACCOUNT_CACHE_NAME_HIT_RATE, RTS_ACCOUNT_CACHE_ALIAS_HIT_RATE,
             RTS_COS_CACHE_SIZE, RTS_COS_CACHE_HIT_RATE,
             RTS_DOMAIN_CACHE_SIZE, RTS_DOMAIN_CACHE_HIT_RATE,
             RTS_SERVER_CACHE_SIZE, RTS_SERVER_CACHE_HIT_RATE,
@@ -252,12 +295,69 @@ public class ZimbraPerf {
     @Description("Number of bytes of data delivered to mailboxes as a result of LMTP delivery")
     private static final String DC_LMTP_DLVD_BYTES = "lmtp_dlvd_bytes";
 
+    @Description("Number of messages parsed for LMTP delivery")
+    private static final String DC_LMTP_PARSE_COUNT = "lmtp_parse_count";
+
+    @Description("Average latency (ms) of parsing a message for LMTP delivery")
+    private static final String DC_LMTP_PARSE_MS_AVG = "lmtp_parse_ms_avg";
+
+    @Description("Average time (ms) an LMTP mailbox delivery waited in its delivery queue")
+    private static final String DC_LMTP_QUEUE_WAIT_MS_AVG = "lmtp_queue_wait_ms_avg";
+
+    @Description("Number of LMTP mailbox deliveries run from the delivery queues")
+    private static final String DC_LMTP_DELIVER_COUNT = "lmtp_deliver_count";
+
+    @Description("Average latency (ms) of an LMTP mailbox delivery run from the delivery queues")
+    private static final String DC_LMTP_DELIVER_MS_AVG = "lmtp_deliver_ms_avg";
+
+    @Description("99th percentile latency (ms) of an LMTP mailbox delivery run from the delivery queues")
+    private static final String DC_LMTP_DELIVER_MS_P99 = "lmtp_deliver_ms_p99";
+
+    @Description("Number of LMTP commands received")
+    private static final String DC_LMTP_COUNT = "lmtp_count";
+
+    @Description("Average processing time (ms) of LMTP commands")
+    private static final String DC_LMTP_MS_AVG = "lmtp_ms_avg";
+
+    @Description("95th percentile processing time (ms) of LMTP commands")
+    private static final String DC_LMTP_MS_P95 = "lmtp_ms_p95";
+
+    @Description("99th percentile processing time (ms) of LMTP commands")
+    private static final String DC_LMTP_MS_P99 = "lmtp_ms_p99";
+
     @Description("Number of times that the server got a database connection from the pool")
     private static final String DC_DB_CONN_COUNT = "db_conn_count";
 
     @Description("Average latency (ms) of getting a database connection from the pool")
     private static final String DC_DB_CONN_MS_AVG = "db_conn_ms_avg";
 
+    @Description("95th percentile latency (ms) of getting a database connection from the pool")
+    private static final String DC_DB_CONN_MS_P95 = "db_conn_ms_p95";
+
+    @Description("99th percentile latency (ms) of getting a database connection from the pool")
+    private static final String DC_DB_CONN_MS_P99 = "db_conn_ms_p99";
+
+    @Description("Number of statements that sent queued database updates")
+    private static final String DC_DB_BATCH_COUNT = "db_batch_count";
+
+    @Description("Average number of queued database updates sent per statement")
+    private static final String DC_DB_BATCH_SIZE_AVG = "db_batch_size_avg";
+
+    @Description("Number of WaitSet responses completed by a mailbox change")
+    private static final String DC_WAITSET_DELIVER_COUNT = "waitset_deliver_count";
+
+    @Description("Average latency (ms) from a mailbox change to the WaitSet response it completed")
+    private static final String DC_WAITSET_DELIVER_MS_AVG = "waitset_deliver_ms_avg";
+
+    @Description("95th percentile latency (ms) from a mailbox change to the WaitSet response it completed")
+    private static final String DC_WAITSET_DELIVER_MS_P95 = "waitset_deliver_ms_p95";
+
+    @Description("99th percentile latency (ms) from a mailbox change to the WaitSet response it completed")
+    private static final String DC_WAITSET_DELIVER_MS_P99 = "waitset_deliver_ms_p99";
+
+    @Description("Average number of mailbox change signals coalesced into one WaitSet delivery")
+    private static final String DC_WAITSET_SIGNALS_AVG = "waitset_signals_avg";
+
     @Description("Number of times that the server got an LDAP directory context")
     private static final String DC_LDAP_DC_COUNT = "ldap_dc_count";
 
@@ -282,33 +382,63 @@ public class ZimbraPerf {
     @Description("Message cache hit rate")
     private static final String DC_MBOX_MSG_CACHE = "mbox_msg_cache";
 
+    @Description("Number of entries evicted from, or not admitted to, the message cache")
+    private static final String DC_MBOX_MSG_CACHE_EVICT = "mbox_msg_cache_evict";
+
     @Description("Item cache hit rate")
     private static final String DC_MBOX_ITEM_CACHE = "mbox_item_cache";
 
+    @Description("Number of items evicted from the mailbox item caches")
+    private static final String DC_MBOX_ITEM_CACHE_EVICT = "mbox_item_cache_evict";
+
     @Description("Number of SOAP requests received")
     private static final String DC_SOAP_COUNT = "soap_count";
 
     @Description("Average processing time (ms) of SOAP requests")
     private static final String DC_SOAP_MS_AVG = "soap_ms_avg";
 
+    @Description("95th percentile processing time (ms) of SOAP requests")
+    private static final String DC_SOAP_MS_P95 = "soap_ms_p95";
+
+    @Description("99th percentile processing time (ms) of SOAP requests")
+    private static final String DC_SOAP_MS_P99 = "soap_ms_p99";
+
     @Description("Number of IMAP requests received")
     private static final String DC_IMAP_COUNT = "imap_count";
 
     @Description("Average processing time (ms) of IMAP requests")
     private static final String DC_IMAP_MS_AVG = "imap_ms_avg";
 
+    @Description("95th percentile processing time (ms) of IMAP requests")
+    private static final String DC_IMAP_MS_P95 = "imap_ms_p95";
+
+    @Description("99th percentile processing time (ms) of IMAP requests")
+    private static final String DC_IMAP_MS_P99 = "imap_ms_p99";
+
     @Description("Number of POP3 requests received")
     private static final String DC_POP_COUNT = "pop_count";
 
     @Description("Average processing time (ms) of POP3 requests")
     private static final String DC_POP_MS_AVG = "pop_ms_avg";
 
+    @Description("95th percentile processing time (ms) of POP3 requests")
+    private static final String DC_POP_MS_P95 = "pop_ms_p95";
+
+    @Description("99th percentile processing time (ms) of POP3 requests")
+    private static final String DC_POP_MS_P99 = "pop_ms_p99";
+
     @Description("Number of times that the file descriptor cache read message data from disk")
     private static final String DC_BIS_READ = "bis_read";
 
     @Description("Percentage of file descriptor cache disk reads that required a seek")
     private static final String DC_BIS_SEEK_RATE = "bis_seek_rate";
 
+    @Description("Number of blobs sent to IMAP/POP3 clients directly from disk with zero-copy transfer")
+    private static final String DC_BLOB_ZERO_COPY = "blob_zero_copy";
+
+    @Description("Number of bytes sent to IMAP/POP3 clients directly from disk with zero-copy transfer")
+    private static final String DC_BLOB_ZERO_COPY_BYTES = "blob_zero_copy_bytes";
+
     @Description("Average number of concurrent index writers")
     private static final String DC_IDX_WRT_AVG = "idx_wrt_avg";
 
@@ -339,6 +469,30 @@ public class ZimbraPerf {
     @Description("Number of calendars (folders) in the calendar summary cache LRU in Java heap")
     private static final String DC_CALCACHE_LRU_SIZE = "calcache_lru_size";
 
+    @Description("Number of calendar items patched in the calendar summary cache on change notifications")
+    private static final String DC_CALCACHE_PATCH = "calcache_patch";
+
+    @Description("Number of calendar summaries reloaded from the mailbox")
+    private static final String DC_CALCACHE_REBUILD = "calcache_rebuild";
+
+    @Description("Average number of calendar items in a reloaded calendar summary")
+    private static final String DC_CALCACHE_REBUILD_ITEMS_AVG = "calcache_rebuild_items_avg";
+
+    @Description("Hit rate of the expanded recurrence instance cache")
+    private static final String DC_CALCACHE_EXPAND_HIT = "calcache_expand_hit";
+
+    @Description("Number of redolog group commits (batched writes)")
+    private static final String DC_REDO_BATCH_COUNT = "redo_batch_count";
+
+    @Description("Average number of redo operations written per group commit")
+    private static final String DC_REDO_BATCH_SIZE_AVG = "redo_batch_size_avg";
+
+    @Description("Number of redolog fsyncs issued by the group commit writer")
+    private static final String DC_REDO_FSYNC_COUNT = "redo_fsync_count";
+
+    @Description("Average latency (microseconds) of a redolog fsync")
+    private static final String DC_REDO_FSYNC_US_AVG = "redo_fsync_us_avg";
+
     private static CopyOnWriteArrayList<Accumulator> sAccumulators = null;
 
     private static final long CSV_DUMP_FREQUENCY = Constants.MILLIS_PER_MINUTE;
@@ -469,8 +623,21 @@ public class ZimbraPerf {
                             new DeltaCalculator(COUNTER_LMTP_RCVD_RCPT).setTotalName(DC_LMTP_RCVD_RCPT),
                             new DeltaCalculator(COUNTER_LMTP_DLVD_MSGS).setTotalName(DC_LMTP_DLVD_MSGS),
                             new DeltaCalculator(COUNTER_LMTP_DLVD_BYTES).setTotalName(DC_LMTP_DLVD_BYTES),
+                            new DeltaCalculator(STOPWATCH_LMTP_PARSE).setCountName(DC_LMTP_PARSE_COUNT)
+                                    .setAverageName(DC_LMTP_PARSE_MS_AVG),
+                            new DeltaCalculator(STOPWATCH_LMTP_QUEUE_WAIT).setAverageName(DC_LMTP_QUEUE_WAIT_MS_AVG),
+                            new DeltaCalculator(STOPWATCH_LMTP_DELIVER).setCountName(DC_LMTP_DELIVER_COUNT)
+                                    .setAverageName(DC_LMTP_DELIVER_MS_AVG),
                             new DeltaCalculator(STOPWATCH_DB_CONN).setCountName(DC_DB_CONN_COUNT)
                                     .setAverageName(DC_DB_CONN_MS_AVG),
+                            new DeltaCalculator(COUNTER_DB_BATCH_SIZE).setCountName(DC_DB_BATCH_COUNT)
+                                    .setAverageName(DC_DB_BATCH_SIZE_AVG),
+                            new DeltaCalculator(STOPWATCH_WAITSET_DELIVER).setCountName(DC_WAITSET_DELIVER_COUNT)
+                                    .setAverageName(DC_WAITSET_DELIVER_MS_AVG),
+                            new PercentileCalculator(STOPWATCH_WAITSET_DELIVER)
+                                    .setPercentileName(95, DC_WAITSET_DELIVER_MS_P95)
+                                    .setPercentileName(99, DC_WAITSET_DELIVER_MS_P99),
+                            new DeltaCalculator(COUNTER_WAITSET_SIGNALS).setAverageName(DC_WAITSET_SIGNALS_AVG),
                             new DeltaCalculator(STOPWATCH_LDAP_DC).setCountName(DC_LDAP_DC_COUNT)
                                     .setAverageName(DC_LDAP_DC_MS_AVG),
                             new DeltaCalculator(STOPWATCH_MBOX_ADD_MSG).setCountName(DC_MBOX_ADD_MSG_COUNT)
@@ -479,7 +646,9 @@ public class ZimbraPerf {
                                     .setAverageName(DC_MBOX_GET_MS_AVG),
                             new DeltaCalculator(COUNTER_MBOX_CACHE).setAverageName(DC_MBOX_CACHE),
                             new DeltaCalculator(COUNTER_MBOX_MSG_CACHE).setAverageName(DC_MBOX_MSG_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_MSG_CACHE_EVICT).setCountName(DC_MBOX_MSG_CACHE_EVICT),
                             new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE).setAverageName(DC_MBOX_ITEM_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE_EVICT).setCountName(DC_MBOX_ITEM_CACHE_EVICT),
                             new DeltaCalculator(STOPWATCH_SOAP).setCountName(DC_SOAP_COUNT)
                                     .setAverageName(DC_SOAP_MS_AVG),
                             new DeltaCalculator(STOPWATCH_IMAP).setCountName(DC_IMAP_COUNT)
@@ -495,6 +664,11 @@ public class ZimbraPerf {
                                     .setAverageName(DC_CALCACHE_MEM_HIT),
                             new DeltaCalculator(COUNTER_CALENDAR_CACHE_LRU_SIZE)
                                     .setAverageName(DC_CALCACHE_LRU_SIZE),
+                            new DeltaCalculator(COUNTER_CALENDAR_CACHE_PATCH).setCountName(DC_CALCACHE_PATCH),
+                            new DeltaCalculator(COUNTER_CALENDAR_CACHE_REBUILD).setCountName(DC_CALCACHE_REBUILD)
+                                    .setAverageName(DC_CALCACHE_REBUILD_ITEMS_AVG),
+                            new DeltaCalculator(COUNTER_CALENDAR_EXPANSION_HIT)
+                                    .setAverageName(DC_CALCACHE_EXPAND_HIT),
                             new DeltaCalculator(COUNTER_IDX_BYTES_WRITTEN)
                                     .setTotalName(DC_IDX_BYTES_WRITTEN)
                                     .setAverageName(DC_IDX_BYTES_WRITTTEN_AVG),
@@ -503,7 +677,28 @@ public class ZimbraPerf {
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_READ).setTotalName(DC_BIS_READ),
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_SEEK_RATE)
                                     .setAverageName(DC_BIS_SEEK_RATE),
-                            realtimeStats
+                            new DeltaCalculator(COUNTER_BLOB_ZERO_COPY).setCountName(DC_BLOB_ZERO_COPY)
+                                    .setTotalName(DC_BLOB_ZERO_COPY_BYTES),
+                            new DeltaCalculator(COUNTER_REDO_BATCH_SIZE).setCountName(DC_REDO_BATCH_COUNT)
+                                    .setAverageName(DC_REDO_BATCH_SIZE_AVG),
+                            new DeltaCalculator(COUNTER_REDO_FSYNC_US).setCountName(DC_REDO_FSYNC_COUNT)
+                                    .setAverageName(DC_REDO_FSYNC_US_AVG),
+                            realtimeStats,
+                            // added later, after the realtime stats so that older columns keep their positions
+                            new PercentileCalculator(STOPWATCH_LMTP_DELIVER)
+                                    .setPercentileName(99, DC_LMTP_DELIVER_MS_P99),
+                            new DeltaCalculator(STOPWATCH_LMTP).setCountName(DC_LMTP_COUNT)
+                                    .setAverageName(DC_LMTP_MS_AVG),
+                            new PercentileCalculator(STOPWATCH_LMTP).setPercentileName(95, DC_LMTP_MS_P95)
+                                    .setPercentileName(99, DC_LMTP_MS_P99),
+                            new PercentileCalculator(STOPWATCH_DB_CONN).setPercentileName(95, DC_DB_CONN_MS_P95)
+                                    .setPercentileName(99, DC_DB_CONN_MS_P99),
+                            new PercentileCalculator(STOPWATCH_SOAP).setPercentileName(95, DC_SOAP_MS_P95)
+                                    .setPercentileName(99, DC_SOAP_MS_P99),
+                            new PercentileCalculator(STOPWATCH_IMAP).setPercentileName(95, DC_IMAP_MS_P95)
+                                    .setPercentileName(99, DC_IMAP_MS_P99),
+                            new PercentileCalculator(STOPWATCH_POP).setPercentileName(95, DC_POP_MS_P95)
+                                    .setPercentileName(99, DC_POP_MS_P99)
                     }
                 );
             break;
@@ -513,7 +708,9 @@ public class ZimbraPerf {
                     new Accumulator[] {
                             new DeltaCalculator(STOPWATCH_IMAP)
                                     .setCountName(DC_IMAP_COUNT).setAverageName(DC_IMAP_MS_AVG),
-                            realtimeStats
+                            realtimeStats,
+                            new PercentileCalculator(STOPWATCH_IMAP).setPercentileName(95, DC_IMAP_MS_P95)
+                                    .setPercentileName(99, DC_IMAP_MS_P99)
                     }
                 );
             break;
@@ -552,6 +749,8 @@ public class ZimbraPerf {
         try {
             jmxServer.registerMBean(jmxServerStats,
                     new ObjectName("ZimbraCollaborationSuite:type=ServerStats"));
+            jmxServer.registerMBean(new JmxCommandProfile(),
+                    new ObjectName("ZimbraCollaborationSuite:type=CommandProfile"));
         } catch (Exception e) {
             ZimbraLog.perf.warn("Unable to register JMX interface.", e);
         }
@@ -559,6 +758,7 @@ public class ZimbraPerf {
         StatsDumper.schedule(SOAP_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(IMAP_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(POP_TRACKER, CSV_DUMP_FREQUENCY);
+        StatsDumper.schedule(LMTP_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(LDAP_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(SYNC_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(SQL_TRACKER, CSV_DUMP_FREQUENCY);
@@ -572,6 +772,7 @@ public class ZimbraPerf {
         jmxImapDaemonStats = new JmxImapDaemonStats();
         try {
             jmxServer.registerMBean(jmxImapDaemonStats, new ObjectName("ZimbraImapDaemon:type=ServerStats"));
+            jmxServer.registerMBean(new JmxCommandProfile(), new ObjectName("ZimbraImapDaemon:type=CommandProfile"));
         } catch (Exception e) {
             ZimbraLog.perf.warn("Unable to register JMX interface.", e);
         }
@@ -14,21 +14,27 @@
  * If not, see <https://www.gnu.org/licenses/>.
  * ***** END LICENSE BLOCK *****
  */
-
 package com.zimbra.cs.store;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.util.FileCache;
@@ -44,116 +50,173 @@ import com.zimbra.cs.account.Server;
  * uses a {@link FileCache} to access the uncompressed data.  Cache entries
  * that reference uncompressed blobs keep the file descriptor open until {@link #remove}
  * is called or the cache entry is aged out.
+ * <p>
+ * Lookups don't take a lock, and reads are positional, so any number of threads can
+ * read the same blob at once.  Each {@link SharedFile} is reference counted: the cache
+ * holds one reference and every in-flight read holds another.  Whoever releases the
+ * last reference closes the descriptor.
+ * <p>
+ * Optionally limits the number of descriptors held open for each store volume (see
+ * {@link #setVolumeRoots} and {@link LC#zimbra_file_descriptor_cache_volume_max}).
+ * Once a volume is at its limit, reads of uncached blobs on that volume use a
+ * short-lived descriptor that isn't added to the cache.
  */
 public class FileDescriptorCache
 {
     private static final Log sLog = LogFactory.getLog(FileDescriptorCache.class);
 
-    // Create the file cache with default LinkedHashMap values, but sorted by last access time.
-    private final LinkedHashMap<String, SharedFile> mCache = new LinkedHashMap<String, SharedFile>(16, 0.75f, true);
-    // Create a concurrent list for the SharedFies for which the mapping has been removed but is still in use by some threads.
-    private final List<SharedFileInfo> mInactiveCache = Collections.synchronizedList(new ArrayList<SharedFileInfo>());
-    private int mMaxSize = 1000;
+    private final ConcurrentLinkedHashMap<String, SharedFile> mCache;
+    private volatile int mMaxSize = 1000;
+    private volatile int mVolumeMaxSize = 0;
+    private volatile List<VolumeSlot> mVolumes = Collections.emptyList();
     private final FileCache<String> mUncompressedFileCache;
     private final Counter mHitRate = new Counter();
 
-    private class SharedFileInfo {
-        public String path;
-        public SharedFile file;
+    /**
+     * Open descriptor count for the volume at <tt>root</tt>.
+     */
+    private static final class VolumeSlot {
+        final String root;
+        final AtomicInteger openCount = new AtomicInteger();
 
-        public SharedFileInfo(String path, SharedFile file) {
-            this.path = path;
-            this.file = file;
+        VolumeSlot(String root) {
+            this.root = root.endsWith(File.separator) ? root : root + File.separator;
         }
     }
 
     public FileDescriptorCache(FileCache<String> uncompressedCache) {
         mUncompressedFileCache = uncompressedCache;
+        mCache = new ConcurrentLinkedHashMap.Builder<String, SharedFile>()
+            .maximumWeightedCapacity(mMaxSize)
+            .listener(new EvictionListener<String, SharedFile>() {
+                @Override
+                public void onEviction(String path, SharedFile file) {
+                    sLog.debug("Evicting file descriptor for %s", path);
+                    quietRelease(path, file);
+                }
+            })
+            .build();
     }
 
-    public synchronized FileDescriptorCache setMaxSize(int maxSize) {
+    public FileDescriptorCache setMaxSize(int maxSize) {
         if (maxSize < 0)
             throw new IllegalArgumentException("maxSize value of " + maxSize + " is invalid (must be at least 0)");
 
         mMaxSize = maxSize;
         mHitRate.reset(); // Recalculate hit rate based on the new size.
-        pruneIfNecessary();
+        mCache.setCapacity(maxSize);
         return this;
     }
 
+    /**
+     * Sets the maximum number of file descriptors held open for a single volume.
+     * <tt>0</tt> means no per-volume limit.
+     */
+    public FileDescriptorCache setVolumeMaxSize(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize value of " + maxSize + " is invalid (must be at least 0)");
+
+        mVolumeMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Sets the root paths of the store volumes used for per-volume descriptor limits.
+     * Open counts are carried over for volumes that are still present.
+     */
+    public void setVolumeRoots(Collection<String> roots) {
+        List<VolumeSlot> current = mVolumes;
+        List<VolumeSlot> slots = new ArrayList<VolumeSlot>(roots.size());
+        for (String root : roots) {
+            VolumeSlot slot = new VolumeSlot(root);
+            for (VolumeSlot old : current) {
+                if (old.root.equals(slot.root)) {
+                    slot = old;
+                    break;
+                }
+            }
+            slots.add(slot);
+        }
+        // Match the most specific root first.
+        Collections.sort(slots, new Comparator<VolumeSlot>() {
+            @Override
+            public int compare(VolumeSlot s1, VolumeSlot s2) {
+                return s2.root.length() - s1.root.length();
+            }
+        });
+        mVolumes = Collections.unmodifiableList(slots);
+    }
+
     public FileDescriptorCache loadSettings() throws ServiceException {
         Server server = Provisioning.getInstance().getLocalServer();
         int fileDescriptorCacheSize = server.getMailFileDescriptorCacheSize();
+        int volumeMaxSize = LC.zimbra_file_descriptor_cache_volume_max.intValue();
 
-        sLog.info("Loading settings: %s=%d.",
-            Provisioning.A_zimbraMailFileDescriptorCacheSize, fileDescriptorCacheSize);
+        sLog.info("Loading settings: %s=%d, %s=%d.",
+            Provisioning.A_zimbraMailFileDescriptorCacheSize, fileDescriptorCacheSize,
+            LC.zimbra_file_descriptor_cache_volume_max.key(), volumeMaxSize);
 
         setMaxSize(fileDescriptorCacheSize);
+        setVolumeMaxSize(Math.max(volumeMaxSize, 0));
 
         return this;
     }
 
     /**
      * Closes all file descriptors, clears the cache, and removes any files from
-     * the uncompressed cache.
+     * the uncompressed cache.  Descriptors that are being read are closed when
+     * the read completes.
      */
-    public synchronized void shutdown() {
-        Iterator<Map.Entry<String, SharedFile>> iEntries = mCache.entrySet().iterator();
-        while (iEntries.hasNext()) {
-            Map.Entry<String, SharedFile> entry = iEntries.next();
-            String path = entry.getKey();
-            SharedFile file = entry.getValue();
-            iEntries.remove();
-            try {
-                boolean success = close(file, path);
-                if (!success)
-                    sLog.warn("Unable to close %s. File is in use.", file);
-            } catch (IOException e) {
-                sLog.warn("Unable to close %s", file, e);
+    public void shutdown() {
+        for (String path : new ArrayList<String>(mCache.keySet())) {
+            SharedFile file = mCache.remove(path);
+            if (file != null) {
+                quietRelease(path, file);
             }
         }
     }
 
     /**
      * Reads from the specified file.
+     * <p>
+     * <tt>FileChannel</tt> is interruptible: when a thread is interrupted during a read, the channel
+     * is closed for every thread sharing it.  The closed entry is then dropped from the cache, and
+     * readers that weren't interrupted retry with a newly opened descriptor.
      */
     public int read(String path, long rawSize, long fileOffset, byte[] buf, int bufferOffset, int len)
     throws IOException {
         sLog.debug("Reading %s.  rawSize=%d, fileOffset=%d, bufferOffset=%d, len=%d.", path, rawSize, fileOffset, bufferOffset, len);
-        SharedFile file = null;
-        int numRead;
-
-        try {
-            file = getSharedFile(path, rawSize);
-            numRead = file.read(fileOffset, buf, bufferOffset, len);
-        } finally {
-            if (file != null) {
-               file.doneReading();
+        while (true) {
+            SharedFile file = getSharedFile(path, rawSize);
+            try {
+                return file.read(fileOffset, buf, bufferOffset, len);
+            } catch (ClosedChannelException e) {
+                if (mCache.remove(path, file)) {
+                    sLog.debug("Removed closed file descriptor for %s from the cache.", path);
+                    quietRelease(path, file); // the cache's reference
+                }
+                if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            } finally {
+                release(path, file);
             }
         }
-
-        return numRead;
     }
 
     boolean contains(String path) {
-        synchronized (this) {
-            return mCache.containsKey(path);
-        }
+        return mCache.containsKey(path);
     }
 
     /**
-     * Returns the existing cache entry or creates a new one.  Implicitly
-     * increments the number of readers for the <tt>SharedFile</tt>.
+     * Returns the existing cache entry or creates a new one.  The returned
+     * <tt>SharedFile</tt> holds a reference on behalf of the caller, which
+     * must be passed to {@link #release} when the caller is done.
      */
     private SharedFile getSharedFile(String path, long rawSize) throws IOException {
-        SharedFile sharedFile = null;
-
-        synchronized (this) {
-            sharedFile = mCache.get(path);
-        }
-        if (sharedFile != null) {
+        SharedFile sharedFile = mCache.get(path);
+        if (sharedFile != null && sharedFile.retain()) {
             sLog.debug("Found existing file descriptor for %s, rawSize=%d.", path, rawSize);
-            sharedFile.aboutToRead();
             mHitRate.increment(100);
             return sharedFile;
         }
@@ -161,6 +224,8 @@ public class FileDescriptorCache
         // Open a new file descriptor.
         mHitRate.increment(0);
         File file = new File(path);
+        VolumeSlot volume = getVolume(path);
+        AtomicInteger openCount = volume == null ? null : volume.openCount;
 
         if (file.length() != rawSize && FileUtil.isGzipped(file)) {
             sLog.debug("Adding file descriptor cache entry for %s from the uncompressed file cache.", path);
@@ -176,96 +241,93 @@ public class FileDescriptorCache
                     throw new IOException("Unable to get uncompressed file for " + path);
                 }
             }
-            sharedFile = new SharedFile(uncompressed.file);
+            sharedFile = new SharedFile(uncompressed.file, openCount);
         } else {
             sLog.debug("Opening new file descriptor for %s.", path);
-            sharedFile = new SharedFile(file);
+            sharedFile = new SharedFile(file, openCount);
         }
 
-        synchronized (this) {
-            if (mCache.containsKey(path)) {
-                sLog.debug("Another thread just opened the same file.  Closing our copy and returning the other one.");
-                sharedFile.close();
-                sharedFile = mCache.get(path);
-            } else {
-                sLog.debug("Caching file descriptor: path=%s, sharedFile=%s", path, sharedFile);
-                mCache.put(path, sharedFile);
-            }
+        int volumeMax = mVolumeMaxSize;
+        if (volumeMax > 0 && openCount != null && openCount.get() > volumeMax) {
+            // Our own descriptor is already included in the count.
+            sLog.debug("Volume %s has reached its limit of %d open file descriptors.  Not caching %s.",
+                volume.root, volumeMax, path);
+            return sharedFile;
         }
-        sharedFile.aboutToRead();
-        pruneIfNecessary();
 
+        // Take a second reference on behalf of the cache.
+        sharedFile.retain();
+        SharedFile existing = mCache.putIfAbsent(path, sharedFile);
+        if (existing == null) {
+            sLog.debug("Caching file descriptor: path=%s, sharedFile=%s", path, sharedFile);
+            return sharedFile;
+        }
+
+        sharedFile.release(); // the cache's reference
+        if (existing.retain()) {
+            sLog.debug("Another thread just opened the same file.  Closing our copy and returning the other one.");
+            release(path, sharedFile);
+            return existing;
+        }
+        // The other copy was closed before we could use it.  Read from ours without caching it.
         return sharedFile;
     }
 
+    /**
+     * Returns the volume that contains <tt>path</tt>, or <tt>null</tt> if it isn't
+     * under any of the roots passed to {@link #setVolumeRoots}.
+     */
+    private VolumeSlot getVolume(String path) {
+        for (VolumeSlot slot : mVolumes) {
+            if (path.startsWith(slot.root)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
     /**
      * Closes the file descriptor and removes it from the cache.  Does nothing if the file
      * descriptor is not in the cache.
      */
     public void remove(String path) throws IOException {
-        SharedFile file = null;
-
-        synchronized (this) {
-            file = mCache.remove(path);
-        }
-
+        SharedFile file = mCache.remove(path);
         if (file != null) {
-            boolean success = close(file, path);
-            if (!success)
-                mInactiveCache.add(new SharedFileInfo(path, file));
+            release(path, file);
         } else {
             sLog.debug("Attempted to remove %s but could not find it in the cache.", path);
         }
-
-        // Close if there are any SharedFiles in the inactive cache.
-        quietCloseInactiveCache();
     }
 
     /**
-     * Close the file if it is not in use.
-     * @return true if the file is closed, false otherwise.
+     * Releases a reference to <tt>file</tt>.  If that was the last reference, the file
+     * is closed and the uncompressed copy is removed from the uncompressed cache.
+     *
      * @throws IOException if there is an error closing the file.
      */
-    private boolean close(SharedFile file, String path) throws IOException {
-        if (file != null) {
-            sLog.debug("Closing file descriptor for %s, %s", path, file);
-
-            if (file.getNumReaders() == 0) {
-                file.close();
-                if (mUncompressedFileCache != null) {
-                    synchronized (this) {
-                        if (!mCache.containsKey(path)) {
-                            mUncompressedFileCache.remove(path);
-                        } else {
-                            sLog.debug("Not removing %s from the uncompressed cache.  Another thread reopened it.");
-                        }
-                    }
-                }
-                return true;
+    private void release(String path, SharedFile file) throws IOException {
+        if (!file.release()) {
+            return;
+        }
+        sLog.debug("Closed file descriptor for %s, %s", path, file);
+        if (mUncompressedFileCache != null) {
+            if (!mCache.containsKey(path)) {
+                mUncompressedFileCache.remove(path);
+            } else {
+                sLog.debug("Not removing %s from the uncompressed cache.  Another thread reopened it.", path);
             }
-            return false;
         }
-        return true;
     }
 
-    private void quietCloseInactiveCache() {
-        synchronized (mInactiveCache) {
-            Iterator<SharedFileInfo> iter = mInactiveCache.iterator();
-            while (iter.hasNext()) {
-                SharedFileInfo info = iter.next();
-                try {
-                    boolean success = close(info.file, info.path);
-                    if (success)
-                        iter.remove();
-                } catch (IOException e) {
-                    ZimbraLog.store.warn("Unable to close file descriptor for " + info.path, e);
-                    iter.remove();
-                }
-            }
+    private void quietRelease(String path, SharedFile file) {
+        try {
+            release(path, file);
+        } catch (IOException e) {
+            ZimbraLog.store.warn("Unable to close file descriptor for " + path, e);
         }
     }
 
-    public synchronized int getSize() {
+    public int getSize() {
         return mCache.size();
     }
 
@@ -273,34 +335,15 @@ public class FileDescriptorCache
         return mHitRate.getAverage();
     }
 
-    private void pruneIfNecessary() {
-         if (getSize() <= mMaxSize)
-            return;
-
-        List<Map.Entry<String, SharedFile>> removeList = new ArrayList<Map.Entry<String, SharedFile>>();
-
-        synchronized (this) {
-            Iterator<Map.Entry<String, SharedFile>> iEntries = mCache.entrySet().iterator();
-            while (iEntries.hasNext() && mCache.size() > mMaxSize) {
-                Map.Entry<String, SharedFile> mapEntry = iEntries.next();
-                iEntries.remove();
-                removeList.add(mapEntry);
-            }
-        }
-        for (Map.Entry<String, SharedFile> mapEntry : removeList) {
-            String path = mapEntry.getKey();
-            SharedFile file = mapEntry.getValue();
-            try {
-                boolean success = close(file, path);
-                if (!success) {
-                    mInactiveCache.add(new SharedFileInfo(path, file));
-                }
-            } catch (IOException e) {
-                ZimbraLog.store.warn("Unable to close file descriptor for " + path, e);
-            }
+    /**
+     * Returns the number of file descriptors currently open for each volume root,
+     * including descriptors that have been evicted but are still being read.
+     */
+    public Map<String, Integer> getVolumeOpenCounts() {
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (VolumeSlot slot : mVolumes) {
+            counts.put(slot.root, slot.openCount.get());
         }
-
-        // Close if there are any SharedFiles in the inactive cache.
-        quietCloseInactiveCache();
+        return counts;
     }
 }
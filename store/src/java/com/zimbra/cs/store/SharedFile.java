@@ -15,44 +15,71 @@
  * ***** END LICENSE BLOCK *****
  */
 /**
- * 
+ *
  */
 package com.zimbra.cs.store;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.zimbra.cs.stats.ZimbraPerf;
 
 /**
- * Synchronized container for a <tt>RandomAccessFile</tt> object.  Used by multiple
+ * Reference-counted container for an open <tt>FileChannel</tt>.  Used by multiple
  * <tt>BlobInputStream</tt> objects that share a single file descriptor.
+ * <p>
+ * Reads are positional ({@link FileChannel#read(ByteBuffer, long)}), so concurrent
+ * readers of the same file never block each other.  The file descriptor is closed
+ * when the last reference is released, which keeps us from closing (or deleting,
+ * on Windows - bug 43497) a file that another thread is still reading.
  */
 public class SharedFile {
 
-    private File mFile;
-    private RandomAccessFile mRAF;
-    private long mPos = 0;
-    
+    private final File mFile;
+    private final RandomAccessFile mRAF;
+    private final FileChannel mChannel;
+
+    /**
+     * Number of outstanding references.  Starts at 1 for the creator.  Once it drops
+     * to 0 the descriptor is closed and the count never increases again.
+     */
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
     /**
-     * Keep track of the number of threads that are reading from this file.
-     * We do this so that we don't delete a file that's being read on
-     * Windows (bug 43497).
+     * Per-volume count of open descriptors, or <tt>null</tt> if the file is not
+     * on a known volume.
      */
-    private int mNumReaders;
-    
+    private final AtomicInteger mOpenCount;
+
+    /**
+     * Offset following the last read, used to track non-sequential access.
+     */
+    private volatile long mLastEnd = 0;
+
     /**
      * Remember the file's length, in case we have an open file descriptor and the
      * uncompressed cache deletes this file from disk.
      */
-    private long mLength;
+    private final long mLength;
 
     /**
      * Creates a new <tt>SharedFile</tt> and opens the underlying
-     * file descriptor.
+     * file descriptor.  The caller owns the initial reference.
      */
     SharedFile(File file)
+    throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Creates a new <tt>SharedFile</tt> and opens the underlying file descriptor.
+     * <tt>openCount</tt> is incremented while the descriptor is open.
+     */
+    SharedFile(File file, AtomicInteger openCount)
     throws IOException {
         if (file == null) {
             throw new NullPointerException("file cannot be null");
@@ -62,70 +89,87 @@ public class SharedFile {
         }
         mFile = file;
         mLength = file.length();
-        openIfNecessary();
+        mRAF = new RandomAccessFile(file, "r");
+        mChannel = mRAF.getChannel();
+        mOpenCount = openCount;
+        if (mOpenCount != null) {
+            mOpenCount.incrementAndGet();
+        }
     }
 
-    synchronized long getLength() {
+    long getLength() {
         return mLength;
     }
-    
-    synchronized int read(long fileOffset, byte[] b, int off, int len)
+
+    /**
+     * Reads up to <tt>len</tt> bytes starting at <tt>fileOffset</tt>.  Does not
+     * modify any shared file position, so it's safe to call from multiple threads
+     * at once.  The caller must hold a reference.
+     *
+     * @return the number of bytes read, or <tt>-1</tt> at end of file
+     */
+    int read(long fileOffset, byte[] b, int off, int len)
     throws IOException {
-        int numRead = 0;
-        boolean seeked = false;
-        openIfNecessary();
-        
-        if (mPos != fileOffset) {
-            mRAF.seek(fileOffset);
-            mPos = fileOffset;
-            seeked = true;
+        if (len == 0) {
+            return 0;
         }
-        numRead = mRAF.read(b, off, len);
-        mPos += numRead;
-        
-        if (seeked) {
+        int numRead = mChannel.read(ByteBuffer.wrap(b, off, len), fileOffset);
+
+        if (fileOffset != mLastEnd) {
             ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_SEEK_RATE.increment(100);
         } else {
             ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_SEEK_RATE.increment(0);
         }
+        if (numRead > 0) {
+            mLastEnd = fileOffset + numRead;
+        }
         ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_READ.increment();
         return numRead;
     }
-    
-    synchronized void aboutToRead() {
-        mNumReaders++;
-    }
-    
-    synchronized void doneReading() {
-        if (mNumReaders > 0) {
-            mNumReaders--;
-        }
-    }
-    
-    synchronized int getNumReaders() {
-        return mNumReaders;
-    }
-    
-    private synchronized void openIfNecessary()
-    throws IOException {
-        if (mRAF == null) {
-            if (!mFile.exists()) {
-                throw new IOException(mFile.getPath() + " does not exist.");
+
+    /**
+     * Acquires an additional reference.
+     *
+     * @return <tt>false</tt> if the file has already been closed
+     */
+    boolean retain() {
+        while (true) {
+            int count = mRefCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return true;
             }
-            mRAF = new RandomAccessFile(mFile, "r");
-            mPos = 0;
         }
     }
-    
-    synchronized void close()
+
+    /**
+     * Releases a reference and closes the file descriptor if it was the last one.
+     *
+     * @return <tt>true</tt> if this call closed the file
+     */
+    boolean release()
     throws IOException {
-        if (mRAF != null) {
-            mRAF.close();
-            mPos = 0;
-            mRAF = null;
+        int count = mRefCount.decrementAndGet();
+        if (count > 0) {
+            return false;
+        }
+        if (count < 0) {
+            throw new IllegalStateException("Released " + mFile + " more times than it was retained");
         }
+        if (mOpenCount != null) {
+            mOpenCount.decrementAndGet();
+        }
+        mRAF.close();
+        return true;
+    }
+
+    boolean isOpen() {
+        return mRefCount.get() > 0;
     }
-    
+
+    @Override
     public String toString() {
         return mFile.toString();
     }
@@ -16,6 +16,7 @@
  */
 package com.zimbra.cs.store;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -400,6 +401,19 @@ public abstract class StoreManager {
      */
     public abstract InputStream getContent(Blob blob) throws IOException;
 
+    /**
+     * Returns a local file containing exactly the bytes that {@link #getContent(MailboxBlob)}
+     * would return, or <tt>null</tt> if the store can't provide one (the blob is compressed,
+     * remote, etc.).  Used to send blob content to the network with zero-copy transfer.
+     * Callers must fall back to {@link #getContent(MailboxBlob)} when this returns <tt>null</tt>.
+     * @param mboxBlob
+     * @return
+     * @throws IOException
+     */
+    public File getUncompressedFile(MailboxBlob mboxBlob) throws IOException {
+        return null;
+    }
+
     /**
      * Deletes a user's entire store.  SHOULD BE CALLED CAREFULLY.  No going back.
      * @param mbox
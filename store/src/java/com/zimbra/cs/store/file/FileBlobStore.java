@@ -57,6 +57,7 @@ public final class FileBlobStore extends StoreManager {
         FileCache<String> ufCache = FileCache.Builder.createWithStringKey(ufCacheDir, false)
             .minLifetime(LC.uncompressed_cache_min_lifetime.longValue()).build();
         BlobInputStream.setFileDescriptorCache(new FileDescriptorCache(ufCache).loadSettings());
+        MANAGER.updateFileDescriptorCacheVolumes();
     }
 
     @Override
@@ -379,6 +380,16 @@ public final class FileBlobStore extends StoreManager {
         return new BlobInputStream(blob);
     }
 
+    @Override
+    public File getUncompressedFile(MailboxBlob mboxBlob) throws IOException {
+        Blob blob = mboxBlob == null ? null : mboxBlob.getLocalBlob();
+        if (blob == null || blob.isCompressed()) {
+            return null;
+        }
+        File file = blob.getFile();
+        return file.exists() ? file : null;
+    }
+
     @Override
     public boolean deleteStore(Mailbox mbox, Iterable<MailboxBlob.MailboxBlobInfo> blobs) throws IOException, ServiceException {
         assert blobs == null : "should not be passed a blob list since we support bulk blob delete";
@@ -34,6 +34,8 @@ import com.zimbra.cs.redolog.op.DeleteVolume;
 import com.zimbra.cs.redolog.op.ModifyVolume;
 import com.zimbra.cs.redolog.op.RedoableOp;
 import com.zimbra.cs.redolog.op.SetCurrentVolume;
+import com.zimbra.cs.store.BlobInputStream;
+import com.zimbra.cs.store.FileDescriptorCache;
 import com.zimbra.cs.store.IncomingDirectory;
 
 public final class VolumeManager {
@@ -62,6 +64,7 @@ public final class VolumeManager {
         try {
             id2volume.putAll(DbVolume.getAll(conn));
             updateSweptDirectories();
+            updateFileDescriptorCacheVolumes();
 
             DbVolume.CurrentVolumes current = DbVolume.getCurrentVolumes(conn);
             if (current == null) {
@@ -105,6 +108,24 @@ public final class VolumeManager {
         IncomingDirectory.setSweptDirectories(dirs);
     }
 
+    /**
+     * Passes the message volume roots to the blob {@link FileDescriptorCache}, which
+     * uses them to enforce its per-volume open file descriptor limit.
+     */
+    public synchronized void updateFileDescriptorCacheVolumes() {
+        FileDescriptorCache fdcache = BlobInputStream.getFileDescriptorCache();
+        if (fdcache == null) {
+            return;
+        }
+        List<String> roots = Lists.newArrayListWithCapacity(id2volume.size());
+        for (Volume vol : id2volume.values()) {
+            if (vol.getType() != Volume.TYPE_INDEX) {
+                roots.add(vol.getRootPath());
+            }
+        }
+        fdcache.setVolumeRoots(roots);
+    }
+
     public Volume create(Volume volume) throws ServiceException {
         return create(volume, false);
     }
@@ -132,6 +153,7 @@ public final class VolumeManager {
                 synchronized (this) {
                     id2volume.put(volume.getId(), volume);
                     updateSweptDirectories();
+                    updateFileDescriptorCacheVolumes();
                 }
             }
         }
@@ -172,6 +194,7 @@ public final class VolumeManager {
                 synchronized (this) {
                     id2volume.put(update.getId(), update);
                     updateSweptDirectories();
+                    updateFileDescriptorCacheVolumes();
                     if (isCurrent(vol)) {
                         updateCurrentVolumeRefs(update, update.getType());
                     }
@@ -236,6 +259,7 @@ public final class VolumeManager {
             synchronized (this) {
                 id2volume.remove(id);
                 updateSweptDirectories();
+                updateFileDescriptorCacheVolumes();
             }
             success = true;
             return deleted;
@@ -67,6 +67,7 @@ import com.zimbra.cs.servlet.util.CsrfUtil;
 import com.zimbra.cs.session.Session;
 import com.zimbra.cs.session.SessionCache;
 import com.zimbra.cs.session.SoapSession;
+import com.zimbra.cs.stats.CommandProfiler;
 import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.AccountUtil;
 import com.zimbra.cs.util.BuildInfo;
@@ -571,6 +572,7 @@ public class SoapEngine {
         if (RedoLogProvider.getInstance().isSlave() && !handler.isReadOnly()) {
             return soapFault(soapProto, "cannot dispatch request", ServiceException.NON_READONLY_OPERATION_DENIED());
         }
+        CommandProfiler.setCommand(getStatName(soapReqElem));
         AuthToken at = zsc.getAuthToken();
         boolean needsAuth = handler.needsAuth(context);
         boolean needsAdminAuth = handler.needsAdminAuth(context);
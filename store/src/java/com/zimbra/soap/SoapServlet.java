@@ -17,6 +17,7 @@
 
 package com.zimbra.soap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -50,10 +51,12 @@ import com.zimbra.common.util.LoadingCacheUtil;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
 import com.zimbra.common.util.RemoteIP;
+import com.zimbra.common.util.Utf8Appendable;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.common.util.ZimbraServletOutputStream;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.servlet.ZimbraServlet;
+import com.zimbra.cs.stats.CommandProfiler;
 import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 
@@ -63,6 +66,9 @@ import com.zimbra.cs.util.Zimbra;
 public class SoapServlet extends ZimbraServlet {
     private static final long serialVersionUID = 38710345271877593L;
 
+    /** Initial size of the buffer for responses sent with a Content-Length. */
+    private static final int RESPONSE_INITIAL_SIZE = 8192;
+
     protected static final String PARAM_ENGINE_HANDLER = "engine.handler.";
 
     /** context name of auth token extracted from cookie */
@@ -212,12 +218,16 @@ public class SoapServlet extends ZimbraServlet {
     @Override public void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         ZimbraLog.clearContext();
         long startTime = ZimbraPerf.STOPWATCH_SOAP.start();
+        boolean profiled = CommandProfiler.begin(CommandProfiler.Protocol.SOAP);
 
         try {
             doWork(req, resp);
         } finally {
             ZimbraLog.clearContext();
             ZimbraPerf.STOPWATCH_SOAP.stop(startTime);
+            if (profiled) {
+                CommandProfiler.end();
+            }
         }
     }
 
@@ -375,12 +385,18 @@ public class SoapServlet extends ZimbraServlet {
             ZimbraServletOutputStream out = new ZimbraServletOutputStream(resp.getOutputStream());
             envelope.output(out);
             out.flush();
+            CommandProfiler.recordBytesWritten(out.getBytesWritten());
         } else {
             // serialize the envelope to a byte array and send the response with Content-Length header.
-            byte[] soapBytes = envelope.toUTF8();
-            resp.setContentLength(soapBytes.length);
-            resp.getOutputStream().write(soapBytes);
+            // Encoding straight to UTF-8 bytes avoids holding the whole response as a String as well.
+            ByteArrayOutputStream soapBytes = new ByteArrayOutputStream(RESPONSE_INITIAL_SIZE);
+            Utf8Appendable out = new Utf8Appendable(soapBytes, RESPONSE_INITIAL_SIZE);
+            envelope.output(out);
+            out.flush();
+            resp.setContentLength(soapBytes.size());
+            soapBytes.writeTo(resp.getOutputStream());
             resp.getOutputStream().flush();
+            CommandProfiler.recordBytesWritten(soapBytes.size());
         }
         envelope.destroy();
     }